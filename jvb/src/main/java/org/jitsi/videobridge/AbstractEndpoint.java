@@ -396,6 +396,17 @@ private void receiverVideoConstraintsChanged(int newMaxHeight)
      */
     public abstract boolean isSendingVideo();
 
+    /**
+     * Whether this endpoint only receives media, like the viewers in a large
+     * conference. Receive-only endpoints are left out of the speech activity
+     * and "LastN" ordering of the conference, so the other endpoints don't
+     * consider them as senders.
+     */
+    public boolean isReceiveOnly()
+    {
+        return false;
+    }
+
     /**
      * Adds a payload type to this endpoint.
      */
@@ -27,6 +27,10 @@
 import org.jitsi.utils.logging2.Logger;
 import org.jitsi.utils.logging2.LoggerImpl;
 import org.jitsi.utils.logging2.*;
+import org.jitsi.videobridge.cc.KeyframeCache;
+import org.jitsi.videobridge.cc.ProjectionGroups;
+import org.jitsi.videobridge.cc.config.BitrateControllerConfig;
+import org.jitsi.videobridge.cc.config.KeyframeCacheConfig;
 import org.jitsi.videobridge.message.*;
 import org.jitsi.videobridge.octo.*;
 import org.jitsi.videobridge.shim.*;
@@ -38,6 +42,7 @@
 import org.jxmpp.stringprep.*;
 
 import java.io.*;
+import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
@@ -85,6 +90,33 @@
      */
     private final AtomicBoolean expired = new AtomicBoolean(false);
 
+    /**
+     * Whether endpoints were added, or started or stopped being receive-only, since the speech activity was last
+     * updated.
+     */
+    private final AtomicBoolean endpointsChangedPending = new AtomicBoolean();
+
+    /**
+     * Whether the sources of an endpoint changed since the bandwidth allocation of the endpoints was last updated.
+     */
+    private final AtomicBoolean sourcesChangedPending = new AtomicBoolean();
+
+    /**
+     * Whether a task which applies the pending membership and source changes has been scheduled and hasn't started
+     * yet.
+     */
+    private final AtomicBoolean membershipUpdateScheduled = new AtomicBoolean();
+
+    /**
+     * The executor on which the pending membership and source changes are applied.
+     */
+    private final Executor membershipUpdateExecutor;
+
+    /**
+     * The scheduler which delays the pending membership and source changes by the batch interval.
+     */
+    private final ScheduledExecutorService membershipUpdateScheduler;
+
     /**
      * The locally unique identifier of this conference (i.e. unique across the
      * conferences on this bridge). It is locally generated and exposed via
@@ -156,12 +188,6 @@
      */
     private ConfOctoTransport tentacle;
 
-    /**
-     * The task of updating the ordered list of endpoints in the conference. It runs periodically in order to adapt to
-     * endpoints stopping or starting to their video streams (which affects the order).
-     */
-    private ScheduledFuture<?> updateLastNEndpointsFuture;
-
     @NotNull
     private final EndpointConnectionStatusMonitor epConnectionStatusMonitor;
 
@@ -172,6 +198,25 @@
     @Nullable
     private final String meetingId;
 
+    /**
+     * The projection groups which allow receivers of the same video at the same quality to share the projection, or
+     * {@code null} if they are disabled.
+     */
+    @Nullable
+    private final ProjectionGroups projectionGroups;
+
+    /**
+     * The cache of the most recent keyframes of the video senders, or {@code null} if keyframes are not cached.
+     */
+    @Nullable
+    private final KeyframeCache keyframeCache;
+
+    /**
+     * Relays the stats of the endpoints in aggregated messages, or {@code null} if stats are not aggregated.
+     */
+    @Nullable
+    private final EndpointStatsAggregator endpointStatsAggregator;
+
     /**
      * Initializes a new <tt>Conference</tt> instance which is to represent a
      * conference in the terms of Jitsi Videobridge which has a specific
@@ -188,12 +233,37 @@ public Conference(Videobridge videobridge,
                       EntityBareJid conferenceName,
                       long gid,
                       @Nullable String meetingId)
+    {
+        this(videobridge, id, conferenceName, gid, meetingId, TaskPools.IO_POOL, TaskPools.SCHEDULED_POOL);
+    }
+
+    /**
+     * Initializes a new <tt>Conference</tt> instance which applies the batched
+     * membership and source changes (see {@link #scheduleMembershipUpdate()})
+     * on a specific executor, after a delay on a specific scheduler.
+     *
+     * @param membershipUpdateExecutor the executor on which the batched
+     * changes are applied
+     * @param membershipUpdateScheduler the scheduler which delays the batched
+     * changes
+     */
+    public Conference(Videobridge videobridge,
+                      String id,
+                      EntityBareJid conferenceName,
+                      long gid,
+                      @Nullable String meetingId,
+                      Executor membershipUpdateExecutor,
+                      ScheduledExecutorService membershipUpdateScheduler)
     {
         if (gid != GID_NOT_SET && (gid < 0 || gid > 0xffff_ffffL))
         {
             throw new IllegalArgumentException("Invalid GID:" + gid);
         }
         this.meetingId = meetingId;
+        this.membershipUpdateExecutor
+            = Objects.requireNonNull(membershipUpdateExecutor, "membershipUpdateExecutor");
+        this.membershipUpdateScheduler
+            = Objects.requireNonNull(membershipUpdateScheduler, "membershipUpdateScheduler");
         this.videobridge = Objects.requireNonNull(videobridge, "videobridge");
         Map<String, String> context = JMap.ofEntries(
             entry("confId", id),
@@ -208,22 +278,15 @@ public Conference(Videobridge videobridge,
         this.gid = gid;
         this.conferenceName = conferenceName;
         this.shim = new ConferenceShim(this, logger);
+        projectionGroups = BitrateControllerConfig.useProjectionGroups()
+            ? new ProjectionGroups(this::requestKeyframe, newDiagnosticContext(), logger)
+            : null;
+        keyframeCache = KeyframeCacheConfig.enabled() ? new KeyframeCache(logger) : null;
+        endpointStatsAggregator = EndpointMessageTransportConfig.config.aggregateEndpointStats()
+            ? new EndpointStatsAggregator(this, logger)
+            : null;
 
         speechActivity = new ConferenceSpeechActivity(new SpeechActivityListener());
-        updateLastNEndpointsFuture = TaskPools.SCHEDULED_POOL.scheduleAtFixedRate(() -> {
-            try
-            {
-                if (speechActivity.updateLastNEndpoints())
-                {
-                    lastNEndpointsChangedAsync();
-                }
-            }
-            catch (Exception e)
-            {
-                logger.warn("Failed to update lastN endpoints:", e);
-            }
-
-        }, 3, 3, TimeUnit.SECONDS);
 
         Videobridge.Statistics videobridgeStatistics = videobridge.getStatistics();
         videobridgeStatistics.totalConferencesCreated.incrementAndGet();
@@ -252,6 +315,33 @@ public DiagnosticContext newDiagnosticContext()
         }
     }
 
+    /**
+     * @return the projection groups of this conference, or {@code null} if they are disabled.
+     */
+    @Nullable
+    public ProjectionGroups getProjectionGroups()
+    {
+        return projectionGroups;
+    }
+
+    /**
+     * @return the keyframe cache of this conference, or {@code null} if keyframes are not cached.
+     */
+    @Nullable
+    public KeyframeCache getKeyframeCache()
+    {
+        return keyframeCache;
+    }
+
+    /**
+     * @return the aggregator of the endpoint stats of this conference, or {@code null} if stats are not aggregated.
+     */
+    @Nullable
+    public EndpointStatsAggregator getEndpointStatsAggregator()
+    {
+        return endpointStatsAggregator;
+    }
+
     /**
      * Gets the statistics of this {@link Conference}.
      *
@@ -276,9 +366,25 @@ public void sendMessage(
         BridgeChannelMessage msg,
         List<AbstractEndpoint> endpoints,
         boolean sendToOcto)
+    {
+        sendMessage(msg, endpoints, null, sendToOcto);
+    }
+
+    /**
+     * Sends a message to the given endpoints other than {@code excluded}, and optionally to Octo.
+     */
+    private void sendMessage(
+        BridgeChannelMessage msg,
+        Iterable<? extends AbstractEndpoint> endpoints,
+        AbstractEndpoint excluded,
+        boolean sendToOcto)
     {
         for (AbstractEndpoint endpoint : endpoints)
         {
+            if (endpoint == excluded)
+            {
+                continue;
+            }
             try
             {
                 endpoint.sendMessage(msg);
@@ -310,6 +416,19 @@ public void sendMessage(BridgeChannelMessage msg, List<AbstractEndpoint> endpoin
         sendMessage(msg, endpoints, false);
     }
 
+    /**
+     * Broadcasts a message to all local endpoints of the conference other than {@code excluded}, iterating over
+     * the (immutable) snapshot of the local endpoints rather than a copy of it. The message is serialized once, and
+     * the serialized form is shared by all the targets.
+     *
+     * @param msg the message to be broadcast.
+     * @param excluded the endpoint (usually the sender) which is not to receive the message, or {@code null}.
+     */
+    public void broadcastMessage(BridgeChannelMessage msg, AbstractEndpoint excluded, boolean sendToOcto)
+    {
+        sendMessage(msg, endpointsCache, excluded, sendToOcto);
+    }
+
     /**
      * Broadcasts a string message to all endpoints of the conference.
      *
@@ -384,24 +503,6 @@ public void describeShallow(ColibriConferenceIQ iq)
         }
     }
 
-    /**
-     * Runs {@link #lastNEndpointsChanged()} in an IO pool thread.
-     */
-    private void lastNEndpointsChangedAsync()
-    {
-        TaskPools.IO_POOL.submit(() ->
-        {
-            try
-            {
-                lastNEndpointsChanged();
-            }
-            catch (Exception e)
-            {
-                logger.warn("Failed to handle change in last N endpoints: ", e);
-            }
-        });
-    }
-
     /**
      * Updates all endpoints with a new list of ordered endpoints in the conference.
      */
@@ -503,15 +604,13 @@ void expire()
 
         epConnectionStatusMonitor.stop();
 
-        if (updateLastNEndpointsFuture != null)
-        {
-            updateLastNEndpointsFuture.cancel(true);
-            updateLastNEndpointsFuture = null;
-        }
-
         logger.debug(() -> "Expiring endpoints.");
         getEndpoints().forEach(AbstractEndpoint::expire);
         speechActivity.expire();
+        if (keyframeCache != null)
+        {
+            keyframeCache.close();
+        }
         if (tentacle != null)
         {
             tentacle.expire();
@@ -662,11 +761,85 @@ public void sourcesChanged()
     }
 
     /**
-     * An endpoint was added or removed.
+     * An endpoint was added or removed, or started or stopped being
+     * receive-only. Receive-only endpoints don't take part in the speech
+     * activity.
+     *
+     * @return {@code true} if the endpoints will be notified that the "LastN"
+     * order changed.
+     */
+    private boolean endpointsChanged()
+    {
+        List<AbstractEndpoint> endpoints = getEndpoints();
+        endpoints.removeIf(AbstractEndpoint::isReceiveOnly);
+        return speechActivity.endpointsChanged(endpoints);
+    }
+
+    /**
+     * Schedules the pending membership and source changes to be applied
+     * together, after {@link ConferenceConfig#getMembershipBatchInterval()}.
+     * When many endpoints join at the same time, the speech activity and the
+     * bandwidth allocation of every endpoint are updated once for all of them,
+     * instead of once for each of them.
+     */
+    private void scheduleMembershipUpdate()
+    {
+        Duration interval = ConferenceConfig.config.membershipBatchInterval();
+        if (interval.isZero())
+        {
+            applyMembershipUpdate();
+        }
+        else if (membershipUpdateScheduled.compareAndSet(false, true))
+        {
+            membershipUpdateScheduler.schedule(
+                    () -> membershipUpdateExecutor.execute(this::applyMembershipUpdate),
+                    interval.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Applies the pending membership and source changes.
+     */
+    private void applyMembershipUpdate()
+    {
+        // Changes after this point schedule a new update.
+        membershipUpdateScheduled.set(false);
+        if (isExpired())
+        {
+            return;
+        }
+
+        try
+        {
+            boolean lastNEndpointsChanged = false;
+            if (endpointsChangedPending.getAndSet(false))
+            {
+                lastNEndpointsChanged = endpointsChanged();
+            }
+            // A change in the "LastN" order already updates the allocation.
+            if (sourcesChangedPending.getAndSet(false) && !lastNEndpointsChanged)
+            {
+                lastNEndpointsChanged();
+            }
+            statistics.membershipUpdates.incrementAndGet();
+        }
+        catch (Throwable t)
+        {
+            logger.warn("Failed to apply the membership changes", t);
+        }
+    }
+
+    /**
+     * An endpoint started or stopped being receive-only.
+     *
+     * @param endpoint the endpoint.
      */
-    private void endpointsChanged()
+    public void endpointReceiveOnlyChanged(AbstractEndpoint endpoint)
     {
-        speechActivity.endpointsChanged(getEndpoints());
+        logger.debug(() -> "Endpoint " + endpoint.getId() + " receive-only: " + endpoint.isReceiveOnly());
+        endpointsChangedPending.set(true);
+        scheduleMembershipUpdate();
     }
 
     /**
@@ -678,7 +851,8 @@ private void endpointsChanged()
     public void endpointSourcesChanged(AbstractEndpoint endpoint)
     {
         // Force an update to be propagated to each endpoint's bitrate controller.
-        lastNEndpointsChanged();
+        sourcesChangedPending.set(true);
+        scheduleMembershipUpdate();
     }
 
     /**
@@ -833,6 +1007,11 @@ void endpointExpired(AbstractEndpoint endpoint)
 
         endpointsById.forEach((i, senderEndpoint) -> senderEndpoint.removeReceiver(id));
 
+        if (keyframeCache != null)
+        {
+            keyframeCache.removeEndpoint(id);
+        }
+
         if (tentacle != null)
         {
             tentacle.endpointExpired(id);
@@ -864,9 +1043,12 @@ public void addEndpoints(Set<AbstractEndpoint> endpoints)
             }
         });
 
+        // The endpoints are available for routing right away, the rest is
+        // batched with the other endpoints which join at the same time.
         updateEndpointsCache();
 
-        endpointsChanged();
+        endpointsChangedPending.set(true);
+        scheduleMembershipUpdate();
     }
 
     /**
@@ -957,11 +1139,11 @@ public ConferenceShim getShim()
      */
     private boolean shouldSendAudio(String sourceEndpointId)
     {
-        DominantSpeakerIdentification<String>.SpeakerRanking ranking = speechActivity.getRanking(sourceEndpointId);
-        if (ranking.isDominant && LoudestConfig.Companion.getAlwaysRouteDominant())
-            return true;
-        if (ranking.energyRanking < LoudestConfig.Companion.getNumLoudest())
+        if (speechActivity.isAudioForwarded(sourceEndpointId))
+        {
             return true;
+        }
+        DominantSpeakerIdentification<String>.SpeakerRanking ranking = speechActivity.getRanking(sourceEndpointId);
         videobridge.getStatistics().tossedPacketsEnergy.addValue(ranking.energyScore);
         return false;
     }
@@ -1055,6 +1237,11 @@ public void handleIncomingPacket(PacketInfo packetInfo)
         {
             // This is identical to the default 'else' below, but it defined
             // because the vast majority of packet will follow this path.
+            if (keyframeCache != null && packet instanceof VideoRtpPacket)
+            {
+                // Before sendOut, which modifies the packet.
+                keyframeCache.add(packetInfo);
+            }
             sendOut(packetInfo);
         }
         else if (packet instanceof RtcpFbPliPacket || packet instanceof RtcpFbFirPacket)
@@ -1063,8 +1250,25 @@ else if (packet instanceof RtcpFbPliPacket || packet instanceof RtcpFbFirPacket)
                 ? ((RtcpFbPliPacket) packet).getMediaSourceSsrc()
                 : ((RtcpFbFirPacket) packet).getMediaSenderSsrc();
 
+            // The receiver may be asking for a keyframe on one of its SSRC
+            // slots, which the sender doesn't know about.
+            String receiverId = packetInfo.getEndpointId();
+            Endpoint receiver = receiverId == null ? null : getLocalEndpoint(receiverId);
+            long sourceSsrc = receiver == null ? mediaSsrc : receiver.getSourceSsrc(mediaSsrc);
+
             // XXX we could make this faster with a map
-            AbstractEndpoint targetEndpoint = findEndpointByReceiveSSRC(mediaSsrc);
+            AbstractEndpoint targetEndpoint = findEndpointByReceiveSSRC(sourceSsrc);
+
+            if (sourceSsrc != mediaSsrc)
+            {
+                // Request the keyframe from the sender instead of relaying
+                // feedback for an SSRC that it doesn't use.
+                if (targetEndpoint != null)
+                {
+                    targetEndpoint.requestKeyframe(sourceSsrc);
+                }
+                return;
+            }
 
             PotentialPacketHandler pph = null;
             if (targetEndpoint instanceof Endpoint)
@@ -1155,6 +1359,18 @@ public JSONObject getDebugState(boolean full, String endpointId)
             debugState.put(
                     "tentacle",
                     tentacle == null ? null : tentacle.getDebugState());
+            if (projectionGroups != null)
+            {
+                debugState.put("projectionGroups", projectionGroups.getDebugState());
+            }
+            if (keyframeCache != null)
+            {
+                debugState.put("keyframeCache", keyframeCache.getDebugState());
+            }
+            if (endpointStatsAggregator != null)
+            {
+                debugState.put("endpointStatsAggregator", endpointStatsAggregator.getDebugState());
+            }
         }
 
         JSONObject endpoints = new JSONObject();
@@ -1236,6 +1452,12 @@ public boolean isInactive()
          */
         AtomicInteger dtlsFailedEndpoints = new AtomicInteger();
 
+        /**
+         * The number of times that a batch of membership and source changes
+         * was applied.
+         */
+        AtomicInteger membershipUpdates = new AtomicInteger();
+
         /**
          * Gets a snapshot of this object's state as JSON.
          */
@@ -1250,6 +1472,7 @@ private JSONObject getJson()
             jsonObject.put("has_failed_endpoint", hasIceFailedEndpoint);
             jsonObject.put("has_succeeded_endpoint", hasIceSucceededEndpoint);
             jsonObject.put("dtls_failed_endpoints", dtlsFailedEndpoints.get());
+            jsonObject.put("membership_updates", membershipUpdates.get());
             return jsonObject;
         }
     }
@@ -22,6 +22,9 @@
 import org.json.simple.*;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 /**
@@ -40,6 +43,13 @@
      */
     public static final int NUM_RECENT_SPEAKERS = 10;
 
+    /**
+     * The maximum time that an audio level waits before it is passed to {@link #dominantSpeakerIdentification}. This
+     * is the packetization interval of audio, so the levels of all senders are processed in a batch about once per
+     * packet.
+     */
+    private static final long AUDIO_LEVEL_BATCH_INTERVAL_MS = 20;
+
     /**
      * The <tt>Logger</tt> used by the <tt>ConferenceSpeechActivity</tt> class
      * and its instances to print debug information.
@@ -61,22 +71,88 @@
     private DominantSpeakerIdentification<String> dominantSpeakerIdentification
             = new DominantSpeakerIdentification<>();
 
+    /**
+     * The ranking returned by {@link #getRanking(String)} once this instance has expired: not dominant, not among the
+     * loudest, and with no energy.
+     */
+    private final DominantSpeakerIdentification<String>.SpeakerRanking expiredRanking
+            = dominantSpeakerIdentification.new SpeakerRanking(false, Integer.MAX_VALUE, 0);
+
     /**
      * The listener to be notified when the dominant speaker or endpoint order changes.
      */
     private Listener listener;
 
     /**
-     * The list of endpoints ordered by speech activity alone with the dominant speaker at the beginning of the list
-     * i.e. the dominant speaker history.
+     * The audio levels received for each endpoint and not yet passed to {@link #dominantSpeakerIdentification}, by
+     * endpoint ID.
+     */
+    private final Map<String, AudioLevels> audioLevels = new ConcurrentHashMap<>();
+
+    /**
+     * Whether a task which processes {@link #audioLevels} has been scheduled and hasn't started yet.
+     */
+    private final AtomicBoolean audioLevelsTaskScheduled = new AtomicBoolean();
+
+    /**
+     * The IDs of the endpoints whose audio is forwarded when routing the loudest only. This is a read-only snapshot
+     * which is replaced whenever it changes, so that the routing decision for each audio packet is a lookup.
+     */
+    private volatile @NotNull Set<String> forwardedAudioEndpoints = Collections.emptySet();
+
+    /**
+     * Serializes the updates of {@link #forwardedAudioEndpoints}.
+     */
+    private final Object forwardedAudioLock = new Object();
+
+    /**
+     * The endpoints ordered by speech activity alone, keyed by their rank. The endpoint with the lowest rank is the
+     * dominant speaker. Moving an endpoint to the top of the list (or adding one at the bottom) only takes a new rank,
+     * so it doesn't require shifting or searching the whole list. Guarded by {@link #syncRoot}.
+     */
+    private final TreeMap<Long, AbstractEndpoint> endpointsByRank = new TreeMap<>();
+
+    /**
+     * The rank of each endpoint in {@link #endpointsByRank}, by endpoint ID. Guarded by {@link #syncRoot}.
+     */
+    private final Map<String, Long> ranksById = new HashMap<>();
+
+    /**
+     * The rank to give to the next endpoint moved to the top of {@link #endpointsByRank}. Guarded by
+     * {@link #syncRoot}.
+     */
+    private long nextTopRank = -1;
+
+    /**
+     * The rank to give to the next endpoint added at the bottom of {@link #endpointsByRank}. Guarded by
+     * {@link #syncRoot}.
      */
-    private final List<AbstractEndpoint> endpointsBySpeechActivity = new ArrayList<>();
+    private long nextBottomRank = 0;
+
+    /**
+     * The endpoint with the lowest rank in {@link #endpointsByRank}, i.e. the dominant speaker.
+     */
+    private volatile AbstractEndpoint dominantEndpoint;
+
+    /**
+     * A read-only snapshot of the endpoints ordered by speech activity alone with the dominant speaker at the
+     * beginning of the list i.e. the dominant speaker history. When {@link #endpointsByRank} changes it is only
+     * marked stale, and it is rebuilt (under {@link #syncRoot}) by the next reader, so that a speaker change doesn't
+     * copy the list. Use {@link #getEndpointsBySpeechActivity()}.
+     */
+    private volatile @NotNull List<AbstractEndpoint> endpointsBySpeechActivity = Collections.emptyList();
+
+    private volatile boolean endpointsBySpeechActivityStale = false;
 
     /**
      * The list of endpoints in "LastN" order. That is, endpoints currently sending video are at the top of the list,
-     * ordered by speech activity, followed by the rest of the endpoints (again in speech activity order).
+     * ordered by speech activity, followed by the rest of the endpoints (again in speech activity order). Like
+     * {@link #endpointsBySpeechActivity}, it is rebuilt by the next reader after a speaker change. Use
+     * {@link #getOrderedEndpoints()}.
      */
-    private @NotNull List<AbstractEndpoint> endpointsInLastNOrder = new ArrayList<>();
+    private volatile @NotNull List<AbstractEndpoint> endpointsInLastNOrder = Collections.emptyList();
+
+    private volatile boolean endpointsInLastNOrderStale = false;
 
     /**
      * The <tt>Object</tt> used to synchronize the access to the state of this
@@ -127,33 +203,93 @@ protected void activeSpeakerChanged(@NotNull String id)
         Objects.requireNonNull(id);
         logger.trace(() -> "The dominant speaker is now " + id + ".");
 
-        boolean endpointListChanged;
+        boolean endpointListChanged = false;
         synchronized (syncRoot)
         {
-            AbstractEndpoint endpoint
-                    = endpointsBySpeechActivity.stream()
-                        .filter(e -> id.equals(e.getId()))
-                        .findFirst().orElse(null);
-            // Move this endpoint to the top of our sorted list
-            if (!endpointsBySpeechActivity.remove(endpoint))
+            Long rank = ranksById.get(id);
+            if (rank == null)
             {
                 logger.warn("Got active speaker notification for an unknown endpoint: " + id + ", ignoring");
                 return;
             }
-            endpointsBySpeechActivity.add(0, endpoint);
 
-            endpointListChanged = updateLastNEndpoints();
+            // Move this endpoint to the top of our sorted list
+            if (rank != endpointsByRank.firstKey().longValue())
+            {
+                AbstractEndpoint endpoint = endpointsByRank.get(rank);
+                endpointListChanged = movesInLastNOrder(endpoint, rank);
+                endpointsByRank.remove(rank);
+                long newRank = nextTopRank--;
+                endpointsByRank.put(newRank, endpoint);
+                ranksById.put(id, newRank);
+                speechActivityOrderChanged();
+                if (endpointListChanged)
+                {
+                    endpointsInLastNOrderStale = true;
+                }
+            }
         }
 
+        final boolean finalEndpointListChanged = endpointListChanged;
         TaskPools.IO_POOL.submit(() -> {
+            // Not on the identification's thread, which may hold its lock.
+            updateForwardedAudio();
             listener.dominantSpeakerChanged();
-            if (endpointListChanged)
+            if (finalEndpointListChanged)
             {
                 listener.lastNEndpointsChanged();
             }
         });
     }
 
+    /**
+     * Marks the snapshot of {@link #endpointsByRank} stale. Must be called with {@link #syncRoot} held.
+     */
+    private void speechActivityOrderChanged()
+    {
+        Map.Entry<Long, AbstractEndpoint> first = endpointsByRank.firstEntry();
+        dominantEndpoint = first == null ? null : first.getValue();
+        endpointsBySpeechActivityStale = true;
+    }
+
+    /**
+     * Gets the snapshot of the endpoints ordered by speech activity, rebuilding it if it is stale.
+     */
+    private @NotNull List<AbstractEndpoint> getEndpointsBySpeechActivity()
+    {
+        if (endpointsBySpeechActivityStale)
+        {
+            synchronized (syncRoot)
+            {
+                if (endpointsBySpeechActivityStale)
+                {
+                    endpointsBySpeechActivity = Collections.unmodifiableList(new ArrayList<>(endpointsByRank.values()));
+                    endpointsBySpeechActivityStale = false;
+                }
+            }
+        }
+        return endpointsBySpeechActivity;
+    }
+
+    /**
+     * Checks whether moving an endpoint to the top of the speech activity order changes the "LastN" order, i.e.
+     * whether a more active speaker is in the same part of the "LastN" list (with or without video). This only walks
+     * the endpoints ranked above it, which are usually few since the new dominant speaker is usually a recent one.
+     * Must be called with {@link #syncRoot} held.
+     */
+    private boolean movesInLastNOrder(@NotNull AbstractEndpoint endpoint, long rank)
+    {
+        boolean hasVideo = endpoint.getVideoType() != VideoType.NONE;
+        for (AbstractEndpoint moreActive : endpointsByRank.headMap(rank, false).values())
+        {
+            if ((moreActive.getVideoType() != VideoType.NONE) == hasVideo)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Re-calculates the list of endpoints in LastN order ({@link #endpointsInLastNOrder}) based on the speech activity
      * and video availability.
@@ -165,22 +301,35 @@ boolean updateLastNEndpoints()
     {
         synchronized (syncRoot)
         {
-            Map<Boolean, List<AbstractEndpoint>> byVideoAvailable
-                    = endpointsBySpeechActivity.stream()
-                        .collect(Collectors.groupingBy(ep -> ep.getVideoType() != VideoType.NONE));
-
-            List<AbstractEndpoint> newEndpointsInLastNOrder = new ArrayList<>(endpointsBySpeechActivity.size());
-            newEndpointsInLastNOrder.addAll(byVideoAvailable.getOrDefault(true, Collections.emptyList()));
-            newEndpointsInLastNOrder.addAll(byVideoAvailable.getOrDefault(false, Collections.emptyList()));
+            List<AbstractEndpoint> newEndpointsInLastNOrder = buildLastNOrder();
+            boolean changed = !newEndpointsInLastNOrder.equals(endpointsInLastNOrder);
+            endpointsInLastNOrder = Collections.unmodifiableList(newEndpointsInLastNOrder);
+            endpointsInLastNOrderStale = false;
+            return changed;
+        }
+    }
 
-            if (!newEndpointsInLastNOrder.equals(endpointsInLastNOrder))
+    /**
+     * Builds the "LastN" order from {@link #endpointsByRank}. Must be called with {@link #syncRoot} held.
+     */
+    private @NotNull List<AbstractEndpoint> buildLastNOrder()
+    {
+        List<AbstractEndpoint> lastNOrder = new ArrayList<>(endpointsByRank.size());
+        for (AbstractEndpoint endpoint : endpointsByRank.values())
+        {
+            if (endpoint.getVideoType() != VideoType.NONE)
             {
-                endpointsInLastNOrder = Collections.unmodifiableList(newEndpointsInLastNOrder);
-                return true;
+                lastNOrder.add(endpoint);
             }
-
-            return false;
         }
+        for (AbstractEndpoint endpoint : endpointsByRank.values())
+        {
+            if (endpoint.getVideoType() == VideoType.NONE)
+            {
+                lastNOrder.add(endpoint);
+            }
+        }
+        return lastNOrder;
     }
 
     void expire()
@@ -193,8 +342,15 @@ void expire()
             }
             this.listener = null;
             this.dominantSpeakerIdentification = null;
-            endpointsBySpeechActivity.clear();
+            endpointsByRank.clear();
+            ranksById.clear();
+            audioLevels.clear();
+            forwardedAudioEndpoints = Collections.emptySet();
+            dominantEndpoint = null;
+            endpointsBySpeechActivity = Collections.emptyList();
+            endpointsBySpeechActivityStale = false;
             endpointsInLastNOrder = Collections.emptyList();
+            endpointsInLastNOrderStale = false;
         }
     }
 
@@ -207,10 +363,7 @@ void expire()
      */
     public AbstractEndpoint getDominantEndpoint()
     {
-        synchronized (syncRoot)
-        {
-            return endpointsBySpeechActivity.isEmpty() ? null : endpointsBySpeechActivity.get(0);
-        }
+        return dominantEndpoint;
     }
 
     /**
@@ -220,6 +373,17 @@ public AbstractEndpoint getDominantEndpoint()
      */
     public List<AbstractEndpoint> getOrderedEndpoints()
     {
+        if (endpointsInLastNOrderStale)
+        {
+            synchronized (syncRoot)
+            {
+                if (endpointsInLastNOrderStale)
+                {
+                    endpointsInLastNOrder = Collections.unmodifiableList(buildLastNOrder());
+                    endpointsInLastNOrderStale = false;
+                }
+            }
+        }
         return endpointsInLastNOrder;
     }
 
@@ -228,14 +392,14 @@ public List<AbstractEndpoint> getOrderedEndpoints()
      */
     public List<String> getSpeakerHistory(int skip, int limit)
     {
-        synchronized (syncRoot)
+        List<AbstractEndpoint> endpointsBySpeechActivity = getEndpointsBySpeechActivity();
+        int end = Math.min(endpointsBySpeechActivity.size(), skip + limit);
+        List<String> speakerHistory = new ArrayList<>(Math.max(0, end - skip));
+        for (int i = skip; i < end; i++)
         {
-            return endpointsBySpeechActivity.stream()
-                    .skip(skip)
-                    .limit(limit)
-                    .map(AbstractEndpoint::getId)
-                    .collect(Collectors.toList());
+            speakerHistory.add(endpointsBySpeechActivity.get(i).getId());
         }
+        return speakerHistory;
     }
 
     /**
@@ -251,70 +415,227 @@ public List<String> getRecentSpeakers()
      */
     public boolean isRecentSpeaker(AbstractEndpoint endpoint)
     {
-        Iterator<AbstractEndpoint> it = endpointsBySpeechActivity.iterator();
-        int i = 0;
-        while (it.hasNext() && i <= NUM_RECENT_SPEAKERS + 1)
+        List<AbstractEndpoint> endpointsBySpeechActivity = getEndpointsBySpeechActivity();
+        int end = Math.min(endpointsBySpeechActivity.size(), NUM_RECENT_SPEAKERS + 2);
+        for (int i = 0; i < end; i++)
         {
-            if (it.next() == endpoint)
+            if (endpointsBySpeechActivity.get(i) == endpoint)
             {
                 return true;
             }
-            i++;
         }
         return false;
     }
 
+    /**
+     * Gets the ranking of an endpoint, as of the last time that the audio levels were processed.
+     */
+    @NotNull
     public DominantSpeakerIdentification<String>.SpeakerRanking getRanking(String endpointId)
     {
-        return dominantSpeakerIdentification.getRanking(endpointId);
+        AudioLevels levels = audioLevels.get(endpointId);
+        DominantSpeakerIdentification<String>.SpeakerRanking ranking = levels == null ? null : levels.ranking;
+        if (ranking != null)
+        {
+            return ranking;
+        }
+
+        DominantSpeakerIdentification<String> dsi = this.dominantSpeakerIdentification;
+        return dsi == null ? expiredRanking : dsi.getRanking(endpointId);
     }
 
     /**
-     * Notifies this instance that a new audio level was received or measured by an <tt>Endpoint</tt>.
+     * Notifies this instance that a new audio level was received or measured by an <tt>Endpoint</tt>. The level is
+     * queued and passed to the dominant speaker identification in a batch, within
+     * {@link #AUDIO_LEVEL_BATCH_INTERVAL_MS}, so that the receive threads of the endpoints don't contend on it.
      *
      * @param endpoint the endpoint for which a new audio level was received or measured
      * @param level the new audio level which was received or measured
      */
     public void levelChanged(@NotNull AbstractEndpoint endpoint, long level)
     {
+        if (dominantSpeakerIdentification == null)
+        {
+            return;
+        }
+
+        AudioLevels levels = audioLevels.get(endpoint.getId());
+        if (levels == null)
+        {
+            levels = audioLevels.computeIfAbsent(endpoint.getId(), AudioLevels::new);
+        }
+        levels.add((int) level);
+
+        if (!audioLevelsTaskScheduled.get() && audioLevelsTaskScheduled.compareAndSet(false, true))
+        {
+            TaskPools.SCHEDULED_POOL.schedule(
+                    this::processAudioLevels,
+                    AUDIO_LEVEL_BATCH_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Passes the queued audio levels of all endpoints to the dominant speaker identification, and updates the
+     * rankings that {@link #getRanking(String)} returns.
+     */
+    private void processAudioLevels()
+    {
+        // Levels added after this point schedule a new task.
+        audioLevelsTaskScheduled.set(false);
+
+        DominantSpeakerIdentification<String> dsi = this.dominantSpeakerIdentification;
+        if (dsi == null)
+        {
+            return;
+        }
+
+        try
+        {
+            boolean levelsChanged = false;
+            for (AudioLevels levels : audioLevels.values())
+            {
+                if (levels.drain(level -> dsi.levelChanged(levels.endpointId, level)) > 0)
+                {
+                    levelsChanged = true;
+                }
+            }
+            if (levelsChanged)
+            {
+                updateForwardedAudio();
+            }
+        }
+        catch (Throwable t)
+        {
+            logger.warn("Failed to process audio levels", t);
+        }
+    }
+
+    /**
+     * Re-calculates the rankings of all endpoints and the set of endpoints whose audio is forwarded when routing
+     * the loudest only. The energy rankings are relative, so any change in levels or in the dominant speaker may
+     * affect all of them.
+     */
+    private void updateForwardedAudio()
+    {
+        if (!LoudestConfig.Companion.getRouteLoudestOnly())
+        {
+            return;
+        }
+
+        synchronized (forwardedAudioLock)
+        {
+            DominantSpeakerIdentification<String> dsi = this.dominantSpeakerIdentification;
+            if (dsi == null)
+            {
+                return;
+            }
+
+            boolean alwaysRouteDominant = LoudestConfig.Companion.getAlwaysRouteDominant();
+            int numLoudest = LoudestConfig.Companion.getNumLoudest();
+            Set<String> newForwardedAudioEndpoints = new HashSet<>();
+            for (AudioLevels levels : audioLevels.values())
+            {
+                DominantSpeakerIdentification<String>.SpeakerRanking ranking = dsi.getRanking(levels.endpointId);
+                levels.ranking = ranking;
+                if ((ranking.isDominant && alwaysRouteDominant) || ranking.energyRanking < numLoudest)
+                {
+                    newForwardedAudioEndpoints.add(levels.endpointId);
+                }
+            }
+
+            if (!newForwardedAudioEndpoints.equals(forwardedAudioEndpoints))
+            {
+                forwardedAudioEndpoints = Collections.unmodifiableSet(newForwardedAudioEndpoints);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the audio of an endpoint is to be forwarded when routing the loudest only. This is normally
+     * decided by the snapshot taken the last time that the audio levels were processed, but the snapshot lags behind
+     * by up to {@link #AUDIO_LEVEL_BATCH_INTERVAL_MS}. So a new dominant speaker, or an endpoint which hasn't been
+     * ranked yet, is checked against the live state instead, so that the beginning of its speech isn't dropped.
+     */
+    public boolean isAudioForwarded(String endpointId)
+    {
+        if (forwardedAudioEndpoints.contains(endpointId))
+        {
+            return true;
+        }
+
+        boolean alwaysRouteDominant = LoudestConfig.Companion.getAlwaysRouteDominant();
+        AbstractEndpoint dominantEndpoint = getDominantEndpoint();
+        if (alwaysRouteDominant && dominantEndpoint != null && dominantEndpoint.getId().equals(endpointId))
+        {
+            return true;
+        }
+
+        AudioLevels levels = audioLevels.get(endpointId);
+        if (levels == null || levels.ranking != null)
+        {
+            // It either hasn't sent any levels, or it's in the snapshot.
+            return false;
+        }
+
         DominantSpeakerIdentification<String> dsi = this.dominantSpeakerIdentification;
-        if (dsi != null)
+        if (dsi == null)
         {
-            dominantSpeakerIdentification.levelChanged(endpoint.getId(), (int) level);
+            return false;
         }
+        DominantSpeakerIdentification<String>.SpeakerRanking ranking = dsi.getRanking(endpointId);
+        return (ranking.isDominant && alwaysRouteDominant)
+            || ranking.energyRanking < LoudestConfig.Companion.getNumLoudest();
     }
 
     /**
      * Notifies this instance that the list of endpoints changed.
+     *
+     * @return {@code true} if the listener will be notified that the "LastN" order changed.
      */
-    public void endpointsChanged(List<AbstractEndpoint> conferenceEndpoints)
+    public boolean endpointsChanged(List<AbstractEndpoint> conferenceEndpoints)
     {
         boolean endpointsListChanged = false;
         boolean dominantSpeakerChanged = false;
         // The list of endpoints may have changed, sync our list to make sure it matches.
         synchronized (syncRoot)
         {
+            AbstractEndpoint previousDominantSpeaker = getDominantEndpoint();
+
             // Remove any endpoints we have that are no longer in the conference
-            AbstractEndpoint previousDominantSpeaker
-                    = endpointsBySpeechActivity.isEmpty() ? null : endpointsBySpeechActivity.get(0);
-            endpointsListChanged = endpointsBySpeechActivity.removeIf(ep -> !conferenceEndpoints.contains(ep));
+            Set<AbstractEndpoint> conferenceEndpointsSet = new HashSet<>(conferenceEndpoints);
+            Iterator<AbstractEndpoint> it = endpointsByRank.values().iterator();
+            while (it.hasNext())
+            {
+                AbstractEndpoint endpoint = it.next();
+                if (!conferenceEndpointsSet.contains(endpoint))
+                {
+                    it.remove();
+                    ranksById.remove(endpoint.getId());
+                    audioLevels.remove(endpoint.getId());
+                    endpointsListChanged = true;
+                }
+            }
+
             // Add any endpoints from the conf we don't have to the end of our list
             for (AbstractEndpoint conferenceEndpoint : conferenceEndpoints)
             {
-                if (!endpointsBySpeechActivity.contains(conferenceEndpoint))
+                if (!ranksById.containsKey(conferenceEndpoint.getId()))
                 {
-                    endpointsBySpeechActivity.add(conferenceEndpoint);
+                    long rank = nextBottomRank++;
+                    endpointsByRank.put(rank, conferenceEndpoint);
+                    ranksById.put(conferenceEndpoint.getId(), rank);
                     endpointsListChanged = true;
                 }
             }
-            AbstractEndpoint newDominantSpeaker
-                    = endpointsBySpeechActivity.isEmpty() ? null : endpointsBySpeechActivity.get(0);
-            dominantSpeakerChanged = !Objects.equals(previousDominantSpeaker, newDominantSpeaker);
 
             if (endpointsListChanged)
             {
+                speechActivityOrderChanged();
                 endpointsListChanged = updateLastNEndpoints();
             }
+
+            dominantSpeakerChanged = !Objects.equals(previousDominantSpeaker, getDominantEndpoint());
         }
 
         if (dominantSpeakerChanged || endpointsListChanged)
@@ -324,7 +645,7 @@ public void endpointsChanged(List<AbstractEndpoint> conferenceEndpoints)
             final Listener listener = this.listener;
             if (listener == null)
             {
-                return;
+                return false;
             }
             TaskPools.IO_POOL.submit(() -> {
                 if (finalDominantSpeakerChanged)
@@ -337,8 +658,16 @@ public void endpointsChanged(List<AbstractEndpoint> conferenceEndpoints)
                 }
             });
         }
+
+        return endpointsListChanged;
     }
 
+    /**
+     * Notifies this instance that the video availability of an endpoint (i.e. its video type, or whether it has any
+     * video sources) may have changed. The "LastN" order only depends on the speech activity and the video
+     * availability, so this is what keeps it up to date (along with {@link #endpointsChanged(List)} and speaker
+     * changes).
+     */
     public void endpointVideoAvailabilityChanged()
     {
         boolean endpointsListChanged;
@@ -346,7 +675,8 @@ public void endpointVideoAvailabilityChanged()
         {
             endpointsListChanged = updateLastNEndpoints();
         }
-        if (endpointsListChanged)
+        final Listener listener = this.listener;
+        if (endpointsListChanged && listener != null)
         {
             TaskPools.IO_POOL.submit(() -> {
                 try
@@ -374,17 +704,97 @@ public JSONObject getDebugState()
         debugState.put("dominantEndpoint", dominantEndpoint == null ? "null" : dominantEndpoint.getId());
         DominantSpeakerIdentification<String> dsi = this.dominantSpeakerIdentification;
         debugState.put("dominantSpeakerIdentification", dsi == null ? null : dsi.doGetJSON());
-        synchronized (syncRoot)
+        debugState.put(
+                "endpointsBySpeechActivity",
+                getEndpointsBySpeechActivity().stream().map(AbstractEndpoint::getId).collect(Collectors.toList()));
+        debugState.put(
+                "endpointsInLastNOrder",
+                getOrderedEndpoints().stream().map(AbstractEndpoint::getId).collect(Collectors.toList()));
+
+        return debugState;
+    }
+
+    /**
+     * The audio levels of an endpoint which haven't been processed yet. This is a fixed-size ring which is lock-free
+     * for both the producers and the consumer. If the consumer falls behind by more than {@link #CAPACITY} levels, the
+     * oldest levels are dropped.
+     */
+    static class AudioLevels
+    {
+        static final int CAPACITY = 32;
+
+        private static final int MASK = CAPACITY - 1;
+
+        final String endpointId;
+
+        /**
+         * Each element holds a level in its low 8 bits, and the index at which it was written in the rest, so that
+         * the consumer can tell elements which haven't been written yet from elements which have been overwritten.
+         */
+        private final AtomicLongArray ring = new AtomicLongArray(CAPACITY);
+
+        private final AtomicLong writeIndex = new AtomicLong();
+
+        /**
+         * The index of the next element to read. Guarded by {@code this}.
+         */
+        private long readIndex = 0;
+
+        /**
+         * The ranking of the endpoint as of the last time that its levels were processed.
+         */
+        volatile DominantSpeakerIdentification<String>.SpeakerRanking ranking;
+
+        AudioLevels(String endpointId)
         {
-            debugState.put(
-                    "endpointsBySpeechActivity",
-                    endpointsBySpeechActivity.stream().map(AbstractEndpoint::getId).collect(Collectors.toList()));
-            debugState.put(
-                    "endpointsInLastNOrder",
-                    endpointsInLastNOrder.stream().map(AbstractEndpoint::getId).collect(Collectors.toList()));
+            this.endpointId = endpointId;
+            for (int i = 0; i < CAPACITY; i++)
+            {
+                // Mark the elements as not written (their index is before any index).
+                ring.set(i, -1L << 8);
+            }
         }
 
-        return debugState;
+        void add(int level)
+        {
+            long index = writeIndex.getAndIncrement();
+            ring.set((int) (index & MASK), (index << 8) | (level & 0xff));
+        }
+
+        /**
+         * Passes the levels which were added since the last call to {@code consumer}, in order. Only the consumer
+         * synchronizes, so this doesn't block the producers.
+         *
+         * @return the number of levels passed to {@code consumer}.
+         */
+        synchronized int drain(IntConsumer consumer)
+        {
+            long end = writeIndex.get();
+            if (end - readIndex > CAPACITY)
+            {
+                readIndex = end - CAPACITY;
+            }
+
+            int count = 0;
+            while (readIndex < end)
+            {
+                long value = ring.get((int) (readIndex & MASK));
+                long index = value >> 8;
+                if (index < readIndex)
+                {
+                    // Not written yet. It will be read on the next call.
+                    break;
+                }
+                if (index == readIndex)
+                {
+                    consumer.accept((int) (value & 0xff));
+                    count++;
+                }
+                // Otherwise it was overwritten by a later level, which we'll get to.
+                readIndex++;
+            }
+            return count;
+        }
     }
 
     interface Listener
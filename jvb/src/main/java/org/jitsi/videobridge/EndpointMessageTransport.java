@@ -15,6 +15,7 @@
  */
 package org.jitsi.videobridge;
 
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.jetbrains.annotations.*;
 import org.jitsi.utils.logging2.*;
 import org.jitsi.videobridge.datachannel.*;
@@ -25,6 +26,7 @@
 import org.json.simple.*;
 
 import java.lang.ref.*;
+import java.nio.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
@@ -79,6 +81,41 @@
     @NotNull
     private final Endpoint endpoint;
 
+    /**
+     * The messages to be sent over the active transport channel.
+     */
+    private final OutgoingMessageQueue outgoingMessageQueue;
+
+    /**
+     * The number of messages sent over {@link #webSocket} which haven't been written yet.
+     */
+    private final AtomicInteger pendingWebSocketWrites = new AtomicInteger();
+
+    /**
+     * Whether the endpoint negotiated the binary encoding for the messages that we send to it.
+     */
+    private volatile boolean binaryEncoding = false;
+
+    /**
+     * Whether the endpoint negotiated receiving several messages in a single web socket frame.
+     */
+    private volatile boolean batchedMessages = false;
+
+    /**
+     * The number of frames sent over {@link #webSocket}.
+     */
+    private final AtomicLong numWebSocketFramesSent = new AtomicLong();
+
+    /**
+     * The number of bytes (before compression) sent over {@link #webSocket}.
+     */
+    private final AtomicLong numWebSocketBytesSent = new AtomicLong();
+
+    /**
+     * The number of messages sent over {@link #webSocket}, in single or batched frames.
+     */
+    private final AtomicLong numWebSocketMessagesSent = new AtomicLong();
+
     /**
      * Initializes a new {@link EndpointMessageTransport} instance.
      * @param endpoint the associated {@link Endpoint}.
@@ -97,6 +134,10 @@
         this.endpoint = endpoint;
         this.statisticsSupplier = statisticsSupplier;
         this.eventHandler = eventHandler;
+        this.outgoingMessageQueue = new OutgoingMessageQueue(
+            new MessageSender(),
+            getLogger(),
+            config.maxQueuedMessages());
     }
 
     /**
@@ -121,7 +162,25 @@ public BridgeChannelMessage clientHello(ClientHelloMessage message)
         // remote endpoint and the Videobridge is operational.
         // We take care to send the reply using the same transport channel on
         // which we received the request..
-        return createServerHello();
+        Set<String> capabilities = new HashSet<>();
+        if (message.supports(ClientHelloMessage.AGGREGATED_ENDPOINT_STATS) && config.aggregateEndpointStats())
+        {
+            capabilities.add(ClientHelloMessage.AGGREGATED_ENDPOINT_STATS);
+        }
+        if (message.supports(ClientHelloMessage.BINARY_ENCODING) && config.allowBinaryEncoding())
+        {
+            capabilities.add(ClientHelloMessage.BINARY_ENCODING);
+        }
+        if (message.supports(ClientHelloMessage.BATCHED_MESSAGES) && config.allowBatchedMessages())
+        {
+            capabilities.add(ClientHelloMessage.BATCHED_MESSAGES);
+        }
+        endpoint.setAcceptsAggregatedStats(capabilities.contains(ClientHelloMessage.AGGREGATED_ENDPOINT_STATS));
+        binaryEncoding = capabilities.contains(ClientHelloMessage.BINARY_ENCODING);
+        batchedMessages = capabilities.contains(ClientHelloMessage.BATCHED_MESSAGES);
+
+        // Only confirm the capabilities to clients which asked for any.
+        return createServerHello(message.getCapabilities() == null ? null : capabilities);
     }
 
     @Override
@@ -167,7 +226,14 @@ else if (dst instanceof DataChannel)
      */
     private void sendMessage(DataChannel dst, BridgeChannelMessage message)
     {
-        dst.sendString(message.toJson());
+        if (useBinaryEncoding(message))
+        {
+            dst.sendBinary(message.toCbor());
+        }
+        else
+        {
+            dst.sendString(message.toJsonBytes());
+        }
         statisticsSupplier.get().totalDataChannelMessagesSent.incrementAndGet();
     }
 
@@ -177,12 +243,80 @@ private void sendMessage(DataChannel dst, BridgeChannelMessage message)
      * @param message the message to send.
      */
     private void sendMessage(ColibriWebSocket dst, BridgeChannelMessage message)
+    {
+        if (useBinaryEncoding(message))
+        {
+            sendFrame(dst, null, message.toCbor(), 1);
+        }
+        else
+        {
+            sendFrame(dst, message.toJson(), null, 1);
+        }
+    }
+
+    /**
+     * Sends several messages in a single frame via a particular {@link ColibriWebSocket} instance. The endpoint must
+     * have negotiated {@link ClientHelloMessage#BATCHED_MESSAGES}.
+     */
+    private void sendBatch(ColibriWebSocket dst, List<? extends BridgeChannelMessage> messages)
+    {
+        if (binaryEncoding)
+        {
+            sendFrame(dst, null, BridgeChannelMessage.batchToCbor(messages), messages.size());
+        }
+        else
+        {
+            sendFrame(dst, BridgeChannelMessage.batchToJson(messages), null, messages.size());
+        }
+    }
+
+    /**
+     * Sends a text (if {@code text} is not {@code null}) or binary frame via a particular {@link ColibriWebSocket}.
+     * @param numMessages the number of messages in the frame.
+     */
+    private void sendFrame(ColibriWebSocket dst, String text, byte[] binary, int numMessages)
     {
         // We'll use the async version of sendString since this may be called
         // from multiple threads.  It's just fire-and-forget though, so we
         // don't wait on the result
-        dst.getRemote().sendStringByFuture(message.toJson());
-        statisticsSupplier.get().totalColibriWebSocketMessagesSent.incrementAndGet();
+        pendingWebSocketWrites.incrementAndGet();
+        WriteCallback callback = new WriteCallback()
+        {
+            @Override
+            public void writeFailed(Throwable x)
+            {
+                pendingWebSocketWrites.decrementAndGet();
+            }
+
+            @Override
+            public void writeSuccess()
+            {
+                pendingWebSocketWrites.decrementAndGet();
+            }
+        };
+        if (text != null)
+        {
+            dst.getRemote().sendString(text, callback);
+            // Close enough, the messages are mostly ASCII.
+            numWebSocketBytesSent.addAndGet(text.length());
+        }
+        else
+        {
+            dst.getRemote().sendBytes(ByteBuffer.wrap(binary), callback);
+            numWebSocketBytesSent.addAndGet(binary.length);
+        }
+        numWebSocketFramesSent.incrementAndGet();
+        numWebSocketMessagesSent.addAndGet(numMessages);
+        statisticsSupplier.get().totalColibriWebSocketMessagesSent.addAndGet(numMessages);
+    }
+
+    /**
+     * Whether to send a message in the binary encoding. The {@link ServerHelloMessage} is always sent in JSON, because
+     * it is what tells the client whether the binary encoding was accepted.
+     */
+    private boolean useBinaryEncoding(BridgeChannelMessage message)
+    {
+        return binaryEncoding && !(message instanceof ServerHelloMessage);
     }
 
     @Override
@@ -196,26 +330,90 @@ public void onDataChannelMessage(DataChannelMessage dataChannelMessage)
             DataChannelStringMessage dataChannelStringMessage = (DataChannelStringMessage)dataChannelMessage;
             onMessage(dataChannel.get(), dataChannelStringMessage.data);
         }
+        else if (dataChannelMessage instanceof DataChannelBinaryMessage)
+        {
+            byte[] data = ((DataChannelBinaryMessage) dataChannelMessage).data;
+            onMessage(dataChannel.get(), data, 0, data.length);
+        }
     }
 
     /**
      * {@inheritDoc}
+     *
+     * The message is queued, and may be conflated with (i.e. superseded by) a later message of the same kind.
      */
     @Override
     protected void sendMessage(@NotNull BridgeChannelMessage msg)
+    {
+        outgoingMessageQueue.add(msg);
+    }
+
+    /**
+     * Sends messages from {@link #outgoingMessageQueue} over the active transport channel. The messages are sent in
+     * a single frame if the active channel is the web socket and the endpoint negotiated batching.
+     */
+    private OutgoingMessageQueue.SendResult doSendMessages(@NotNull List<? extends BridgeChannelMessage> messages)
     {
         Object dst = getActiveTransportChannel();
         if (dst == null)
         {
             getLogger().debug("No available transport channel, can't send a message");
             numOutgoingMessagesDropped.incrementAndGet();
+            return OutgoingMessageQueue.SendResult.FAILED;
         }
-        else
+
+        if (dst instanceof ColibriWebSocket
+            && pendingWebSocketWrites.get() >= config.maxPendingWebSocketWrites())
+        {
+            return OutgoingMessageQueue.SendResult.CONGESTED;
+        }
+
+        for (BridgeChannelMessage msg : messages)
         {
             sentMessagesCounts.computeIfAbsent(
                     msg.getClass().getSimpleName(),
                     (k) -> new AtomicLong()).incrementAndGet();
-            sendMessage(dst, msg);
+        }
+
+        if (messages.size() > 1 && batchedMessages && dst instanceof ColibriWebSocket)
+        {
+            messages.forEach(msg -> super.sendMessage(dst, msg)); // Log messages
+            sendBatch((ColibriWebSocket) dst, messages);
+        }
+        else
+        {
+            messages.forEach(msg -> sendMessage(dst, msg));
+        }
+        return OutgoingMessageQueue.SendResult.SENT;
+    }
+
+    /**
+     * Sends the messages of {@link #outgoingMessageQueue}, batching them when the endpoint negotiated it.
+     */
+    private class MessageSender
+        implements OutgoingMessageQueue.Sender
+    {
+        @Override
+        public OutgoingMessageQueue.SendResult send(@NotNull List<? extends BridgeChannelMessage> messages)
+        {
+            return doSendMessages(messages);
+        }
+
+        @Override
+        public int getMaxBatchSize()
+        {
+            return isBatching() ? config.maxBatchSize() : 1;
+        }
+
+        @Override
+        public long getBatchDelayMs()
+        {
+            return isBatching() ? config.batchInterval().toMillis() : 0;
+        }
+
+        private boolean isBatching()
+        {
+            return batchedMessages && getActiveTransportChannel() instanceof ColibriWebSocket;
         }
     }
 
@@ -295,14 +493,21 @@ public void webSocketConnected(ColibriWebSocket ws)
     }
 
     private ServerHelloMessage createServerHello()
+    {
+        return createServerHello(null);
+    }
+
+    private ServerHelloMessage createServerHello(Set<String> capabilities)
     {
         if (config.announceVersion())
         {
-            return new ServerHelloMessage(endpoint.getConference().getVideobridge().getVersion().toString());
+            return new ServerHelloMessage(
+                endpoint.getConference().getVideobridge().getVersion().toString(),
+                capabilities);
         }
         else
         {
-            return new ServerHelloMessage();
+            return new ServerHelloMessage(null, capabilities);
         }
     }
 
@@ -330,6 +535,7 @@ public void webSocketClosed(ColibriWebSocket ws, int statusCode, String reason)
     @Override
     protected void close()
     {
+        outgoingMessageQueue.close();
         synchronized (webSocketSyncRoot)
         {
             if (webSocket != null)
@@ -361,6 +567,24 @@ public void webSocketTextReceived(ColibriWebSocket ws, String message)
         onMessage(ws, message);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void webSocketBinaryReceived(ColibriWebSocket ws, byte[] payload, int offset, int length)
+    {
+        if (ws == null || !ws.equals(webSocket))
+        {
+            getLogger().warn("Received binary data from an unknown web socket.");
+            return;
+        }
+
+        statisticsSupplier.get().totalColibriWebSocketMessagesReceived.incrementAndGet();
+
+        webSocketLastActive = true;
+        onMessage(ws, payload, offset, length);
+    }
+
     /**
      * Sets the data channel for this endpoint.
      * @param dataChannel the {@link DataChannel} to use for this transport
@@ -399,6 +623,17 @@ public JSONObject getDebugState()
     {
         JSONObject debugState = super.getDebugState();
         debugState.put("numOutgoingMessagesDropped", numOutgoingMessagesDropped.get());
+        debugState.put("outgoing_queue", outgoingMessageQueue.getDebugState());
+
+        long numFrames = numWebSocketFramesSent.get();
+        JSONObject webSocketStats = new JSONObject();
+        webSocketStats.put("frames_sent", numFrames);
+        webSocketStats.put("bytes_sent", numWebSocketBytesSent.get());
+        webSocketStats.put("messages_sent", numWebSocketMessagesSent.get());
+        webSocketStats.put(
+            "messages_per_frame",
+            numFrames > 0 ? (double) numWebSocketMessagesSent.get() / numFrames : 0);
+        debugState.put("websocket", webSocketStats);
 
         JSONObject sentCounts = new JSONObject();
         sentCounts.putAll(sentMessagesCounts);
@@ -509,9 +744,8 @@ public BridgeChannelMessage endpointMessage(EndpointMessage message)
         if (message.isBroadcast())
         {
             // Broadcast message to all local endpoints + octo.
-            targets = new LinkedList<>(conference.getLocalEndpoints());
-            targets.remove(endpoint);
-            sendToOcto = true;
+            conference.broadcastMessage(message, endpoint, true);
+            return null;
         }
         else
         {
@@ -561,11 +795,25 @@ public BridgeChannelMessage endpointStats(@NotNull EndpointStats message)
             return null;
         }
 
+        if (endpoint.isReceiveOnly())
+        {
+            // Nobody receives media from a receive-only endpoint, so its stats
+            // would only be filtered out by every other endpoint.
+            return null;
+        }
+
+        // The endpoints which accept aggregated stats get them from the aggregator.
         List<AbstractEndpoint> targets = conference.getLocalEndpoints().stream()
-            .filter((ep) -> ep != endpoint && ep.wantsStatsFrom(endpoint))
+            .filter((ep) -> ep != endpoint && !ep.getAcceptsAggregatedStats() && ep.wantsStatsFrom(endpoint))
             .collect(Collectors.toList());
 
         conference.sendMessage(message, targets, true);
+
+        EndpointStatsAggregator endpointStatsAggregator = conference.getEndpointStatsAggregator();
+        if (endpointStatsAggregator != null)
+        {
+            endpointStatsAggregator.add(message);
+        }
         return null;
     }
 }
@@ -377,6 +377,13 @@ public IQ handleColibriConferenceIQ(ColibriConferenceIQ conferenceIq)
      */
     private void handleColibriRequest(XmppConnection.ColibriRequest request)
     {
+        ColibriRequestExecutor colibriRequestExecutor = ColibriRequestExecutor.getInstance();
+        // Shed the load before creating a conference for the request.
+        if (!colibriRequestExecutor.admit(request))
+        {
+            return;
+        }
+
         ColibriConferenceIQ conferenceIq = request.getRequest();
         Conference conference;
         try
@@ -385,7 +392,8 @@ private void handleColibriRequest(XmppConnection.ColibriRequest request)
         }
         catch (ConferenceNotFoundException e)
         {
-            request.getCallback().invoke(
+            colibriRequestExecutor.reject(
+                    request,
                     IQUtils.createError(
                             conferenceIq,
                             XMPPError.Condition.bad_request,
@@ -394,7 +402,21 @@ private void handleColibriRequest(XmppConnection.ColibriRequest request)
         }
         catch (InGracefulShutdownException e)
         {
-            request.getCallback().invoke(ColibriConferenceIQ.createGracefulShutdownErrorResponse(conferenceIq));
+            colibriRequestExecutor.reject(
+                    request,
+                    ColibriConferenceIQ.createGracefulShutdownErrorResponse(conferenceIq));
+            return;
+        }
+        catch (Throwable t)
+        {
+            // The request was admitted, so it must be answered to release its slot.
+            logger.warn("Failed to get or create a conference for a colibri request", t);
+            colibriRequestExecutor.reject(
+                    request,
+                    IQUtils.createError(
+                            conferenceIq,
+                            XMPPError.Condition.internal_server_error,
+                            t.getMessage()));
             return;
         }
 
@@ -21,15 +21,18 @@
 import org.jitsi.nlj.rtp.*;
 import org.jitsi.nlj.rtp.codec.vp8.*;
 import org.jitsi.rtp.rtcp.*;
+import org.jitsi.rtp.util.*;
 import org.jitsi.utils.collections.*;
 import org.jitsi.utils.logging.*;
 import org.jitsi.utils.logging2.Logger;
 import org.jitsi.videobridge.cc.vp8.*;
 import org.jitsi.videobridge.cc.vp9.*;
+import org.jitsi.videobridge.util.ByteBufferPool;
 import org.json.simple.*;
 
 import java.lang.*;
 import java.util.*;
+import java.util.function.*;
 
 /**
  * Filters the packets coming from a specific {@link MediaSourceDesc}
@@ -69,6 +72,20 @@
      */
     private final long targetSsrc;
 
+    /**
+     * The main SSRC of the source. It is the same as {@link #targetSsrc},
+     * unless the source is projected onto an SSRC slot of the receiver.
+     */
+    private final long sourceSsrc;
+
+    /**
+     * The state to initialize the first context with, or {@code null} to
+     * start from scratch. It continues the sequence numbers and timestamps of
+     * the previous projection onto the same SSRC slot.
+     */
+    @Nullable
+    private final RtpState initialRtpState;
+
     private final DiagnosticContext diagnosticContext;
 
     /**
@@ -85,8 +102,11 @@
      * the context final (=> create it during construction) because we need a
      * payload type (could be VP9, could be H264, could be VP8) so it has to be
      * created on packet arrival.
+     *
+     * It is only replaced by the accepting thread, and it is read without
+     * locking by the threads that rewrite packets.
      */
-    private AdaptiveSourceProjectionContext context;
+    private volatile AdaptiveSourceProjectionContext context;
 
     /**
      * The payload type that was used to determine the {@link #context} type.
@@ -96,10 +116,84 @@
     /**
      * The target quality index for this source projection.
      */
-    private int targetIndex = RtpLayerDesc.SUSPENDED_INDEX;
+    private volatile int targetIndex = RtpLayerDesc.SUSPENDED_INDEX;
 
     private final Map<Byte, PayloadType> payloadTypes;
 
+    /**
+     * The ID of the endpoint that sends the source.
+     */
+    private final String sourceEndpointId;
+
+    /**
+     * The projection groups of the conference, or {@code null} if receivers
+     * don't share projections.
+     */
+    @Nullable
+    private final ProjectionGroups projectionGroups;
+
+    /**
+     * The membership of this projection in a group, if any. While it is set,
+     * the accept decisions and the rewriting are delegated to the group, and
+     * {@link #context} is not used.
+     *
+     * It is only set by the accepting thread, and cleared by the accepting
+     * thread or by {@link #close()}. Modifications are guarded by
+     * {@code this}.
+     */
+    private volatile GroupMembership membership;
+
+    /**
+     * The state that was handed over when this projection left its group,
+     * used to initialize the first private context.
+     */
+    private volatile RtpState groupHandoffRtpState;
+
+    /**
+     * The rewriter of the packets that were accepted before this projection
+     * last joined or left a group, so that packets which are rewritten after
+     * the switch are still rewritten consistently with their accept decision.
+     */
+    private volatile Handoff handoff;
+
+    /**
+     * The source SSRC and sequence number of the last accepted packet. Only
+     * accessed by the accepting thread.
+     */
+    private long lastAcceptedSsrc = -1;
+    private int lastAcceptedSequenceNumber = -1;
+
+    /**
+     * The cache of recent keyframes to start forwarding from, or {@code null}
+     * if keyframes are not cached.
+     */
+    @Nullable
+    private final KeyframeCache keyframeCache;
+
+    /**
+     * Sends the (already rewritten) packets replayed from
+     * {@link #keyframeCache} to the receiver.
+     */
+    @Nullable
+    private final Consumer<PacketInfo> replayedPacketSender;
+
+    /**
+     * Whether this projection has accepted any packet. Only accessed by the
+     * accepting thread.
+     */
+    private boolean acceptedAny = false;
+
+    /**
+     * The SSRC for which a replay from {@link #keyframeCache} was last
+     * attempted. Only accessed by the accepting thread.
+     */
+    private long replayAttemptedSsrc = -1;
+
+    /**
+     * Whether {@link #close()} has been called. Guarded by {@code this}.
+     */
+    private boolean closed = false;
+
     /**
      * Ctor.
      *
@@ -117,14 +211,143 @@ public AdaptiveSourceProjection(
         Logger parentLogger
     )
     {
-        targetSsrc = source.getPrimarySSRC();
+        this(diagnosticContext, source, keyframeRequester, payloadTypes, parentLogger, null, null, null);
+    }
+
+    /**
+     * Ctor.
+     *
+     * @param source the {@link MediaSourceDesc} that owns the packets
+     * that this instance filters.
+     *
+     * @param payloadTypes a reference to a map of payload types.  This map
+     *                     should be updated as the payload types change.
+     *
+     * @param projectionGroups the projection groups to share the projection
+     * with other receivers, or {@code null} to always project privately.
+     *
+     * @param keyframeCache the cache to replay a keyframe from when the
+     * receiver starts receiving the source, or {@code null} to always request
+     * a keyframe from the sender.
+     *
+     * @param replayedPacketSender sends the packets replayed from
+     * {@code keyframeCache} to the receiver.
+     */
+    public AdaptiveSourceProjection(
+        @NotNull DiagnosticContext diagnosticContext,
+        @NotNull MediaSourceDesc source,
+        Runnable keyframeRequester,
+        Map<Byte, PayloadType> payloadTypes,
+        Logger parentLogger,
+        @Nullable ProjectionGroups projectionGroups,
+        @Nullable KeyframeCache keyframeCache,
+        @Nullable Consumer<PacketInfo> replayedPacketSender
+    )
+    {
+        this(
+            diagnosticContext,
+            source.getPrimarySSRC(),
+            Objects.toString(source.getOwner(), ""),
+            keyframeRequester,
+            payloadTypes,
+            parentLogger,
+            projectionGroups,
+            keyframeCache,
+            replayedPacketSender);
+    }
+
+    /**
+     * Ctor for a projection onto an SSRC slot of the receiver (see
+     * {@link org.jitsi.videobridge.cc.allocation.SsrcSlots}), instead of the
+     * SSRC of the source. Projections onto SSRC slots are never shared with
+     * other receivers.
+     *
+     * @param targetSsrc the SSRC of the slot.
+     *
+     * @param initialRtpState the state of the previous projection onto the
+     * same slot, whose sequence numbers and timestamps this projection
+     * continues, or {@code null} if the slot was not used.
+     */
+    public AdaptiveSourceProjection(
+        @NotNull DiagnosticContext diagnosticContext,
+        @NotNull MediaSourceDesc source,
+        long targetSsrc,
+        @Nullable RtpState initialRtpState,
+        Runnable keyframeRequester,
+        Map<Byte, PayloadType> payloadTypes,
+        Logger parentLogger,
+        @Nullable KeyframeCache keyframeCache,
+        @Nullable Consumer<PacketInfo> replayedPacketSender
+    )
+    {
+        this(
+            diagnosticContext,
+            targetSsrc,
+            source.getPrimarySSRC(),
+            initialRtpState,
+            Objects.toString(source.getOwner(), ""),
+            keyframeRequester,
+            payloadTypes,
+            parentLogger,
+            null,
+            keyframeCache,
+            replayedPacketSender);
+    }
+
+    AdaptiveSourceProjection(
+        @NotNull DiagnosticContext diagnosticContext,
+        long targetSsrc,
+        String sourceEndpointId,
+        Runnable keyframeRequester,
+        Map<Byte, PayloadType> payloadTypes,
+        Logger parentLogger,
+        @Nullable ProjectionGroups projectionGroups,
+        @Nullable KeyframeCache keyframeCache,
+        @Nullable Consumer<PacketInfo> replayedPacketSender
+    )
+    {
+        this(
+            diagnosticContext,
+            targetSsrc,
+            targetSsrc,
+            null,
+            sourceEndpointId,
+            keyframeRequester,
+            payloadTypes,
+            parentLogger,
+            projectionGroups,
+            keyframeCache,
+            replayedPacketSender);
+    }
+
+    private AdaptiveSourceProjection(
+        @NotNull DiagnosticContext diagnosticContext,
+        long targetSsrc,
+        long sourceSsrc,
+        @Nullable RtpState initialRtpState,
+        String sourceEndpointId,
+        Runnable keyframeRequester,
+        Map<Byte, PayloadType> payloadTypes,
+        Logger parentLogger,
+        @Nullable ProjectionGroups projectionGroups,
+        @Nullable KeyframeCache keyframeCache,
+        @Nullable Consumer<PacketInfo> replayedPacketSender
+    )
+    {
+        this.targetSsrc = targetSsrc;
+        this.sourceSsrc = sourceSsrc;
+        this.initialRtpState = initialRtpState;
+        this.sourceEndpointId = sourceEndpointId;
         this.diagnosticContext = diagnosticContext;
         this.payloadTypes = payloadTypes;
         this.parentLogger = parentLogger;
         this.logger = parentLogger.createChildLogger(AdaptiveSourceProjection.class.getName(),
             JMap.of("targetSsrc", Long.toString(targetSsrc),
-                "srcEpId", Objects.toString(source.getOwner(), "")));
+                "srcEpId", sourceEndpointId));
         this.keyframeRequester = keyframeRequester;
+        this.projectionGroups = projectionGroups;
+        this.keyframeCache = keyframeCache;
+        this.replayedPacketSender = replayedPacketSender;
     }
 
     /**
@@ -149,6 +372,15 @@ public void setTargetIndex(int value)
      */
     public boolean accept(@NotNull PacketInfo packetInfo)
     {
+        if (projectionGroups != null)
+        {
+            GroupMembership membershipCopy = updateGroup();
+            if (membershipCopy != null)
+            {
+                return acceptInGroup(membershipCopy, packetInfo);
+            }
+        }
+
         VideoRtpPacket videoRtpPacket = packetInfo.packetAs();
         AdaptiveSourceProjectionContext contextCopy = getContext(videoRtpPacket);
         if (contextCopy == null)
@@ -169,8 +401,22 @@ public boolean accept(@NotNull PacketInfo packetInfo)
         }
 
         int targetIndexCopy = targetIndex;
+        if (keyframeCache != null && !acceptedAny && contextCopy.needsKeyframe())
+        {
+            contextCopy = maybeReplayKeyframe(packetInfo, contextCopy, targetIndexCopy);
+            if (contextCopy == null)
+            {
+                return false;
+            }
+        }
+
         boolean accept = contextCopy.accept(
             packetInfo, videoRtpPacket.getQualityIndex(), targetIndexCopy);
+        if (accept)
+        {
+            acceptedAny = true;
+            onAccepted(videoRtpPacket);
+        }
 
         // We check if the context needs a keyframe regardless of whether or not
         // the packet was accepted.
@@ -188,6 +434,236 @@ public boolean accept(@NotNull PacketInfo packetInfo)
         return accept;
     }
 
+    /**
+     * Starts forwarding from the keyframe cache, if this projection has not
+     * forwarded anything yet, the packet belongs to the target encoding and a
+     * recent keyframe of the encoding is cached. The cached packets are
+     * projected with a new context, so that the packet which is being accepted
+     * (and the ones which follow it) continue the projected stream.
+     *
+     * @return the context to accept {@code packetInfo} with.
+     */
+    private AdaptiveSourceProjectionContext maybeReplayKeyframe(
+        @NotNull PacketInfo packetInfo,
+        @NotNull AdaptiveSourceProjectionContext contextCopy,
+        int targetIndexCopy)
+    {
+        VideoRtpPacket videoRtpPacket = packetInfo.packetAs();
+        if (targetIndexCopy <= RtpLayerDesc.SUSPENDED_INDEX
+            || groupHandoffRtpState != null
+            || replayAttemptedSsrc == videoRtpPacket.getSsrc()
+            || RtpLayerDesc.getEidFromIndex(videoRtpPacket.getQualityIndex())
+                != RtpLayerDesc.getEidFromIndex(targetIndexCopy))
+        {
+            return contextCopy;
+        }
+
+        replayAttemptedSsrc = videoRtpPacket.getSsrc();
+        List<KeyframeCache.CachedPacket> cachedPackets = keyframeCache.get(videoRtpPacket.getSsrc(), packetInfo);
+        if (cachedPackets == null)
+        {
+            return contextCopy;
+        }
+
+        // Nothing has been forwarded, so we can start over with a context that
+        // hasn't seen any of the cached packets.
+        context = null;
+        contextCopy = getContext(videoRtpPacket);
+        if (contextCopy == null)
+        {
+            cachedPackets.forEach(cachedPacket ->
+                ByteBufferPool.returnBuffer(cachedPacket.getPacketInfo().getPacket().getBuffer()));
+            return null;
+        }
+
+        int numReplayed = 0;
+        for (KeyframeCache.CachedPacket cachedPacket : cachedPackets)
+        {
+            PacketInfo cachedPacketInfo = cachedPacket.getPacketInfo();
+            boolean replay = false;
+            try
+            {
+                if (contextCopy.accept(cachedPacketInfo, cachedPacket.getQualityIndex(), targetIndexCopy))
+                {
+                    contextCopy.rewriteRtp(cachedPacketInfo);
+                    replay = true;
+                }
+            }
+            catch (RewriteException e)
+            {
+                logger.warn("Failed to rewrite a cached packet.", e);
+            }
+
+            if (replay)
+            {
+                replayedPacketSender.accept(cachedPacketInfo);
+                numReplayed++;
+            }
+            else
+            {
+                ByteBufferPool.returnBuffer(cachedPacketInfo.getPacket().getBuffer());
+            }
+        }
+
+        acceptedAny = numReplayed > 0;
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Replayed " + numReplayed + " of " + cachedPackets.size()
+                + " cached packets for ssrc=" + videoRtpPacket.getSsrc());
+        }
+        return contextCopy;
+    }
+
+    /**
+     * Joins or leaves a projection group according to the current target
+     * index. A projection joins the group for its target index whenever it
+     * is not suspended, so that receivers whose target changed share a
+     * projection again. Only called by the accepting thread.
+     *
+     * @return the membership of this projection in a group, if any.
+     */
+    private GroupMembership updateGroup()
+    {
+        int targetIndexCopy = targetIndex;
+        GroupMembership membershipCopy = membership;
+
+        if (membershipCopy != null && membershipCopy.group.getTargetIndex() != targetIndexCopy)
+        {
+            leaveGroup(membershipCopy, true);
+            membershipCopy = null;
+        }
+
+        if (membershipCopy == null && targetIndexCopy > RtpLayerDesc.SUSPENDED_INDEX)
+        {
+            membershipCopy = joinGroup(targetIndexCopy);
+        }
+
+        return membershipCopy;
+    }
+
+    private synchronized GroupMembership joinGroup(int targetIndex)
+    {
+        if (closed)
+        {
+            return null;
+        }
+
+        // A projection which has forwarded packets continues its own sequence
+        // numbers and timestamps in the group.
+        RtpState continueFrom = acceptedAny || groupHandoffRtpState != null ? getRtpState() : null;
+        AdaptiveSourceProjectionContext contextCopy = context;
+        if (contextCopy != null)
+        {
+            handoff = new Handoff(contextCopy, null, lastAcceptedSsrc, lastAcceptedSequenceNumber);
+        }
+        context = null;
+        contextPayloadType = -1;
+        groupHandoffRtpState = null;
+
+        membership = new GroupMembership(
+            projectionGroups.join(targetSsrc, sourceEndpointId, targetIndex, payloadTypes),
+            continueFrom);
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Joined the projection group for targetIndex=" + targetIndex
+                + (continueFrom == null ? "" : ", continuing from seq=" + continueFrom.maxSequenceNumber));
+        }
+        return membership;
+    }
+
+    /**
+     * Leaves a projection group.
+     *
+     * @param handover whether the packets that were accepted through the group
+     * may still be rewritten, and the next context needs to continue from the
+     * state of the group.
+     */
+    private synchronized void leaveGroup(@NotNull GroupMembership membershipCopy, boolean handover)
+    {
+        if (membership != membershipCopy)
+        {
+            return;
+        }
+
+        if (handover)
+        {
+            groupHandoffRtpState = membershipCopy.getHandoffRtpState();
+            handoff = new Handoff(null, membershipCopy, lastAcceptedSsrc, lastAcceptedSequenceNumber);
+        }
+        membership = null;
+        projectionGroups.leave(membershipCopy.group);
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Left the projection group for targetIndex=" + membershipCopy.group.getTargetIndex());
+        }
+    }
+
+    /**
+     * Determines whether an RTP packet needs to be accepted by a member of a
+     * projection group. A new member only starts accepting at the beginning of
+     * a keyframe, because the receiver has not seen the earlier frames.
+     */
+    private boolean acceptInGroup(@NotNull GroupMembership membershipCopy, @NotNull PacketInfo packetInfo)
+    {
+        boolean accept = membershipCopy.group.accept(packetInfo);
+        if (membershipCopy.awaitingKeyframe)
+        {
+            if (accept && isKeyframeStart(packetInfo.packetAs()))
+            {
+                membershipCopy.awaitingKeyframe = false;
+            }
+            else
+            {
+                membershipCopy.group.requestKeyframe();
+                return false;
+            }
+        }
+
+        if (accept)
+        {
+            onAccepted(packetInfo.packetAs());
+        }
+        return accept;
+    }
+
+    private void onAccepted(@NotNull VideoRtpPacket videoRtpPacket)
+    {
+        lastAcceptedSsrc = videoRtpPacket.getSsrc();
+        lastAcceptedSequenceNumber = videoRtpPacket.getSequenceNumber();
+    }
+
+    private static boolean isKeyframeStart(@NotNull VideoRtpPacket videoRtpPacket)
+    {
+        if (!(videoRtpPacket instanceof ParsedVideoPacket))
+        {
+            // Same as in GenericAdaptiveSourceProjectionContext: we can't
+            // tell, so start right away.
+            return true;
+        }
+
+        ParsedVideoPacket parsedVideoPacket = (ParsedVideoPacket) videoRtpPacket;
+        return parsedVideoPacket.isKeyframe() && parsedVideoPacket.isStartOfFrame();
+    }
+
+    /**
+     * Leaves the projection group that this projection is a member of, if
+     * any. Called when the receiver expires.
+     */
+    public void close()
+    {
+        GroupMembership membershipCopy;
+        synchronized (this)
+        {
+            closed = true;
+            membershipCopy = membership;
+        }
+
+        if (membershipCopy != null)
+        {
+            leaveGroup(membershipCopy, false);
+        }
+    }
+
     /**
      * Gets or creates the adaptive source projection context that corresponds to
      * the payload type of the RTP packet that is specified as a parameter. If
@@ -314,9 +790,24 @@ else if (context == null || contextPayloadType != payloadType)
     /**
      * Gets the {@link RtpState}.
      */
-    private @NotNull RtpState getRtpState()
+    @NotNull
+    public RtpState getRtpState()
     {
-        if (context == null)
+        GroupMembership membershipCopy = membership;
+        RtpState membershipRtpState = membershipCopy == null ? null : membershipCopy.getHandoffRtpState();
+        if (membershipRtpState != null)
+        {
+            return membershipRtpState;
+        }
+        else if (context == null && groupHandoffRtpState != null)
+        {
+            return groupHandoffRtpState;
+        }
+        else if (context == null && initialRtpState != null)
+        {
+            return initialRtpState;
+        }
+        else if (context == null)
         {
             // TODO If '1' are the starting seq number and timestamp, should
             //  we use random values?
@@ -339,11 +830,45 @@ else if (context == null || contextPayloadType != payloadType)
    public void rewriteRtp(@NotNull PacketInfo packetInfo)
         throws RewriteException
     {
+        Handoff handoffCopy = handoff;
+        if (handoffCopy != null && handoffCopy.accepted(packetInfo.packetAs()))
+        {
+            // Accepted before we last joined or left a group.
+            handoffCopy.rewriteRtp(packetInfo);
+            return;
+        }
+
+        GroupMembership membershipCopy = membership;
         AdaptiveSourceProjectionContext contextCopy = context;
-        if (contextCopy != null)
+        if (membershipCopy != null)
+        {
+            membershipCopy.rewriteRtp(packetInfo);
+        }
+        else if (contextCopy != null)
         {
             contextCopy.rewriteRtp(packetInfo);
         }
+        else
+        {
+            return;
+        }
+
+        if (handoffCopy != null)
+        {
+            // Packets are rewritten in the order in which they were accepted,
+            // so the ones accepted before the switch have all been rewritten.
+            // Dropping the handoff also keeps its sequence number check from
+            // matching live packets once the sequence numbers wrap around.
+            clearHandoff(handoffCopy);
+        }
+    }
+
+    private synchronized void clearHandoff(@NotNull Handoff handoffCopy)
+    {
+        if (handoff == handoffCopy)
+        {
+            handoff = null;
+        }
     }
 
     /**
@@ -354,6 +879,12 @@ public void rewriteRtp(@NotNull PacketInfo packetInfo)
      */
     public boolean rewriteRtcp(@NotNull RtcpSrPacket rtcpSrPacket)
     {
+        GroupMembership membershipCopy = membership;
+        if (membershipCopy != null)
+        {
+            return membershipCopy.rewriteRtcp(rtcpSrPacket);
+        }
+
         AdaptiveSourceProjectionContext contextCopy = context;
         if (contextCopy == null)
         {
@@ -371,6 +902,14 @@ public long getTargetSsrc()
         return targetSsrc;
     }
 
+    /**
+     * @return the main SSRC of the projected source.
+     */
+    public long getSourceSsrc()
+    {
+        return sourceSsrc;
+    }
+
     /**
      * Gets a JSON representation of the parts of this object's state that
      * are deemed useful for debugging.
@@ -387,7 +926,210 @@ public JSONObject getDebugState()
                 contextCopy == null ? null : contextCopy.getDebugState());
         debugState.put("contextPayloadType", contextPayloadType);
         debugState.put("targetIndex", targetIndex);
+        GroupMembership membershipCopy = membership;
+        if (membershipCopy != null)
+        {
+            debugState.put("group", membershipCopy.group.getTargetSsrc() + "/" + membershipCopy.group.getTargetIndex());
+            debugState.put("awaitingGroupKeyframe", membershipCopy.awaitingKeyframe);
+            debugState.put("continuesOwnNumbering", membershipCopy.continueFrom != null);
+        }
 
         return debugState;
     }
+
+    /**
+     * The membership of a projection in a {@link ProjectionGroup}. A member
+     * which joins without having forwarded anything uses the headers of the
+     * group as they are. A member which has forwarded packets before it
+     * joined continues its own sequence numbers and timestamps, by applying
+     * fixed offsets to the headers rewritten by the group.
+     */
+    private static final class GroupMembership
+    {
+        final ProjectionGroup group;
+
+        /**
+         * The state to continue from, or {@code null} to use the numbering of
+         * the group as is.
+         */
+        @Nullable
+        final RtpState continueFrom;
+
+        /**
+         * Whether the member has not yet accepted a packet through the group.
+         * Members start forwarding at a keyframe. Only accessed by the
+         * accepting thread.
+         */
+        boolean awaitingKeyframe = true;
+
+        /**
+         * The offsets from the numbering of the group. They are computed when
+         * the first packet is rewritten, because that is when its projected
+         * sequence number and timestamp are known.
+         */
+        private volatile Offsets offsets;
+
+        GroupMembership(@NotNull ProjectionGroup group, @Nullable RtpState continueFrom)
+        {
+            this.group = group;
+            this.continueFrom = continueFrom;
+        }
+
+        void rewriteRtp(@NotNull PacketInfo packetInfo)
+            throws RewriteException
+        {
+            group.rewriteRtp(packetInfo);
+            if (continueFrom == null)
+            {
+                return;
+            }
+
+            VideoRtpPacket rtpPacket = packetInfo.packetAs();
+            Offsets offsetsCopy = getOffsets(rtpPacket);
+            rtpPacket.setSequenceNumber(
+                RtpUtils.applySequenceNumberDelta(rtpPacket.getSequenceNumber(), offsetsCopy.sequenceNumberDelta));
+            rtpPacket.setTimestamp(
+                RtpUtils.applyTimestampDelta(rtpPacket.getTimestamp(), offsetsCopy.timestampDelta));
+        }
+
+        boolean rewriteRtcp(@NotNull RtcpSrPacket rtcpSrPacket)
+        {
+            if (!group.rewriteRtcp(rtcpSrPacket))
+            {
+                return false;
+            }
+            if (continueFrom == null)
+            {
+                return true;
+            }
+
+            Offsets offsetsCopy = offsets;
+            if (offsetsCopy == null)
+            {
+                // Nothing was forwarded with the numbering of the group yet.
+                return false;
+            }
+
+            rtcpSrPacket.getSenderInfo().setRtpTimestamp(
+                RtpUtils.applyTimestampDelta(
+                    rtcpSrPacket.getSenderInfo().getRtpTimestamp(), offsetsCopy.timestampDelta));
+            return true;
+        }
+
+        private Offsets getOffsets(@NotNull VideoRtpPacket firstPacket)
+        {
+            Offsets offsetsCopy = offsets;
+            if (offsetsCopy == null)
+            {
+                synchronized (this)
+                {
+                    offsetsCopy = offsets;
+                    if (offsetsCopy == null)
+                    {
+                        // Same as GenericAdaptiveSourceProjectionContext on
+                        // resume.
+                        offsetsCopy = new Offsets(
+                            RtpUtils.getSequenceNumberDelta(
+                                continueFrom.maxSequenceNumber + 1, firstPacket.getSequenceNumber()),
+                            RtpUtils.getTimestampDiff(
+                                RtpUtils.applyTimestampDelta(continueFrom.maxTimestamp, 3000),
+                                firstPacket.getTimestamp()));
+                        offsets = offsetsCopy;
+                    }
+                }
+            }
+            return offsetsCopy;
+        }
+
+        /**
+         * @return the state for the next context to continue from when the
+         * member leaves the group, or {@code null} if nothing was forwarded.
+         */
+        @Nullable
+        RtpState getHandoffRtpState()
+        {
+            RtpState groupRtpState = group.getRtpState();
+            if (continueFrom == null)
+            {
+                return awaitingKeyframe ? null : groupRtpState;
+            }
+
+            Offsets offsetsCopy = offsets;
+            if (offsetsCopy == null)
+            {
+                return continueFrom;
+            }
+
+            return new RtpState(
+                groupRtpState.ssrc,
+                RtpUtils.applySequenceNumberDelta(groupRtpState.maxSequenceNumber, offsetsCopy.sequenceNumberDelta),
+                RtpUtils.applyTimestampDelta(groupRtpState.maxTimestamp, offsetsCopy.timestampDelta));
+        }
+    }
+
+    private static final class Offsets
+    {
+        final int sequenceNumberDelta;
+        final long timestampDelta;
+
+        Offsets(int sequenceNumberDelta, long timestampDelta)
+        {
+            this.sequenceNumberDelta = sequenceNumberDelta;
+            this.timestampDelta = timestampDelta;
+        }
+    }
+
+    /**
+     * Rewrites the packets which were accepted, up to and including a given
+     * packet, by the context or the group membership that a projection has
+     * switched away from.
+     */
+    private static final class Handoff
+    {
+        @Nullable
+        private final AdaptiveSourceProjectionContext context;
+
+        @Nullable
+        private final GroupMembership membership;
+
+        private final long lastAcceptedSsrc;
+
+        private final int lastAcceptedSequenceNumber;
+
+        Handoff(
+            @Nullable AdaptiveSourceProjectionContext context,
+            @Nullable GroupMembership membership,
+            long lastAcceptedSsrc,
+            int lastAcceptedSequenceNumber)
+        {
+            this.context = context;
+            this.membership = membership;
+            this.lastAcceptedSsrc = lastAcceptedSsrc;
+            this.lastAcceptedSequenceNumber = lastAcceptedSequenceNumber;
+        }
+
+        /**
+         * @return whether the packet was accepted before the switch. Packets
+         * that are accepted after a switch start at a keyframe, so they are
+         * newer.
+         */
+        boolean accepted(@NotNull VideoRtpPacket videoRtpPacket)
+        {
+            return videoRtpPacket.getSsrc() == lastAcceptedSsrc
+                && !RtpUtils.isNewerSequenceNumberThan(videoRtpPacket.getSequenceNumber(), lastAcceptedSequenceNumber);
+        }
+
+        void rewriteRtp(@NotNull PacketInfo packetInfo)
+            throws RewriteException
+        {
+            if (membership != null)
+            {
+                membership.rewriteRtp(packetInfo);
+            }
+            else if (context != null)
+            {
+                context.rewriteRtp(packetInfo);
+            }
+        }
+    }
 }
@@ -47,7 +47,10 @@
  * picture IDs in VP8). In this case a codec specific adaptive source projection
  * context implementation will have to be used instead.
  *
- * Instances of this class are thread-safe.
+ * Instances of this class are thread-safe. Calls to
+ * {@link #accept(PacketInfo, int, int)} are serialized, and the deltas that
+ * they compute are published as an immutable {@link Deltas} instance so that
+ * {@link #rewriteRtp(PacketInfo)} does not need to take a lock.
  *
  * @author George Politis
  */
@@ -66,7 +69,7 @@
     /**
      * Raised when a source has been resumed (after being suspended).
      */
-    private boolean needsKeyframe = true;
+    private volatile boolean needsKeyframe = true;
 
     /**
      * Useful to determine whether a packet is a "keyframe".
@@ -79,10 +82,10 @@
     private int maxDestinationSequenceNumber;
 
     /**
-     * The delta to apply to the timestamps of the RTP packets of the incoming
-     * source.
+     * The sequence number and timestamp deltas used to rewrite packets. Only
+     * replaced (never modified) by the accepting thread.
      */
-    private long timestampDelta;
+    private volatile Deltas deltas = Deltas.ZERO;
 
     /**
      * A boolean that indicates whether or not the timestamp delta has been
@@ -96,12 +99,6 @@
      */
     private long maxDestinationTimestamp;
 
-    /**
-     * The delta to apply to the sequence numbers of the RTP packets of the
-     * incoming source.
-     */
-    private int sequenceNumberDelta;
-
     /**
      * Ctor.
      *
@@ -126,9 +123,9 @@
      * or not. If the source is currently suspended, a key frame is necessary to
      * start accepting packets again.
      *
-     * Note that, at the time of this writing, there's no practical need for a
-     * synchronized keyword because there's only one thread (the translator
-     * thread) accessing this method at a time.
+     * This is the only method that modifies the state of this instance. It is
+     * synchronized only to serialize multiple accepting threads (which is
+     * rare), {@link #rewriteRtp(PacketInfo)} does not contend for the lock.
      *
      * @param packetInfo the RTP packet to determine whether to accept or not.
      * @param incomingIndex the quality index of the
@@ -173,10 +170,11 @@ else if (((ParsedVideoPacket)rtpPacket).isKeyframe())
                 // "destination = source + delta".
                 int destinationSequenceNumber
                     = maxDestinationSequenceNumber + 1;
-                sequenceNumberDelta
+                int sequenceNumberDelta
                     = RtpUtils.getSequenceNumberDelta(
                             destinationSequenceNumber,
                             sourceSequenceNumber);
+                deltas = new Deltas(sequenceNumberDelta, deltas.timestampDelta);
 
                 logger.trace(() -> "delta ssrc=" + rtpPacket.getSsrc()
                     + ",src_sequence=" + sourceSequenceNumber
@@ -200,13 +198,14 @@ else if (((ParsedVideoPacket)rtpPacket).isKeyframe())
         {
             maybeInitializeTimestampDelta(rtpPacket.getTimestamp());
 
+            Deltas deltasCopy = deltas;
             int destinationSequenceNumber
                 = RtpUtils.applySequenceNumberDelta(
-                        sourceSequenceNumber, sequenceNumberDelta);
+                        sourceSequenceNumber, deltasCopy.sequenceNumberDelta);
 
             long destinationTimestamp
                 = RtpUtils.applyTimestampDelta(
-                        rtpPacket.getTimestamp(), timestampDelta);
+                        rtpPacket.getTimestamp(), deltasCopy.timestampDelta);
 
             if (RtpUtils.isOlderSequenceNumberThan(
                 maxDestinationSequenceNumber, destinationSequenceNumber))
@@ -220,14 +219,19 @@ else if (((ParsedVideoPacket)rtpPacket).isKeyframe())
                 maxDestinationTimestamp = destinationTimestamp;
             }
 
-                logger.trace(() -> "accept ssrc=" + rtpPacket.getSsrc()
-                + ",src_sequence=" + sourceSequenceNumber
-                + ",dst_sequence=" + destinationSequenceNumber
-                + ",max_sequence=" + maxDestinationSequenceNumber);
+            // Check the level first, so that we don't allocate a capturing
+            // lambda for every packet.
+            if (logger.isTraceEnabled())
+            {
+                logger.trace("accept ssrc=" + rtpPacket.getSsrc()
+                    + ",src_sequence=" + sourceSequenceNumber
+                    + ",dst_sequence=" + destinationSequenceNumber
+                    + ",max_sequence=" + maxDestinationSequenceNumber);
+            }
         }
-        else
+        else if (logger.isTraceEnabled())
         {
-            logger.trace(() -> "reject ssrc=" + rtpPacket.getSsrc()
+            logger.trace("reject ssrc=" + rtpPacket.getSsrc()
                 + ",src_sequence=" + sourceSequenceNumber);
         }
 
@@ -235,11 +239,11 @@ else if (((ParsedVideoPacket)rtpPacket).isKeyframe())
     }
 
     /**
-     * Initializes {@link #timestampDelta} if it hasn't been initialized
+     * Initializes the timestamp delta in {@link #deltas} if it hasn't been initialized
      * already.
      * @param sourceTimestamp
      */
-    private synchronized void maybeInitializeTimestampDelta(long sourceTimestamp)
+    private void maybeInitializeTimestampDelta(long sourceTimestamp)
     {
         if (timestampDeltaInitialized)
         {
@@ -252,9 +256,10 @@ private synchronized void maybeInitializeTimestampDelta(long sourceTimestamp)
             long destinationTimestamp =
                     RtpUtils.applyTimestampDelta(maxDestinationTimestamp, 3000);
 
-            timestampDelta
+            long timestampDelta
                 = RtpUtils.getTimestampDiff(
                         destinationTimestamp, sourceTimestamp);
+            deltas = new Deltas(deltas.sequenceNumberDelta, timestampDelta);
         }
 
         timestampDeltaInitialized = true;
@@ -281,10 +286,11 @@ public void rewriteRtp(
         @NotNull PacketInfo packetInfo)
     {
         VideoRtpPacket rtpPacket = packetInfo.packetAs();
+        Deltas deltasCopy = deltas;
         int sourceSequenceNumber = rtpPacket.getSequenceNumber();
         int destinationSequenceNumber
             = RtpUtils.applySequenceNumberDelta(
-                    sourceSequenceNumber, sequenceNumberDelta);
+                    sourceSequenceNumber, deltasCopy.sequenceNumberDelta);
 
         if (sourceSequenceNumber != destinationSequenceNumber)
         {
@@ -293,17 +299,19 @@ public void rewriteRtp(
 
         long sourceTimestamp = rtpPacket.getTimestamp();
         long destinationTimestamp
-            = RtpUtils.applyTimestampDelta(sourceTimestamp, timestampDelta);
+            = RtpUtils.applyTimestampDelta(sourceTimestamp, deltasCopy.timestampDelta);
 
         if (sourceTimestamp != destinationTimestamp)
         {
             rtpPacket.setTimestamp(destinationTimestamp);
         }
 
-        logger.debug(() -> "rewrite ssrc=" + rtpPacket.getSsrc()
-            + ",src_sequence=" + sourceSequenceNumber
-            + ",dst_sequence=" + destinationSequenceNumber
-            + ",max_sequence=" + maxDestinationSequenceNumber);
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("rewrite ssrc=" + rtpPacket.getSsrc()
+                + ",src_sequence=" + sourceSequenceNumber
+                + ",dst_sequence=" + destinationSequenceNumber);
+        }
     }
 
     /**
@@ -349,4 +357,23 @@ public JSONObject getDebugState()
 
         return debugState;
     }
+
+    /**
+     * The deltas to apply to the sequence numbers and timestamps of the RTP
+     * packets of the incoming source.
+     */
+    private static class Deltas
+    {
+        static final Deltas ZERO = new Deltas(0, 0);
+
+        final int sequenceNumberDelta;
+
+        final long timestampDelta;
+
+        Deltas(int sequenceNumberDelta, long timestampDelta)
+        {
+            this.sequenceNumberDelta = sequenceNumberDelta;
+            this.timestampDelta = timestampDelta;
+        }
+    }
 }
@@ -0,0 +1,375 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc;
+
+import org.jetbrains.annotations.*;
+import org.jitsi.nlj.*;
+import org.jitsi.nlj.rtp.*;
+import org.jitsi.utils.logging2.*;
+import org.jitsi.videobridge.cc.config.*;
+import org.jitsi.videobridge.util.*;
+import org.json.simple.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Caches, for every video encoding (SSRC) of a conference, a copy of the most
+ * recent keyframe and of all the packets that followed it. A receiver which
+ * starts receiving an encoding can then be given the cached packets instead of
+ * waiting for the sender to produce a new keyframe.
+ *
+ * The cache of an encoding is dropped (and stays empty until the next keyframe)
+ * when it exceeds {@link KeyframeCacheConfig#maxEncodingBytes()}, when the
+ * bridge-wide budget {@link KeyframeCacheConfig#maxTotalBytes()} is exhausted,
+ * or when the keyframe is older than {@link KeyframeCacheConfig#maxAge()}.
+ *
+ * Instances of this class are thread-safe.
+ */
+public class KeyframeCache
+{
+    /**
+     * The number of bytes cached by all instances.
+     */
+    private static final AtomicLong totalBytes = new AtomicLong();
+
+    /**
+     * The cached encodings, keyed by SSRC.
+     */
+    private final Map<Long, EncodingCache> encodings = new ConcurrentHashMap<>();
+
+    /**
+     * Whether {@link #close()} has been called. Guarded by {@code this}.
+     */
+    private boolean closed = false;
+
+    private final Clock clock;
+
+    private final Logger logger;
+
+    public KeyframeCache(@NotNull Logger parentLogger)
+    {
+        this(parentLogger, Clock.systemUTC());
+    }
+
+    public KeyframeCache(@NotNull Logger parentLogger, @NotNull Clock clock)
+    {
+        this.clock = clock;
+        this.logger = parentLogger.createChildLogger(KeyframeCache.class.getName());
+    }
+
+    /**
+     * Adds a copy of an incoming video packet to the cache of its encoding, if
+     * the encoding is being cached. A keyframe (re)starts the cache of its
+     * encoding. Must be called before the packet is forwarded, because
+     * forwarding modifies it.
+     */
+    public void add(@NotNull PacketInfo packetInfo)
+    {
+        if (!(packetInfo.getPacket() instanceof ParsedVideoPacket))
+        {
+            return;
+        }
+
+        ParsedVideoPacket videoPacket = packetInfo.packetAs();
+        long ssrc = videoPacket.getSsrc();
+        EncodingCache encodingCache = encodings.get(ssrc);
+        long nowMs = clock.millis();
+
+        if (videoPacket.isKeyframe() && videoPacket.isStartOfFrame())
+        {
+            if (encodingCache == null)
+            {
+                encodingCache = createEncodingCache(ssrc, packetInfo.getEndpointId());
+                if (encodingCache == null)
+                {
+                    return;
+                }
+            }
+            encodingCache.maybeRestart(videoPacket.getTimestamp(), nowMs);
+        }
+
+        if (encodingCache != null)
+        {
+            encodingCache.add(packetInfo, nowMs);
+        }
+    }
+
+    /**
+     * Creates the cache of an encoding, unless this instance is closed, so
+     * that nothing is added to the bridge-wide byte count after
+     * {@link #close()}.
+     */
+    @Nullable
+    private synchronized EncodingCache createEncodingCache(long ssrc, String endpointId)
+    {
+        if (closed)
+        {
+            return null;
+        }
+
+        return encodings.computeIfAbsent(ssrc, key -> new EncodingCache(endpointId));
+    }
+
+    /**
+     * Gets copies of the cached packets of an encoding, starting with the
+     * keyframe, which the caller owns. The packet which is currently being
+     * forwarded (and which has already been added to the cache) is not
+     * included.
+     *
+     * @return the copies, or {@code null} if there is no usable keyframe.
+     */
+    @Nullable
+    public List<CachedPacket> get(long ssrc, @NotNull PacketInfo current)
+    {
+        EncodingCache encodingCache = encodings.get(ssrc);
+        if (encodingCache == null)
+        {
+            return null;
+        }
+
+        List<CachedPacket> packets = encodingCache.copy(current, clock.millis());
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Keyframe cache " + (packets == null ? "miss" : "hit") + " for ssrc=" + ssrc);
+        }
+        return packets;
+    }
+
+    /**
+     * Drops the cached encodings of an endpoint.
+     */
+    public void removeEndpoint(String endpointId)
+    {
+        encodings.values().removeIf(encodingCache -> {
+            if (Objects.equals(endpointId, encodingCache.endpointId))
+            {
+                encodingCache.close();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Drops all cached encodings.
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+        }
+        encodings.values().forEach(EncodingCache::close);
+        encodings.clear();
+    }
+
+    /**
+     * Gets a JSON representation of the parts of this object's state that
+     * are deemed useful for debugging.
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject getDebugState()
+    {
+        JSONObject debugState = new JSONObject();
+        debugState.put("total_bytes", totalBytes.get());
+        JSONObject encodingsJson = new JSONObject();
+        encodings.forEach((ssrc, encodingCache) -> encodingsJson.put(ssrc, encodingCache.getDebugState()));
+        debugState.put("encodings", encodingsJson);
+        return debugState;
+    }
+
+    /**
+     * A cached packet, together with the quality index of the original
+     * packet.
+     */
+    public static class CachedPacket
+    {
+        private final PacketInfo packetInfo;
+
+        private final int qualityIndex;
+
+        CachedPacket(@NotNull PacketInfo packetInfo, int qualityIndex)
+        {
+            this.packetInfo = packetInfo;
+            this.qualityIndex = qualityIndex;
+        }
+
+        @NotNull
+        public PacketInfo getPacketInfo()
+        {
+            return packetInfo;
+        }
+
+        public int getQualityIndex()
+        {
+            return qualityIndex;
+        }
+    }
+
+    /**
+     * The cache of a single encoding.
+     */
+    private static class EncodingCache
+    {
+        private final String endpointId;
+
+        private final List<CachedPacket> packets = new ArrayList<>();
+
+        /**
+         * The number of bytes in {@link #packets}.
+         */
+        private int bytes = 0;
+
+        /**
+         * The RTP timestamp of the cached keyframe.
+         */
+        private long keyframeTimestamp = -1;
+
+        /**
+         * The time at which the cached keyframe was received.
+         */
+        private long keyframeReceivedMs = -1;
+
+        /**
+         * Whether the cache is unusable until the next keyframe.
+         */
+        private boolean stale = true;
+
+        /**
+         * Whether the cache has been removed, in which case nothing is added
+         * to it (and to the bridge-wide byte count) anymore.
+         */
+        private boolean closed = false;
+
+        EncodingCache(String endpointId)
+        {
+            this.endpointId = endpointId;
+        }
+
+        /**
+         * Restarts the cache with a new keyframe, unless {@code timestamp} is
+         * the one of the cached keyframe (i.e. this is another packet or
+         * spatial layer of the same picture).
+         */
+        synchronized void maybeRestart(long timestamp, long nowMs)
+        {
+            if (closed || (!stale && timestamp == keyframeTimestamp))
+            {
+                return;
+            }
+
+            clear();
+            keyframeTimestamp = timestamp;
+            keyframeReceivedMs = nowMs;
+            stale = false;
+        }
+
+        synchronized void add(@NotNull PacketInfo packetInfo, long nowMs)
+        {
+            if (stale || closed)
+            {
+                return;
+            }
+
+            int length = packetInfo.getPacket().getLength();
+            if (nowMs - keyframeReceivedMs > KeyframeCacheConfig.maxAge().toMillis()
+                || bytes + length > KeyframeCacheConfig.maxEncodingBytes())
+            {
+                // The GOP is too long for a receiver to catch up with.
+                clear();
+                stale = true;
+                return;
+            }
+
+            if (totalBytes.addAndGet(length) > KeyframeCacheConfig.maxTotalBytes())
+            {
+                // We're out of memory budget.
+                totalBytes.addAndGet(-length);
+                clear();
+                stale = true;
+                return;
+            }
+
+            VideoRtpPacket videoPacket = packetInfo.packetAs();
+            packets.add(new CachedPacket(packetInfo.clone(), videoPacket.getQualityIndex()));
+            bytes += length;
+        }
+
+        @Nullable
+        synchronized List<CachedPacket> copy(@NotNull PacketInfo current, long nowMs)
+        {
+            if (stale
+                || packets.isEmpty()
+                || nowMs - keyframeReceivedMs > KeyframeCacheConfig.maxAge().toMillis())
+            {
+                return null;
+            }
+
+            int end = packets.size();
+            if (packets.get(end - 1).packetInfo.getPacket() instanceof VideoRtpPacket
+                && current.getPacket() instanceof VideoRtpPacket
+                && ((VideoRtpPacket) packets.get(end - 1).packetInfo.getPacket()).getSequenceNumber()
+                    == ((VideoRtpPacket) current.getPacket()).getSequenceNumber())
+            {
+                end--;
+            }
+
+            List<CachedPacket> copies = new ArrayList<>(end);
+            for (int i = 0; i < end; i++)
+            {
+                CachedPacket cachedPacket = packets.get(i);
+                copies.add(new CachedPacket(cachedPacket.packetInfo.clone(), cachedPacket.qualityIndex));
+            }
+            return copies.isEmpty() ? null : copies;
+        }
+
+        /**
+         * Clears the cache and stops it from caching anything else, because it
+         * has been removed.
+         */
+        synchronized void close()
+        {
+            closed = true;
+            stale = true;
+            clear();
+        }
+
+        synchronized void clear()
+        {
+            for (CachedPacket cachedPacket : packets)
+            {
+                ByteBufferPool.returnBuffer(cachedPacket.packetInfo.getPacket().getBuffer());
+            }
+            packets.clear();
+            totalBytes.addAndGet(-bytes);
+            bytes = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized JSONObject getDebugState()
+        {
+            JSONObject debugState = new JSONObject();
+            debugState.put("endpoint_id", endpointId);
+            debugState.put("packets", packets.size());
+            debugState.put("bytes", bytes);
+            debugState.put("stale", stale);
+            return debugState;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc;
+
+import org.jetbrains.annotations.*;
+import org.jitsi.nlj.*;
+import org.jitsi.nlj.format.*;
+import org.jitsi.rtp.rtcp.*;
+import org.jitsi.utils.logging.*;
+import org.jitsi.utils.logging2.Logger;
+import org.json.simple.*;
+
+import java.util.*;
+
+/**
+ * A projection of a source at a fixed target index which is shared by all the
+ * receivers that are members of the group. The accept decision for a packet is
+ * made once for the group, and all the members rewrite their copies of the
+ * packet with the same (shared) context, so they produce the same headers.
+ *
+ * The memoization of the accept decision relies on the conference offering
+ * the same {@link PacketInfo} instance to all of its receivers in turn, before
+ * any of them gets a copy of it.
+ */
+public class ProjectionGroup
+{
+    /**
+     * The key of this group in its {@link ProjectionGroups}.
+     */
+    final long key;
+
+    /**
+     * The number of members of this group. Guarded by the
+     * {@link ProjectionGroups} that this group belongs to.
+     */
+    int members = 0;
+
+    /**
+     * The target index at which this group projects its source. It never
+     * changes.
+     */
+    private final int targetIndex;
+
+    /**
+     * The shared projection.
+     */
+    private final AdaptiveSourceProjection projection;
+
+    /**
+     * Requests a keyframe from the sender of the source.
+     */
+    private final Runnable keyframeRequester;
+
+    /**
+     * The packet for which {@link #lastAccepted} was computed. It is only
+     * compared by identity. Guarded by {@code this}.
+     */
+    private PacketInfo lastPacketInfo;
+
+    /**
+     * The accept decision for {@link #lastPacketInfo}. Guarded by
+     * {@code this}.
+     */
+    private boolean lastAccepted;
+
+    ProjectionGroup(
+        long key,
+        long targetSsrc,
+        int targetIndex,
+        @NotNull Runnable keyframeRequester,
+        @NotNull DiagnosticContext diagnosticContext,
+        @NotNull Map<Byte, PayloadType> payloadTypes,
+        String sourceEndpointId,
+        @NotNull Logger parentLogger)
+    {
+        this.key = key;
+        this.targetIndex = targetIndex;
+        this.keyframeRequester = keyframeRequester;
+        this.projection = new AdaptiveSourceProjection(
+            diagnosticContext,
+            targetSsrc,
+            sourceEndpointId,
+            keyframeRequester,
+            payloadTypes,
+            parentLogger,
+            null,
+            null,
+            null);
+        projection.setTargetIndex(targetIndex);
+    }
+
+    /**
+     * Determines whether the group accepts a packet. The decision is made once
+     * per packet, regardless of how many members ask.
+     */
+    synchronized boolean accept(@NotNull PacketInfo packetInfo)
+    {
+        if (packetInfo != lastPacketInfo)
+        {
+            lastAccepted = projection.accept(packetInfo);
+            lastPacketInfo = packetInfo;
+        }
+        return lastAccepted;
+    }
+
+    /**
+     * Rewrites a member's copy of an RTP packet that the group has accepted.
+     */
+    void rewriteRtp(@NotNull PacketInfo packetInfo)
+        throws RewriteException
+    {
+        projection.rewriteRtp(packetInfo);
+    }
+
+    /**
+     * Rewrites a member's copy of an RTCP SR packet.
+     */
+    boolean rewriteRtcp(@NotNull RtcpSrPacket rtcpSrPacket)
+    {
+        return projection.rewriteRtcp(rtcpSrPacket);
+    }
+
+    /**
+     * Requests a keyframe from the sender of the source.
+     */
+    void requestKeyframe()
+    {
+        keyframeRequester.run();
+    }
+
+    /**
+     * @return the state that a member which leaves the group continues from.
+     */
+    @NotNull
+    RtpState getRtpState()
+    {
+        return projection.getRtpState();
+    }
+
+    public long getTargetSsrc()
+    {
+        return projection.getTargetSsrc();
+    }
+
+    public int getTargetIndex()
+    {
+        return targetIndex;
+    }
+
+    /**
+     * Gets a JSON representation of the parts of this object's state that
+     * are deemed useful for debugging.
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject getDebugState()
+    {
+        JSONObject debugState = new JSONObject();
+        debugState.put("members", members);
+        debugState.put("projection", projection.getDebugState());
+        return debugState;
+    }
+}
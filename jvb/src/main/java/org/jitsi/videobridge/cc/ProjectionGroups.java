@@ -0,0 +1,154 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc;
+
+import org.jetbrains.annotations.*;
+import org.jitsi.nlj.format.*;
+import org.jitsi.utils.logging.*;
+import org.jitsi.utils.logging2.Logger;
+import org.json.simple.*;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The {@link ProjectionGroup}s of a conference, keyed by the source that they
+ * project and the target index that they project it at.
+ *
+ * Receivers that start receiving a source at the same target index join the
+ * same group, so that the accept decision for every packet of the source is
+ * made once for all of them, and the projected headers are the same for all of
+ * them. See {@link AdaptiveSourceProjection} for when a receiver joins or
+ * leaves a group.
+ *
+ * Instances of this class are thread-safe.
+ */
+public class ProjectionGroups
+{
+    /**
+     * The groups, keyed by {@link #key(long, int)}. Guarded by {@code this}.
+     */
+    private final Map<Long, ProjectionGroup> groups = new HashMap<>();
+
+    /**
+     * Requests a keyframe for an SSRC from the endpoint with a given ID.
+     */
+    private final BiConsumer<String, Long> keyframeRequester;
+
+    private final DiagnosticContext diagnosticContext;
+
+    private final Logger logger;
+
+    public ProjectionGroups(
+        @NotNull BiConsumer<String, Long> keyframeRequester,
+        @NotNull DiagnosticContext diagnosticContext,
+        @NotNull Logger parentLogger)
+    {
+        this.keyframeRequester = keyframeRequester;
+        this.diagnosticContext = diagnosticContext;
+        this.logger = parentLogger.createChildLogger(ProjectionGroups.class.getName());
+    }
+
+    /**
+     * Joins the group that projects a source at a target index, creating it
+     * if it does not exist yet.
+     *
+     * @param targetSsrc the primary SSRC of the source.
+     * @param sourceEndpointId the ID of the endpoint that sends the source.
+     * @param targetIndex the target index.
+     * @param payloadTypes the payload types to use if the group is created.
+     * @return the group that was joined.
+     */
+    synchronized ProjectionGroup join(
+        long targetSsrc,
+        String sourceEndpointId,
+        int targetIndex,
+        Map<Byte, PayloadType> payloadTypes)
+    {
+        long key = key(targetSsrc, targetIndex);
+        ProjectionGroup group = groups.get(key);
+        if (group == null)
+        {
+            group = new ProjectionGroup(
+                key,
+                targetSsrc,
+                targetIndex,
+                () -> keyframeRequester.accept(sourceEndpointId, targetSsrc),
+                diagnosticContext,
+                payloadTypes,
+                sourceEndpointId,
+                logger);
+            groups.put(key, group);
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Created projection group for ssrc=" + targetSsrc + " targetIndex=" + targetIndex);
+            }
+        }
+
+        group.members++;
+        return group;
+    }
+
+    /**
+     * Leaves a group, removing it when its last member leaves.
+     */
+    synchronized void leave(@NotNull ProjectionGroup group)
+    {
+        if (--group.members <= 0 && groups.get(group.key) == group)
+        {
+            groups.remove(group.key);
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Removed projection group for ssrc=" + group.getTargetSsrc()
+                    + " targetIndex=" + group.getTargetIndex());
+            }
+        }
+    }
+
+    /**
+     * @return the number of groups.
+     */
+    public synchronized int size()
+    {
+        return groups.size();
+    }
+
+    /**
+     * Gets a JSON representation of the parts of this object's state that
+     * are deemed useful for debugging.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized JSONObject getDebugState()
+    {
+        JSONObject debugState = new JSONObject();
+        for (ProjectionGroup group : groups.values())
+        {
+            debugState.put(group.getTargetSsrc() + "/" + group.getTargetIndex(), group.getDebugState());
+        }
+        return debugState;
+    }
+
+    /**
+     * The key of the group that projects the source with primary SSRC
+     * {@code ssrc} at {@code targetIndex}.
+     */
+    private static long key(long ssrc, int targetIndex)
+    {
+        return (ssrc << 16) | (targetIndex & 0xffff);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc;
+
+import org.jetbrains.annotations.*;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A fixed-size ring of the frame projections of one encoding (SSRC), indexed
+ * by a codec-specific key
+ * (e.g. the VP8 picture ID), which is used to publish the projection decisions
+ * that are made in {@link AdaptiveSourceProjectionContext#accept} to the
+ * threads that call {@link AdaptiveSourceProjectionContext#rewriteRtp}.
+ *
+ * There is a single writer (the thread that accepts packets), and any number
+ * of readers. Neither side takes a lock. Because different keys can map to the
+ * same slot, readers must verify that the item they get back actually
+ * corresponds to the packet they are rewriting.
+ */
+public class ProjectionRing<T>
+{
+    /**
+     * The SSRC of the encoding whose projections this ring holds.
+     */
+    private final long ssrc;
+
+    /**
+     * The slots of the ring.
+     */
+    private final AtomicReferenceArray<T> slots;
+
+    /**
+     * The mask that maps a key to a slot.
+     */
+    private final int mask;
+
+    /**
+     * Initializes a new {@link ProjectionRing} with at least {@code minSize}
+     * slots.
+     *
+     * @param ssrc the SSRC of the encoding whose projections the ring holds.
+     * @param minSize the minimum number of slots. The actual number is rounded
+     * up to a power of two.
+     */
+    public ProjectionRing(long ssrc, int minSize)
+    {
+        this.ssrc = ssrc;
+        int size = Integer.highestOneBit(Math.max(1, minSize - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Publishes an item for a key, replacing whatever was previously stored
+     * in the same slot. Must only be called by the writer thread.
+     */
+    public void put(int key, @NotNull T item)
+    {
+        slots.lazySet(key & mask, item);
+    }
+
+    /**
+     * Gets the item which was most recently published in the slot for a key.
+     * The caller must check that the returned item matches what it expects.
+     */
+    @Nullable
+    public T get(int key)
+    {
+        return slots.get(key & mask);
+    }
+
+    /**
+     * @return the SSRC of the encoding whose projections this ring holds.
+     */
+    public long getSsrc()
+    {
+        return ssrc;
+    }
+
+    /**
+     * @return the number of slots in this ring.
+     */
+    public int size()
+    {
+        return mask + 1;
+    }
+}
@@ -26,13 +26,17 @@
 import org.jitsi.utils.logging.*;
 import org.jitsi.utils.logging2.Logger;
 import org.jitsi.videobridge.cc.AdaptiveSourceProjection;
+import org.jitsi.videobridge.cc.KeyframeCache;
+import org.jitsi.videobridge.cc.ProjectionGroups;
 import org.jitsi.videobridge.cc.RewriteException;
+import org.jitsi.videobridge.cc.RtpState;
 import org.json.simple.*;
 
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
 
 class BitrateControllerPacketHandler
 {
@@ -60,16 +64,50 @@
     private final DiagnosticContext diagnosticContext;
     private final EventEmitter<BitrateController.EventHandler> eventEmitter;
 
+    /**
+     * The projection groups of the conference, or {@code null} if projections are not shared between receivers.
+     */
+    @Nullable
+    private final ProjectionGroups projectionGroups;
+
+    /**
+     * The keyframe cache of the conference, or {@code null} if keyframes are not cached.
+     */
+    @Nullable
+    private final KeyframeCache keyframeCache;
+
+    /**
+     * Sends packets replayed from {@link #keyframeCache} (which have already been transformed) to the receiver.
+     */
+    @Nullable
+    private final Consumer<PacketInfo> replayedPacketSender;
+
+    /**
+     * The SSRC slots of the receiver, or {@code null} if the sources are
+     * forwarded with their own SSRCs. When set, the projections are only
+     * created (in {@link #updateSsrcSlots}) for the sources which get a slot.
+     */
+    @Nullable
+    private final SsrcSlots ssrcSlots;
+
     BitrateControllerPacketHandler(
             Clock clock,
             Logger parentLogger,
             DiagnosticContext diagnosticContext,
-            EventEmitter<BitrateController.EventHandler> eventEmitter)
+            EventEmitter<BitrateController.EventHandler> eventEmitter,
+            @Nullable ProjectionGroups projectionGroups,
+            @Nullable KeyframeCache keyframeCache,
+            @Nullable Consumer<PacketInfo> replayedPacketSender,
+            @Nullable SsrcSlots ssrcSlots)
     {
         this.clock = clock;
         this.logger = parentLogger.createChildLogger(BitrateControllerPacketHandler.class.getName());
         this.diagnosticContext = diagnosticContext;
         this.eventEmitter = eventEmitter;
+        this.projectionGroups = projectionGroups;
+        this.keyframeCache = keyframeCache;
+        this.replayedPacketSender = replayedPacketSender;
+        this.ssrcSlots = ssrcSlots;
     }
 
     /**
@@ -158,7 +196,7 @@ boolean accept(@NotNull RtcpSrPacket rtcpSrPacket)
         }
 
         // We only accept SRs for the SSRC that we're forwarding with.
-        return ssrc == adaptiveSourceProjection.getTargetSsrc();
+        return ssrc == adaptiveSourceProjection.getSourceSsrc();
     }
 
     boolean transformRtcp(RtcpSrPacket rtcpSrPacket)
@@ -167,7 +205,35 @@ boolean transformRtcp(RtcpSrPacket rtcpSrPacket)
 
         AdaptiveSourceProjection adaptiveSourceProjection = adaptiveSourceProjectionMap.get(ssrc);
 
-        return adaptiveSourceProjection != null && adaptiveSourceProjection.rewriteRtcp(rtcpSrPacket);
+        if (adaptiveSourceProjection == null || !adaptiveSourceProjection.rewriteRtcp(rtcpSrPacket))
+        {
+            return false;
+        }
+        if (ssrcSlots != null)
+        {
+            rtcpSrPacket.setSenderSsrc(adaptiveSourceProjection.getTargetSsrc());
+        }
+        return true;
+    }
+
+    /**
+     * Gets the SSRC with which a source is forwarded, which is its SSRC slot
+     * if it has one.
+     */
+    long getTargetSsrc(long sourceSsrc)
+    {
+        AdaptiveSourceProjection adaptiveSourceProjection = adaptiveSourceProjectionMap.get(sourceSsrc);
+        return adaptiveSourceProjection == null ? sourceSsrc : adaptiveSourceProjection.getTargetSsrc();
+    }
+
+    /**
+     * Gets the primary SSRC of the source which is forwarded with a given
+     * SSRC, i.e. the source on an SSRC slot. Other SSRCs are returned as is.
+     */
+    long getSourceSsrc(long targetSsrc)
+    {
+        Long sourceSsrc = ssrcSlots == null ? null : ssrcSlots.getSourceSsrc(targetSsrc);
+        return sourceSsrc == null ? targetSsrc : sourceSsrc;
     }
 
     /**
@@ -184,6 +250,12 @@ private AdaptiveSourceProjection lookupOrCreateAdaptiveSourceProjection(SingleAl
             return null;
         }
 
+        if (ssrcSlots != null)
+        {
+            // Created when the source gets a slot.
+            return adaptiveSourceProjectionMap.get(source.getPrimarySSRC());
+        }
+
         synchronized (adaptiveSourceProjectionMap)
         {
             AdaptiveSourceProjection adaptiveSourceProjection
@@ -201,24 +273,16 @@ private AdaptiveSourceProjection lookupOrCreateAdaptiveSourceProjection(SingleAl
                 return null;
             }
 
-            // XXX the lambda keeps a reference to the sourceBitrateAllocation
-            // (a short lived object under normal circumstances) which keeps
-            // a reference to the Endpoint object that it refers to. That
-            // can cause excessive object retention (i.e. the endpoint is expired
-            // but a reference persists in the adaptiveSourceProjectionMap). We're
-            // creating local final variables and pass that to the lambda function
-            // in order to avoid that.
-            final long targetSSRC = source.getPrimarySSRC();
             adaptiveSourceProjection
                     = new AdaptiveSourceProjection(
                     diagnosticContext,
                     source,
-                    () -> eventEmitter.fireEvent(handler -> {
-                        handler.keyframeNeeded(endpointID, targetSSRC);
-                        return Unit.INSTANCE;
-                    }),
+                    createKeyframeRequester(endpointID, source.getPrimarySSRC()),
                     payloadTypes,
-                    logger);
+                    logger,
+                    projectionGroups,
+                    replayedPacketSender == null ? null : keyframeCache,
+                    replayedPacketSender);
 
             logger.debug(() -> "new source projection for " + source);
 
@@ -232,6 +296,100 @@ private AdaptiveSourceProjection lookupOrCreateAdaptiveSourceProjection(SingleAl
         }
     }
 
+    /**
+     * XXX the lambda keeps a reference to the sourceBitrateAllocation
+     * (a short lived object under normal circumstances) which keeps
+     * a reference to the Endpoint object that it refers to. That
+     * can cause excessive object retention (i.e. the endpoint is expired
+     * but a reference persists in the adaptiveSourceProjectionMap). We're
+     * passing the IDs to the lambda function in order to avoid that.
+     */
+    private Runnable createKeyframeRequester(String endpointID, long targetSSRC)
+    {
+        return () -> eventEmitter.fireEvent(handler -> {
+            handler.keyframeNeeded(endpointID, targetSSRC);
+            return Unit.INSTANCE;
+        });
+    }
+
+    /**
+     * Gives SSRC slots to the sources forwarded by {@code allocation} which
+     * don't have one, replacing the projections of the sources which had
+     * those slots before.
+     */
+    private void updateSsrcSlots(@NotNull SsrcSlots ssrcSlots, @NotNull BandwidthAllocation allocation)
+    {
+        Map<Long, MediaSourceDesc> sources = new HashMap<>();
+        Map<Long, String> forwarded = new LinkedHashMap<>();
+        for (SingleAllocation singleAllocation : allocation.getAllocations())
+        {
+            MediaSourceDesc source = singleAllocation.getEndpoint().getMediaSource();
+            if (singleAllocation.getTargetLayer() != null
+                && source != null
+                && !ArrayUtils.isNullOrEmpty(source.getRtpEncodings()))
+            {
+                sources.put(source.getPrimarySSRC(), source);
+                forwarded.put(source.getPrimarySSRC(), singleAllocation.getEndpoint().getId());
+            }
+        }
+
+        List<SsrcSlots.Reassignment> reassignments = ssrcSlots.update(forwarded);
+        if (reassignments.isEmpty())
+        {
+            return;
+        }
+
+        synchronized (adaptiveSourceProjectionMap)
+        {
+            for (SsrcSlots.Reassignment reassignment : reassignments)
+            {
+                RtpState previousRtpState = null;
+                AdaptiveSourceProjection previous
+                    = adaptiveSourceProjectionMap.get(reassignment.getPreviousSourceSsrc());
+                if (previous != null)
+                {
+                    previousRtpState = previous.getRtpState();
+                    adaptiveSourceProjectionMap.values().removeIf(p -> p == previous);
+                    previous.close();
+                }
+
+                MediaSourceDesc source = sources.get(reassignment.getSourceSsrc());
+                AdaptiveSourceProjection adaptiveSourceProjection = new AdaptiveSourceProjection(
+                    diagnosticContext,
+                    source,
+                    reassignment.getSsrc(),
+                    previousRtpState,
+                    createKeyframeRequester(forwarded.get(source.getPrimarySSRC()), source.getPrimarySSRC()),
+                    payloadTypes,
+                    logger,
+                    replayedPacketSender == null ? null : keyframeCache,
+                    replayedPacketSender);
+                logger.debug(() -> "Forwarding " + source + " on SSRC slot " + reassignment.getSsrc());
+
+                for (RtpEncodingDesc rtpEncoding : source.getRtpEncodings())
+                {
+                    adaptiveSourceProjectionMap.put(rtpEncoding.getPrimarySSRC(), adaptiveSourceProjection);
+                }
+            }
+        }
+
+        List<SsrcSlot> slots = ssrcSlots.getSlots();
+        eventEmitter.fireEvent(handler -> {
+            handler.ssrcSlotsChanged(slots);
+            return Unit.INSTANCE;
+        });
+    }
+
+    /**
+     * The current state of the SSRC slots, or {@code null} if they are not
+     * enabled.
+     */
+    @Nullable
+    List<SsrcSlot> getSsrcSlots()
+    {
+        return ssrcSlots == null ? null : ssrcSlots.getSlots();
+    }
+
     long timeSinceFirstMedia()
     {
         if (firstMediaMs == -1)
@@ -246,6 +404,17 @@ private Map<Long, AdaptiveSourceProjection> getAdaptiveSourceProjectionMap()
         return adaptiveSourceProjectionMap;
     }
 
+    /**
+     * Releases the resources that the projections share with other receivers.
+     */
+    void expire()
+    {
+        for (AdaptiveSourceProjection adaptiveSourceProjection : new HashSet<>(adaptiveSourceProjectionMap.values()))
+        {
+            adaptiveSourceProjection.close();
+        }
+    }
+
     void addPayloadType(PayloadType payloadType)
     {
         payloadTypes.put(payloadType.getPt(), payloadType);
@@ -263,6 +432,10 @@ JSONObject getDebugState()
             adaptiveSourceProjectionsJson.put(entry.getKey(), entry.getValue().getDebugState());
         }
         debugState.put("adaptiveSourceProjectionMap", adaptiveSourceProjectionsJson);
+        if (ssrcSlots != null)
+        {
+            debugState.put("ssrcSlots", ssrcSlots.getDebugState());
+        }
 
         return debugState;
     }
@@ -272,6 +445,11 @@ JSONObject getDebugState()
      */
     void allocationChanged(@NotNull BandwidthAllocation allocation)
     {
+        if (ssrcSlots != null)
+        {
+            updateSsrcSlots(ssrcSlots, allocation);
+        }
+
         if (allocation.getAllocations().isEmpty())
         {
             for (AdaptiveSourceProjection adaptiveSourceProjection : getAdaptiveSourceProjectionMap().values())
@@ -28,12 +28,18 @@
 import org.json.simple.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class represents a projection of a VP8 RTP stream in the RFC 7667 sense
  * and it is the main entry point for VP8 simulcast/svc RTP/RTCP rewriting. Read
  * svc.md for implementation details. Instances of this class are thread-safe.
  *
+ * Calls to {@link #accept(PacketInfo, int, int)} are serialized and they are the
+ * only ones that touch the frame maps. The projections they create are
+ * published in {@link #projections}, so that {@link #rewriteRtp(PacketInfo)}
+ * can run on the receiver's send thread without taking a lock.
+ *
  * @author George Politis
  */
 public class VP8AdaptiveSourceProjectionContext
@@ -42,11 +48,39 @@
     private final Logger logger;
 
     /**
-     * A map that stores the per-encoding VP8 frame maps.
+     * A map that stores the per-encoding VP8 frame maps. Only accessed from
+     * {@link #accept(PacketInfo, int, int)} (and for debugging).
      */
     private final Map<Long, VP8FrameMap>
         vp8FrameMaps = new HashMap<>();
 
+    /**
+     * The per-encoding projections of the accepted frames, indexed by picture
+     * ID. Written by {@link #accept(PacketInfo, int, int)} and read by
+     * {@link #rewriteRtp(PacketInfo)}.
+     */
+    private final Map<Long, ProjectionRing<VP8FrameProjection>>
+        projections = new ConcurrentHashMap<>();
+
+    /**
+     * The ring in {@link #projections} that was most recently published to.
+     * Consecutive packets almost always belong to the same encoding, so this
+     * saves a (boxing) map lookup per packet.
+     */
+    private volatile ProjectionRing<VP8FrameProjection> lastProjectionRing;
+
+    /**
+     * The entry of {@link #vp8FrameMaps} that was most recently used. Like
+     * {@link #vp8FrameMaps} it is only accessed from
+     * {@link #accept(PacketInfo, int, int)}.
+     */
+    private VP8FrameMap lastFrameMap;
+
+    /**
+     * The SSRC of {@link #lastFrameMap}.
+     */
+    private long lastFrameMapSsrc = -1;
+
     /**
      * The {@link VP8QualityFilter} instance that does quality filtering on the
      * incoming frames.
@@ -63,7 +97,7 @@
      * In this context, last here means with the highest sequence number
      * and not, for example, the last one received by the bridge.
      */
-    private VP8FrameProjection lastVP8FrameProjection;
+    private volatile VP8FrameProjection lastVP8FrameProjection;
 
     /**
      * The VP8 media format. No essential functionality relies on this field,
@@ -95,14 +129,71 @@ public VP8AdaptiveSourceProjectionContext(
             rtpState.ssrc, rtpState.maxSequenceNumber, rtpState.maxTimestamp);
     }
 
-    /** Lookup a Vp8Frame for a packet. */
-    private VP8Frame lookupVP8Frame(@NotNull Vp8Packet vp8Packet)
+    /** Lookup the published projection of the frame of a packet. */
+    @Nullable
+    private VP8FrameProjection lookupProjection(@NotNull Vp8Packet vp8Packet)
     {
-        VP8FrameMap frameMap = vp8FrameMaps.get(vp8Packet.getSsrc());
-        if (frameMap == null)
+        ProjectionRing<VP8FrameProjection> ring = lastProjectionRing;
+        if (ring == null || ring.getSsrc() != vp8Packet.getSsrc())
+        {
+            ring = projections.get(vp8Packet.getSsrc());
+            if (ring == null)
+            {
+                return null;
+            }
+        }
+
+        VP8FrameProjection projection = ring.get(vp8Packet.getPictureId());
+        if (projection == null
+            || projection.getVP8Frame() == null
+            || projection.getVP8Frame().getPictureId() != vp8Packet.getPictureId()
+            || !projection.getVP8Frame().matchesFrame(vp8Packet))
+        {
             return null;
+        }
 
-        return frameMap.findFrame(vp8Packet);
+        return projection;
+    }
+
+    /**
+     * Make the projection of an accepted frame visible to
+     * {@link #rewriteRtp(PacketInfo)}.
+     */
+    private void publishProjection(@NotNull VP8Frame frame, @NotNull VP8FrameProjection projection)
+    {
+        ProjectionRing<VP8FrameProjection> ring = lastProjectionRing;
+        if (ring == null || ring.getSsrc() != frame.getSsrc())
+        {
+            ring = projections.get(frame.getSsrc());
+            if (ring == null)
+            {
+                ring = new ProjectionRing<>(frame.getSsrc(), 2 * VP8FrameMap.FRAME_MAP_SIZE);
+                projections.put(frame.getSsrc(), ring);
+            }
+            lastProjectionRing = ring;
+        }
+
+        ring.put(frame.getPictureId(), projection);
+    }
+
+    /**
+     * Get the frame map of an encoding, or null if we haven't seen it yet.
+     */
+    @Nullable
+    private VP8FrameMap getFrameMap(long ssrc)
+    {
+        if (lastFrameMap != null && lastFrameMapSsrc == ssrc)
+        {
+            return lastFrameMap;
+        }
+
+        VP8FrameMap frameMap = vp8FrameMaps.get(ssrc);
+        if (frameMap != null)
+        {
+            lastFrameMap = frameMap;
+            lastFrameMapSsrc = ssrc;
+        }
+        return frameMap;
     }
 
     /**
@@ -111,9 +202,13 @@ private VP8Frame lookupVP8Frame(@NotNull Vp8Packet vp8Packet)
     private VP8FrameMap.FrameInsertionResult insertPacketInMap(
         @NotNull Vp8Packet vp8Packet)
     {
-        VP8FrameMap frameMap = vp8FrameMaps.computeIfAbsent(vp8Packet.getSsrc(),
-            ssrc -> new VP8FrameMap(logger));
-        /* TODO: add more context (ssrc?) to frame map's logger? */
+        VP8FrameMap frameMap = getFrameMap(vp8Packet.getSsrc());
+        if (frameMap == null)
+        {
+            /* TODO: add more context (ssrc?) to frame map's logger? */
+            frameMap = new VP8FrameMap(logger);
+            vp8FrameMaps.put(vp8Packet.getSsrc(), frameMap);
+        }
 
         return frameMap.insertPacket(vp8Packet);
     }
@@ -122,9 +217,9 @@ private VP8FrameMap.FrameInsertionResult insertPacketInMap(
      * Find the previous frame before the given one.
      */
     @Nullable
-    private synchronized VP8Frame prevFrame(@NotNull VP8Frame frame)
+    private VP8Frame prevFrame(@NotNull VP8Frame frame)
     {
-        VP8FrameMap frameMap = vp8FrameMaps.get(frame.getSsrc());
+        VP8FrameMap frameMap = getFrameMap(frame.getSsrc());
         if (frameMap == null)
         {
             return null;
@@ -137,9 +232,9 @@ private synchronized VP8Frame prevFrame(@NotNull VP8Frame frame)
      * Find the next frame after the given one.
      */
     @Nullable
-    private synchronized VP8Frame nextFrame(@NotNull VP8Frame frame)
+    private VP8Frame nextFrame(@NotNull VP8Frame frame)
     {
-        VP8FrameMap frameMap = vp8FrameMaps.get(frame.getSsrc());
+        VP8FrameMap frameMap = getFrameMap(frame.getSsrc());
         if (frameMap == null)
         {
             return null;
@@ -154,7 +249,7 @@ private synchronized VP8Frame nextFrame(@NotNull VP8Frame frame)
     @Nullable
     private VP8Frame findPrevAcceptedFrame(@NotNull VP8Frame frame)
     {
-        VP8FrameMap frameMap = vp8FrameMaps.get(frame.getSsrc());
+        VP8FrameMap frameMap = getFrameMap(frame.getSsrc());
         if (frameMap == null)
         {
             return null;
@@ -169,7 +264,7 @@ private VP8Frame findPrevAcceptedFrame(@NotNull VP8Frame frame)
     @Nullable
     private VP8Frame findNextAcceptedFrame(@NotNull VP8Frame frame)
     {
-        VP8FrameMap frameMap = vp8FrameMaps.get(frame.getSsrc());
+        VP8FrameMap frameMap = getFrameMap(frame.getSsrc());
         if (frameMap == null)
         {
             return null;
@@ -186,7 +281,7 @@ private VP8Frame findNextAcceptedFrame(@NotNull VP8Frame frame)
     @Nullable
     private VP8Frame findNextTl0(@NotNull VP8Frame frame)
     {
-        VP8FrameMap frameMap = vp8FrameMaps.get(frame.getSsrc());
+        VP8FrameMap frameMap = getFrameMap(frame.getSsrc());
         if (frameMap == null)
         {
             return null;
@@ -332,6 +427,7 @@ public synchronized boolean accept(
                     return false;
                 }
                 frame.setProjection(projection);
+                publishProjection(frame, projection);
 
                 if (RtpUtils.isNewerSequenceNumberThan(projection.getEarliestProjectedSequence(),
                         lastVP8FrameProjection.getLatestProjectedSequence()))
@@ -700,20 +796,15 @@ public void rewriteRtp(
             throw new RewriteException("VP8 packet without picture ID in VP8 source projection");
         }
 
-        VP8Frame vp8Frame = lookupVP8Frame(vp8Packet);
-        if (vp8Frame == null)
+        VP8FrameProjection projection = lookupProjection(vp8Packet);
+        if (projection == null)
         {
             // This packet does not belong to an accepted frame.
-            // Possibly it aged off the frame map since accept was called?
-            throw new RewriteException("Frame not in tracker (aged off?)");
-        }
-
-        if (vp8Frame.getProjection() == null) {
-            /* Shouldn't happen for an accepted packet whose frame is still known? */
-            throw new RewriteException("Frame does not have projection?");
+            // Possibly its slot was reused since accept was called?
+            throw new RewriteException("Frame projection not found (aged off?)");
         }
 
-        vp8Frame.getProjection().rewriteRtp(vp8Packet);
+        projection.rewriteRtp(vp8Packet);
     }
 
     /**
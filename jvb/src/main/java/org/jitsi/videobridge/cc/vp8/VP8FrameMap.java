@@ -30,6 +30,10 @@
 
 /**
  * A history of recent frames on a VP8 stream.
+ *
+ * Instances of this class are *NOT* thread safe. They are owned by a
+ * {@link VP8AdaptiveSourceProjectionContext}, which only accesses them from
+ * its (serialized) accept path.
  */
 public class VP8FrameMap
 {
@@ -40,6 +44,12 @@
 
     private final Logger logger;
 
+    /**
+     * The result returned by {@link #insertPacket(Vp8Packet)}. It is reused for
+     * every packet to avoid allocating on the packet path.
+     */
+    private final FrameInsertionResult insertionResult = new FrameInsertionResult();
+
     /**
      * Ctor.
      *
@@ -51,7 +61,7 @@ public VP8FrameMap(
     }
 
     /** Find a frame in the frame map, based on a packet. */
-    public synchronized VP8Frame findFrame(@NotNull Vp8Packet packet)
+    public VP8Frame findFrame(@NotNull Vp8Packet packet)
     {
         return frameHistory.get(packet.getPictureId());
     }
@@ -64,7 +74,6 @@ public int size()
 
     /** Helper function to insert a packet into an existing frame. */
     @NotNull
-    @Contract("_, _ -> new")
     private FrameInsertionResult doFrameInsert(@NotNull VP8Frame frame, Vp8Packet packet)
     {
         try
@@ -76,7 +85,7 @@ private FrameInsertionResult doFrameInsert(@NotNull VP8Frame frame, Vp8Packet pa
             logger.warn(e);
         }
         frame.addPacket(packet);
-        return new FrameInsertionResult(frame, false, false);
+        return insertionResult.set(frame, false, false);
     }
 
     /** Check whether this is a large jump from previous state, so the map should be reset. */
@@ -120,11 +129,12 @@ private boolean isLargeJump(@NotNull Vp8Packet packet)
     }
 
     /** Insert a packet into the frame map.  Return a FrameInsertionResult
-     *  describing what happened.
+     *  describing what happened.  The returned instance is owned by this map
+     *  and is only valid until the next call.
      * @param packet The packet to insert.
      * @return What happened.  null if insertion failed.
      */
-    public synchronized FrameInsertionResult insertPacket(@NotNull Vp8Packet packet)
+    public FrameInsertionResult insertPacket(@NotNull Vp8Packet packet)
     {
         int pictureId = packet.getPictureId();
 
@@ -146,7 +156,7 @@ public synchronized FrameInsertionResult insertPacket(@NotNull Vp8Packet packet)
                 return null;
             }
 
-            return new FrameInsertionResult(frame, true, true);
+            return insertionResult.set(frame, true, true);
         }
 
         VP8Frame frame = frameHistory.get(pictureId);
@@ -182,53 +192,54 @@ public synchronized FrameInsertionResult insertPacket(@NotNull Vp8Packet packet)
             return null;
         }
 
-        return new FrameInsertionResult(frame, true, false);
+        return insertionResult.set(frame, true, false);
     }
 
     @Nullable
-    public synchronized VP8Frame nextFrame(@NotNull VP8Frame frame)
+    public VP8Frame nextFrame(@NotNull VP8Frame frame)
     {
         return frameHistory.findAfter(frame, (VP8Frame f) -> true );
     }
 
     @Nullable
-    public synchronized VP8Frame nextFrameWith(@NotNull VP8Frame frame, Predicate<VP8Frame> pred)
+    public VP8Frame nextFrameWith(@NotNull VP8Frame frame, Predicate<VP8Frame> pred)
     {
         return frameHistory.findAfter(frame, pred);
     }
 
     @Nullable
-    public synchronized VP8Frame findNextTl0(@NotNull VP8Frame frame)
+    public VP8Frame findNextTl0(@NotNull VP8Frame frame)
     {
         return nextFrameWith(frame, VP8Frame::isTL0);
     }
 
     @Nullable
-    public synchronized VP8Frame findNextAcceptedFrame(@NotNull VP8Frame frame)
+    public VP8Frame findNextAcceptedFrame(@NotNull VP8Frame frame)
     {
         return nextFrameWith(frame, VP8Frame::isAccepted);
     }
 
     @Nullable
-    public synchronized VP8Frame prevFrame(@NotNull VP8Frame frame)
+    public VP8Frame prevFrame(@NotNull VP8Frame frame)
     {
         return frameHistory.findBefore(frame, (VP8Frame f) -> true );
     }
 
     @Nullable
-    public synchronized VP8Frame prevFrameWith(@NotNull VP8Frame frame, Predicate<VP8Frame> pred)
+    public VP8Frame prevFrameWith(@NotNull VP8Frame frame, Predicate<VP8Frame> pred)
     {
         return frameHistory.findBefore(frame, pred);
     }
 
     @Nullable
-    public synchronized VP8Frame findPrevAcceptedFrame(@NotNull VP8Frame frame)
+    public VP8Frame findPrevAcceptedFrame(@NotNull VP8Frame frame)
     {
         return prevFrameWith(frame, VP8Frame::isAccepted);
     }
 
     /**
-     * The result of calling {@link #insertPacket(Vp8Packet).}
+     * The result of calling {@link #insertPacket(Vp8Packet).} A mutable holder
+     * which is reused by its {@link VP8FrameMap}.
      */
     public static class FrameInsertionResult
     {
@@ -241,12 +252,13 @@ public synchronized VP8Frame findPrevAcceptedFrame(@NotNull VP8Frame frame)
         /** Whether inserting the frame caused a reset */
         private boolean reset;
 
-        /** Construct a FrameInsertionResult. */
-        private FrameInsertionResult(VP8Frame frame, boolean newFrame, boolean reset)
+        /** Set the fields of this FrameInsertionResult. */
+        private FrameInsertionResult set(VP8Frame frame, boolean newFrame, boolean reset)
         {
             this.frame = frame;
             this.newFrame = newFrame;
             this.reset = reset;
+            return this;
         }
 
         /** Get the frame corresponding to the packet that was inserted. */
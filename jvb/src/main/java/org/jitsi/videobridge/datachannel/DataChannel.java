@@ -152,4 +152,24 @@ public void sendString(String message)
         DataChannelStringMessage stringMessage = new DataChannelStringMessage(message);
         dataChannelDataSender.send(stringMessage.getBuffer(), sid, DataChannelProtocolConstants.WEBRTC_PPID_STRING);
     }
+
+    /**
+     * Sends a string message, which is already UTF-8 encoded, through this data channel. {@code utf8} is not
+     * modified, so it can be shared with other senders.
+     * @param utf8 the UTF-8 encoded string.
+     */
+    public void sendString(byte[] utf8)
+    {
+        dataChannelDataSender.send(ByteBuffer.wrap(utf8), sid, DataChannelProtocolConstants.WEBRTC_PPID_STRING);
+    }
+
+    /**
+     * Sends binary data through this data channel.
+     * @param data the data to send.
+     */
+    public void sendBinary(byte[] data)
+    {
+        DataChannelBinaryMessage binaryMessage = new DataChannelBinaryMessage(data);
+        dataChannelDataSender.send(binaryMessage.getBuffer(), sid, DataChannelProtocolConstants.WEBRTC_PPID_BIN);
+    }
 }
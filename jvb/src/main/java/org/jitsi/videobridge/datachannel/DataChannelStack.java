@@ -52,11 +52,14 @@ public DataChannelStack(DataChannelDataSender dataChannelDataSender, Logger pare
 
     /**
      * Handles a received packet.
+     *
+     * @param data the payload of the SCTP message, which fills the whole array. The array is owned by the stack after
+     * this call (e.g. it becomes the data of a {@link DataChannelBinaryMessage}).
      */
-    public void onIncomingDataChannelPacket(ByteBuffer data, int sid, int ppid)
+    public void onIncomingDataChannelPacket(byte[] data, int sid, int ppid)
     {
         logger.debug(() -> "Data channel stack received SCTP message");
-        DataChannelMessage message = DataChannelProtocolMessageParser.parse(data.array(), ppid);
+        DataChannelMessage message = DataChannelProtocolMessageParser.parse(data, ppid);
         if (message instanceof OpenChannelMessage)
         {
             logger.info("Received data channel open message");
@@ -63,11 +63,18 @@ public static boolean isHealthy()
      */
     public static List<SinglePortUdpHarvester> singlePortHarvesters = null;
 
+    /**
+     * The server which answers the ICE checks of all <tt>IceTransport</tt>
+     * instances when ICE-lite is enabled, in which case it replaces
+     * {@link #singlePortHarvesters} and {@link #tcpHarvester}.
+     */
+    public static IceLiteServer iceLiteServer = null;
 
     /**
      * Initializes the static <tt>Harvester</tt> instances used by all
      * <tt>IceTransport</tt> instances, that is
-     * {@link #tcpHarvester} and {@link #singlePortHarvesters}.
+     * {@link #tcpHarvester} and {@link #singlePortHarvesters}, or
+     * {@link #iceLiteServer}.
      */
     public static void initializeStaticConfiguration()
     {
@@ -79,6 +86,25 @@ public static void initializeStaticConfiguration()
             }
             staticConfigurationInitialized = true;
 
+            if (IceConfig.config.getLiteEnabled())
+            {
+                IceLiteServer server = new IceLiteServer(
+                        IceLiteServer.getHostAddresses(),
+                        IceConfig.config.getPort());
+                if (server.getLocalAddresses().isEmpty())
+                {
+                    classLogger.warn("Failed to initialize the ICE-lite server.");
+                    server.close();
+                }
+                else
+                {
+                    iceLiteServer = server;
+                    classLogger.info("Initialized the ICE-lite server on "
+                            + server.getLocalAddresses());
+                }
+                healthy = iceLiteServer != null;
+                return;
+            }
 
             singlePortHarvesters
                     = SinglePortUdpHarvester.createHarvesters(IceConfig.config.getPort());
@@ -118,7 +144,8 @@ public static void initializeStaticConfiguration()
     /**
      * Stops the static <tt>Harvester</tt> instances used by all
      * <tt>IceTransport</tt> instances, that is
-     * {@link #tcpHarvester} and {@link #singlePortHarvesters}.
+     * {@link #tcpHarvester} and {@link #singlePortHarvesters}, or
+     * {@link #iceLiteServer}.
      */
     public static void closeStaticConfiguration()
     {
@@ -142,6 +169,12 @@ public static void closeStaticConfiguration()
                 tcpHarvester = null;
             }
 
+            if (iceLiteServer != null)
+            {
+                iceLiteServer.close();
+                iceLiteServer = null;
+            }
+
             // Reset the flag to initial state.
             healthy = true;
         }
@@ -123,6 +123,13 @@
      */
     private final AtomicBoolean running = new AtomicBoolean(true);
 
+    /**
+     * The {@link MediaSourceDesc}s created for the sources of the remote
+     * endpoints, by signature, so that re-signaling the same sources reuses
+     * them (see {@link MediaSourceFactory#createMediaSources}).
+     */
+    private final Map<String, MediaSourceDesc> mediaSourceMemo = new HashMap<>();
+
     /**
      * The ID of this bridge in this octo conference.
      */
@@ -377,9 +384,11 @@ public void setSources(
         octoEndpoints.setEndpoints(endpointIds);
 
         // Create the sources after creating the endpoints
-        MediaSourceDesc[] sources =
-            MediaSourceFactory.createMediaSources(
-                videoSources, videoSourceGroups);
+        MediaSourceDesc[] sources;
+        synchronized (mediaSourceMemo)
+        {
+            sources = MediaSourceFactory.createMediaSources(videoSources, videoSourceGroups, mediaSourceMemo);
+        }
         octoEndpoints.setMediaSources(sources);
 
         // We only need to call this if the sources of any endpoint actually
@@ -455,7 +464,7 @@ public void sendMessage(BridgeChannelMessage message)
         }
 
         bridgeOctoTransport.sendString(
-            message.toJson(),
+            message.toJsonBytes(),
             remoteBridges.values(),
             conferenceId
         );
@@ -125,7 +125,8 @@ public BridgeChannelMessage endpointMessage(@NotNull EndpointMessage message)
         if (message.isBroadcast())
         {
             // Broadcast message
-            targets = new LinkedList<>(conference.getLocalEndpoints());
+            conference.broadcastMessage(message, null, false /* sendToOcto */);
+            return null;
         }
         else
         {
@@ -179,11 +180,18 @@ public BridgeChannelMessage endpointStats(@NotNull EndpointStats message)
             return null;
         }
 
+        // The endpoints which accept aggregated stats get them from the aggregator.
         List<AbstractEndpoint> targets = conference.getLocalEndpoints().stream()
-            .filter((ep) -> ep.wantsStatsFrom(from))
+            .filter((ep) -> !ep.getAcceptsAggregatedStats() && ep.wantsStatsFrom(from))
             .collect(Collectors.toList());
 
         conference.sendMessage(message, targets, false);
+
+        EndpointStatsAggregator endpointStatsAggregator = conference.getEndpointStatsAggregator();
+        if (endpointStatsAggregator != null)
+        {
+            endpointStatsAggregator.add(message);
+        }
         return null;
     }
 
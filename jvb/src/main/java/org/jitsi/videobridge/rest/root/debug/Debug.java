@@ -27,6 +27,7 @@
 import org.jitsi.videobridge.rest.*;
 import org.jitsi.videobridge.rest.annotations.*;
 import org.jitsi.videobridge.stats.*;
+import org.jitsi.videobridge.transport.dtls.*;
 import org.jitsi.videobridge.util.*;
 import org.jitsi.videobridge.xmpp.*;
 
@@ -303,6 +304,12 @@ public String getJvbFeatureStats(@PathParam("feature") DebugFeatures feature)
             case TASK_POOL_STATS: {
                 return TaskPools.getStatsJson().toJSONString();
             }
+            case PROBING_SCHEDULER_STATS: {
+                return Endpoint.getProbingSchedulerStats().toJSONString();
+            }
+            case DTLS_HANDSHAKE_STATS: {
+                return DtlsHandshakeExecutor.getInstance().getStatsJson().toJSONString();
+            }
             case XMPP_DELAY_STATS: {
                 return XmppConnection.getStatsJson().toJSONString();
             }
@@ -30,6 +30,8 @@
     QUEUE_TIMING_STATS("queue-timing-stats"),
     TRANSIT_STATS("transit-stats"),
     TASK_POOL_STATS("task-pool-stats"),
+    PROBING_SCHEDULER_STATS("probing-scheduler-stats"),
+    DTLS_HANDSHAKE_STATS("dtls-handshake-stats"),
     NODE_TRACING("node-tracing"),
     XMPP_DELAY_STATS("xmpp-delay-stats");
 
@@ -16,7 +16,6 @@
 
 package org.jitsi.videobridge.sctp;
 
-import org.jetbrains.annotations.*;
 import org.jitsi.nlj.*;
 import org.jitsi.utils.logging2.*;
 import org.jitsi.videobridge.util.*;
@@ -31,8 +30,10 @@
  * that's all we use.
  *
  * All incoming SCTP data received should be passed to {@link SctpManager#handleIncomingSctp(PacketInfo)}.  This class
- * will route it through the {@link SctpSocket} instance so that, if it is an SCTP app packet the user of the
- * {@link SctpSocket} will receive it via the data callback.
+ * will route it through the {@link SctpServerConnection} instance so that, if it is an SCTP app packet the user of the
+ * {@link SctpServerConnection} will receive it via the data callback.
+ *
+ * The connection is implemented either by usrsctp or in the JVM, see {@link SctpConfig#getImplementation()}.
  */
 public class SctpManager {
     private static final Logger classLogger = new LoggerImpl(SctpManager.class.getName());
@@ -40,36 +41,40 @@ public class SctpManager {
     private final Logger logger;
     /**
      * The {@link SctpDataSender} is necessary from the start, as it's needed to send outgoing SCTP protocol packets
-     * (e.g. used in the connection negotiation)
+     * (e.g. used in the connection negotiation).
+     *
+     * The buffers that it is given are allocated by jitsi-sctp (a new array for every packet that usrsctp outputs)
+     * and are only lent to it for the duration of {@link SctpDataSender#send}: it must consume (e.g. encrypt) or
+     * copy the data before returning, and must never return the buffers to {@link ByteBufferPool}.
      */
     private final SctpDataSender dataSender;
 
     /**
-     * We hold a reference to the create socket so any received data maybe be routed through it.  Currently we only
-     * support a single active socket at a time.
+     * We hold a reference to the created connection so any received data maybe be routed through it.  Currently we
+     * only support a single active connection at a time.
      */
-    private SctpSocket socket = null;
+    private SctpServerConnection connection = null;
 
 
     // We hard-code 5000 in the offer, so just mark it as the default here.
     private static int DEFAULT_SCTP_PORT = 5000;
     static
     {
-        if (config.enabled())
+        if (config.enabled() && config.implementation() == SctpImplementation.USRSCTP)
         {
             classLogger.info("Initializing Sctp4j");
             Sctp4j.init(DEFAULT_SCTP_PORT);
         }
         else
         {
-            classLogger.info("Will not initialize Sctp4j, SCTP is not configured.");
+            classLogger.info("Will not initialize Sctp4j, usrsctp is not configured.");
         }
     }
 
     /**
      * Create a new {@link SctpManager} with the given data sender
      * @param dataSender a {@link SctpDataSender} which will be used when we need to send SCTP packets to the remote
-     *                   peer
+     *                   peer. It doesn't own the buffers that it is given (see {@link #dataSender}).
      */
     public SctpManager(SctpDataSender dataSender, Logger parentLogger)
     {
@@ -77,7 +82,7 @@ public SctpManager(SctpDataSender dataSender, Logger parentLogger)
         {
             throw new IllegalStateException("SCTP is disabled in configuration");
         }
-        this.dataSender = new BufferCopyingSctpDataSender(dataSender);
+        this.dataSender = dataSender;
         this.logger = parentLogger.createChildLogger(SctpManager.class.getName());
     }
 
@@ -87,12 +92,12 @@ public SctpManager(SctpDataSender dataSender, Logger parentLogger)
      *                   application packet
      */
     public void handleIncomingSctp(PacketInfo sctpPacket) {
-        logger.debug(() -> "SCTP Socket " + socket.hashCode() + " receiving incoming SCTP data");
+        logger.debug(() -> "SCTP connection " + connection.hashCode() + " receiving incoming SCTP data");
         //NOTE(brian): from what I can tell in usrsctp, we can assume that it will make a copy
         // of the buffer we pass it here (this ends up hitting usrsctp_conninput, and the sample
         // program for usrsctp re-uses the buffer that's passed here, and the code does appear
         // to make a copy).
-        socket.onConnIn(
+        connection.onConnIn(
             sctpPacket.getPacket().getBuffer(),
             sctpPacket.getPacket().getOffset(),
             sctpPacket.getPacket().getLength()
@@ -101,70 +106,43 @@ public void handleIncomingSctp(PacketInfo sctpPacket) {
     }
 
     /**
-     * Create an {@link SctpServerSocket} to be used to wait for incoming SCTP connections
-     * @return an {@link SctpServerSocket}
+     * Create an {@link SctpServerConnection} to be used to wait for incoming SCTP connections
+     * @return an {@link SctpServerConnection}
      */
-    public SctpServerSocket createServerSocket()
+    public SctpServerConnection createServerSocket()
     {
-        socket = Sctp4j.createServerSocket(DEFAULT_SCTP_PORT);
-        socket.outgoingDataSender = this.dataSender;
-        logger.debug(() -> "Created SCTP server socket " + socket.hashCode());
-        return (SctpServerSocket)socket;
-    }
-
-    /**
-     * Create an {@link SctpClientSocket} to be used to open an SCTP connection
-     * @return an {@link SctpClientSocket}
-     */
-    public SctpClientSocket createClientSocket() {
-        socket = Sctp4j.createClientSocket(DEFAULT_SCTP_PORT);
-        socket.outgoingDataSender = this.dataSender;
-        if (logger.isDebugEnabled())
+        if (config.implementation() == SctpImplementation.JVM)
         {
-            logger.debug("Created SCTP client socket " + socket.hashCode());
+            connection = new JvmSctpAssociation(dataSender, logger);
         }
-        return (SctpClientSocket)socket;
+        else
+        {
+            SctpServerSocket socket = Sctp4j.createServerSocket(DEFAULT_SCTP_PORT);
+            socket.outgoingDataSender = this.dataSender;
+            connection = new UsrSctpServerConnection(socket);
+        }
+        logger.debug(() -> "Created SCTP server connection " + connection.hashCode());
+        return connection;
     }
 
     /**
-     * Close the active {@link SctpSocket}, if there is one
+     * Close the active {@link SctpServerConnection}, if there is one
      */
     public void closeConnection() {
-        if (socket != null) {
+        if (connection != null) {
             if (logger.isDebugEnabled())
             {
-                logger.debug("Closing SCTP socket " + socket.hashCode());
+                logger.debug("Closing SCTP connection " + connection.hashCode());
             }
-            socket.close();
-            socket = null;
+            connection.close();
+            connection = null;
         }
         else
         {
             if (logger.isDebugEnabled())
             {
-                logger.debug("No SCTP socket to close");
+                logger.debug("No SCTP connection to close");
             }
         }
     }
-
-    /**
-     * We set an instance of this as the {@link SctpSocket#outgoingDataSender}
-     * in order to change from a buffer that was allocated by jitsi-sctp
-     * to one from our pool, this way it can be returned later in the pipeline.
-     */
-    private static class BufferCopyingSctpDataSender implements SctpDataSender {
-        private final SctpDataSender innerSctpDataSender;
-        BufferCopyingSctpDataSender(@NotNull SctpDataSender sctpDataSender)
-        {
-            this.innerSctpDataSender = sctpDataSender;
-        }
-
-        @Override
-        public int send(byte[] data, int offset, int length)
-        {
-            byte[] newBuf = ByteBufferPool.getBuffer(length);
-            System.arraycopy(data, offset, newBuf, 0, length);
-            return innerSctpDataSender.send(newBuf, 0, length);
-        }
-    }
 }
@@ -31,6 +31,7 @@
 import org.jivesoftware.smack.packet.*;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.util.stream.*;
 
 import static org.jitsi.videobridge.Conference.GID_NOT_SET;
@@ -60,8 +61,33 @@
      */
     private final Map<MediaType, ContentShim> contents = new HashMap<>();
 
+    /**
+     * The maximum number of Colibri requests queued for this conference.
+     */
+    private static final int COLIBRI_QUEUE_CAPACITY = 100;
+
+    /**
+     * The Colibri requests for this conference, which are processed one at a
+     * time, in order, on the executor of {@link #colibriRequestExecutor}.
+     */
     private final PacketQueue<XmppConnection.ColibriRequest> colibriQueue;
 
+    /**
+     * The number of requests in {@link #colibriQueue} which haven't been
+     * processed. The queue drops requests without notice when it is closed
+     * (or full), so they are accounted for separately.
+     */
+    private final AtomicInteger numQueuedColibriRequests = new AtomicInteger();
+
+    /**
+     * Whether {@link #colibriQueue} was closed. Guarded by
+     * {@link #colibriQueue}, so that a request is either queued and accounted
+     * for before the queue is closed, or answered without being queued.
+     */
+    private boolean colibriQueueClosed = false;
+
+    private final ColibriRequestExecutor colibriRequestExecutor = ColibriRequestExecutor.getInstance();
+
     /**
      * Initializes a new {@link ConferenceShim} instance.
      *
@@ -72,45 +98,76 @@ public ConferenceShim(Conference conference, Logger parentLogger)
         this.logger = parentLogger.createChildLogger(ConferenceShim.class.getName());
         this.conference = conference;
         colibriQueue = new PacketQueue<>(
-                100,
+                COLIBRI_QUEUE_CAPACITY,
                 true,
                 "colibri-queue-" + conference.getID(),
                 request ->
                 {
-                    try
+                    // Otherwise the queue was closed, and the request was
+                    // accounted for as dropped.
+                    if (takeQueuedColibriRequest())
                     {
-                        long start = System.currentTimeMillis();
-                        IQ response = handleColibriConferenceIQ(request.getRequest());
-                        long end = System.currentTimeMillis();
-                        long processingDelay = end - start;
-                        long totalDelay = end - request.getReceiveTime();
-                        request.getProcessingDelayStats().addDelay(processingDelay);
-                        request.getTotalDelayStats().addDelay(totalDelay);
-                        if (processingDelay > 100)
-                        {
-                            logger.warn("Took " + processingDelay + " ms to process an IQ (total delay "
-                                    + totalDelay + " ms): " + request.getRequest().toXML());
-                        }
-                        request.getCallback().invoke(response);
-                    }
-                    catch (Throwable e)
-                    {
-                        logger.warn("Failed to handle colibri request: ", e);
-                        request.getCallback().invoke(
-                                IQUtils.createError(
-                                        request.getRequest(),
-                                        XMPPError.Condition.internal_server_error,
-                                        e.getMessage()));
+                        colibriRequestExecutor.process(request, logger, this::handleColibriConferenceIQ);
                     }
                     return true;
                 },
-                TaskPools.IO_POOL
+                colibriRequestExecutor.getExecutor()
         );
     }
 
+    /**
+     * Queues a Colibri request, which was admitted by
+     * {@link ColibriRequestExecutor#admit}, to be processed after the requests
+     * already queued for this conference.
+     */
     public void enqueueColibriRequest(XmppConnection.ColibriRequest request)
     {
-        colibriQueue.add(request);
+        XMPPError.Condition condition;
+        String message;
+        synchronized (colibriQueue)
+        {
+            if (colibriQueueClosed)
+            {
+                condition = XMPPError.Condition.item_not_found;
+                message = "Conference expired: " + conference.getID();
+            }
+            else if (numQueuedColibriRequests.incrementAndGet() > COLIBRI_QUEUE_CAPACITY)
+            {
+                numQueuedColibriRequests.decrementAndGet();
+                condition = XMPPError.Condition.resource_constraint;
+                message = "Too many pending requests for the conference";
+            }
+            else
+            {
+                colibriQueue.add(request);
+                return;
+            }
+        }
+
+        colibriRequestExecutor.reject(
+                request,
+                IQUtils.createError(request.getRequest(), condition, message));
+    }
+
+    /**
+     * Decrements {@link #numQueuedColibriRequests}, unless it is zero because
+     * the queue was closed.
+     *
+     * @return {@code true} if it was decremented.
+     */
+    private boolean takeQueuedColibriRequest()
+    {
+        int numQueued;
+        do
+        {
+            numQueued = numQueuedColibriRequests.get();
+            if (numQueued <= 0)
+            {
+                return false;
+            }
+        }
+        while (!numQueuedColibriRequests.compareAndSet(numQueued, numQueued - 1));
+        return true;
     }
 
 
@@ -396,7 +453,14 @@ void updateEndpoint(ColibriConferenceIQ.Endpoint colibriEndpoint)
 
     public void close()
     {
-        colibriQueue.close();
+        int numDropped;
+        synchronized (colibriQueue)
+        {
+            colibriQueueClosed = true;
+            colibriQueue.close();
+            numDropped = numQueuedColibriRequests.getAndSet(0);
+        }
+        colibriRequestExecutor.dropped(numDropped);
     }
 
     /**
@@ -69,6 +69,16 @@ public void onWebSocketText(String message)
         eventHandler.webSocketTextReceived(this, message);
     }
 
+    /**
+     * Handles a binary message received on this web socket.
+     */
+    @Override
+    public void onWebSocketBinary(byte[] payload, int offset, int len)
+    {
+        logger.debug(() -> "Received binary message, length=" + len);
+        eventHandler.webSocketBinaryReceived(this, payload, offset, len);
+    }
+
     /**
      * {@inheritDoc}
      * </p>
@@ -112,5 +122,11 @@ public interface EventHandler {
          * @param ws the {@link ColibriWebSocket} from which a message was received.
          */
         void webSocketTextReceived(ColibriWebSocket ws, String message);
+        /**
+         * Notifies that a binary message has been received from a
+         * specific {@link ColibriWebSocket} instance associated with it.
+         * @param ws the {@link ColibriWebSocket} from which a message was received.
+         */
+        void webSocketBinaryReceived(ColibriWebSocket ws, byte[] payload, int offset, int length);
     }
 }
@@ -15,6 +15,7 @@
  */
 package org.jitsi.videobridge.xmpp;
 
+import org.jetbrains.annotations.*;
 import org.jitsi.nlj.*;
 import org.jitsi.nlj.rtp.*;
 import org.jitsi.utils.logging2.*;
@@ -28,7 +29,8 @@
 import java.util.stream.*;
 
 /**
- * A factory of {@link MediaSourceDesc}s from jingle signaling.
+ * A factory of {@link MediaSourceDesc}s from jingle signaling. It has no
+ * state of its own, so it can be used concurrently for different endpoints.
  *
  * @author George Politis
  */
@@ -62,20 +64,9 @@
      * {@link SourceGroupPacketExtension}, which is how we distinguish secondary
      * ssrcs, so we'll translate them into constants defined in libjitsi
      */
-    private static Map<String, SsrcAssociationType> secondarySsrcTypeMap = null;
-
-    private static synchronized
-        Map<String, SsrcAssociationType> getSecondarySsrcTypeMap()
-    {
-        if (secondarySsrcTypeMap == null)
-        {
-            secondarySsrcTypeMap = new HashMap<>();
-            secondarySsrcTypeMap.put(
-                SourceGroupPacketExtension.SEMANTICS_FID, SsrcAssociationType.RTX);
-        }
-
-        return secondarySsrcTypeMap;
-    }
+    private static final Map<String, SsrcAssociationType> secondarySsrcTypeMap
+        = Collections.singletonMap(
+            SourceGroupPacketExtension.SEMANTICS_FID, SsrcAssociationType.RTX);
 
     private static final RtpLayerDesc[] noDependencies = new RtpLayerDesc[0];
 
@@ -177,8 +168,7 @@ private static RtpEncodingDesc createRtpEncodingDesc(Long primarySsrc,
         {
             secondarySsrcs.forEach(ssrcSecondarySsrc -> {
                 SsrcAssociationType type
-                    = getSecondarySsrcTypeMap()
-                    .get(ssrcSecondarySsrc.type);
+                    = secondarySsrcTypeMap.get(ssrcSecondarySsrc.type);
                 if (type == null)
                 {
                     logger.error("Unable to find a mapping for" +
@@ -528,6 +518,34 @@ private static String getResourceFromJid(String jid)
     public static MediaSourceDesc[] createMediaSources(
         Collection<SourcePacketExtension> sources,
         Collection<SourceGroupPacketExtension> sourceGroups)
+    {
+        return createMediaSources(sources, sourceGroups, null);
+    }
+
+    /**
+     * Creates {@link MediaSourceDesc}s from signaling params, reusing the ones
+     * created previously for sources which haven't changed. A source is reused
+     * (along with its encodings and layers, and the state they keep) if its
+     * owner, its primary SSRCs and their secondary SSRCs are the same, so
+     * re-signaling the same sources doesn't look like a change downstream.
+     *
+     * @param sources The {@link List} of {@link SourcePacketExtension} that
+     * describes the list of jingle sources.
+     * @param sourceGroups The {@link List} of
+     * {@link SourceGroupPacketExtension} that describes the list of jingle
+     * source groups.
+     * @param memo the {@link MediaSourceDesc}s returned by the previous call
+     * for the same endpoint (or Octo relay), by their signature, or
+     * {@code null} to always create new ones. It is updated with the
+     * {@link MediaSourceDesc}s which are returned. It must not be used by
+     * concurrent calls.
+     * @return an array of {@link MediaSourceDesc} that are described in the
+     * jingle sources and source groups.
+     */
+    public static MediaSourceDesc[] createMediaSources(
+        Collection<SourcePacketExtension> sources,
+        Collection<SourceGroupPacketExtension> sourceGroups,
+        @Nullable Map<String, MediaSourceDesc> memo)
     {
         final Collection<SourceGroupPacketExtension> finalSourceGroups
                 = sourceGroups == null ? new ArrayList<>() : sourceGroups;
@@ -538,6 +556,7 @@ public static MediaSourceDesc[] createMediaSources(
 
         List<SourceSsrcs> sourceSsrcsList = getSourceSsrcs(sources, finalSourceGroups);
         List<MediaSourceDesc> mediaSources = new ArrayList<>();
+        Map<String, MediaSourceDesc> newMemo = memo == null ? null : new HashMap<>();
 
         sourceSsrcsList.forEach(sourceSsrcs -> {
             // As of now, we only ever have 1 spatial layer per stream
@@ -555,18 +574,65 @@ public static MediaSourceDesc[] createMediaSources(
             final int numTemporalLayersPerStream = 3;
             Map<Long, SecondarySsrcs> secondarySsrcs
                 = getAllSecondarySsrcs(sourceSsrcs, finalSourceGroups);
-            MediaSourceDesc mediaSource
-                = createSource(
-                        sourceSsrcs,
-                        numSpatialLayersPerStream,
-                        numTemporalLayersPerStream,
-                        secondarySsrcs);
+            String signature = null;
+            MediaSourceDesc mediaSource = null;
+            if (memo != null)
+            {
+                signature = getSignature(sourceSsrcs, secondarySsrcs);
+                mediaSource = memo.get(signature);
+            }
+            if (mediaSource == null)
+            {
+                mediaSource
+                    = createSource(
+                            sourceSsrcs,
+                            numSpatialLayersPerStream,
+                            numTemporalLayersPerStream,
+                            secondarySsrcs);
+            }
+            if (newMemo != null)
+            {
+                newMemo.put(signature, mediaSource);
+            }
             mediaSources.add(mediaSource);
         });
 
+        if (memo != null)
+        {
+            memo.clear();
+            memo.putAll(newMemo);
+        }
+
         return mediaSources.toArray(new MediaSourceDesc[0]);
     }
 
+    /**
+     * Gets a string which identifies everything that the
+     * {@link MediaSourceDesc} of a source is created from.
+     *
+     * @param primarySsrcs the primary SSRCs of the source.
+     * @param allSecondarySsrcs the secondary SSRCs of each primary SSRC.
+     */
+    private static String getSignature(
+        SourceSsrcs primarySsrcs,
+        Map<Long, SecondarySsrcs> allSecondarySsrcs)
+    {
+        StringBuilder signature = new StringBuilder(String.valueOf(primarySsrcs.owner));
+        for (Long primarySsrc : primarySsrcs)
+        {
+            signature.append(' ').append(primarySsrc);
+            SecondarySsrcs secondarySsrcs = allSecondarySsrcs.get(primarySsrc);
+            if (secondarySsrcs != null)
+            {
+                for (SecondarySsrc secondarySsrc : secondarySsrcs)
+                {
+                    signature.append(',').append(secondarySsrc.type).append(':').append(secondarySsrc.ssrc);
+                }
+            }
+        }
+        return signature.toString();
+    }
+
     /**
      * Calculates the array position of an RTP layer description specified by its
      * spatial index (SVC) and temporal index (SVC).
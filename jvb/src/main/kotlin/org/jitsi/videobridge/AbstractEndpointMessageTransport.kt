@@ -72,6 +72,22 @@ abstract class AbstractEndpointMessageTransport<T : AbstractEndpoint>(parentLogg
         incomingMessageQueue.add(MessageAndSource(message, src))
     }
 
+    /**
+     * Notifies this [EndpointMessageTransport] that a specific message in the binary encoding has been received on a
+     * specific transport channel.
+     */
+    fun onMessage(src: Any?, bytes: ByteArray, offset: Int, length: Int) {
+        val message = try {
+            parse(bytes, offset, length)
+        } catch (ioe: IOException) {
+            logger.warn("Invalid binary message received (${ioe.message})")
+            return
+        }
+
+        logger.debug { "RECV (binary): ${message.toJson()}" }
+        incomingMessageQueue.add(MessageAndSource(message, src))
+    }
+
     /**
      * Sends [msg] over the active transport channel of this [EndpointMessageTransport].
      */
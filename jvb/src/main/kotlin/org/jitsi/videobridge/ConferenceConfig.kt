@@ -0,0 +1,37 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge
+
+import org.jitsi.config.JitsiConfig.Companion.newConfig
+import org.jitsi.metaconfig.config
+import org.jitsi.metaconfig.from
+import java.time.Duration
+
+class ConferenceConfig {
+    /**
+     * How long to wait for more endpoints to join (or for more sources to be signaled) before updating the speech
+     * activity and the bandwidth allocation of the endpoints of a conference. Zero updates them on every change.
+     */
+    val membershipBatchInterval: Duration by config(
+        "videobridge.conference.membership-batch-interval".from(newConfig)
+    )
+    fun membershipBatchInterval() = membershipBatchInterval
+
+    companion object {
+        @JvmField
+        val config = ConferenceConfig()
+    }
+}
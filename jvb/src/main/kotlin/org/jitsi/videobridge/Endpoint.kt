@@ -47,7 +47,6 @@ import org.jitsi.rtp.rtcp.rtcpfb.payload_specific_fb.RtcpFbPliPacket
 import org.jitsi.rtp.rtp.RtpPacket
 import org.jitsi.utils.MediaType
 import org.jitsi.utils.OrderedJsonObject
-import org.jitsi.utils.concurrent.RecurringRunnableExecutor
 import org.jitsi.utils.logging2.Logger
 import org.jitsi.utils.logging2.cdebug
 import org.jitsi.utils.mins
@@ -55,7 +54,11 @@ import org.jitsi.utils.queue.CountingErrorHandler
 import org.jitsi.videobridge.cc.BandwidthProbing
 import org.jitsi.videobridge.cc.allocation.BandwidthAllocation
 import org.jitsi.videobridge.cc.allocation.BitrateController
+import org.jitsi.videobridge.cc.allocation.SsrcSlot
+import org.jitsi.videobridge.cc.allocation.SsrcSlots
 import org.jitsi.videobridge.cc.allocation.VideoConstraints
+import org.jitsi.videobridge.cc.config.BandwidthProbingConfig
+import org.jitsi.videobridge.cc.config.BitrateControllerConfig
 import org.jitsi.videobridge.datachannel.DataChannelStack
 import org.jitsi.videobridge.datachannel.protocol.DataChannelPacket
 import org.jitsi.videobridge.datachannel.protocol.DataChannelProtocolConstants
@@ -63,14 +66,18 @@ import org.jitsi.videobridge.message.BridgeChannelMessage
 import org.jitsi.videobridge.message.ForwardedEndpointsMessage
 import org.jitsi.videobridge.message.ReceiverVideoConstraintsMessage
 import org.jitsi.videobridge.message.SenderVideoConstraintsMessage
+import org.jitsi.videobridge.message.VideoSsrcSlotsMessage
 import org.jitsi.videobridge.rest.root.debug.EndpointDebugFeatures
 import org.jitsi.videobridge.sctp.SctpConfig
+import org.jitsi.videobridge.sctp.JvmSctpAssociation
 import org.jitsi.videobridge.sctp.SctpManager
+import org.jitsi.videobridge.sctp.SctpServerConnection
 import org.jitsi.videobridge.shim.ChannelShim
 import org.jitsi.videobridge.stats.DoubleAverage
 import org.jitsi.videobridge.transport.dtls.DtlsTransport
 import org.jitsi.videobridge.transport.ice.IceTransport
 import org.jitsi.videobridge.util.ByteBufferPool
+import org.jitsi.videobridge.util.ShardedScheduler
 import org.jitsi.videobridge.util.TaskPools
 import org.jitsi.videobridge.util.looksLikeDtls
 import org.jitsi.videobridge.websocket.colibriWebSocketServiceSupplier
@@ -80,17 +87,18 @@ import org.jitsi.xmpp.extensions.colibri.WebSocketPacketExtension
 import org.jitsi.xmpp.extensions.jingle.DtlsFingerprintPacketExtension
 import org.jitsi.xmpp.extensions.jingle.IceUdpTransportPacketExtension
 import org.jitsi_modified.sctp4j.SctpDataCallback
-import org.jitsi_modified.sctp4j.SctpServerSocket
 import org.jitsi_modified.sctp4j.SctpSocket
 import org.json.simple.JSONObject
-import java.nio.ByteBuffer
 import java.time.Clock
 import java.time.Duration
 import java.time.Instant
 import java.util.Optional
 import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicLong
+import java.util.function.Consumer
 import java.util.function.Supplier
 
 /**
@@ -140,10 +148,17 @@ class Endpoint @JvmOverloads constructor(
     private var dataChannelStack: DataChannelStack? = null
 
     /**
-     * The [SctpSocket] for this endpoint, if an SCTP connection was
-     * negotiated.
+     * The [SctpServerConnection] for this endpoint. It is created when the
+     * first SCTP packet arrives, if an SCTP connection was negotiated.
      */
-    private var sctpSocket: Optional<SctpServerSocket> = Optional.empty()
+    @Volatile
+    private var sctpSocket: Optional<SctpServerConnection> = Optional.empty()
+
+    /**
+     * Whether we started accepting the SCTP connection, which requires both
+     * [sctpSocket] and a completed DTLS handshake.
+     */
+    private val sctpConnectionAccepted = AtomicBoolean(false)
 
     /**
      * The set of [ChannelShim]s associated with this endpoint. This
@@ -167,6 +182,24 @@ class Endpoint @JvmOverloads constructor(
      */
     private var acceptVideo = false
 
+    /**
+     * Whether none of the [ChannelShim]s of this endpoint allow incoming media (see [updateReceiveOnly]).
+     */
+    @Volatile
+    private var receiveOnly = false
+
+    /**
+     * The [MediaSourceDesc]s created for this endpoint, by signature, so that re-signaling the same sources reuses
+     * them (see [MediaSourceFactory.createMediaSources]).
+     */
+    private val mediaSourceMemo = HashMap<String, MediaSourceDesc>()
+
+    /**
+     * Whether this endpoint has advertised that it accepts the stats of other endpoints in aggregated messages.
+     */
+    @Volatile
+    var acceptsAggregatedStats = false
+
     /**
      * The queue we put outgoing SRTP packets onto so they can be sent
      * out via the [IceTransport] on an IO thread.
@@ -182,17 +215,19 @@ class Endpoint @JvmOverloads constructor(
 
     /**
      * The queue which enforces sequential processing of incoming data channel messages
-     * to maintain processing order.
+     * to maintain processing order. It is only needed once an SCTP connection exists.
      */
-    private val incomingDataChannelMessagesQueue = PacketInfoQueue(
-        "${javaClass.simpleName}-incoming-data-channel-queue",
-        TaskPools.IO_POOL,
-        { packetInfo ->
-            dataChannelHandler.consume(packetInfo)
-            true
-        },
-        TransportConfig.queueSize
-    )
+    private val incomingDataChannelMessagesQueue by lazy {
+        PacketInfoQueue(
+            "${javaClass.simpleName}-incoming-data-channel-queue",
+            TaskPools.IO_POOL,
+            { packetInfo ->
+                dataChannelHandler.consume(packetInfo)
+                true
+            },
+            TransportConfig.queueSize
+        )
+    }
 
     private val bitrateController = BitrateController(
         object : BitrateController.EventHandler {
@@ -210,10 +245,21 @@ class Endpoint @JvmOverloads constructor(
 
             override fun keyframeNeeded(endpointId: String?, ssrc: Long) =
                 conference.requestKeyframe(endpointId, ssrc)
+
+            override fun ssrcSlotsChanged(slots: List<SsrcSlot>) = sendMessage(VideoSsrcSlotsMessage(slots))
         },
         Supplier { getOrderedEndpoints() },
         diagnosticContext,
-        logger
+        logger,
+        projectionGroups = conference.projectionGroups,
+        keyframeCache = conference.keyframeCache,
+        // Replayed packets have already been transformed by the bitrate controller.
+        replayedPacketSender = Consumer { transceiver.sendPacket(it) },
+        ssrcSlots = if (BitrateControllerConfig.ssrcSlotsEnabled()) {
+            SsrcSlots(BitrateControllerConfig.maxSsrcSlots())
+        } else {
+            null
+        }
     )
 
     /**
@@ -254,19 +300,20 @@ class Endpoint @JvmOverloads constructor(
         })
     }
 
-    private val bandwidthProbing = BandwidthProbing(
-        object : BandwidthProbing.ProbingDataSender {
-            override fun sendProbing(mediaSsrcs: Collection<Long>, numBytes: Int): Int {
-                return transceiver.sendProbing(mediaSsrcs, numBytes)
-            }
-        },
-        Supplier { bitrateController.getStatusSnapshot() }
-    ).apply {
-        diagnosticsContext = this@Endpoint.diagnosticContext
-        enabled = true
-    }.also {
-        recurringRunnableExecutor.registerRecurringRunnable(it)
-    }
+    /**
+     * Probing is only needed to receive video, so it's created once the endpoint is allowed to receive video (see
+     * [updateAcceptedMediaTypes]).
+     */
+    @Volatile
+    private var bandwidthProbing: BandwidthProbing? = null
+    private var bandwidthProbingFuture: ScheduledFuture<*>? = null
+    private val bandwidthProbingLock = Any()
+
+    /**
+     * The latest bandwidth estimation, to pass to [bandwidthProbing] when it's created.
+     */
+    @Volatile
+    private var latestBandwidthEstimation: Bandwidth? = null
 
     init {
         conference.encodingsManager.subscribe(this)
@@ -276,12 +323,36 @@ class Endpoint @JvmOverloads constructor(
         conference.videobridge.statistics.totalEndpoints.incrementAndGet()
     }
 
+    private fun startBandwidthProbing() {
+        synchronized(bandwidthProbingLock) {
+            if (bandwidthProbing != null || isExpired) {
+                return
+            }
+            logger.cdebug { "Starting bandwidth probing" }
+            val probing = BandwidthProbing(
+                object : BandwidthProbing.ProbingDataSender {
+                    override fun sendProbing(mediaSsrcs: Collection<Long>, numBytes: Int): Int {
+                        return transceiver.sendProbing(mediaSsrcs, numBytes)
+                    }
+                },
+                Supplier { bitrateController.getStatusSnapshot() }
+            ).apply {
+                diagnosticsContext = this@Endpoint.diagnosticContext
+                enabled = true
+                latestBandwidthEstimation?.let { bandwidthEstimationChanged(it) }
+            }
+            bandwidthProbing = probing
+            bandwidthProbingFuture = probingScheduler.schedule(probing, BandwidthProbing.periodMs)
+        }
+    }
+
     private var mediaSources: Array<MediaSourceDesc>
         get() = transceiver.getMediaSources()
         private set(value) {
             val wasEmpty = transceiver.getMediaSources().isEmpty()
             if (transceiver.setMediaSources(value)) {
                 eventEmitter.fireEvent { sourcesChanged() }
+                conference.speechActivity.endpointVideoAvailabilityChanged()
             }
             if (wasEmpty) {
                 sendVideoConstraints(maxReceiverVideoConstraints)
@@ -325,7 +396,7 @@ class Endpoint @JvmOverloads constructor(
                     }
                 })
                 TaskPools.IO_POOL.submit(iceTransport::startReadingData)
-                TaskPools.IO_POOL.submit(dtlsTransport::startDtlsHandshake)
+                dtlsTransport.scheduleDtlsHandshake()
             }
 
             override fun failed() {
@@ -357,12 +428,18 @@ class Endpoint @JvmOverloads constructor(
             ) {
                 logger.info("DTLS handshake complete")
                 transceiver.setSrtpInformation(chosenSrtpProtectionProfile, tlsRole, keyingMaterial)
-                // TODO(brian): the old code would work even if the sctp connection was created after
-                //  the handshake had completed, but this won't (since this is a one-time event).  do
-                //  we need to worry about that case?
-                sctpSocket.ifPresent(::acceptSctpConnection)
+                // The SCTP socket is usually created after this, when the first SCTP packet arrives.
+                acceptSctpConnectionIfReady()
                 scheduleEndpointMessageTransportTimeout()
             }
+
+            override fun handshakeDropped() {
+                // The endpoint can't connect without a handshake. Expire it so that its resources are released now,
+                // instead of when it's found to be inactive. This may be called from the ICE transport's callback,
+                // so expire from another thread.
+                logger.warn("DTLS handshake dropped, expiring")
+                TaskPools.IO_POOL.submit { expire() }
+            }
         }
     }
 
@@ -381,6 +458,21 @@ class Endpoint @JvmOverloads constructor(
 
         transceiver.forceMuteAudio(audioForceMuted)
         transceiver.forceMuteVideo(videoForceMuted)
+        updateReceiveOnly()
+    }
+
+    override fun isReceiveOnly(): Boolean = receiveOnly
+
+    /**
+     * Updates whether this endpoint is receive-only: it has channels, and none of them allow media from the endpoint.
+     * The conference leaves receive-only endpoints out of its speech activity and ordering.
+     */
+    private fun updateReceiveOnly() {
+        val receiveOnly = channelShims.isNotEmpty() && channelShims.none { it.allowIncomingMedia() }
+        if (this.receiveOnly != receiveOnly) {
+            this.receiveOnly = receiveOnly
+            conference.endpointReceiveOnlyChanged(this)
+        }
     }
 
     override fun addPayloadType(payloadType: PayloadType) {
@@ -462,6 +554,7 @@ class Endpoint @JvmOverloads constructor(
     fun addChannel(channelShim: ChannelShim) {
         if (channelShims.add(channelShim)) {
             updateAcceptedMediaTypes()
+            updateReceiveOnly()
         }
     }
 
@@ -474,13 +567,16 @@ class Endpoint @JvmOverloads constructor(
                 expire()
             } else {
                 updateAcceptedMediaTypes()
+                updateReceiveOnly()
             }
         }
     }
 
     // TODO: this should be part of an EndpointMessageTransport.EventHandler interface
-    fun endpointMessageTransportConnected() =
+    fun endpointMessageTransportConnected() {
         sendVideoConstraints(maxReceiverVideoConstraints)
+        bitrateController.getSsrcSlots()?.let { sendMessage(VideoSsrcSlotsMessage(it)) }
+    }
 
     /**
      * Handle a DTLS app packet (that is, a packet of some other protocol sent
@@ -520,15 +616,30 @@ class Endpoint @JvmOverloads constructor(
     }
 
     /**
-     * Create an SCTP connection for this Endpoint.  If [openDataChannelLocally] is true,
+     * Create an SCTP connection for this Endpoint. The [SctpManager] and its
+     * socket are only created when the first SCTP packet arrives, since many
+     * endpoints never open a data channel.
+     */
+    fun createSctpConnection() {
+        logger.cdebug { "SCTP negotiated, will create the SCTP manager on the first SCTP packet" }
+        sctpHandler.createSctpManagerOnFirstPacket(Runnable { doCreateSctpConnection() })
+    }
+
+    /**
+     * Create the [SctpManager] and its socket. If [openDataChannelLocally] is true,
      * we will create the data channel locally, otherwise we will wait for the remote side
      * to open it.
      */
-    fun createSctpConnection() {
+    private fun doCreateSctpConnection() {
+        if (isExpired) {
+            return
+        }
         logger.cdebug { "Creating SCTP manager" }
         // Create the SctpManager and provide it a method for sending SCTP data
         sctpManager = SctpManager(
             { data, offset, length ->
+                // The data is encrypted into a new DTLS record before this returns, so the buffer (which belongs to
+                // jitsi-sctp) can be used directly.
                 dtlsTransport.sendDtlsData(data, offset, length)
                 0
             },
@@ -583,9 +694,24 @@ class Endpoint @JvmOverloads constructor(
         }
         socket.listen()
         sctpSocket = Optional.of(socket)
+        acceptSctpConnectionIfReady()
     }
 
-    fun acceptSctpConnection(sctpServerSocket: SctpServerSocket) {
+    /**
+     * Accept the SCTP connection once both the socket exists and the DTLS
+     * handshake has completed, whichever happens last. Both [sctpSocket] and
+     * [DtlsTransport.isConnected] are volatile and each side sets its own
+     * before checking the other, so at least one of the two calls sees both
+     * set, and [sctpConnectionAccepted] makes sure only one accepts.
+     */
+    private fun acceptSctpConnectionIfReady() {
+        val socket = sctpSocket.orElse(null) ?: return
+        if (dtlsTransport.isConnected && sctpConnectionAccepted.compareAndSet(false, true)) {
+            acceptSctpConnection(socket)
+        }
+    }
+
+    fun acceptSctpConnection(sctpServerSocket: SctpServerConnection) {
         TaskPools.IO_POOL.submit {
             // We don't want to block the thread calling
             // onDtlsHandshakeComplete so run the socket acceptance in an IO
@@ -653,14 +779,8 @@ class Endpoint @JvmOverloads constructor(
      * @param forwardedEndpoints the collection of forwarded endpoints.
      */
     fun sendForwardedEndpointsMessage(forwardedEndpoints: Collection<String>) {
-        val msg = ForwardedEndpointsMessage(forwardedEndpoints)
-        TaskPools.IO_POOL.submit {
-            try {
-                sendMessage(msg)
-            } catch (t: Throwable) {
-                logger.warn("Failed to send message:", t)
-            }
-        }
+        // This only queues the message, which will be conflated with any later one.
+        sendMessage(ForwardedEndpointsMessage(forwardedEndpoints))
     }
 
     /**
@@ -757,7 +877,9 @@ class Endpoint @JvmOverloads constructor(
             .toList()
 
         if (sources.isNotEmpty() || sourceGroups.isNotEmpty()) {
-            mediaSources = MediaSourceFactory.createMediaSources(sources, sourceGroups)
+            synchronized(mediaSourceMemo) {
+                mediaSources = MediaSourceFactory.createMediaSources(sources, sourceGroups, mediaSourceMemo)
+            }
         }
     }
 
@@ -781,6 +903,9 @@ class Endpoint @JvmOverloads constructor(
         }
         this.acceptAudio = acceptAudio
         this.acceptVideo = acceptVideo
+        if (acceptVideo) {
+            startBandwidthProbing()
+        }
     }
 
     /**
@@ -809,6 +934,12 @@ class Endpoint @JvmOverloads constructor(
 
     override fun requestKeyframe(mediaSsrc: Long) = transceiver.requestKeyFrame(mediaSsrc)
 
+    /**
+     * Gets the SSRC of the source which this endpoint receives with SSRC [ssrc], which differs when the source is
+     * forwarded on one of the endpoint's SSRC slots.
+     */
+    fun getSourceSsrc(ssrc: Long): Long = bitrateController.getSourceSsrc(ssrc)
+
     fun isOversending(): Boolean = bitrateController.isOversending()
 
     fun setSelectedEndpoints(selectedEndpoints: List<String>) =
@@ -986,13 +1117,14 @@ class Endpoint @JvmOverloads constructor(
     override fun getDebugState(): JSONObject {
         return super.getDebugState().apply {
             put("bitrateController", bitrateController.debugState)
-            put("bandwidthProbing", bandwidthProbing.getDebugState())
+            put("bandwidthProbing", bandwidthProbing?.getDebugState())
             put("iceTransport", iceTransport.getDebugState())
             put("dtlsTransport", dtlsTransport.getDebugState())
             put("transceiver", transceiver.getNodeStats().toJson())
             put("acceptAudio", acceptAudio)
             put("acceptVideo", acceptVideo)
             put("messageTransport", messageTransport.debugState)
+            (sctpSocket.orElse(null) as? JvmSctpAssociation)?.let { put("sctp", it.getDebugState()) }
         }
     }
 
@@ -1018,6 +1150,7 @@ class Endpoint @JvmOverloads constructor(
             logger.cdebug { dtlsTransport.getDebugState().toJSONString() }
 
             logger.info("Spent ${bitrateController.getTotalOversendingTime().seconds} seconds oversending")
+            bitrateController.expire()
 
             transceiver.teardown()
             _messageTransport.close()
@@ -1027,8 +1160,10 @@ class Endpoint @JvmOverloads constructor(
             logger.error("Exception while expiring: ", t)
         }
 
-        bandwidthProbing.enabled = false
-        recurringRunnableExecutor.deRegisterRecurringRunnable(bandwidthProbing)
+        synchronized(bandwidthProbingLock) {
+            bandwidthProbing?.enabled = false
+            bandwidthProbingFuture?.cancel(false)
+        }
         conference.encodingsManager.unsubscribe(this)
 
         dtlsTransport.stop()
@@ -1067,12 +1202,21 @@ class Endpoint @JvmOverloads constructor(
         val overallAverageBridgeJitter = DoubleAverage("overall_bridge_jitter")
 
         /**
-         * The executor which runs bandwidth probing.
-         *
-         * TODO (brian): align the recurringRunnable stuff with whatever we end up
-         * doing with all the other executors.
+         * The scheduler which runs bandwidth probing.
          */
-        private val recurringRunnableExecutor = RecurringRunnableExecutor(Endpoint::class.java.simpleName)
+        private val probingScheduler = ShardedScheduler(
+            "Bandwidth probing",
+            BandwidthProbingConfig().schedulerThreads
+        )
+
+        @JvmStatic
+        fun getProbingSchedulerStats() = probingScheduler.getStatsJson()
+
+        /**
+         * Stops the threads of the bandwidth probing scheduler, when the bridge shuts down.
+         */
+        @JvmStatic
+        fun shutdownProbingScheduler() = probingScheduler.shutdown()
 
         /**
          * How long we'll give an endpoint to either successfully establish
@@ -1098,8 +1242,11 @@ class Endpoint @JvmOverloads constructor(
          * Forward audio level events from the Transceiver to the conference. We use the same thread, because this fires
          * for every packet and we want to avoid the switch. The conference audio level code must not block.
          */
-        override fun audioLevelReceived(sourceSsrc: Long, level: Long) =
-            conference.speechActivity.levelChanged(this@Endpoint, level)
+        override fun audioLevelReceived(sourceSsrc: Long, level: Long) {
+            if (!receiveOnly) {
+                conference.speechActivity.levelChanged(this@Endpoint, level)
+            }
+        }
 
         /**
          * Forward bwe events from the Transceiver.
@@ -1107,7 +1254,8 @@ class Endpoint @JvmOverloads constructor(
         override fun bandwidthEstimationChanged(newValue: Bandwidth) {
             logger.cdebug { "Estimated bandwidth is now $newValue" }
             bitrateController.bandwidthChanged(newValue.bps.toLong())
-            bandwidthProbing.bandwidthEstimationChanged(newValue)
+            latestBandwidthEstimation = newValue
+            bandwidthProbing?.bandwidthEstimationChanged(newValue)
         }
     }
 
@@ -1125,7 +1273,7 @@ class Endpoint @JvmOverloads constructor(
                 when (val packet = packetInfo.packet) {
                     is DataChannelPacket -> {
                         dataChannelStack?.onIncomingDataChannelPacket(
-                            ByteBuffer.wrap(packet.buffer), packet.sid, packet.ppid
+                            packet.buffer, packet.sid, packet.ppid
                         ) ?: run {
                             cachedDataChannelPackets.add(packetInfo)
                         }
@@ -1151,9 +1299,7 @@ class Endpoint @JvmOverloads constructor(
                     this.dataChannelStack = dataChannelStack
                     cachedDataChannelPackets.forEach {
                         val dcp = it.packet as DataChannelPacket
-                        dataChannelStack.onIncomingDataChannelPacket(
-                            ByteBuffer.wrap(dcp.buffer), dcp.sid, dcp.ppid
-                        )
+                        dataChannelStack.onIncomingDataChannelPacket(dcp.buffer, dcp.sid, dcp.ppid)
                     }
                 }
             }
@@ -1169,6 +1315,11 @@ class Endpoint @JvmOverloads constructor(
     private class SctpHandler : ConsumerNode("SCTP handler") {
         private val sctpManagerLock = Any()
         private var sctpManager: SctpManager? = null
+
+        /**
+         * Creates the [SctpManager] when the first SCTP packet arrives, if SCTP was negotiated.
+         */
+        private var sctpManagerFactory: Runnable? = null
         private val numCachedSctpPackets = AtomicLong(0)
         private val cachedSctpPackets = LinkedBlockingQueue<PacketInfo>(100)
 
@@ -1178,6 +1329,10 @@ class Endpoint @JvmOverloads constructor(
                     sctpManager?.handleIncomingSctp(packetInfo) ?: run {
                         numCachedSctpPackets.incrementAndGet()
                         cachedSctpPackets.add(packetInfo)
+                        sctpManagerFactory?.let {
+                            sctpManagerFactory = null
+                            TaskPools.IO_POOL.submit(it)
+                        }
                     }
                 }
             }
@@ -1187,6 +1342,16 @@ class Endpoint @JvmOverloads constructor(
             addNumber("num_cached_packets", numCachedSctpPackets.get())
         }
 
+        fun createSctpManagerOnFirstPacket(factory: Runnable) {
+            synchronized(sctpManagerLock) {
+                if (cachedSctpPackets.isEmpty()) {
+                    sctpManagerFactory = factory
+                } else {
+                    TaskPools.IO_POOL.submit(factory)
+                }
+            }
+        }
+
         fun setSctpManager(sctpManager: SctpManager) {
             // Submit this to the pool since we wait on the lock and process any
             // cached packets here as well
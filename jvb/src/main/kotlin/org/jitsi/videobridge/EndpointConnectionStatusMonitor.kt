@@ -67,7 +67,12 @@ class EndpointConnectionStatusMonitor @JvmOverloads constructor(
     }
 
     private fun run() {
-        conference.localEndpoints.forEach(::monitorEndpointActivity)
+        // The other endpoints don't receive media from receive-only endpoints, so their status isn't relevant.
+        conference.localEndpoints.forEach {
+            if (!it.isReceiveOnly()) {
+                monitorEndpointActivity(it)
+            }
+        }
     }
 
     private fun monitorEndpointActivity(endpoint: Endpoint) {
@@ -19,11 +19,64 @@ package org.jitsi.videobridge
 import org.jitsi.config.JitsiConfig.Companion.newConfig
 import org.jitsi.metaconfig.config
 import org.jitsi.metaconfig.from
+import java.time.Duration
 
 class EndpointMessageTransportConfig {
     val announceVersion: Boolean by config("videobridge.version.announce".from(newConfig))
     fun announceVersion() = announceVersion
 
+    /**
+     * Whether to relay the stats of other endpoints to the clients which support it in periodic aggregated messages.
+     */
+    val aggregateEndpointStats: Boolean by config("videobridge.endpoint-stats.aggregate".from(newConfig))
+    fun aggregateEndpointStats() = aggregateEndpointStats
+
+    /**
+     * The maximum time that the stats of an endpoint wait before they are relayed in an aggregated message.
+     */
+    val endpointStatsAggregationInterval: Duration by config(
+        "videobridge.endpoint-stats.aggregation-interval".from(newConfig)
+    )
+
+    /**
+     * The maximum number of messages queued to be sent to an endpoint, after conflation.
+     */
+    val maxQueuedMessages: Int by config("videobridge.bridge-channel.max-queued-messages".from(newConfig))
+    fun maxQueuedMessages() = maxQueuedMessages
+
+    /**
+     * The maximum number of messages sent over a web socket which haven't been written yet. Sending pauses (and newer
+     * messages are conflated) while it is reached.
+     */
+    val maxPendingWebSocketWrites: Int by config(
+        "videobridge.bridge-channel.max-pending-websocket-writes".from(newConfig)
+    )
+    fun maxPendingWebSocketWrites() = maxPendingWebSocketWrites
+
+    /**
+     * Whether to accept the binary encoding of messages for the clients which request it in their ClientHello.
+     */
+    val allowBinaryEncoding: Boolean by config("videobridge.bridge-channel.allow-binary-encoding".from(newConfig))
+    fun allowBinaryEncoding() = allowBinaryEncoding
+
+    /**
+     * Whether to batch messages into a single web socket frame for the clients which request it in their ClientHello.
+     */
+    val allowBatchedMessages: Boolean by config("videobridge.bridge-channel.batching.enabled".from(newConfig))
+    fun allowBatchedMessages() = allowBatchedMessages
+
+    /**
+     * How long to wait for more messages before sending a batch.
+     */
+    val batchInterval: Duration by config("videobridge.bridge-channel.batching.interval".from(newConfig))
+    fun batchInterval() = batchInterval
+
+    /**
+     * The maximum number of messages in a batch.
+     */
+    val maxBatchSize: Int by config("videobridge.bridge-channel.batching.max-messages".from(newConfig))
+    fun maxBatchSize() = maxBatchSize
+
     companion object {
         @JvmField
         val config = EndpointMessageTransportConfig()
@@ -0,0 +1,116 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge
+
+import org.jitsi.utils.logging2.Logger
+import org.jitsi.utils.logging2.createChildLogger
+import org.jitsi.videobridge.message.AggregatedEndpointStatsMessage
+import org.jitsi.videobridge.message.EndpointStats
+import org.jitsi.videobridge.util.TaskPools
+import org.json.simple.JSONObject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Collects the latest [EndpointStats] of each endpoint in a conference, and relays them to the local endpoints which
+ * support [AggregatedEndpointStatsMessage] in one message per receiver, containing the stats of the endpoints that
+ * the receiver wants stats from (see [Endpoint.wantsStatsFrom]).
+ *
+ * The relaying task is only scheduled when there are stats pending, so an idle conference costs nothing.
+ */
+class EndpointStatsAggregator @JvmOverloads constructor(
+    private val conference: Conference,
+    parentLogger: Logger,
+    private val scheduler: ScheduledExecutorService = TaskPools.SCHEDULED_POOL
+) {
+    private val logger = createChildLogger(parentLogger)
+
+    /**
+     * The latest stats of each endpoint which haven't been relayed yet, by endpoint ID.
+     */
+    private val pendingStats = ConcurrentHashMap<String, EndpointStats>()
+
+    private val relayScheduled = AtomicBoolean()
+
+    private val numStatsAdded = AtomicLong()
+    private val numMessagesSent = AtomicLong()
+
+    /**
+     * Adds the stats of an endpoint, replacing any of its stats which haven't been relayed yet.
+     */
+    fun add(stats: EndpointStats) {
+        val from = stats.from ?: return
+        pendingStats[from] = stats
+        numStatsAdded.incrementAndGet()
+
+        if (!relayScheduled.get() && relayScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(
+                ::relay,
+                EndpointMessageTransportConfig.config.endpointStatsAggregationInterval.toMillis(),
+                TimeUnit.MILLISECONDS
+            )
+        }
+    }
+
+    /**
+     * Relays the pending stats.
+     */
+    fun relay() {
+        // Stats added after this point schedule a new task.
+        relayScheduled.set(false)
+
+        val stats = mutableMapOf<AbstractEndpoint, EndpointStats>()
+        pendingStats.keys.forEach { id ->
+            val endpointStats = pendingStats.remove(id) ?: return@forEach
+            // The endpoint may have left the conference in the meantime.
+            conference.getEndpoint(id)?.let { stats[it] = endpointStats }
+        }
+        if (stats.isEmpty()) {
+            return
+        }
+
+        conference.localEndpoints.forEach { receiver ->
+            if (!receiver.acceptsAggregatedStats) {
+                return@forEach
+            }
+
+            val receiverStats = mutableMapOf<String, Map<String, Any>>()
+            stats.forEach { (sender, endpointStats) ->
+                if (sender != receiver && receiver.wantsStatsFrom(sender)) {
+                    receiverStats[sender.id] = endpointStats.otherFields
+                }
+            }
+            if (receiverStats.isNotEmpty()) {
+                try {
+                    receiver.sendMessage(AggregatedEndpointStatsMessage(receiverStats))
+                    numMessagesSent.incrementAndGet()
+                } catch (t: Throwable) {
+                    logger.warn("Failed to send aggregated stats to ${receiver.id}", t)
+                }
+            }
+        }
+    }
+
+    fun getDebugState() = JSONObject().apply {
+        put("pending", pendingStats.size)
+        put("num_stats_added", numStatsAdded.get())
+        put("num_messages_sent", numMessagesSent.get())
+    }
+}
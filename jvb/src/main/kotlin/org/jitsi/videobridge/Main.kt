@@ -42,6 +42,7 @@ import org.jitsi.videobridge.stats.callstats.CallstatsService
 import org.jitsi.videobridge.util.TaskPools
 import org.jitsi.videobridge.version.JvbVersionService
 import org.jitsi.videobridge.websocket.ColibriWebSocketService
+import org.jitsi.videobridge.xmpp.ColibriRequestExecutor
 import org.jitsi.videobridge.xmpp.XmppConnection
 import org.jitsi.videobridge.xmpp.config.XmppClientConnectionConfig
 import org.jxmpp.stringprep.XmppStringPrepUtil
@@ -180,6 +181,8 @@ fun main(args: Array<String>) {
         logger.error("Error shutting down http servers", t)
     }
     videobridge.stop()
+    ColibriRequestExecutor.instance.shutdown()
+    Endpoint.shutdownProbingScheduler()
     stopIce4j()
 
     TaskPools.SCHEDULED_POOL.shutdownNow()
@@ -25,12 +25,14 @@ import org.jitsi.utils.logging.TimeSeriesLogger
 import org.jitsi.videobridge.cc.allocation.BitrateControllerStatusSnapshot
 import org.jitsi.videobridge.cc.config.BandwidthProbingConfig
 import org.json.simple.JSONObject
+import java.time.Clock
 import java.util.function.Supplier
 import kotlin.random.Random
 
-class BandwidthProbing(
+class BandwidthProbing @JvmOverloads constructor(
     private val probingDataSender: ProbingDataSender,
-    private val statusSnapshotSupplier: Supplier<BitrateControllerStatusSnapshot>
+    private val statusSnapshotSupplier: Supplier<BitrateControllerStatusSnapshot>,
+    private val clock: Clock = Clock.systemUTC()
 ) : PeriodicRunnable(config.paddingPeriodMs), BandwidthEstimator.Listener {
 
     /**
@@ -60,8 +62,29 @@ class BandwidthProbing(
 
     var diagnosticsContext: DiagnosticContext? = null
 
+    /**
+     * The time the current (or last) probe cluster started, or -1 if no cluster has been sent.
+     */
+    private var clusterStartMs = -1L
+
+    /**
+     * The bandwidth estimation when the current (or last) probe cluster started, or -1 if the outcome of the
+     * cluster has already been counted.
+     */
+    @Volatile
+    private var clusterStartBwe = -1L
+
+    private val clusterStats = ClusterStats()
+
     override fun bandwidthEstimationChanged(newValue: Bandwidth) {
         latestBwe = newValue.bps.toLong()
+
+        val clusterStartBweCopy = clusterStartBwe
+        if (clusterStartBweCopy > 0 && latestBwe > clusterStartBweCopy) {
+            // Count the cluster as successful if the estimation increased after it was sent.
+            clusterStartBwe = -1
+            clusterStats.numSuccessfulClusters++
+        }
     }
 
     override fun run() {
@@ -89,7 +112,13 @@ class BandwidthProbing(
         }
 
         // How much padding can we afford?
-        val maxPaddingBps = latestBweCopy - bitrateControllerStatus.currentTargetBps
+        val clusterBps = getClusterBps(bitrateControllerStatus.currentIdealBps, latestBweCopy)
+        val maxPaddingBps = if (clusterBps > 0) {
+            // While sending a probe cluster we exceed the estimation on purpose.
+            clusterBps - bitrateControllerStatus.currentTargetBps
+        } else {
+            latestBweCopy - bitrateControllerStatus.currentTargetBps
+        }
         val paddingBps = totalNeededBps.coerceAtMost(maxPaddingBps)
 
         var timeSeriesPoint: DiagnosticContext.TimeSeriesPoint? = null
@@ -106,6 +135,7 @@ class BandwidthProbing(
                     .addField("needed_bps", totalNeededBps)
                     .addField("max_padding_bps", maxPaddingBps)
                     .addField("bwe_bps", latestBweCopy)
+                    .addField("cluster_bps", clusterBps)
                     .addField("bytes_needed", bytesNeeded)
                     .addField("prev_bytes_left_over", bytesLeftOver)
             }
@@ -113,8 +143,12 @@ class BandwidthProbing(
 
         if (bytesNeeded >= 1) {
             val bytesSent = probingDataSender.sendProbing(bitrateControllerStatus.activeSsrcs, bytesNeeded.toInt())
-            bytesLeftOver = (bytesNeeded - bytesSent).coerceAtLeast(0.0).toInt()
+            // Don't carry over the bytes of a cluster which couldn't be sent into the steady padding.
+            bytesLeftOver = if (clusterBps > 0) 0 else (bytesNeeded - bytesSent).coerceAtLeast(0.0).toInt()
             timeSeriesPoint?.addField("bytes_sent", bytesSent)?.addField("new_bytes_left_over", bytesLeftOver)
+            if (clusterBps > 0) {
+                clusterStats.numClusterBytes += bytesSent
+            }
         } else {
             bytesLeftOver = bytesNeeded.coerceAtLeast(0.0).toInt()
         }
@@ -124,16 +158,78 @@ class BandwidthProbing(
         }
     }
 
+    /**
+     * Gets the rate of the probe cluster which is being sent at this time, starting a new one if appropriate.
+     *
+     * A cluster is only sent when the ideal bitrate exceeds the estimation (i.e. the forwarded streams are limited by
+     * the estimation), and at most once every [BandwidthProbingConfig.clusterMinIntervalMs].
+     *
+     * @return the rate of the cluster (media and padding) in bps, or -1 if no cluster is being sent.
+     */
+    private fun getClusterBps(idealBps: Long, bwe: Long): Long {
+        if (!config.clustersEnabled || bwe <= 0) {
+            return -1
+        }
+
+        val nowMs = clock.millis()
+        if (clusterStartMs < 0 || nowMs - clusterStartMs >= config.clusterMinIntervalMs) {
+            // Start a new cluster.
+            clusterStartMs = nowMs
+            clusterStartBwe = bwe
+            clusterStats.numClusters++
+        } else if (nowMs - clusterStartMs >= config.clusterDurationMs) {
+            return -1
+        }
+
+        // There is no point in probing for more than we want to send.
+        return (bwe * config.clusterBweMultiplier).toLong()
+            .coerceAtMost(idealBps)
+            .coerceAtMost(config.clusterMaxBps)
+    }
+
     fun getDebugState(): JSONObject = JSONObject().apply {
         put("seqNum", seqNum)
         put("ts", ts)
         put("enabled", enabled)
         put("latestBwe", latestBwe)
+        put("clusters", clusterStats.toJson())
+    }
+
+    /**
+     * Statistics about the probe clusters of an endpoint.
+     */
+    private class ClusterStats {
+        /**
+         * The number of clusters that were started.
+         */
+        var numClusters = 0
+
+        /**
+         * The number of clusters after which the estimation increased.
+         */
+        var numSuccessfulClusters = 0
+
+        /**
+         * The number of padding bytes sent as part of clusters.
+         */
+        var numClusterBytes = 0L
+
+        fun toJson() = JSONObject().apply {
+            put("num_clusters", numClusters)
+            put("num_successful_clusters", numSuccessfulClusters)
+            put("num_cluster_bytes", numClusterBytes)
+        }
     }
 
     companion object {
         private val timeSeriesLogger = TimeSeriesLogger.getTimeSeriesLogger(BandwidthProbing::class.java)
         private val config = BandwidthProbingConfig()
+
+        /**
+         * How often [run] should be called.
+         */
+        val periodMs: Long
+            get() = config.paddingPeriodMs
     }
 
     interface ProbingDataSender {
@@ -19,12 +19,13 @@ import org.jitsi.nlj.MediaSourceDesc
 import org.jitsi.nlj.PacketInfo
 import org.jitsi.nlj.format.PayloadType
 import org.jitsi.nlj.format.PayloadTypeEncoding
-import org.jitsi.nlj.util.bps
 import org.jitsi.rtp.rtcp.RtcpSrPacket
 import org.jitsi.utils.event.SyncEventEmitter
 import org.jitsi.utils.logging.DiagnosticContext
 import org.jitsi.utils.logging.TimeSeriesLogger
 import org.jitsi.utils.logging2.Logger
+import org.jitsi.videobridge.cc.KeyframeCache
+import org.jitsi.videobridge.cc.ProjectionGroups
 import org.jitsi.videobridge.cc.config.BitrateControllerConfig
 import org.jitsi.videobridge.message.ReceiverVideoConstraintsMessage
 import org.jitsi.videobridge.util.BooleanStateTimeTracker
@@ -32,6 +33,7 @@ import org.jitsi.videobridge.util.VideoType
 import org.json.simple.JSONObject
 import java.time.Clock
 import java.time.Duration
+import java.util.function.Consumer
 import java.util.function.Supplier
 
 /**
@@ -49,7 +51,11 @@ class BitrateController<T : MediaSourceContainer> @JvmOverloads constructor(
     endpointsSupplier: Supplier<List<T>>,
     private val diagnosticContext: DiagnosticContext,
     parentLogger: Logger,
-    private val clock: Clock = Clock.systemUTC()
+    private val clock: Clock = Clock.systemUTC(),
+    projectionGroups: ProjectionGroups? = null,
+    keyframeCache: KeyframeCache? = null,
+    replayedPacketSender: Consumer<PacketInfo>? = null,
+    ssrcSlots: SsrcSlots? = null
 ) {
     val eventEmitter = SyncEventEmitter<EventHandler>()
 
@@ -79,7 +85,16 @@ class BitrateController<T : MediaSourceContainer> @JvmOverloads constructor(
     private var supportsRtx = false
 
     private val packetHandler: BitrateControllerPacketHandler =
-        BitrateControllerPacketHandler(clock, parentLogger, diagnosticContext, eventEmitter)
+        BitrateControllerPacketHandler(
+            clock,
+            parentLogger,
+            diagnosticContext,
+            eventEmitter,
+            projectionGroups,
+            keyframeCache,
+            replayedPacketSender,
+            ssrcSlots
+        )
     private val bandwidthAllocator: BandwidthAllocator<T> =
         BandwidthAllocator(
             bitrateAllocatorEventHandler,
@@ -154,6 +169,18 @@ class BitrateController<T : MediaSourceContainer> @JvmOverloads constructor(
     }
     fun transformRtcp(rtcpSrPacket: RtcpSrPacket?): Boolean = packetHandler.transformRtcp(rtcpSrPacket)
     fun transformRtp(packetInfo: PacketInfo): Boolean = packetHandler.transformRtp(packetInfo)
+    fun expire() = packetHandler.expire()
+
+    /**
+     * The current state of the SSRC slots of the receiver, or null if the sources are forwarded with their own SSRCs.
+     */
+    fun getSsrcSlots(): List<SsrcSlot>? = packetHandler.ssrcSlots
+
+    /**
+     * Gets the primary SSRC of the source which is forwarded to the receiver with SSRC [ssrc] (which differs only for
+     * SSRC slots).
+     */
+    fun getSourceSsrc(ssrc: Long): Long = packetHandler.getSourceSsrc(ssrc)
 
     val debugState: JSONObject
         get() = JSONObject().apply {
@@ -194,6 +221,13 @@ class BitrateController<T : MediaSourceContainer> @JvmOverloads constructor(
      */
     fun isForwarding(endpoint: T) = bandwidthAllocator.isForwarding(endpoint.id)
 
+    /**
+     * The SSRCs which are active in the last [BandwidthAllocation] for which they were computed. The set only changes
+     * when the allocation changes, so it is cached instead of being rebuilt on every call to [getStatusSnapshot].
+     */
+    @Volatile
+    private var activeSsrcsCache: Pair<BandwidthAllocation, Collection<Long>>? = null
+
     /**
      * Get the target and ideal bitrate of the current [BandwidthAllocation], as well as the list of SSRCs being
      * forwarded, for use in probing.
@@ -202,33 +236,46 @@ class BitrateController<T : MediaSourceContainer> @JvmOverloads constructor(
      * higher layer becomes active, it will not be accounted for until until the allocation updates. Conversely, if the
      * ideal layer becomes inactive, it will contribute 0 bps to the total ideal bitrate until the allocation updates
      * and a lower layer is selected as idea.
+     *
+     * This is called periodically for every endpoint, so it avoids allocating anything other than the returned
+     * snapshot.
      */
     fun getStatusSnapshot(): BitrateControllerStatusSnapshot {
-        var totalTargetBitrate = 0.bps
-        var totalIdealBitrate = 0.bps
-        val activeSsrcs = mutableSetOf<Long>()
+        var totalTargetBps = 0.0
+        var totalIdealBps = 0.0
 
         val nowMs = clock.instant().toEpochMilli()
         val allocation = bandwidthAllocator.allocation
         allocation.allocations.forEach {
-            it.targetLayer?.getBitrate(nowMs)?.let { targetBitrate ->
-                totalTargetBitrate += targetBitrate
-                it.endpoint.mediaSource?.primarySSRC?.let { primarySsrc -> activeSsrcs.add(primarySsrc) }
-            }
-            it.idealLayer?.getBitrate(nowMs)?.let { idealBitrate ->
-                totalIdealBitrate += idealBitrate
-            }
+            it.targetLayer?.let { targetLayer -> totalTargetBps += targetLayer.getBitrate(nowMs).bps }
+            it.idealLayer?.let { idealLayer -> totalIdealBps += idealLayer.getBitrate(nowMs).bps }
         }
 
-        activeSsrcs.removeIf { it < 0 }
-
         return BitrateControllerStatusSnapshot(
-            currentTargetBps = totalTargetBitrate.bps.toLong(),
-            currentIdealBps = totalIdealBitrate.bps.toLong(),
-            activeSsrcs = activeSsrcs
+            currentTargetBps = totalTargetBps.toLong(),
+            currentIdealBps = totalIdealBps.toLong(),
+            activeSsrcs = getActiveSsrcs(allocation)
         )
     }
 
+    private fun getActiveSsrcs(allocation: BandwidthAllocation): Collection<Long> {
+        activeSsrcsCache?.let { (cachedAllocation, activeSsrcs) ->
+            if (cachedAllocation === allocation) {
+                return activeSsrcs
+            }
+        }
+
+        val activeSsrcs = allocation.allocations.mapNotNullTo(mutableSetOf()) {
+            if (it.targetLayer == null) {
+                null
+            } else {
+                it.endpoint.mediaSource?.primarySSRC?.takeIf { ssrc -> ssrc >= 0 }?.let(packetHandler::getTargetSsrc)
+            }
+        }
+        activeSsrcsCache = Pair(allocation, activeSsrcs)
+        return activeSsrcs
+    }
+
     private fun TimeSeriesLogger.logBweChange(newBweBps: Long) {
         trace(diagnosticContext.makeTimeSeriesPoint("new_bwe").addField("bwe_bps", newBweBps))
     }
@@ -272,6 +319,10 @@ class BitrateController<T : MediaSourceContainer> @JvmOverloads constructor(
          * This is meant to be internal to BitrateAllocator, but is exposed here temporarily for the purposes of testing.
          */
         fun allocationChanged(allocation: BandwidthAllocation) { }
+        /**
+         * The sources forwarded on the SSRC slots of the receiver changed (only used when SSRC slots are enabled).
+         */
+        fun ssrcSlotsChanged(slots: List<SsrcSlot>) { }
     }
 
     private inner class BitrateAllocatorEventHandler : BandwidthAllocator.EventHandler {
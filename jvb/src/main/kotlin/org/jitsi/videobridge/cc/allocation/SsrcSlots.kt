@@ -0,0 +1,119 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc.allocation
+
+import org.jitsi.utils.OrderedJsonObject
+import kotlin.random.Random
+
+/**
+ * The video SSRCs ("slots") of a single receiver, onto which the sources forwarded to it are remapped. The receiver
+ * then only needs to know about its own slots, regardless of the number of sources in the conference.
+ *
+ * A source keeps its slot for as long as possible: a slot is only given to another source when there are no free
+ * slots, and its current source is not forwarded. New slots are only created when all of them are in use, so their
+ * number follows the number of sources forwarded at the same time (which is limited by the last-n of the receiver),
+ * up to [maxSlots].
+ */
+class SsrcSlots @JvmOverloads constructor(
+    private val maxSlots: Int,
+    private val random: Random = Random.Default
+) {
+    private val slots = mutableListOf<Slot>()
+
+    /**
+     * The number of times that a forwarded source could not get a slot.
+     */
+    private var numSourcesWithoutSlot = 0L
+
+    /**
+     * Assigns a slot to each of the [forwarded] sources which don't have one already.
+     *
+     * @param forwarded the primary SSRCs of the forwarded sources, mapped to the IDs of their endpoints, in the order
+     * in which they get slots.
+     * @return the slots which were given to a different source.
+     */
+    @Synchronized
+    fun update(forwarded: Map<Long, String>): List<Reassignment> {
+        val reassignments = mutableListOf<Reassignment>()
+        forwarded.forEach { (sourceSsrc, endpointId) ->
+            if (slots.any { it.sourceSsrc == sourceSsrc }) {
+                return@forEach
+            }
+            val slot = slots.firstOrNull { it.sourceSsrc == NO_SOURCE }
+                ?: slots.firstOrNull { !forwarded.containsKey(it.sourceSsrc) }
+                ?: newSlot()
+            if (slot == null) {
+                numSourcesWithoutSlot++
+                return@forEach
+            }
+            reassignments.add(Reassignment(slot.ssrc, slot.sourceSsrc, sourceSsrc))
+            slot.sourceSsrc = sourceSsrc
+            slot.endpointId = endpointId
+        }
+        return reassignments
+    }
+
+    private fun newSlot(): Slot? {
+        if (slots.size >= maxSlots) {
+            return null
+        }
+        var ssrc: Long
+        do {
+            ssrc = random.nextLong(1, 0x1_0000_0000L)
+        } while (slots.any { it.ssrc == ssrc })
+        return Slot(ssrc).also { slots.add(it) }
+    }
+
+    /**
+     * Gets the primary SSRC of the source forwarded on the slot with SSRC [ssrc], or null if [ssrc] is not the SSRC of
+     * a slot which is in use.
+     */
+    @Synchronized
+    fun getSourceSsrc(ssrc: Long): Long? = slots.find { it.ssrc == ssrc }?.sourceSsrc?.takeIf { it != NO_SOURCE }
+
+    /**
+     * The current state of the slots.
+     */
+    @Synchronized
+    fun getSlots(): List<SsrcSlot> = slots.map { SsrcSlot(it.ssrc, it.endpointId, it.sourceSsrc) }
+
+    @Synchronized
+    fun getDebugState() = OrderedJsonObject().apply {
+        slots.forEach { put(it.ssrc.toString(), "${it.endpointId}/${it.sourceSsrc}") }
+        put("num_sources_without_slot", numSourcesWithoutSlot)
+    }
+
+    private class Slot(val ssrc: Long) {
+        var sourceSsrc = NO_SOURCE
+        var endpointId: String? = null
+    }
+
+    /**
+     * The slot with SSRC [ssrc] was given to the source with primary SSRC [sourceSsrc], instead of
+     * [previousSourceSsrc] (or -1 if the slot was not used).
+     */
+    data class Reassignment(val ssrc: Long, val previousSourceSsrc: Long, val sourceSsrc: Long)
+
+    companion object {
+        const val NO_SOURCE = -1L
+    }
+}
+
+/**
+ * A slot with SSRC [ssrc], on which the source with primary SSRC [sourceSsrc] of endpoint [endpointId] is forwarded
+ * (if any).
+ */
+data class SsrcSlot(val ssrc: Long, val endpointId: String?, val sourceSsrc: Long)
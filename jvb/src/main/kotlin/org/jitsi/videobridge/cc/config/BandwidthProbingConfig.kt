@@ -18,6 +18,8 @@ package org.jitsi.videobridge.cc.config
 
 import org.jitsi.config.JitsiConfig
 import org.jitsi.metaconfig.config
+import org.jitsi.metaconfig.from
+import org.jitsi.nlj.util.Bandwidth
 import java.time.Duration
 
 class BandwidthProbingConfig {
@@ -29,4 +31,50 @@ class BandwidthProbingConfig {
         "videobridge.cc.padding-period"
             .from(JitsiConfig.newConfig).convertFrom<Duration> { it.toMillis() }
     }
+
+    /**
+     * The number of threads which run the bandwidth probing of all endpoints.
+     */
+    val schedulerThreads: Int by config(
+        "videobridge.cc.probing-scheduler-threads".from(JitsiConfig.newConfig)
+    )
+
+    /**
+     * Whether to send probe clusters: short bursts of padding at a multiple of the bandwidth estimation, sent when
+     * the streams that we forward are limited by the estimation.
+     */
+    val clustersEnabled: Boolean by config(
+        "videobridge.cc.probe-clusters.enabled".from(JitsiConfig.newConfig)
+    )
+
+    /**
+     * The rate of a probe cluster, as a multiple of the bandwidth estimation.
+     */
+    val clusterBweMultiplier: Double by config(
+        "videobridge.cc.probe-clusters.bwe-multiplier".from(JitsiConfig.newConfig)
+    )
+
+    /**
+     * The duration of a probe cluster.
+     */
+    val clusterDurationMs: Long by config {
+        "videobridge.cc.probe-clusters.duration"
+            .from(JitsiConfig.newConfig).convertFrom<Duration> { it.toMillis() }
+    }
+
+    /**
+     * The minimum time between the starts of two probe clusters.
+     */
+    val clusterMinIntervalMs: Long by config {
+        "videobridge.cc.probe-clusters.min-interval"
+            .from(JitsiConfig.newConfig).convertFrom<Duration> { it.toMillis() }
+    }
+
+    /**
+     * The maximum rate of a probe cluster (media and padding).
+     */
+    val clusterMaxBps: Long by config {
+        "videobridge.cc.probe-clusters.max-bitrate".from(JitsiConfig.newConfig)
+            .convertFrom<String> { Bandwidth.fromString(it).bps.toLong() }
+    }
 }
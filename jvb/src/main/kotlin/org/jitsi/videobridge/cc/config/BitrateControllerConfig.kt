@@ -134,5 +134,37 @@ class BitrateControllerConfig {
 
         @JvmStatic
         fun maxTimeBetweenCalculations() = maxTimeBetweenCalculations
+
+        /**
+         * Whether receivers which start receiving a source at the same target index share a single projection of it,
+         * so that the accept decision and the header rewrite are the same for all of them.
+         */
+        private val useProjectionGroups: Boolean by config(
+            "videobridge.cc.use-projection-groups".from(JitsiConfig.newConfig)
+        )
+
+        @JvmStatic
+        fun useProjectionGroups() = useProjectionGroups
+
+        /**
+         * Whether each receiver gets the forwarded video sources remapped onto its own set of SSRCs ("slots"), instead
+         * of receiving them with their original SSRCs.
+         */
+        private val ssrcSlotsEnabled: Boolean by config(
+            "videobridge.cc.ssrc-slots.enabled".from(JitsiConfig.newConfig)
+        )
+
+        @JvmStatic
+        fun ssrcSlotsEnabled() = ssrcSlotsEnabled
+
+        /**
+         * The maximum number of video SSRC slots of a receiver.
+         */
+        private val maxSsrcSlots: Int by config(
+            "videobridge.cc.ssrc-slots.max-slots".from(JitsiConfig.newConfig)
+        )
+
+        @JvmStatic
+        fun maxSsrcSlots() = maxSsrcSlots
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.cc.config
+
+import org.jitsi.config.JitsiConfig
+import org.jitsi.metaconfig.config
+import org.jitsi.metaconfig.from
+import java.time.Duration
+
+class KeyframeCacheConfig {
+    companion object {
+        /**
+         * Whether the bridge caches the most recent keyframe of each encoding (and the frames that follow it), in
+         * order to replay it to receivers which start receiving the encoding.
+         */
+        private val enabled: Boolean by config(
+            "videobridge.cc.keyframe-cache.enabled".from(JitsiConfig.newConfig)
+        )
+
+        @JvmStatic
+        fun enabled() = enabled
+
+        /**
+         * The maximum number of bytes cached for a single encoding. When exceeded the cache for the encoding is
+         * dropped until the next keyframe.
+         */
+        private val maxEncodingBytes: Int by config(
+            "videobridge.cc.keyframe-cache.max-encoding-bytes".from(JitsiConfig.newConfig)
+        )
+
+        @JvmStatic
+        fun maxEncodingBytes() = maxEncodingBytes
+
+        /**
+         * The maximum number of bytes cached by the whole bridge.
+         */
+        private val maxTotalBytes: Long by config(
+            "videobridge.cc.keyframe-cache.max-total-bytes".from(JitsiConfig.newConfig)
+        )
+
+        @JvmStatic
+        fun maxTotalBytes() = maxTotalBytes
+
+        /**
+         * The maximum age of a cached keyframe. Older keyframes are not replayed, because the receiver would have to
+         * decode too many frames to catch up.
+         */
+        private val maxAge: Duration by config(
+            "videobridge.cc.keyframe-cache.max-age".from(JitsiConfig.newConfig)
+        )
+
+        @JvmStatic
+        fun maxAge() = maxAge
+    }
+}
@@ -34,15 +34,21 @@ import org.jitsi.utils.logging.TimeSeriesLogger
 import org.jitsi.utils.logging2.Logger
 import org.jitsi.utils.logging2.createChildLogger
 import org.jitsi.videobridge.cc.AdaptiveSourceProjectionContext
+import org.jitsi.videobridge.cc.ProjectionRing
 import org.jitsi.videobridge.cc.RewriteException
 import org.jitsi.videobridge.cc.RtpState
 import org.json.simple.JSONArray
 import org.json.simple.JSONObject
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * This class represents a projection of a VP9 RTP stream
  * and it is the main entry point for VP9 simulcast/svc RTP/RTCP rewriting. Read
  * svc.md for implementation details. Instances of this class are thread-safe.
+ *
+ * Calls to [accept] are serialized and they are the only ones that touch the
+ * picture maps. The projections they create are published in [projections], so
+ * that [rewriteRtp] can run on the receiver's send thread without taking a lock.
  */
 class Vp9AdaptiveSourceProjectionContext(
     private val diagnosticContext: DiagnosticContext,
@@ -53,16 +59,40 @@ class Vp9AdaptiveSourceProjectionContext(
     private val logger: Logger = createChildLogger(parentLogger)
 
     /**
-     * A map that stores the per-encoding VP9 picture maps.
+     * A map that stores the per-encoding VP9 picture maps. Only accessed from [accept] (and for debugging).
      */
     private val vp9PictureMaps = HashMap<Long, Vp9PictureMap>()
 
+    /**
+     * The per-encoding projections of the accepted frames, indexed by picture ID and spatial layer. Written by
+     * [accept] and read by [rewriteRtp].
+     */
+    private val projections = ConcurrentHashMap<Long, ProjectionRing<Vp9FrameProjection>>()
+
+    /**
+     * The ring in [projections] that was most recently published to. Consecutive packets almost always belong to the
+     * same encoding, so this saves a (boxing) map lookup per packet.
+     */
+    @Volatile
+    private var lastProjectionRing: ProjectionRing<Vp9FrameProjection>? = null
+
+    /**
+     * The entry of [vp9PictureMaps] that was most recently used, only accessed from [accept].
+     */
+    private var lastPictureMap: Vp9PictureMap? = null
+
+    /**
+     * The SSRC of [lastPictureMap].
+     */
+    private var lastPictureMapSsrc = -1L
+
     /**
      * The [Vp9QualityFilter] instance that does quality filtering on the
      * incoming pictures, to choose encodings and layers to forward.
      */
     private val vp9QualityFilter = Vp9QualityFilter(logger)
 
+    @Volatile
     private var lastVp9FrameProjection = Vp9FrameProjection(
         diagnosticContext,
         rtpState.ssrc, rtpState.maxSequenceNumber, rtpState.maxTimestamp
@@ -116,6 +146,7 @@ class Vp9AdaptiveSourceProjectionContext(
                     return false
                 }
                 frame.projection = projection
+                publishProjection(frame, projection)
                 if (projection.earliestProjectedSeqNum isNewerThan lastVp9FrameProjection.latestProjectedSeqNum) {
                     lastVp9FrameProjection = projection
                 }
@@ -144,15 +175,51 @@ class Vp9AdaptiveSourceProjectionContext(
         return accept
     }
 
-    /** Look up a Vp9Frame for a packet. */
-    private fun lookupVp9Frame(vp9Packet: Vp9Packet): Vp9Frame? =
-        vp9PictureMaps[vp9Packet.ssrc]?.findPicture(vp9Packet)?.frame(vp9Packet)
+    /** Look up the published projection of the frame of a packet. */
+    private fun lookupProjection(vp9Packet: Vp9Packet): Vp9FrameProjection? {
+        val ring = lastProjectionRing?.takeIf { it.ssrc == vp9Packet.ssrc }
+            ?: projections[vp9Packet.ssrc]
+            ?: return null
+        val projection = ring.get(projectionKey(vp9Packet.pictureId, vp9Packet.effectiveSpatialLayerIndex))
+            ?: return null
+        val frame = projection.vp9Frame ?: return null
+        return if (frame.pictureId == vp9Packet.pictureId &&
+            frame.effectiveSpatialLayer == vp9Packet.effectiveSpatialLayerIndex &&
+            frame.matchesFrame(vp9Packet)
+        ) projection else null
+    }
+
+    /** Make the projection of an accepted frame visible to [rewriteRtp]. */
+    private fun publishProjection(frame: Vp9Frame, projection: Vp9FrameProjection) {
+        val ring = lastProjectionRing?.takeIf { it.ssrc == frame.ssrc }
+            ?: (
+                projections[frame.ssrc]
+                    ?: ProjectionRing<Vp9FrameProjection>(
+                        frame.ssrc,
+                        2 * Vp9PictureMap.PICTURE_MAP_SIZE * MAX_SPATIAL_LAYERS
+                    ).also { projections[frame.ssrc] = it }
+                ).also { lastProjectionRing = it }
+        ring.put(projectionKey(frame.pictureId, frame.effectiveSpatialLayer), projection)
+    }
+
+    /** Get the picture map of an encoding, or null if we haven't seen it yet. */
+    private fun getPictureMap(ssrc: Long): Vp9PictureMap? {
+        lastPictureMap?.let { if (lastPictureMapSsrc == ssrc) return it }
+
+        return vp9PictureMaps[ssrc]?.also {
+            lastPictureMap = it
+            lastPictureMapSsrc = ssrc
+        }
+    }
 
     /**
      * Insert a packet in the appropriate Vp9FrameMap.
      */
     private fun insertPacketInMap(vp9Packet: Vp9Packet) =
-        vp9PictureMaps.getOrPut(vp9Packet.ssrc) { Vp9PictureMap(logger) }.insertPacket(vp9Packet)
+        (
+            getPictureMap(vp9Packet.ssrc)
+                ?: Vp9PictureMap(logger).also { vp9PictureMaps[vp9Packet.ssrc] = it }
+            ).insertPacket(vp9Packet)
 
     /**
      * Calculate the projected sequence number gap between two frames (of the same encoding),
@@ -193,28 +260,26 @@ class Vp9AdaptiveSourceProjectionContext(
     /**
      * Find the previous frame before the given one.
      */
-    @Synchronized
     private fun prevFrame(frame: Vp9Frame) =
-        vp9PictureMaps.get(frame.ssrc)?.prevFrame(frame)
+        getPictureMap(frame.ssrc)?.prevFrame(frame)
 
     /**
      * Find the next frame after the given one.
      */
-    @Synchronized
     private fun nextFrame(frame: Vp9Frame) =
-        vp9PictureMaps.get(frame.ssrc)?.nextFrame(frame)
+        getPictureMap(frame.ssrc)?.nextFrame(frame)
 
     /**
      * Find the previous accepted frame before the given one.
      */
     private fun findPrevAcceptedFrame(frame: Vp9Frame) =
-        vp9PictureMaps.get(frame.ssrc)?.findPrevAcceptedFrame(frame)
+        getPictureMap(frame.ssrc)?.findPrevAcceptedFrame(frame)
 
     /**
      * Find the next accepted frame after the given one.
      */
     private fun findNextAcceptedFrame(frame: Vp9Frame) =
-        vp9PictureMaps.get(frame.ssrc)?.findNextAcceptedFrame(frame)
+        getPictureMap(frame.ssrc)?.findNextAcceptedFrame(frame)
 
     /**
      * Find a subsequent base-layer TL0 frame after the given frame
@@ -222,7 +287,7 @@ class Vp9AdaptiveSourceProjectionContext(
      * @return A subsequent base-layer TL0 frame, or null
      */
     private fun findNextBaseTl0(frame: Vp9Frame) =
-        vp9PictureMaps.get(frame.ssrc)?.findNextBaseTl0(frame)
+        getPictureMap(frame.ssrc)?.findNextBaseTl0(frame)
 
     /**
      * For a frame that's been accepted by the quality filter, verify that
@@ -498,12 +563,8 @@ class Vp9AdaptiveSourceProjectionContext(
             throw RewriteException("VP9 packet without picture ID in VP9 source projection")
         }
 
-        val vp9Frame: Vp9Frame = lookupVp9Frame(vp9Packet)
-            ?: throw RewriteException("Frame not in tracker (aged off?)")
-
-        val vp9Projection = vp9Frame.projection
-            ?: throw RewriteException("Frame does not have projection?")
-        /* Shouldn't happen for an accepted packet whose frame is still known? */
+        val vp9Projection = lookupProjection(vp9Packet)
+            ?: throw RewriteException("Frame projection not found (aged off?)")
 
         vp9Projection.rewriteRtp(vp9Packet)
     }
@@ -567,5 +628,12 @@ class Vp9AdaptiveSourceProjectionContext(
          */
         private val timeSeriesLogger =
             TimeSeriesLogger.getTimeSeriesLogger(Vp9AdaptiveSourceProjectionContext::class.java)
+
+        /**
+         * The number of spatial layers per picture we reserve room for in [projections].
+         */
+        private const val MAX_SPATIAL_LAYERS = 8
+
+        private fun projectionKey(pictureId: Int, sid: Int) = pictureId * MAX_SPATIAL_LAYERS + sid.coerceIn(0, MAX_SPATIAL_LAYERS - 1)
     }
 }
@@ -92,8 +92,9 @@ class Vp9Picture(packet: Vp9Packet) {
      * like [org.jitsi.nlj.transform.node.incoming.PaddingTermination] is in use.
      * @param packet The packet to remember.  This should be a packet which
      * has tested true with [matchesPicture].
+     * @param result The holder in which to return the result.
      */
-    fun addPacket(packet: Vp9Packet): PacketInsertionResult {
+    fun addPacket(packet: Vp9Packet, result: PacketInsertionResult): PacketInsertionResult {
         require(matchesPicture(packet)) { "Non-matching packet added to picture" }
 
         val sid = packet.effectiveSpatialLayerIndex
@@ -102,14 +103,14 @@ class Vp9Picture(packet: Vp9Packet) {
 
         if (f != null) {
             f.addPacket(packet)
-            return PacketInsertionResult(f, this, false)
+            return result.set(f, this, false)
         }
 
         val newF = Vp9Frame(packet)
 
         setFrameAtSid(newF, sid)
 
-        return PacketInsertionResult(newF, this, true)
+        return result.set(newF, this, true)
     }
 
     /**
@@ -203,15 +204,36 @@ class Vp9Picture(packet: Vp9Packet) {
 }
 
 /**
- * The result of calling [insertPacket]
+ * The result of calling [insertPacket]. A mutable holder which is reused by its [Vp9PictureMap], so it is only valid
+ * until the next packet is inserted.
  */
-class PacketInsertionResult(
+class PacketInsertionResult {
     /** The frame corresponding to the packet that was inserted. */
-    val frame: Vp9Frame,
+    lateinit var frame: Vp9Frame
+        private set
+
     /** The picture corresponding to the packet that was inserted.  */
-    val picture: Vp9Picture,
+    lateinit var picture: Vp9Picture
+        private set
+
     /** Whether inserting the packet created a new frame.  */
-    val isNewFrame: Boolean,
+    var isNewFrame: Boolean = false
+        private set
+
     /** Whether inserting the packet caused a reset  */
-    val isReset: Boolean = false
-)
+    var isReset: Boolean = false
+        private set
+
+    internal fun set(
+        frame: Vp9Frame,
+        picture: Vp9Picture,
+        isNewFrame: Boolean,
+        isReset: Boolean = false
+    ): PacketInsertionResult {
+        this.frame = frame
+        this.picture = picture
+        this.isNewFrame = isNewFrame
+        this.isReset = isReset
+        return this
+    }
+}
@@ -25,6 +25,9 @@ import org.jitsi.utils.logging2.createChildLogger
 
 /**
  * A history of recent pictures on a VP9 stream.
+ *
+ * Instances of this class are *NOT* thread safe. They are owned by a [Vp9AdaptiveSourceProjectionContext], which
+ * only accesses them from its (serialized) accept path.
  */
 class Vp9PictureMap(
     parentLogger: Logger
@@ -33,8 +36,10 @@ class Vp9PictureMap(
     private val pictureHistory = PictureHistory(PICTURE_MAP_SIZE)
     private val logger: Logger = createChildLogger(parentLogger)
 
+    /** The result returned by [insertPacket], reused to avoid allocating on the packet path. */
+    private val insertionResult = PacketInsertionResult()
+
     /** Find a picture in the picture map, based on a packet.  */
-    @Synchronized
     fun findPicture(packet: Vp9Packet): Vp9Picture? {
         return pictureHistory[packet.pictureId]
     }
@@ -67,11 +72,10 @@ class Vp9PictureMap(
     }
 
     /** Insert a packet into the picture map.  Return a PictureInsertionResult
-     * describing what happened.
+     * describing what happened. The returned instance is owned by this map and is only valid until the next call.
      * @param packet The packet to insert.
      * @return What happened.  null if insertion failed.
      */
-    @Synchronized
     fun insertPacket(packet: Vp9Packet): PacketInsertionResult? {
         val pictureId = packet.pictureId
         if (pictureId == -1) {
@@ -85,7 +89,7 @@ class Vp9PictureMap(
             return if (!pictureHistory.insert(pictureId, picture)) {
                 null
             } else {
-                PacketInsertionResult(picture.frame(packet)!!, picture, true, isReset = true)
+                insertionResult.set(picture.frame(packet)!!, picture, true, isReset = true)
             }
         }
         val picture = pictureHistory[pictureId]
@@ -115,33 +119,29 @@ class Vp9PictureMap(
                 logger.warn(e)
             }
 
-            return picture.addPacket(packet)
+            return picture.addPacket(packet, insertionResult)
         }
 
         val newPicture = Vp9Picture(packet)
         return if (!pictureHistory.insert(pictureId, newPicture)) {
             null
         } else {
-            PacketInsertionResult(newPicture.frame(packet)!!, newPicture, true)
+            insertionResult.set(newPicture.frame(packet)!!, newPicture, true)
         }
     }
 
-    @Synchronized
     fun nextFrame(frame: Vp9Frame): Vp9Frame? {
         return pictureHistory.findAfter(frame) { true }
     }
 
-    @Synchronized
     fun nextFrameWith(frame: Vp9Frame, pred: (Vp9Frame) -> Boolean): Vp9Frame? {
         return pictureHistory.findAfter(frame, pred)
     }
 
-    @Synchronized
     fun prevFrame(frame: Vp9Frame): Vp9Frame? {
         return pictureHistory.findBefore(frame) { true }
     }
 
-    @Synchronized
     fun prevFrameWith(frame: Vp9Frame, pred: (Vp9Frame) -> Boolean): Vp9Frame? {
         return pictureHistory.findBefore(frame, pred)
     }
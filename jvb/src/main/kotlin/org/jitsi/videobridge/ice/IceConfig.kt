@@ -104,6 +104,11 @@ class IceConfig {
             .convertFrom<String> { NominationStrategy.fromString(it) }
     }
 
+    /**
+     * Whether to run ICE-lite on the UDP port instead of full ICE. TCP is not supported in this mode.
+     */
+    val liteEnabled: Boolean by config("videobridge.ice.lite.enabled".from(JitsiConfig.newConfig))
+
     companion object {
         @JvmField
         val config = IceConfig()
@@ -0,0 +1,283 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.ice
+
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.logging2.createLogger
+import org.jitsi.utils.queue.PacketQueue
+import org.jitsi.videobridge.util.ByteBufferPool
+import org.jitsi.videobridge.util.TaskPools
+import java.io.IOException
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.NetworkInterface
+import java.net.SocketException
+import java.time.Clock
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * The bridge side of ICE-lite (RFC 8445, section 2.5) for all endpoints. It binds the UDP port on each of the given
+ * addresses, answers the connectivity checks of the remote sides, and selects the address from which a check
+ * nominates the pair (with USE-CANDIDATE). The remote side must then be the controlling agent, and the bridge never
+ * sends checks of its own, so no per-endpoint timers or threads are needed.
+ *
+ * Each socket is read by a single thread, which only answers the checks and finds the [Session] which selected the
+ * source address of the other packets. These are handed to a queue of the session, and passed to it on the
+ * [TaskPools.CPU_POOL], so that the processing of the packets of different endpoints (e.g. DTLS) runs in parallel
+ * instead of on the reading thread.
+ */
+class IceLiteServer @JvmOverloads constructor(
+    addresses: List<InetAddress>,
+    port: Int,
+    private val clock: Clock = Clock.systemUTC()
+) {
+    private val logger = createLogger()
+
+    private val listeners = addresses.mapNotNull {
+        try {
+            Listener(DatagramSocket(InetSocketAddress(it, port)))
+        } catch (e: SocketException) {
+            logger.warn("Failed to bind to $it:$port", e)
+            null
+        }
+    }
+
+    /**
+     * The addresses to advertise as host candidates.
+     */
+    val localAddresses: List<InetSocketAddress> = listeners.map { it.socket.localSocketAddress as InetSocketAddress }
+
+    /** The sessions by local ufrag. */
+    private val sessions = ConcurrentHashMap<String, Session>()
+    private val selections = ConcurrentHashMap<Session, Selection>()
+    private val sessionsByRemoteAddress = ConcurrentHashMap<InetSocketAddress, Session>()
+
+    /** The queues of the packets received for each session. */
+    private val receiveQueues = ConcurrentHashMap<Session, PacketQueue<ReceivedPacket>>()
+
+    private val stats = Stats()
+
+    init {
+        listeners.forEach { listener -> TaskPools.IO_POOL.submit { listener.readPackets() } }
+    }
+
+    fun register(session: Session) {
+        receiveQueues[session] = PacketQueue(
+            RECEIVE_QUEUE_SIZE,
+            false,
+            "ice-lite-receive-queue",
+            { packet ->
+                try {
+                    session.dataReceived(packet.buffer, 0, packet.length, packet.time)
+                } finally {
+                    ByteBufferPool.returnBuffer(packet.buffer)
+                }
+                true
+            },
+            TaskPools.CPU_POOL
+        )
+        sessions[session.localUfrag] = session
+    }
+
+    fun unregister(session: Session) {
+        sessions.remove(session.localUfrag, session)
+        selections.remove(session)?.let { sessionsByRemoteAddress.remove(it.remoteAddress, session) }
+        receiveQueues.remove(session)?.close()
+    }
+
+    /**
+     * Sends data to the address selected by [session].
+     *
+     * @return false if no address has been selected yet.
+     */
+    @Throws(IOException::class)
+    fun send(session: Session, data: ByteArray, offset: Int, length: Int): Boolean {
+        val selection = selections[session] ?: return false
+        selection.listener.socket.send(DatagramPacket(data, offset, length, selection.remoteAddress))
+        return true
+    }
+
+    fun close() {
+        listeners.forEach { it.socket.close() }
+    }
+
+    fun getStatsJson() = OrderedJsonObject().apply {
+        put("local_addresses", localAddresses.joinToString())
+        put("num_sessions", sessions.size)
+        put("num_selected", selections.size)
+        put("num_checks", stats.numChecks.sum())
+        put("num_invalid_checks", stats.numInvalidChecks.sum())
+        put("num_unknown_ufrag", stats.numUnknownUfrag.sum())
+        put("num_packets_dropped_unknown_address", stats.numPacketsDroppedUnknownAddress.sum())
+    }
+
+    private fun handleStun(listener: Listener, buf: ByteArray, off: Int, len: Int, remoteAddress: InetSocketAddress) {
+        val message = Stun.parse(buf, off, len)
+        if (message?.type == Stun.BINDING_INDICATION) {
+            // A keep-alive.
+            return
+        }
+        if (message == null || message.type != Stun.BINDING_REQUEST) {
+            stats.numInvalidChecks.increment()
+            return
+        }
+        stats.numChecks.increment()
+
+        // The username of a check is "<our ufrag>:<their ufrag>".
+        val username = message.attributes[Stun.USERNAME]?.decodeToString()?.split(':', limit = 2)
+        if (username == null || username.size != 2) {
+            stats.numInvalidChecks.increment()
+            return
+        }
+        val session = sessions[username[0]] ?: run {
+            stats.numUnknownUfrag.increment()
+            return
+        }
+        val remoteUfrag = session.remoteUfrag
+        if ((remoteUfrag != null && remoteUfrag != username[1]) ||
+            !message.hasValidIntegrity(session.localPassword.toByteArray())
+        ) {
+            stats.numInvalidChecks.increment()
+            return
+        }
+
+        val response = Stun.encode(
+            Stun.BINDING_SUCCESS_RESPONSE,
+            message.transactionId,
+            listOf(Stun.XOR_MAPPED_ADDRESS to Stun.xorMappedAddress(remoteAddress, message.transactionId)),
+            session.localPassword.toByteArray()
+        )
+        try {
+            listener.socket.send(DatagramPacket(response, response.size, remoteAddress))
+        } catch (e: IOException) {
+            logger.warn("Failed to send a binding response to $remoteAddress", e)
+        }
+
+        if (message.attributes.containsKey(Stun.USE_CANDIDATE)) {
+            val previous = selections.put(session, Selection(listener, remoteAddress))
+            if (previous != null && previous.remoteAddress != remoteAddress) {
+                sessionsByRemoteAddress.remove(previous.remoteAddress, session)
+            }
+            sessionsByRemoteAddress[remoteAddress] = session
+        }
+        val selection = selections[session]
+        val selected = selection != null && selection.listener === listener && selection.remoteAddress == remoteAddress
+        session.checkReceived(remoteAddress, selected, clock.instant())
+    }
+
+    /**
+     * Hands a packet to the queue of the session which selected its source address.
+     *
+     * @return whether the queue took [buf], which is returned to the pool once the session has handled the packet.
+     */
+    private fun enqueue(buf: ByteArray, length: Int, remoteAddress: InetSocketAddress): Boolean {
+        val queue = sessionsByRemoteAddress[remoteAddress]?.let { receiveQueues[it] } ?: run {
+            stats.numPacketsDroppedUnknownAddress.increment()
+            return false
+        }
+        queue.add(ReceivedPacket(buf, length, clock.instant()))
+        return true
+    }
+
+    private inner class Listener(val socket: DatagramSocket) {
+        fun readPackets() {
+            var buf = ByteBufferPool.getBuffer(RECEIVE_BUFFER_SIZE)
+            val packet = DatagramPacket(buf, RECEIVE_BUFFER_SIZE)
+            while (true) {
+                packet.setData(buf, 0, RECEIVE_BUFFER_SIZE)
+                try {
+                    socket.receive(packet)
+                } catch (e: SocketException) {
+                    logger.info("Socket closed, stopping reader")
+                    break
+                } catch (e: IOException) {
+                    logger.warn("Exception while reading", e)
+                    continue
+                }
+                val remoteAddress = packet.socketAddress as InetSocketAddress
+                try {
+                    if (Stun.isStun(buf, 0, packet.length)) {
+                        handleStun(this, buf, 0, packet.length, remoteAddress)
+                    } else if (enqueue(buf, packet.length, remoteAddress)) {
+                        buf = ByteBufferPool.getBuffer(RECEIVE_BUFFER_SIZE)
+                    }
+                } catch (e: Exception) {
+                    logger.warn("Exception while handling a packet from $remoteAddress", e)
+                }
+            }
+            ByteBufferPool.returnBuffer(buf)
+        }
+    }
+
+    private class ReceivedPacket(val buffer: ByteArray, val length: Int, val time: Instant)
+
+    private class Selection(val listener: Listener, val remoteAddress: InetSocketAddress)
+
+    private class Stats {
+        val numChecks = LongAdder()
+        val numInvalidChecks = LongAdder()
+        val numUnknownUfrag = LongAdder()
+        val numPacketsDroppedUnknownAddress = LongAdder()
+    }
+
+    /**
+     * The ICE-lite state of an endpoint.
+     */
+    interface Session {
+        val localUfrag: String
+        val localPassword: String
+
+        /**
+         * The ufrag of the remote side, once it has been signaled. Checks for other ufrags are rejected.
+         */
+        val remoteUfrag: String?
+
+        /**
+         * A valid check was received from [remoteAddress], which is the selected address if [selected] is true.
+         */
+        fun checkReceived(remoteAddress: InetSocketAddress, selected: Boolean, time: Instant)
+
+        /**
+         * Data was received from the selected address. It is called for one packet at a time, in the order in which
+         * they were received, but not on the thread which read them. The session doesn't own [data].
+         */
+        fun dataReceived(data: ByteArray, offset: Int, length: Int, time: Instant)
+    }
+
+    companion object {
+        private const val RECEIVE_BUFFER_SIZE = 1500
+
+        /**
+         * The maximum number of packets received for a session which wait to be handled. The queue drops the oldest
+         * packets when it is full.
+         */
+        private const val RECEIVE_QUEUE_SIZE = 1024
+
+        /**
+         * The addresses of the interfaces which are up, except for the loopback and link-local ones.
+         */
+        @JvmStatic
+        fun getHostAddresses(): List<InetAddress> = NetworkInterface.getNetworkInterfaces().toList()
+            .filter { it.isUp && !it.isLoopback }
+            .flatMap { it.inetAddresses.toList() }
+            .filter { !it.isLoopbackAddress && !it.isLinkLocalAddress }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.ice
+
+import java.net.Inet4Address
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+import java.util.zip.CRC32
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * The parts of STUN (RFC 5389) used by [IceLiteServer]: parsing binding requests, checking their short-term
+ * credentials, and encoding the responses.
+ */
+internal object Stun {
+    const val HEADER_LENGTH = 20
+    const val MAGIC_COOKIE = 0x2112a442
+
+    const val BINDING_REQUEST = 0x0001
+    const val BINDING_INDICATION = 0x0011
+    const val BINDING_SUCCESS_RESPONSE = 0x0101
+
+    const val USERNAME = 0x0006
+    const val MESSAGE_INTEGRITY = 0x0008
+    const val XOR_MAPPED_ADDRESS = 0x0020
+    const val PRIORITY = 0x0024
+    const val USE_CANDIDATE = 0x0025
+    const val FINGERPRINT = 0x8028
+    const val ICE_CONTROLLED = 0x8029
+    const val ICE_CONTROLLING = 0x802a
+
+    private const val FINGERPRINT_XOR = 0x5354554e
+    private const val HMAC_SHA1 = "HmacSHA1"
+
+    /**
+     * Whether a packet is a STUN message, as opposed to DTLS or SRTP (RFC 7983).
+     */
+    fun isStun(buf: ByteArray, off: Int, len: Int) =
+        len >= HEADER_LENGTH &&
+            buf[off].toInt() and 0xc0 == 0 &&
+            ByteBuffer.wrap(buf, off + 4, 4).int == MAGIC_COOKIE &&
+            readShort(buf, off + 2) + HEADER_LENGTH == len
+
+    /**
+     * Parses a STUN message, which must have been checked with [isStun].
+     *
+     * @return the message, or null if it is malformed.
+     */
+    fun parse(buf: ByteArray, off: Int, len: Int): Message? {
+        val attributes = HashMap<Int, ByteArray>()
+        var integrityOffset = -1
+        var attributeOffset = HEADER_LENGTH
+        while (attributeOffset + 4 <= len) {
+            val type = readShort(buf, off + attributeOffset)
+            val length = readShort(buf, off + attributeOffset + 2)
+            if (attributeOffset + 4 + length > len) {
+                return null
+            }
+            // Only FINGERPRINT may follow MESSAGE-INTEGRITY.
+            if (integrityOffset < 0 || type == FINGERPRINT) {
+                val valueOffset = off + attributeOffset + 4
+                attributes.putIfAbsent(type, buf.copyOfRange(valueOffset, valueOffset + length))
+            }
+            if (type == MESSAGE_INTEGRITY && integrityOffset < 0) {
+                integrityOffset = attributeOffset
+            }
+            attributeOffset += 4 + ((length + 3) and 3.inv())
+        }
+        return Message(
+            type = readShort(buf, off),
+            transactionId = buf.copyOfRange(off + 8, off + HEADER_LENGTH),
+            attributes = attributes,
+            integrityOffset = integrityOffset,
+            bytes = buf.copyOfRange(off, off + len)
+        )
+    }
+
+    /**
+     * Encodes a message with the given attributes, followed by MESSAGE-INTEGRITY (if [key] is not null) and
+     * FINGERPRINT.
+     */
+    fun encode(
+        type: Int,
+        transactionId: ByteArray,
+        attributes: List<Pair<Int, ByteArray>>,
+        key: ByteArray?
+    ): ByteArray {
+        val attributesLength = attributes.sumOf { 4 + ((it.second.size + 3) and 3.inv()) }
+        val integrityLength = if (key != null) 24 else 0
+        val buf = ByteBuffer.allocate(HEADER_LENGTH + attributesLength + integrityLength + 8)
+        buf.putShort(type.toShort())
+        buf.putShort(0)
+        buf.putInt(MAGIC_COOKIE)
+        buf.put(transactionId)
+        attributes.forEach { (attributeType, value) ->
+            buf.putShort(attributeType.toShort())
+            buf.putShort(value.size.toShort())
+            buf.put(value)
+            buf.position((buf.position() + 3) and 3.inv())
+        }
+        if (key != null) {
+            // The length covers the message up to and including MESSAGE-INTEGRITY.
+            buf.putShort(2, (buf.position() - HEADER_LENGTH + 24).toShort())
+            val hmac = hmac(key, buf.array(), buf.position())
+            buf.putShort(MESSAGE_INTEGRITY.toShort())
+            buf.putShort(20)
+            buf.put(hmac)
+        }
+        buf.putShort(2, (buf.position() - HEADER_LENGTH + 8).toShort())
+        val crc = CRC32().apply { update(buf.array(), 0, buf.position()) }.value.toInt()
+        buf.putShort(FINGERPRINT.toShort())
+        buf.putShort(4)
+        buf.putInt(crc xor FINGERPRINT_XOR)
+        return buf.array()
+    }
+
+    /**
+     * Encodes the value of an XOR-MAPPED-ADDRESS attribute.
+     */
+    fun xorMappedAddress(address: InetSocketAddress, transactionId: ByteArray): ByteArray {
+        val ip = address.address.address
+        val mask = ByteBuffer.allocate(16).putInt(MAGIC_COOKIE).put(transactionId).array()
+        return ByteBuffer.allocate(4 + ip.size).apply {
+            put(0.toByte())
+            put((if (address.address is Inet4Address) 1 else 2).toByte())
+            putShort((address.port xor (MAGIC_COOKIE ushr 16)).toShort())
+            ip.forEachIndexed { i, b -> put((b.toInt() xor mask[i].toInt()).toByte()) }
+        }.array()
+    }
+
+    private fun hmac(key: ByteArray, buf: ByteArray, len: Int): ByteArray =
+        Mac.getInstance(HMAC_SHA1).run {
+            init(SecretKeySpec(key, HMAC_SHA1))
+            update(buf, 0, len)
+            doFinal()
+        }
+
+    private fun readShort(buf: ByteArray, off: Int) =
+        ((buf[off].toInt() and 0xff) shl 8) or (buf[off + 1].toInt() and 0xff)
+
+    class Message(
+        val type: Int,
+        val transactionId: ByteArray,
+        /** The values of the attributes, by type. */
+        val attributes: Map<Int, ByteArray>,
+        /** The offset of the MESSAGE-INTEGRITY attribute, or -1 if there is none. */
+        private val integrityOffset: Int,
+        private val bytes: ByteArray
+    ) {
+        /**
+         * Checks the MESSAGE-INTEGRITY attribute with a short-term credential (RFC 5389, section 15.4).
+         */
+        fun hasValidIntegrity(key: ByteArray): Boolean {
+            if (integrityOffset < 0) {
+                return false
+            }
+            val signed = bytes.copyOf(integrityOffset)
+            signed[2] = ((integrityOffset - HEADER_LENGTH + 24) ushr 8).toByte()
+            signed[3] = (integrityOffset - HEADER_LENGTH + 24).toByte()
+            return MessageDigest.isEqual(hmac(key, signed, signed.size), attributes[MESSAGE_INTEGRITY])
+        }
+    }
+}
@@ -24,14 +24,21 @@ import com.fasterxml.jackson.annotation.JsonProperty
 import com.fasterxml.jackson.annotation.JsonSubTypes
 import com.fasterxml.jackson.annotation.JsonTypeInfo
 import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.core.io.JsonStringEncoder
 import com.fasterxml.jackson.databind.JsonMappingException
 import com.fasterxml.jackson.databind.MapperFeature
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
 import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
 import com.fasterxml.jackson.module.kotlin.readValue
+import com.fasterxml.jackson.module.kotlin.registerKotlinModule
 import org.apache.logging.log4j.util.Strings.isEmpty
 import org.jitsi.utils.ResettableLazy
+import org.jitsi.videobridge.cc.allocation.SsrcSlot
 import org.jitsi.videobridge.cc.allocation.VideoConstraints
 import org.jitsi.videobridge.util.VideoType
+import java.nio.charset.StandardCharsets
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicLong
 
@@ -50,6 +57,7 @@ import java.util.concurrent.atomic.AtomicLong
     JsonSubTypes.Type(value = ServerHelloMessage::class, name = ServerHelloMessage.TYPE),
     JsonSubTypes.Type(value = EndpointMessage::class, name = EndpointMessage.TYPE),
     JsonSubTypes.Type(value = EndpointStats::class, name = EndpointStats.TYPE),
+    JsonSubTypes.Type(value = AggregatedEndpointStatsMessage::class, name = AggregatedEndpointStatsMessage.TYPE),
     JsonSubTypes.Type(value = LastNMessage::class, name = LastNMessage.TYPE),
     JsonSubTypes.Type(value = ReceiverVideoConstraintMessage::class, name = ReceiverVideoConstraintMessage.TYPE),
     JsonSubTypes.Type(value = DominantSpeakerMessage::class, name = DominantSpeakerMessage.TYPE),
@@ -59,7 +67,8 @@ import java.util.concurrent.atomic.AtomicLong
     JsonSubTypes.Type(value = AddReceiverMessage::class, name = AddReceiverMessage.TYPE),
     JsonSubTypes.Type(value = RemoveReceiverMessage::class, name = RemoveReceiverMessage.TYPE),
     JsonSubTypes.Type(value = ReceiverVideoConstraintsMessage::class, name = ReceiverVideoConstraintsMessage.TYPE),
-    JsonSubTypes.Type(value = VideoTypeMessage::class, name = VideoTypeMessage.TYPE)
+    JsonSubTypes.Type(value = VideoTypeMessage::class, name = VideoTypeMessage.TYPE),
+    JsonSubTypes.Type(value = VideoSsrcSlotsMessage::class, name = VideoSsrcSlotsMessage.TYPE)
 )
 sealed class BridgeChannelMessage(
     // The type is included as colibriClass (as it has to be on the wire) by the annotation above.
@@ -72,12 +81,38 @@ sealed class BridgeChannelMessage(
      * the cache needs to be invalidated via [resetJsonCache].
      */
     private val jsonCache: String by jsonCacheDelegate
-    protected fun resetJsonCache() = jsonCacheDelegate.reset()
+    private val jsonBytesCacheDelegate = ResettableLazy { toJson().toByteArray(StandardCharsets.UTF_8) }
+    /**
+     * Caches the UTF-8 encoding of [jsonCache], in the same way as [jsonCache].
+     */
+    private val jsonBytesCache: ByteArray by jsonBytesCacheDelegate
+    private val cborCacheDelegate = ResettableLazy { cborMapper.writeValueAsBytes(this) }
+    /**
+     * Caches the CBOR representation of this object, in the same way as [jsonCache].
+     */
+    private val cborCache: ByteArray by cborCacheDelegate
+    protected fun resetJsonCache() {
+        jsonCacheDelegate.reset()
+        jsonBytesCacheDelegate.reset()
+        cborCacheDelegate.reset()
+    }
     /**
      * Get a JSON representation of this [BridgeChannelMessage].
      */
     fun toJson(): String = jsonCache
 
+    /**
+     * Get the UTF-8 encoded JSON representation of this [BridgeChannelMessage]. The same array is shared by all the
+     * transports that the message is sent on, so it must not be modified.
+     */
+    fun toJsonBytes(): ByteArray = jsonBytesCache
+
+    /**
+     * Get a CBOR representation of this [BridgeChannelMessage], for clients which negotiated the binary encoding (see
+     * [ClientHelloMessage.BINARY_ENCODING]). It has the same structure as the JSON representation.
+     */
+    fun toCbor(): ByteArray = cborCache
+
     /**
      * Serialize this [BridgeChannelMessage] to a string in JSON format. Note that this default implementation can be
      * slow, which is why some of the messages that we serialize often override it with a custom optimized version.
@@ -85,14 +120,98 @@ sealed class BridgeChannelMessage(
     protected open fun createJson(): String = mapper.writeValueAsString(this)
 
     companion object {
-        private val mapper = jacksonObjectMapper().apply {
+        internal val mapper = jacksonObjectMapper().apply {
             enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
         }
+        /**
+         * Parses a message in JSON format. Messages which the bridge only relays (see [scanRelayedMessage]) are not
+         * fully deserialized.
+         */
         @JvmStatic
         @Throws(JsonProcessingException::class, JsonMappingException::class)
         fun parse(string: String): BridgeChannelMessage {
-            return mapper.readValue(string)
+            return scanRelayedMessage(string) ?: mapper.readValue(string)
+        }
+
+        /**
+         * Reads the top-level fields of [string] with a streaming parser, stopping as soon as the "colibriClass"
+         * discriminator shows that the message is of a type that needs to be fully deserialized. An [EndpointMessage]
+         * only needs its "to" field for routing, so it is returned backed by the original JSON, and its other fields
+         * are only deserialized if they are accessed.
+         *
+         * @return the message, or null if it is to be fully deserialized.
+         */
+        private fun scanRelayedMessage(string: String): BridgeChannelMessage? {
+            var colibriClass: String? = null
+            var to: String? = null
+            mapper.factory.createParser(string).use { parser ->
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    val name = parser.currentName
+                    val token = parser.nextToken()
+                    when (name) {
+                        "colibriClass" -> {
+                            if (token != JsonToken.VALUE_STRING || parser.text != EndpointMessage.TYPE) {
+                                return null
+                            }
+                            colibriClass = EndpointMessage.TYPE
+                        }
+                        "to" -> to = if (token == JsonToken.VALUE_STRING) parser.text else return null
+                        // The "from" field is overwritten to prevent spoofing, which requires re-encoding.
+                        "from" -> return null
+                        else -> parser.skipChildren()
+                    }
+                }
+                if (parser.currentToken != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                    return null
+                }
+            }
+            val relayedTo = to ?: return null
+            return if (colibriClass != null) EndpointMessage.withRawJson(relayedTo, string.trim()) else null
+        }
+
+        private val cborMapper = ObjectMapper(CBORFactory()).registerKotlinModule().apply {
+            enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
         }
+        /**
+         * Parses a message in the binary (CBOR) encoding.
+         */
+        @JvmStatic
+        @Throws(JsonProcessingException::class, JsonMappingException::class)
+        fun parse(bytes: ByteArray, offset: Int, length: Int): BridgeChannelMessage {
+            return cborMapper.readValue(bytes, offset, length, BridgeChannelMessage::class.java)
+        }
+
+        /**
+         * Serializes a batch of messages to a single JSON array, for the clients which support
+         * [ClientHelloMessage.BATCHED_MESSAGES].
+         */
+        @JvmStatic
+        fun batchToJson(messages: List<BridgeChannelMessage>): String =
+            messages.joinToString(separator = ",", prefix = "[", postfix = "]") { it.toJson() }
+
+        /**
+         * Serializes a batch of messages to a single (indefinite-length) CBOR array, for the clients which support
+         * both [ClientHelloMessage.BATCHED_MESSAGES] and [ClientHelloMessage.BINARY_ENCODING].
+         */
+        @JvmStatic
+        fun batchToCbor(messages: List<BridgeChannelMessage>): ByteArray {
+            val encoded = messages.map { it.toCbor() }
+            val bytes = ByteArray(encoded.sumOf { it.size } + 2)
+            bytes[0] = CBOR_INDEFINITE_ARRAY
+            var offset = 1
+            encoded.forEach {
+                System.arraycopy(it, 0, bytes, offset, it.size)
+                offset += it.size
+            }
+            bytes[offset] = CBOR_BREAK
+            return bytes
+        }
+
+        private const val CBOR_INDEFINITE_ARRAY = 0x9f.toByte()
+        private const val CBOR_BREAK = 0xff.toByte()
     }
 }
 
@@ -112,6 +231,7 @@ open class MessageHandler {
             is ServerHelloMessage -> serverHello(message)
             is EndpointMessage -> endpointMessage(message)
             is EndpointStats -> endpointStats(message)
+            is AggregatedEndpointStatsMessage -> aggregatedEndpointStats(message)
             is LastNMessage -> lastN(message)
             is ReceiverVideoConstraintMessage -> receiverVideoConstraint(message)
             is DominantSpeakerMessage -> dominantSpeaker(message)
@@ -122,6 +242,7 @@ open class MessageHandler {
             is RemoveReceiverMessage -> removeReceiver(message)
             is ReceiverVideoConstraintsMessage -> receiverVideoConstraints(message)
             is VideoTypeMessage -> videoType(message)
+            is VideoSsrcSlotsMessage -> videoSsrcSlots(message)
         }
     }
 
@@ -137,6 +258,7 @@ open class MessageHandler {
     open fun serverHello(message: ServerHelloMessage) = unhandledMessageReturnNull(message)
     open fun endpointMessage(message: EndpointMessage) = unhandledMessageReturnNull(message)
     open fun endpointStats(message: EndpointStats) = unhandledMessageReturnNull(message)
+    open fun aggregatedEndpointStats(message: AggregatedEndpointStatsMessage) = unhandledMessageReturnNull(message)
     open fun lastN(message: LastNMessage) = unhandledMessageReturnNull(message)
     open fun receiverVideoConstraint(message: ReceiverVideoConstraintMessage) = unhandledMessageReturnNull(message)
     open fun dominantSpeaker(message: DominantSpeakerMessage) = unhandledMessageReturnNull(message)
@@ -147,6 +269,7 @@ open class MessageHandler {
     open fun removeReceiver(message: RemoveReceiverMessage) = unhandledMessageReturnNull(message)
     open fun receiverVideoConstraints(message: ReceiverVideoConstraintsMessage) = unhandledMessageReturnNull(message)
     open fun videoType(message: VideoTypeMessage) = unhandledMessageReturnNull(message)
+    open fun videoSsrcSlots(message: VideoSsrcSlotsMessage) = unhandledMessageReturnNull(message)
 
     fun getReceivedCounts() = receivedCounts.mapValues { it.value.get() }
 }
@@ -175,24 +298,59 @@ class SelectedEndpointMessage(val selectedEndpoint: String?) : BridgeChannelMess
 }
 
 /**
- * A message sent from a client to a bridge in the beginning of a session.
+ * A message sent from a client to a bridge in the beginning of a session. It optionally lists the capabilities of the
+ * client, i.e. the optional features of the bridge channel that it supports.
  */
-class ClientHelloMessage : BridgeChannelMessage(TYPE) {
+class ClientHelloMessage @JvmOverloads constructor(
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    val capabilities: Set<String>? = null
+) : BridgeChannelMessage(TYPE) {
+    fun supports(capability: String) = capabilities?.contains(capability) == true
+
     companion object {
         const val TYPE = "ClientHello"
+
+        /**
+         * The capability of receiving the stats of other endpoints in [AggregatedEndpointStatsMessage]s instead of
+         * individual [EndpointStats] messages.
+         */
+        const val AGGREGATED_ENDPOINT_STATS = "aggregated-endpoint-stats"
+
+        /**
+         * The capability of exchanging messages in the binary (CBOR) encoding instead of JSON. The bridge confirms it
+         * in its [ServerHelloMessage], and then sends all messages other than the [ServerHelloMessage] in binary
+         * frames. Messages received in binary frames are always accepted.
+         */
+        const val BINARY_ENCODING = "binary-cbor"
+
+        /**
+         * The capability of receiving several messages in a single web socket frame. The bridge confirms it in its
+         * [ServerHelloMessage], and then may send a JSON (or CBOR) array of messages instead of a single message in
+         * any frame after the [ServerHelloMessage].
+         */
+        const val BATCHED_MESSAGES = "batched-messages"
     }
 }
 
 /**
- * A message sent from a bridge to a client in response to a [ClientHelloMessage] or when a websocket is accepted.
+ * A message sent from a bridge to a client in response to a [ClientHelloMessage] or when a websocket is accepted. It is
+ * always sent in JSON.
  */
 class ServerHelloMessage @JvmOverloads constructor(
     @JsonInclude(JsonInclude.Include.NON_NULL)
-    val version: String? = null
+    val version: String? = null,
+    /**
+     * The capabilities requested in the [ClientHelloMessage] that the bridge accepted.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    val capabilities: Set<String>? = null
 ) : BridgeChannelMessage(TYPE) {
 
-    override fun createJson(): String =
-        if (version == null) JSON_STRING_NO_VERSION else """{"colibriClass":"$TYPE","version":"$version"}"""
+    override fun createJson(): String = when {
+        capabilities != null -> super.createJson()
+        version == null -> JSON_STRING_NO_VERSION
+        else -> """{"colibriClass":"$TYPE","version":"$version"}"""
+    }
     companion object {
         const val TYPE = "ServerHello"
         const val JSON_STRING_NO_VERSION: String = """{"colibriClass":"$TYPE"}"""
@@ -217,8 +375,38 @@ class EndpointMessage(val to: String) : BridgeChannelMessage(TYPE) {
             resetJsonCache()
         }
 
+    /**
+     * The JSON that this message was received as, when it was parsed without deserializing its custom fields (which
+     * must then not include "from"). It is cleared when the custom fields are deserialized. Guarded by `this`, like
+     * [otherFields].
+     */
+    @JsonIgnore
+    private var rawJson: String? = null
+
+    private val _otherFields = mutableMapOf<String, Any>()
+
     @get:JsonAnyGetter
-    val otherFields = mutableMapOf<String, Any>()
+    val otherFields: MutableMap<String, Any>
+        @Synchronized get() {
+            rawJson?.let { json ->
+                mapper.readValue<Map<String, Any>>(json).forEach { (key, value) ->
+                    if (key != "colibriClass" && key != "to") {
+                        _otherFields[key] = value
+                    }
+                }
+                rawJson = null
+            }
+            return _otherFields
+        }
+
+    /**
+     * Relays the received JSON with only the "from" field added, when the custom fields haven't been deserialized.
+     */
+    override fun createJson(): String {
+        val json = synchronized(this) { rawJson } ?: return super.createJson()
+        val from = this.from ?: return json
+        return """{"from":"${String(JsonStringEncoder.getInstance().quoteAsString(from))}",${json.substring(1)}"""
+    }
 
     /**
      * Whether this message is to be broadcast or targeted to a specific endpoint.
@@ -233,6 +421,8 @@ class EndpointMessage(val to: String) : BridgeChannelMessage(TYPE) {
 
     companion object {
         const val TYPE = "EndpointMessage"
+
+        internal fun withRawJson(to: String, rawJson: String) = EndpointMessage(to).apply { this.rawJson = rawJson }
     }
 }
 
@@ -267,6 +457,28 @@ class EndpointStats : BridgeChannelMessage(TYPE) {
     }
 }
 
+/**
+ * A message sent from the bridge to a client which contains the latest [EndpointStats] of a set of other endpoints,
+ * keyed by the ID of the endpoint that they originated from. Only sent to clients which support
+ * [ClientHelloMessage.AGGREGATED_ENDPOINT_STATS], instead of relaying each [EndpointStats] message individually.
+ *
+ * Example Json message:
+ * {
+ *     "colibriClass": "AggregatedEndpointStats",
+ *     "stats": {
+ *         "abcdabcd": { "bitrate": { ... }, "packetLoss": { ... } },
+ *         "12341234": { "bitrate": { ... }, "packetLoss": { ... } }
+ *     }
+ * }
+ */
+class AggregatedEndpointStatsMessage(
+    val stats: Map<String, Map<String, Any>>
+) : BridgeChannelMessage(TYPE) {
+    companion object {
+        const val TYPE = "AggregatedEndpointStats"
+    }
+}
+
 /**
  * A message sent from a client, indicating that it wishes to change its "lastN" (i.e. the maximum number of video
  * streams to be received).
@@ -440,3 +652,15 @@ class VideoTypeMessage(
         const val TYPE = "VideoTypeMessage"
     }
 }
+
+/**
+ * A message sent from the bridge to a client when SSRC slots are enabled, indicating which endpoint's video is
+ * currently forwarded on each of the video SSRCs that the client receives.
+ */
+class VideoSsrcSlotsMessage(
+    val slots: List<SsrcSlot>
+) : BridgeChannelMessage(TYPE) {
+    companion object {
+        const val TYPE = "VideoSsrcSlots"
+    }
+}
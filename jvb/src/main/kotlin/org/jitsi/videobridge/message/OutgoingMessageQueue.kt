@@ -0,0 +1,332 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.message
+
+import org.jitsi.utils.logging2.Logger
+import org.jitsi.utils.logging2.createChildLogger
+import org.jitsi.videobridge.util.TaskPools
+import org.json.simple.JSONObject
+import java.util.ArrayDeque
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A queue of the [BridgeChannelMessage]s to be sent to an endpoint.
+ *
+ * Messages which describe a state (e.g. [ForwardedEndpointsMessage]) are conflated: a queued message is replaced by a
+ * newer message of the same kind (see [conflationKey] and [conflate]), so only the latest one is sent. Messages are
+ * sent in order of priority (see [priority]), and in the order in which they were queued within the same priority.
+ * When the queue is full the oldest conflatable message with the lowest priority is dropped, since a newer message of
+ * its kind supersedes it. Other messages (e.g. [EndpointMessage]s, which carry application data) are never dropped to
+ * make room, and are only dropped (and logged) when nothing else can be.
+ *
+ * The messages are sent from an [executor] thread, in batches of up to [Sender.maxBatchSize] messages (one at a time
+ * unless the transport supports batching). When [Sender.batchDelayMs] is positive, sending starts that long after a
+ * message is queued, so that the messages produced in that window are sent together. When [sender] reports that the
+ * transport is congested, sending pauses for [retryDelayMs], during which newer messages keep being conflated.
+ */
+class OutgoingMessageQueue @JvmOverloads constructor(
+    private val sender: Sender,
+    parentLogger: Logger,
+    private val maxSize: Int = 200,
+    private val executor: Executor = TaskPools.IO_POOL,
+    private val scheduler: ScheduledExecutorService = TaskPools.SCHEDULED_POOL,
+    private val retryDelayMs: Long = 10
+) {
+    private val logger = createChildLogger(parentLogger)
+
+    /**
+     * The queued messages, by priority. Guarded by [lock].
+     */
+    private val queues = Array(Priority.values().size) { ArrayDeque<Entry>() }
+
+    /**
+     * The queued messages which may be conflated, by conflation key. Guarded by [lock].
+     */
+    private val conflatable = HashMap<String, Entry>()
+
+    private var size = 0
+
+    private val lock = Any()
+
+    /**
+     * Whether a task which sends the queued messages has been scheduled or is running.
+     */
+    private val sending = AtomicBoolean()
+
+    @Volatile
+    private var closed = false
+
+    private val numQueued = AtomicLong()
+    private val numConflated = AtomicLong()
+    private val numDropped = AtomicLong()
+    private val numDroppedNonConflatable = AtomicLong()
+    private val numCongested = AtomicLong()
+
+    /**
+     * Queues a message to be sent.
+     */
+    fun add(message: BridgeChannelMessage) {
+        if (closed) {
+            return
+        }
+
+        synchronized(lock) {
+            numQueued.incrementAndGet()
+            val key = conflationKey(message)
+            if (key != null) {
+                conflatable[key]?.let {
+                    it.message = conflate(it.message, message)
+                    numConflated.incrementAndGet()
+                    return@synchronized
+                }
+            }
+
+            val priority = priority(message)
+            if (size >= maxSize && !dropLowest(priority)) {
+                // Everything queued is more important than this message, or can't be dropped.
+                if (key == null) {
+                    numDroppedNonConflatable.incrementAndGet()
+                    logger.warn("Dropping a ${message.type} message, the queue is full of messages to be sent")
+                } else {
+                    numDropped.incrementAndGet()
+                }
+                return@synchronized
+            }
+
+            val entry = Entry(message, key)
+            queues[priority.ordinal].addLast(entry)
+            key?.let { conflatable[it] = entry }
+            size++
+        }
+
+        scheduleSending()
+    }
+
+    /**
+     * Drops all queued messages, and any that are added later.
+     */
+    fun close() {
+        closed = true
+        synchronized(lock) {
+            queues.forEach { it.clear() }
+            conflatable.clear()
+            size = 0
+        }
+    }
+
+    /**
+     * Drops the oldest conflatable message with the lowest priority, if it isn't more important than [priority].
+     *
+     * @return whether a message was dropped. Must be called with [lock] held.
+     */
+    private fun dropLowest(priority: Priority): Boolean {
+        for (i in queues.indices.reversed()) {
+            if (i < priority.ordinal) {
+                return false
+            }
+            val iterator = queues[i].iterator()
+            while (iterator.hasNext()) {
+                val entry = iterator.next()
+                val key = entry.key ?: continue
+                iterator.remove()
+                conflatable.remove(key)
+                size--
+                numDropped.incrementAndGet()
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Removes up to [max] messages from the queue, in the order in which they are to be sent.
+     */
+    private fun poll(max: Int): List<Entry> = synchronized(lock) {
+        val entries = ArrayList<Entry>(minOf(max, size))
+        for (queue in queues) {
+            while (entries.size < max) {
+                val entry = queue.pollFirst() ?: break
+                entry.key?.let { conflatable.remove(it) }
+                size--
+                entries.add(entry)
+            }
+        }
+        entries
+    }
+
+    /**
+     * Puts back messages which couldn't be sent, unless they have been superseded in the meantime.
+     */
+    private fun putBack(entries: List<Entry>) = synchronized(lock) {
+        // Add them to the front in reverse, so that their order is preserved.
+        for (entry in entries.asReversed()) {
+            if (closed) {
+                continue
+            }
+            val newer = entry.key?.let { conflatable[it] }
+            if (newer != null) {
+                newer.message = conflate(entry.message, newer.message)
+                numConflated.incrementAndGet()
+                continue
+            }
+            queues[priority(entry.message).ordinal].addFirst(entry)
+            entry.key?.let { conflatable[it] = entry }
+            size++
+        }
+    }
+
+    private fun isEmpty() = synchronized(lock) { size == 0 }
+
+    private fun scheduleSending() {
+        if (!sending.get() && sending.compareAndSet(false, true)) {
+            val delayMs = sender.batchDelayMs
+            if (delayMs > 0) {
+                scheduler.schedule({ executor.execute(::send) }, delayMs, TimeUnit.MILLISECONDS)
+            } else {
+                executor.execute(::send)
+            }
+        }
+    }
+
+    private fun send() {
+        try {
+            while (!closed) {
+                val entries = poll(sender.maxBatchSize.coerceAtLeast(1))
+                if (entries.isEmpty()) {
+                    break
+                }
+                val result = try {
+                    sender.send(entries.map { it.message })
+                } catch (t: Throwable) {
+                    logger.warn("Failed to send messages", t)
+                    SendResult.FAILED
+                }
+
+                if (result == SendResult.CONGESTED) {
+                    numCongested.incrementAndGet()
+                    putBack(entries)
+                    // Keep [sending] set, so that no other task is started before the retry.
+                    scheduler.schedule({ executor.execute(::send) }, retryDelayMs, TimeUnit.MILLISECONDS)
+                    return
+                }
+            }
+        } catch (t: Throwable) {
+            logger.warn("Failed to send messages", t)
+        }
+
+        sending.set(false)
+        // A message may have been added after the last poll, but before [sending] was reset.
+        if (!closed && !isEmpty()) {
+            scheduleSending()
+        }
+    }
+
+    fun getDebugState() = JSONObject().apply {
+        put("size", synchronized(lock) { size })
+        put("num_queued", numQueued.get())
+        put("num_conflated", numConflated.get())
+        put("num_dropped", numDropped.get())
+        put("num_dropped_non_conflatable", numDroppedNonConflatable.get())
+        put("num_congested", numCongested.get())
+    }
+
+    private class Entry(
+        var message: BridgeChannelMessage,
+        val key: String?
+    )
+
+    enum class Priority {
+        /** Messages which describe the state of the conference as seen by the receiver. */
+        HIGH,
+        NORMAL,
+        /** Statistics, which are only informational. */
+        LOW
+    }
+
+    enum class SendResult {
+        SENT,
+
+        /** The message was not sent because the transport is congested, and should be retried later. */
+        CONGESTED,
+
+        /** The message could not be sent, and should not be retried. */
+        FAILED
+    }
+
+    interface Sender {
+        /**
+         * Sends a batch of messages (of at most [maxBatchSize]) together.
+         */
+        fun send(messages: List<BridgeChannelMessage>): SendResult
+
+        /**
+         * The maximum number of messages that [send] currently accepts at once.
+         */
+        val maxBatchSize: Int
+
+        /**
+         * The time to wait for more messages before sending, or 0 to send right away.
+         */
+        val batchDelayMs: Long
+    }
+
+    companion object {
+        /**
+         * Gets the key by which a message is conflated with the other queued messages, or null if the message
+         * shouldn't be conflated. Messages with the same key supersede each other.
+         */
+        @JvmStatic
+        fun conflationKey(message: BridgeChannelMessage): String? = when (message) {
+            is ForwardedEndpointsMessage,
+            is SenderVideoConstraintsMessage,
+            is DominantSpeakerMessage,
+            is AggregatedEndpointStatsMessage -> message.type
+            is EndpointConnectionStatusMessage -> "${message.type}:${message.endpoint}"
+            is EndpointStats -> message.from?.let { "${message.type}:$it" }
+            else -> null
+        }
+
+        /**
+         * Gets the message to send instead of two messages with the same [conflationKey]. This is the [newer] one,
+         * except for [AggregatedEndpointStatsMessage]s, which carry the stats of different sets of senders and are
+         * merged (with the newer stats of a sender replacing the older ones).
+         */
+        @JvmStatic
+        fun conflate(older: BridgeChannelMessage, newer: BridgeChannelMessage): BridgeChannelMessage =
+            if (older is AggregatedEndpointStatsMessage && newer is AggregatedEndpointStatsMessage) {
+                AggregatedEndpointStatsMessage(older.stats + newer.stats)
+            } else {
+                newer
+            }
+
+        @JvmStatic
+        fun priority(message: BridgeChannelMessage): Priority = when (message) {
+            is ServerHelloMessage,
+            is ForwardedEndpointsMessage,
+            is SenderVideoConstraintsMessage,
+            is DominantSpeakerMessage,
+            is EndpointConnectionStatusMessage -> Priority.HIGH
+            is EndpointStats,
+            is AggregatedEndpointStatsMessage -> Priority.LOW
+            else -> Priority.NORMAL
+        }
+    }
+}
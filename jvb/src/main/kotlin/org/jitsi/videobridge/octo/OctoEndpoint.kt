@@ -124,6 +124,7 @@ class OctoEndpoint(
 
     fun setMediaSources(sources: Array<MediaSourceDesc>) {
         transceiver.mediaSources = sources
+        conference.speechActivity.endpointVideoAvailabilityChanged()
     }
 
     override fun expire() {
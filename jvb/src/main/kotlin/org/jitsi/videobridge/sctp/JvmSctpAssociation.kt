@@ -0,0 +1,863 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.sctp
+
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.logging2.Logger
+import org.jitsi.utils.logging2.createChildLogger
+import org.jitsi.videobridge.sctp.SctpPackets.ABORT
+import org.jitsi.videobridge.sctp.SctpPackets.COOKIE_ACK
+import org.jitsi.videobridge.sctp.SctpPackets.COOKIE_ECHO
+import org.jitsi.videobridge.sctp.SctpPackets.Chunk
+import org.jitsi.videobridge.sctp.SctpPackets.DATA
+import org.jitsi.videobridge.sctp.SctpPackets.DATA_HEADER_LENGTH
+import org.jitsi.videobridge.sctp.SctpPackets.ERROR
+import org.jitsi.videobridge.sctp.SctpPackets.FLAG_BEGIN
+import org.jitsi.videobridge.sctp.SctpPackets.FLAG_END
+import org.jitsi.videobridge.sctp.SctpPackets.FLAG_TAG_REFLECTED
+import org.jitsi.videobridge.sctp.SctpPackets.FLAG_UNORDERED
+import org.jitsi.videobridge.sctp.SctpPackets.HEARTBEAT
+import org.jitsi.videobridge.sctp.SctpPackets.HEARTBEAT_ACK
+import org.jitsi.videobridge.sctp.SctpPackets.INIT
+import org.jitsi.videobridge.sctp.SctpPackets.INIT_ACK
+import org.jitsi.videobridge.sctp.SctpPackets.PARAM_STATE_COOKIE
+import org.jitsi.videobridge.sctp.SctpPackets.PARAM_UNRECOGNIZED
+import org.jitsi.videobridge.sctp.SctpPackets.SACK
+import org.jitsi.videobridge.sctp.SctpPackets.SHUTDOWN
+import org.jitsi.videobridge.sctp.SctpPackets.SHUTDOWN_ACK
+import org.jitsi.videobridge.sctp.SctpPackets.SHUTDOWN_COMPLETE
+import org.jitsi.videobridge.util.TaskPools
+import org.jitsi_modified.sctp4j.SctpDataCallback
+import org.jitsi_modified.sctp4j.SctpDataSender
+import org.jitsi_modified.sctp4j.SctpSocket
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.security.SecureRandom
+import java.time.Clock
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * An in-process implementation of an SCTP association (RFC 4960), covering the subset that WebRTC data channels need
+ * (RFC 8831): a single association over DTLS, with ordered and unordered reliable delivery on any number of streams.
+ * Unlike usrsctp, it has no global state or threads: every association has its own lock, and its timers run on
+ * [scheduler].
+ *
+ * Not supported: multi-homing, partial reliability (FORWARD TSN), stream reconfiguration and association restart.
+ * The peer learns this from the INIT or INIT ACK, which don't advertise the extensions.
+ *
+ * Outgoing packets are passed to [dataSender] while holding the association's lock. The callbacks ([dataCallback]
+ * and [eventHandler]) are called without holding it.
+ */
+class JvmSctpAssociation @JvmOverloads constructor(
+    private val dataSender: SctpDataSender,
+    parentLogger: Logger,
+    private val scheduler: ScheduledExecutorService = TaskPools.SCHEDULED_POOL,
+    private val clock: Clock = Clock.systemUTC(),
+    private val localPort: Int = DEFAULT_PORT
+) : SctpServerConnection {
+    private val logger = createChildLogger(parentLogger)
+
+    override var eventHandler: SctpSocket.SctpSocketEventHandler? = null
+    override var dataCallback: SctpDataCallback? = null
+
+    private val lock = Any()
+
+    private var state = State.CLOSED
+    private var listening = false
+
+    private val localTag = random.nextInt().let { if (it == 0) 1 else it }
+    private var peerTag = 0
+    private var remotePort = DEFAULT_PORT
+
+    /**
+     * The State Cookie that we sent in our INIT ACK (as the server), or that we received in the INIT ACK and echo
+     * (as the client). We rely on DTLS to authenticate the peer, so the cookie only needs to be unpredictable.
+     */
+    private var cookie: ByteArray? = null
+
+    /** The INIT or COOKIE ECHO chunk to retransmit until the handshake completes (as the client). */
+    private var handshakeChunk: ByteArray? = null
+
+    private var timer: ScheduledFuture<*>? = null
+    private var timerGeneration = 0
+    private var rtoMs = INITIAL_RTO_MS
+    private var srttMs = -1L
+    private var rttVarMs = 0L
+    private var consecutiveTimeouts = 0
+
+    /* The receiving side. */
+
+    /** The last TSN received in sequence. */
+    private var cumulativeTsn = 0
+    /** The DATA chunks received after a gap, by TSN. */
+    private val receivedOutOfOrder = HashMap<Int, DataChunk>()
+    /** The messages being reassembled, by stream and ordering. */
+    private val partialMessages = HashMap<Int, ByteArrayOutputStream>()
+    /** The bytes in [receivedOutOfOrder] and [partialMessages], which count against our receive window. */
+    private var bufferedBytes = 0
+
+    /* The sending side. */
+
+    private val initialTsn = random.nextInt()
+    private var nextTsn = initialTsn
+    private val nextSsns = HashMap<Int, Int>()
+    /** The DATA chunks which have been sent and not cumulatively acknowledged, in TSN order. */
+    private val outstanding = LinkedHashMap<Int, OutstandingChunk>()
+    /** The DATA chunks waiting for the congestion or receive window to open. */
+    private val pending = ArrayDeque<OutstandingChunk>()
+    private var lastCumulativeAck = initialTsn - 1
+    private var bytesInFlight = 0
+    private var peerReceiveWindow = 0
+    private var congestionWindow = INITIAL_CONGESTION_WINDOW
+    private var slowStartThreshold = Int.MAX_VALUE
+    private var partialBytesAcked = 0
+
+    private val stats = Stats()
+
+    override fun listen() {
+        synchronized(lock) {
+            listening = true
+        }
+    }
+
+    override fun accept(): Boolean = synchronized(lock) { state == State.ESTABLISHED }
+
+    /**
+     * Initiates an association with the remote side (i.e. acts as the client).
+     */
+    fun connect() {
+        synchronized(lock) {
+            if (state != State.CLOSED) {
+                return
+            }
+            state = State.COOKIE_WAIT
+            val init = SctpPackets.chunk(INIT, 0, initValue(cookieParameter = null, unrecognized = emptyList()))
+            handshakeChunk = init
+            sendChunks(listOf(init), verificationTag = 0)
+            startTimer()
+        }
+    }
+
+    override fun send(data: ByteBuffer, ordered: Boolean, sid: Int, ppid: Int): Int {
+        return send(data.array(), data.arrayOffset() + data.position(), data.remaining(), ordered, sid, ppid)
+    }
+
+    /**
+     * Sends a message, fragmenting it if it doesn't fit in a packet.
+     *
+     * @return the number of bytes sent, or -1 if the association is not established.
+     */
+    fun send(data: ByteArray, offset: Int, length: Int, ordered: Boolean, sid: Int, ppid: Int): Int =
+        synchronized(lock) {
+            if (state != State.ESTABLISHED) {
+                return -1
+            }
+            val ssn = if (ordered) nextSsns.merge(sid, 1, Int::plus)!! - 1 else 0
+            var fragmentOffset = 0
+            do {
+                val fragmentLength = minOf(MAX_DATA_LENGTH, length - fragmentOffset)
+                var flags = if (ordered) 0 else FLAG_UNORDERED
+                if (fragmentOffset == 0) flags = flags or FLAG_BEGIN
+                if (fragmentOffset + fragmentLength == length) flags = flags or FLAG_END
+                val tsn = nextTsn++
+                val chunk = SctpPackets.dataChunk(
+                    flags, tsn, sid, ssn, ppid, data, offset + fragmentOffset, fragmentLength
+                )
+                pending.add(OutstandingChunk(tsn, chunk, fragmentLength))
+                fragmentOffset += fragmentLength
+            } while (fragmentOffset < length)
+
+            stats.messagesSent++
+            sendPending()
+            length
+        }
+
+    override fun onConnIn(data: ByteArray, offset: Int, length: Int) {
+        val callbacks = ArrayList<() -> Unit>()
+        synchronized(lock) {
+            if (state == State.CLOSED && !listening) {
+                return
+            }
+            val verificationTag = SctpPackets.verificationTag(data, offset)
+            val sourcePort = SctpPackets.sourcePort(data, offset)
+            var receivedData = false
+            var stop = false
+            val valid = SctpPackets.parse(data, offset, length) { chunk ->
+                if (stop || !checkVerificationTag(chunk, verificationTag)) {
+                    stop = true
+                    return@parse
+                }
+                when (chunk.type) {
+                    INIT -> handleInit(chunk, sourcePort)
+                    INIT_ACK -> handleInitAck(chunk)
+                    COOKIE_ECHO -> handleCookieEcho(chunk, callbacks)
+                    COOKIE_ACK -> handleCookieAck(callbacks)
+                    DATA -> receivedData = handleData(chunk, callbacks) || receivedData
+                    SACK -> handleSack(chunk)
+                    HEARTBEAT -> sendChunks(listOf(SctpPackets.chunk(HEARTBEAT_ACK, 0, chunk.copyValue())))
+                    ABORT -> {
+                        logger.info("Received ABORT")
+                        terminate(callbacks)
+                        stop = true
+                    }
+                    SHUTDOWN -> {
+                        sendChunks(listOf(SctpPackets.chunk(SHUTDOWN_ACK, 0, ByteArray(0))))
+                        terminate(callbacks)
+                        stop = true
+                    }
+                    SHUTDOWN_ACK -> {
+                        sendChunks(listOf(SctpPackets.chunk(SHUTDOWN_COMPLETE, 0, ByteArray(0))))
+                        terminate(callbacks)
+                        stop = true
+                    }
+                    SHUTDOWN_COMPLETE -> Unit
+                    ERROR -> logger.warn("Received ERROR chunk")
+                    else -> {
+                        // The highest bit tells whether to skip an unrecognized chunk, or the rest of the packet.
+                        if (chunk.type and 0x80 == 0) {
+                            stop = true
+                        }
+                    }
+                }
+            }
+            if (!valid) {
+                stats.packetsDropped++
+                return
+            }
+            stats.packetsReceived++
+            if (receivedData && state == State.ESTABLISHED) {
+                sendChunks(listOf(sack()))
+            }
+        }
+        callbacks.forEach { it() }
+    }
+
+    override fun close() {
+        synchronized(lock) {
+            if (state == State.CLOSED) {
+                return
+            }
+            if (peerTag != 0) {
+                sendChunks(listOf(SctpPackets.chunk(ABORT, 0, ByteArray(0))))
+            }
+            reset()
+            listening = false
+        }
+    }
+
+    fun getDebugState() = synchronized(lock) {
+        OrderedJsonObject().apply {
+            put("state", state.name)
+            put("rto_ms", rtoMs)
+            put("srtt_ms", srttMs)
+            put("cwnd", congestionWindow)
+            put("bytes_in_flight", bytesInFlight)
+            put("peer_rwnd", peerReceiveWindow)
+            put("num_outstanding", outstanding.size)
+            put("num_pending", pending.size)
+            put("buffered_bytes", bufferedBytes)
+            put("packets_sent", stats.packetsSent)
+            put("packets_received", stats.packetsReceived)
+            put("packets_dropped", stats.packetsDropped)
+            put("messages_sent", stats.messagesSent)
+            put("messages_received", stats.messagesReceived)
+            put("retransmissions", stats.retransmissions)
+        }
+    }
+
+    private fun checkVerificationTag(chunk: Chunk, verificationTag: Int): Boolean = when (chunk.type) {
+        INIT -> verificationTag == 0
+        ABORT, SHUTDOWN_COMPLETE ->
+            if (chunk.flags and FLAG_TAG_REFLECTED != 0) verificationTag == peerTag else verificationTag == localTag
+        else -> verificationTag == localTag
+    }
+
+    private fun handleInit(chunk: Chunk, sourcePort: Int) {
+        if (!listening || state == State.ESTABLISHED || chunk.length < 16) {
+            return
+        }
+        val value = chunk.value()
+        peerTag = value.int
+        peerReceiveWindow = value.int
+        // Skip the numbers of streams, we accept any.
+        value.position(value.position() + 4)
+        cumulativeTsn = value.int - 1
+        remotePort = sourcePort
+
+        // None of the optional parameters are supported. Report those which ask for it (e.g. Forward-TSN-Supported),
+        // and stop at the first one which doesn't allow the rest to be processed.
+        val unrecognized = ArrayList<ByteArray>()
+        forEachParameter(chunk) { type, paramOffset, paramLength ->
+            if (type and 0x4000 != 0) {
+                unrecognized.add(SctpPackets.parameter(PARAM_UNRECOGNIZED, chunk.buf, paramOffset, paramLength))
+            }
+            type and 0x8000 != 0
+        }
+
+        val cookie = this.cookie ?: ByteArray(COOKIE_LENGTH).also { random.nextBytes(it) }
+        this.cookie = cookie
+        state = State.COOKIE_WAIT
+        val initAck = SctpPackets.chunk(
+            INIT_ACK,
+            0,
+            initValue(SctpPackets.parameter(PARAM_STATE_COOKIE, cookie), unrecognized)
+        )
+        sendChunks(listOf(initAck))
+    }
+
+    private fun handleInitAck(chunk: Chunk) {
+        if (state != State.COOKIE_WAIT || handshakeChunk == null || chunk.length < 16) {
+            return
+        }
+        val value = chunk.value()
+        peerTag = value.int
+        peerReceiveWindow = value.int
+        // Skip the numbers of streams, we accept any.
+        value.position(value.position() + 4)
+        cumulativeTsn = value.int - 1
+
+        var stateCookie: ByteArray? = null
+        forEachParameter(chunk) { type, paramOffset, paramLength ->
+            if (type == PARAM_STATE_COOKIE) {
+                stateCookie = chunk.buf.copyOfRange(paramOffset + 4, paramOffset + paramLength)
+            }
+            stateCookie == null
+        }
+        val cookie = stateCookie
+        if (cookie == null) {
+            logger.warn("Received INIT ACK without a cookie")
+            return
+        }
+
+        stopTimer()
+        state = State.COOKIE_ECHOED
+        val cookieEcho = SctpPackets.chunk(COOKIE_ECHO, 0, cookie)
+        handshakeChunk = cookieEcho
+        sendChunks(listOf(cookieEcho))
+        startTimer()
+    }
+
+    private fun handleCookieEcho(chunk: Chunk, callbacks: MutableList<() -> Unit>) {
+        val cookie = this.cookie ?: return
+        if (chunk.length != cookie.size || !chunk.copyValue().contentEquals(cookie)) {
+            logger.warn("Received COOKIE ECHO with an invalid cookie")
+            return
+        }
+        // The COOKIE ACK is sent again if the COOKIE ECHO is retransmitted.
+        sendChunks(listOf(SctpPackets.chunk(COOKIE_ACK, 0, ByteArray(0))))
+        if (state != State.ESTABLISHED) {
+            established(callbacks)
+        }
+    }
+
+    private fun handleCookieAck(callbacks: MutableList<() -> Unit>) {
+        if (state == State.COOKIE_ECHOED) {
+            stopTimer()
+            handshakeChunk = null
+            established(callbacks)
+        }
+    }
+
+    private fun established(callbacks: MutableList<() -> Unit>) {
+        state = State.ESTABLISHED
+        consecutiveTimeouts = 0
+        logger.info("SCTP association established")
+        callbacks.add { eventHandler?.onReady() }
+        sendPending()
+    }
+
+    /**
+     * @return whether the chunk is a DATA chunk which must be acknowledged.
+     */
+    private fun handleData(chunk: Chunk, callbacks: MutableList<() -> Unit>): Boolean {
+        if (state != State.ESTABLISHED || chunk.length < DATA_HEADER_LENGTH - 4) {
+            return false
+        }
+        val value = chunk.value()
+        val tsn = value.int
+        val offset = tsn - cumulativeTsn
+        if (offset <= 0 || receivedOutOfOrder.containsKey(tsn)) {
+            // A duplicate, which means that our SACK was lost.
+            return true
+        }
+        val dataChunk = DataChunk(
+            flags = chunk.flags,
+            sid = value.short.toInt() and 0xffff,
+            ssn = value.short.toInt() and 0xffff,
+            ppid = value.int,
+            tsn = tsn,
+            payload = ByteArray(value.remaining()).also { value.get(it) }
+        )
+        if (offset != 1 && dataChunk.payload.size + bufferedBytes > RECEIVE_WINDOW) {
+            // Out of buffer space, the peer will retransmit it. The next chunk in sequence is always accepted: it
+            // may be the one which completes the buffered messages and frees the window.
+            return true
+        }
+
+        if (dataChunk.unordered && dataChunk.complete) {
+            // A complete unordered message doesn't need to wait for the gaps to be filled.
+            deliver(dataChunk, dataChunk.payload, callbacks)
+            dataChunk.delivered = true
+        }
+        receivedOutOfOrder[tsn] = dataChunk
+        bufferedBytes += dataChunk.payload.size
+
+        while (true) {
+            val next = receivedOutOfOrder.remove(cumulativeTsn + 1) ?: break
+            cumulativeTsn++
+            bufferedBytes -= next.payload.size
+            if (!next.delivered) {
+                reassemble(next, callbacks)
+            }
+        }
+        return true
+    }
+
+    /**
+     * Handles a DATA chunk in TSN order. The fragments of a message have consecutive TSNs, so they are received
+     * in order here, and the ordered messages of a stream are completed in their SSN order.
+     */
+    private fun reassemble(chunk: DataChunk, callbacks: MutableList<() -> Unit>) {
+        if (chunk.complete) {
+            deliver(chunk, chunk.payload, callbacks)
+            return
+        }
+        val key = chunk.sid * 2 + if (chunk.unordered) 1 else 0
+        val partial = if (chunk.flags and FLAG_BEGIN != 0) {
+            ByteArrayOutputStream().also { partialMessages.put(key, it)?.let { old -> bufferedBytes -= old.size() } }
+        } else {
+            partialMessages[key] ?: return
+        }
+        if (partial.size() + chunk.payload.size > MAX_MESSAGE_SIZE) {
+            logger.warn("Dropping a message larger than $MAX_MESSAGE_SIZE bytes")
+            partialMessages.remove(key)
+            bufferedBytes -= partial.size()
+            return
+        }
+        partial.write(chunk.payload)
+        bufferedBytes += chunk.payload.size
+        if (chunk.flags and FLAG_END != 0) {
+            partialMessages.remove(key)
+            bufferedBytes -= partial.size()
+            deliver(chunk, partial.toByteArray(), callbacks)
+        }
+    }
+
+    private fun deliver(chunk: DataChunk, message: ByteArray, callbacks: MutableList<() -> Unit>) {
+        stats.messagesReceived++
+        val flags = if (chunk.unordered) SCTP_UNORDERED else 0
+        val ppid = chunk.ppid.toLong() and 0xffffffff
+        callbacks.add { dataCallback?.onSctpPacket(message, chunk.sid, chunk.ssn, chunk.tsn, ppid, 0, flags) }
+    }
+
+    private fun sack(): ByteArray {
+        val gaps = ArrayList<Pair<Int, Int>>()
+        receivedOutOfOrder.keys.map { it - cumulativeTsn }.sorted().forEach { offset ->
+            val last = gaps.lastOrNull()
+            if (last != null && last.second + 1 == offset) {
+                gaps[gaps.size - 1] = Pair(last.first, offset)
+            } else if (gaps.size < MAX_GAP_BLOCKS) {
+                gaps.add(Pair(offset, offset))
+            }
+        }
+        val value = ByteBuffer.allocate(12 + gaps.size * 4).apply {
+            putInt(cumulativeTsn)
+            putInt(maxOf(0, RECEIVE_WINDOW - bufferedBytes))
+            putShort(gaps.size.toShort())
+            putShort(0)
+            gaps.forEach {
+                putShort(it.first.toShort())
+                putShort(it.second.toShort())
+            }
+        }
+        return SctpPackets.chunk(SACK, 0, value.array())
+    }
+
+    private fun handleSack(chunk: Chunk) {
+        if (state != State.ESTABLISHED || chunk.length < 12) {
+            return
+        }
+        val value = chunk.value()
+        val cumulativeAck = value.int
+        val advertisedWindow = value.int
+        val numGaps = value.short.toInt() and 0xffff
+        value.short
+
+        if (cumulativeAck - lastCumulativeAck < 0) {
+            // An old SACK which arrived out of order.
+            return
+        }
+        val nowMs = clock.millis()
+        val cumulativeAckAdvanced = cumulativeAck != lastCumulativeAck
+        var bytesAcked = 0
+        var rttSampleMs = -1L
+        val iterator = outstanding.values.iterator()
+        while (iterator.hasNext()) {
+            val outstandingChunk = iterator.next()
+            if (outstandingChunk.tsn - cumulativeAck > 0) {
+                break
+            }
+            iterator.remove()
+            if (!outstandingChunk.acked) {
+                bytesInFlight -= outstandingChunk.length
+                bytesAcked += outstandingChunk.length
+            }
+            if (!outstandingChunk.retransmitted) {
+                rttSampleMs = nowMs - outstandingChunk.sentMs
+            }
+        }
+        lastCumulativeAck = cumulativeAck
+
+        // The gap blocks, as offsets from the cumulative ACK. Blocks which are empty or which go past the last TSN
+        // that was sent are invalid, and ignored.
+        val gaps = ArrayList<IntRange>(minOf(numGaps, value.remaining() / 4))
+        repeat(minOf(numGaps, value.remaining() / 4)) {
+            val start = value.short.toInt() and 0xffff
+            val end = value.short.toInt() and 0xffff
+            if (start in 1..end && cumulativeAck + end - nextTsn < 0) {
+                gaps.add(start..end)
+            }
+        }
+        gaps.sortBy { it.first }
+
+        // Walk the outstanding chunks (which are in TSN order) once, instead of each offset of the blocks, which the
+        // peer controls.
+        var highestGapAcked = cumulativeAck
+        var gapIndex = 0
+        for (outstandingChunk in outstanding.values) {
+            val offset = outstandingChunk.tsn - cumulativeAck
+            while (gapIndex < gaps.size && gaps[gapIndex].last < offset) {
+                gapIndex++
+            }
+            if (gapIndex == gaps.size) {
+                break
+            }
+            if (offset >= gaps[gapIndex].first) {
+                if (!outstandingChunk.acked) {
+                    outstandingChunk.acked = true
+                    bytesInFlight -= outstandingChunk.length
+                    bytesAcked += outstandingChunk.length
+                }
+                highestGapAcked = outstandingChunk.tsn
+            }
+        }
+
+        // Fast retransmit of the chunks reported missing three times.
+        val toRetransmit = ArrayList<OutstandingChunk>()
+        for (outstandingChunk in outstanding.values) {
+            if (outstandingChunk.tsn - highestGapAcked >= 0) {
+                break
+            }
+            if (!outstandingChunk.acked && ++outstandingChunk.missIndications == FAST_RETRANSMIT_THRESHOLD) {
+                toRetransmit.add(outstandingChunk)
+            }
+        }
+        if (toRetransmit.isNotEmpty()) {
+            slowStartThreshold = maxOf(congestionWindow / 2, 4 * MTU)
+            congestionWindow = slowStartThreshold
+            partialBytesAcked = 0
+            retransmit(toRetransmit, nowMs)
+        } else if (cumulativeAckAdvanced) {
+            if (congestionWindow <= slowStartThreshold) {
+                congestionWindow += minOf(bytesAcked, MTU)
+            } else {
+                partialBytesAcked += bytesAcked
+                if (partialBytesAcked >= congestionWindow) {
+                    partialBytesAcked -= congestionWindow
+                    congestionWindow += MTU
+                }
+            }
+        }
+
+        if (rttSampleMs >= 0) {
+            updateRto(rttSampleMs)
+        }
+        peerReceiveWindow = maxOf(0, advertisedWindow - bytesInFlight)
+        if (cumulativeAckAdvanced) {
+            consecutiveTimeouts = 0
+            stopTimer()
+        }
+        if (outstanding.values.any { !it.acked } && timer == null) {
+            startTimer()
+        }
+        sendPending()
+    }
+
+    /**
+     * Sends the pending DATA chunks which fit in the congestion and receive windows, bundled into packets.
+     */
+    private fun sendPending() {
+        if (state != State.ESTABLISHED) {
+            return
+        }
+        val nowMs = clock.millis()
+        val packet = ArrayList<ByteArray>()
+        var packetLength = SctpPackets.COMMON_HEADER_LENGTH
+        while (pending.isNotEmpty()) {
+            val next = pending.first()
+            // Always allow one chunk in flight, so that a zero window is probed.
+            if (bytesInFlight > 0 &&
+                (bytesInFlight + next.length > congestionWindow || next.length > peerReceiveWindow)
+            ) {
+                break
+            }
+            pending.removeFirst()
+            if (packetLength + next.chunk.size > MTU) {
+                sendChunks(packet)
+                packet.clear()
+                packetLength = SctpPackets.COMMON_HEADER_LENGTH
+            }
+            packet.add(next.chunk)
+            packetLength += next.chunk.size
+            next.sentMs = nowMs
+            outstanding[next.tsn] = next
+            bytesInFlight += next.length
+            peerReceiveWindow = maxOf(0, peerReceiveWindow - next.length)
+        }
+        if (packet.isNotEmpty()) {
+            sendChunks(packet)
+            if (timer == null) {
+                startTimer()
+            }
+        }
+    }
+
+    private fun retransmit(chunks: List<OutstandingChunk>, nowMs: Long) {
+        val packet = ArrayList<ByteArray>()
+        var packetLength = SctpPackets.COMMON_HEADER_LENGTH
+        for (chunk in chunks) {
+            if (packetLength + chunk.chunk.size > MTU) {
+                sendChunks(packet)
+                packet.clear()
+                packetLength = SctpPackets.COMMON_HEADER_LENGTH
+            }
+            packet.add(chunk.chunk)
+            packetLength += chunk.chunk.size
+            chunk.retransmitted = true
+            chunk.missIndications = 0
+            chunk.sentMs = nowMs
+            stats.retransmissions++
+        }
+        if (packet.isNotEmpty()) {
+            sendChunks(packet)
+        }
+    }
+
+    private fun onTimeout(generation: Int) {
+        val callbacks = ArrayList<() -> Unit>()
+        synchronized(lock) {
+            if (generation != timerGeneration || state == State.CLOSED) {
+                // The timer was stopped or restarted while this task was about to run.
+                return
+            }
+            timer = null
+            if (++consecutiveTimeouts > MAX_RETRANSMISSIONS) {
+                logger.warn("The peer is not responding, closing the SCTP association")
+                if (peerTag != 0) {
+                    sendChunks(listOf(SctpPackets.chunk(ABORT, 0, ByteArray(0))))
+                }
+                terminate(callbacks)
+                return@synchronized
+            }
+            rtoMs = minOf(rtoMs * 2, MAX_RTO_MS)
+            val handshakeChunk = this.handshakeChunk
+            if (state != State.ESTABLISHED) {
+                if (handshakeChunk != null) {
+                    val verificationTag = if (state == State.COOKIE_WAIT) 0 else peerTag
+                    sendChunks(listOf(handshakeChunk), verificationTag)
+                    startTimer()
+                }
+                return@synchronized
+            }
+
+            // Retransmit the earliest chunks which fit in a packet, and collapse the congestion window
+            // (RFC 4960, section 6.3.3).
+            val toRetransmit = ArrayList<OutstandingChunk>()
+            var packetLength = SctpPackets.COMMON_HEADER_LENGTH
+            for (outstandingChunk in outstanding.values) {
+                if (outstandingChunk.acked) {
+                    continue
+                }
+                if (toRetransmit.isNotEmpty() && packetLength + outstandingChunk.chunk.size > MTU) {
+                    break
+                }
+                toRetransmit.add(outstandingChunk)
+                packetLength += outstandingChunk.chunk.size
+            }
+            if (toRetransmit.isNotEmpty()) {
+                slowStartThreshold = maxOf(congestionWindow / 2, 4 * MTU)
+                congestionWindow = MTU
+                partialBytesAcked = 0
+                retransmit(toRetransmit, clock.millis())
+                startTimer()
+            }
+        }
+        callbacks.forEach { it() }
+    }
+
+    private fun updateRto(rttMs: Long) {
+        // RFC 4960, section 6.3.1
+        if (srttMs < 0) {
+            srttMs = rttMs
+            rttVarMs = rttMs / 2
+        } else {
+            rttVarMs = (3 * rttVarMs + Math.abs(srttMs - rttMs)) / 4
+            srttMs = (7 * srttMs + rttMs) / 8
+        }
+        rtoMs = (srttMs + 4 * rttVarMs).coerceIn(MIN_RTO_MS, MAX_RTO_MS)
+    }
+
+    private fun startTimer() {
+        timer?.cancel(false)
+        val generation = ++timerGeneration
+        timer = scheduler.schedule({ onTimeout(generation) }, rtoMs, TimeUnit.MILLISECONDS)
+    }
+
+    private fun stopTimer() {
+        timer?.cancel(false)
+        timer = null
+        timerGeneration++
+    }
+
+    /**
+     * Closes the association after it was terminated by the peer, or after the peer stopped responding.
+     */
+    private fun terminate(callbacks: MutableList<() -> Unit>) {
+        reset()
+        callbacks.add { eventHandler?.onDisconnected() }
+    }
+
+    private fun reset() {
+        state = State.CLOSED
+        stopTimer()
+        outstanding.clear()
+        pending.clear()
+        receivedOutOfOrder.clear()
+        partialMessages.clear()
+        bufferedBytes = 0
+        bytesInFlight = 0
+    }
+
+    /**
+     * Calls [handler] with the type, offset and length of each parameter of an INIT or INIT ACK chunk, for as long
+     * as it returns true.
+     */
+    private fun forEachParameter(chunk: Chunk, handler: (type: Int, offset: Int, length: Int) -> Boolean) {
+        val end = chunk.offset + chunk.length
+        var paramOffset = chunk.offset + 16
+        while (paramOffset + 4 <= end) {
+            val length = SctpPackets.readShort(chunk.buf, paramOffset + 2)
+            if (length < 4 || paramOffset + length > end ||
+                !handler(SctpPackets.readShort(chunk.buf, paramOffset), paramOffset, length)
+            ) {
+                return
+            }
+            paramOffset += SctpPackets.padded(length)
+        }
+    }
+
+    private fun initValue(cookieParameter: ByteArray?, unrecognized: List<ByteArray>): ByteArray {
+        val length = 16 + (cookieParameter?.size ?: 0) + unrecognized.sumOf { it.size }
+        return ByteBuffer.allocate(length).apply {
+            putInt(localTag)
+            putInt(RECEIVE_WINDOW)
+            putShort(MAX_STREAMS.toShort())
+            putShort(MAX_STREAMS.toShort())
+            putInt(initialTsn)
+            cookieParameter?.let { put(it) }
+            unrecognized.forEach { put(it) }
+        }.array()
+    }
+
+    private fun sendChunks(chunks: List<ByteArray>, verificationTag: Int = peerTag) {
+        val packet = SctpPackets.packet(localPort, remotePort, verificationTag, chunks)
+        stats.packetsSent++
+        dataSender.send(packet, 0, packet.size)
+    }
+
+    private enum class State {
+        CLOSED,
+        /** The client sent INIT, or the server sent INIT ACK. */
+        COOKIE_WAIT,
+        COOKIE_ECHOED,
+        ESTABLISHED
+    }
+
+    private class DataChunk(
+        val flags: Int,
+        val sid: Int,
+        val ssn: Int,
+        val ppid: Int,
+        val tsn: Int,
+        val payload: ByteArray
+    ) {
+        val unordered = flags and FLAG_UNORDERED != 0
+        val complete = flags and (FLAG_BEGIN or FLAG_END) == (FLAG_BEGIN or FLAG_END)
+        var delivered = false
+    }
+
+    private class OutstandingChunk(val tsn: Int, val chunk: ByteArray, val length: Int) {
+        var sentMs = 0L
+        var retransmitted = false
+        /** Whether the chunk was acknowledged in a gap block (but not cumulatively yet). */
+        var acked = false
+        var missIndications = 0
+    }
+
+    private class Stats {
+        var packetsSent = 0L
+        var packetsReceived = 0L
+        var packetsDropped = 0L
+        var messagesSent = 0L
+        var messagesReceived = 0L
+        var retransmissions = 0L
+    }
+
+    companion object {
+        const val DEFAULT_PORT = 5000
+
+        /** The size of the packets that we send, as usrsctp uses for WebRTC. */
+        const val MTU = 1200
+        private const val MAX_DATA_LENGTH = MTU - SctpPackets.COMMON_HEADER_LENGTH - DATA_HEADER_LENGTH
+
+        /** The default max-message-size of data channels (RFC 8841). */
+        const val MAX_MESSAGE_SIZE = 256 * 1024
+        private const val RECEIVE_WINDOW = 1024 * 1024
+        private const val MAX_STREAMS = 65535
+        private const val MAX_GAP_BLOCKS = 64
+        private const val COOKIE_LENGTH = 16
+
+        private const val INITIAL_CONGESTION_WINDOW = 4 * MTU
+        private const val FAST_RETRANSMIT_THRESHOLD = 3
+        private const val MAX_RETRANSMISSIONS = 10
+
+        /**
+         * RFC 4960 recommends a minimum RTO of 1 second, which is long for a control channel. Like other WebRTC
+         * implementations, we use a lower one.
+         */
+        private const val MIN_RTO_MS = 200L
+        private const val INITIAL_RTO_MS = 1000L
+        private const val MAX_RTO_MS = 60_000L
+
+        /** The flag which usrsctp sets in the callback for unordered messages. */
+        const val SCTP_UNORDERED = 0x0400
+
+        private val random = SecureRandom()
+    }
+}
@@ -24,8 +24,26 @@ class SctpConfig {
 
     fun enabled() = enabled
 
+    /**
+     * The SCTP stack used for data channels.
+     */
+    val implementation: SctpImplementation by config {
+        "videobridge.sctp.implementation"
+            .from(JitsiConfig.newConfig)
+            .convertFrom<String> { SctpImplementation.valueOf(it.uppercase()) }
+    }
+
+    fun implementation() = implementation
+
     companion object {
         @JvmField
         val config = SctpConfig()
     }
 }
+
+enum class SctpImplementation {
+    /** The native usrsctp library, through jitsi-sctp. */
+    USRSCTP,
+    /** The in-process implementation, see [JvmSctpAssociation]. */
+    JVM
+}
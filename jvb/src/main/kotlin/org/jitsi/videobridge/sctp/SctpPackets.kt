@@ -0,0 +1,197 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.sctp
+
+import java.nio.ByteBuffer
+
+/**
+ * The parts of the SCTP packet format (RFC 4960, section 3) used by [JvmSctpAssociation].
+ */
+internal object SctpPackets {
+    const val COMMON_HEADER_LENGTH = 12
+    const val CHUNK_HEADER_LENGTH = 4
+    const val DATA_HEADER_LENGTH = CHUNK_HEADER_LENGTH + 12
+
+    const val DATA = 0
+    const val INIT = 1
+    const val INIT_ACK = 2
+    const val SACK = 3
+    const val HEARTBEAT = 4
+    const val HEARTBEAT_ACK = 5
+    const val ABORT = 6
+    const val SHUTDOWN = 7
+    const val SHUTDOWN_ACK = 8
+    const val ERROR = 9
+    const val COOKIE_ECHO = 10
+    const val COOKIE_ACK = 11
+    const val SHUTDOWN_COMPLETE = 14
+
+    /** The DATA chunk flags. */
+    const val FLAG_END = 0x01
+    const val FLAG_BEGIN = 0x02
+    const val FLAG_UNORDERED = 0x04
+
+    /** The T flag of ABORT and SHUTDOWN COMPLETE, set when the verification tag is the sender's own. */
+    const val FLAG_TAG_REFLECTED = 0x01
+
+    /** The INIT and INIT ACK parameters. */
+    const val PARAM_STATE_COOKIE = 7
+    const val PARAM_UNRECOGNIZED = 8
+
+    /**
+     * Parses the chunks of a packet, calling [handler] for each of them. The chunks refer to [buf], so their values
+     * must be copied if they are to be kept.
+     *
+     * @return false if the packet is malformed or its checksum doesn't match.
+     */
+    fun parse(buf: ByteArray, off: Int, len: Int, handler: (Chunk) -> Unit): Boolean {
+        if (len < COMMON_HEADER_LENGTH + CHUNK_HEADER_LENGTH) {
+            return false
+        }
+        val checksum = readIntLittleEndian(buf, off + 8)
+        if (checksum != Crc32c.compute(buf, off, len, skipChecksum = true)) {
+            return false
+        }
+
+        val end = off + len
+        var chunkOffset = off + COMMON_HEADER_LENGTH
+        val chunks = ArrayList<Chunk>(2)
+        while (chunkOffset + CHUNK_HEADER_LENGTH <= end) {
+            val chunkLength = readShort(buf, chunkOffset + 2)
+            if (chunkLength < CHUNK_HEADER_LENGTH || chunkOffset + chunkLength > end) {
+                return false
+            }
+            chunks.add(
+                Chunk(
+                    buf[chunkOffset].toInt() and 0xff,
+                    buf[chunkOffset + 1].toInt() and 0xff,
+                    buf,
+                    chunkOffset + CHUNK_HEADER_LENGTH,
+                    chunkLength - CHUNK_HEADER_LENGTH
+                )
+            )
+            chunkOffset += padded(chunkLength)
+        }
+        chunks.forEach(handler)
+        return true
+    }
+
+    fun sourcePort(buf: ByteArray, off: Int) = readShort(buf, off)
+
+    fun verificationTag(buf: ByteArray, off: Int) = ByteBuffer.wrap(buf, off + 4, 4).int
+
+    /**
+     * Encodes a chunk, padded to a multiple of 4 bytes.
+     */
+    fun chunk(type: Int, flags: Int, value: ByteArray): ByteArray =
+        ByteBuffer.allocate(padded(CHUNK_HEADER_LENGTH + value.size)).apply {
+            put(type.toByte())
+            put(flags.toByte())
+            putShort((CHUNK_HEADER_LENGTH + value.size).toShort())
+            put(value)
+        }.array()
+
+    /**
+     * Encodes a DATA chunk.
+     */
+    fun dataChunk(flags: Int, tsn: Int, sid: Int, ssn: Int, ppid: Int, data: ByteArray, off: Int, len: Int): ByteArray =
+        ByteBuffer.allocate(padded(DATA_HEADER_LENGTH + len)).apply {
+            put(DATA.toByte())
+            put(flags.toByte())
+            putShort((DATA_HEADER_LENGTH + len).toShort())
+            putInt(tsn)
+            putShort(sid.toShort())
+            putShort(ssn.toShort())
+            putInt(ppid)
+            put(data, off, len)
+        }.array()
+
+    /**
+     * Encodes a parameter of an INIT or INIT ACK chunk, padded to a multiple of 4 bytes.
+     */
+    fun parameter(type: Int, value: ByteArray, off: Int = 0, len: Int = value.size): ByteArray =
+        ByteBuffer.allocate(padded(4 + len)).apply {
+            putShort(type.toShort())
+            putShort((4 + len).toShort())
+            put(value, off, len)
+        }.array()
+
+    /**
+     * Builds a packet out of [chunks], which must fit in the MTU.
+     */
+    fun packet(sourcePort: Int, destinationPort: Int, verificationTag: Int, chunks: List<ByteArray>): ByteArray {
+        val buf = ByteArray(COMMON_HEADER_LENGTH + chunks.sumOf { it.size })
+        ByteBuffer.wrap(buf).apply {
+            putShort(sourcePort.toShort())
+            putShort(destinationPort.toShort())
+            putInt(verificationTag)
+            putInt(0)
+            chunks.forEach { put(it) }
+        }
+        val checksum = Crc32c.compute(buf, 0, buf.size, skipChecksum = true)
+        writeIntLittleEndian(buf, 8, checksum)
+        return buf
+    }
+
+    fun padded(length: Int) = (length + 3) and 3.inv()
+
+    fun readShort(buf: ByteArray, off: Int) = ((buf[off].toInt() and 0xff) shl 8) or (buf[off + 1].toInt() and 0xff)
+
+    private fun readIntLittleEndian(buf: ByteArray, off: Int) =
+        (buf[off].toInt() and 0xff) or
+            ((buf[off + 1].toInt() and 0xff) shl 8) or
+            ((buf[off + 2].toInt() and 0xff) shl 16) or
+            ((buf[off + 3].toInt() and 0xff) shl 24)
+
+    private fun writeIntLittleEndian(buf: ByteArray, off: Int, value: Int) {
+        buf[off] = value.toByte()
+        buf[off + 1] = (value ushr 8).toByte()
+        buf[off + 2] = (value ushr 16).toByte()
+        buf[off + 3] = (value ushr 24).toByte()
+    }
+
+    /**
+     * A chunk of a received packet. Its value is in [buf] at [offset], without the chunk header.
+     */
+    class Chunk(val type: Int, val flags: Int, val buf: ByteArray, val offset: Int, val length: Int) {
+        fun value(): ByteBuffer = ByteBuffer.wrap(buf, offset, length).slice()
+        fun copyValue(): ByteArray = buf.copyOfRange(offset, offset + length)
+    }
+
+    /**
+     * The CRC32c checksum of SCTP packets (RFC 4960, appendix B), which the JDK only provides from Java 9.
+     */
+    object Crc32c {
+        private val table = IntArray(256) { n ->
+            var c = n
+            repeat(8) { c = if (c and 1 != 0) (c ushr 1) xor 0x82F63B78.toInt() else c ushr 1 }
+            c
+        }
+
+        /**
+         * @param skipChecksum whether to treat the checksum field of the common header as zero.
+         */
+        fun compute(buf: ByteArray, off: Int, len: Int, skipChecksum: Boolean): Int {
+            var crc = -1
+            for (i in off until off + len) {
+                val b = if (skipChecksum && i - off in 8..11) 0 else buf[i].toInt()
+                crc = table[(crc xor b) and 0xff] xor (crc ushr 8)
+            }
+            return crc.inv()
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.sctp
+
+import org.jitsi_modified.sctp4j.SctpDataCallback
+import org.jitsi_modified.sctp4j.SctpServerSocket
+import org.jitsi_modified.sctp4j.SctpSocket
+import java.nio.ByteBuffer
+
+/**
+ * The server side of the SCTP association which carries the data channels of an endpoint. It is implemented either
+ * by usrsctp (see [UsrSctpServerConnection]) or in the JVM (see [JvmSctpAssociation]), as selected by
+ * [SctpConfig.implementation].
+ */
+interface SctpServerConnection {
+    var eventHandler: SctpSocket.SctpSocketEventHandler?
+    var dataCallback: SctpDataCallback?
+
+    /**
+     * Starts accepting an association from the remote side.
+     */
+    fun listen()
+
+    /**
+     * @return whether the association has been established.
+     */
+    fun accept(): Boolean
+
+    /**
+     * Sends a message, which is the data of [data] up to its limit.
+     *
+     * @return the number of bytes sent, or a negative value on failure.
+     */
+    fun send(data: ByteBuffer, ordered: Boolean, sid: Int, ppid: Int): Int
+
+    /**
+     * Handles an SCTP packet received from the remote side. The buffer is not retained.
+     */
+    fun onConnIn(data: ByteArray, offset: Int, length: Int)
+
+    fun close()
+}
+
+/**
+ * A [SctpServerConnection] implemented by a usrsctp socket.
+ */
+class UsrSctpServerConnection(private val socket: SctpServerSocket) : SctpServerConnection {
+    override var eventHandler: SctpSocket.SctpSocketEventHandler?
+        get() = socket.eventHandler
+        set(value) {
+            socket.eventHandler = value
+        }
+
+    override var dataCallback: SctpDataCallback?
+        get() = socket.dataCallback
+        set(value) {
+            socket.dataCallback = value
+        }
+
+    override fun listen() {
+        socket.listen()
+    }
+
+    override fun accept(): Boolean = socket.accept()
+
+    override fun send(data: ByteBuffer, ordered: Boolean, sid: Int, ppid: Int): Int =
+        socket.send(data, ordered, sid, ppid)
+
+    override fun onConnIn(data: ByteArray, offset: Int, length: Int) {
+        socket.onConnIn(data, offset, length)
+    }
+
+    override fun close() {
+        socket.close()
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.transport.dtls
+
+import org.jitsi.config.JitsiConfig
+import org.jitsi.metaconfig.config
+import org.jitsi.metaconfig.from
+import java.time.Duration
+
+class DtlsConfig {
+    /**
+     * The maximum number of DTLS handshakes which run at the same time.
+     */
+    val maxConcurrentHandshakes: Int by config(
+        "videobridge.dtls.handshake.max-concurrent".from(JitsiConfig.newConfig)
+    )
+
+    /**
+     * The maximum number of DTLS handshakes waiting to be run.
+     */
+    val maxQueuedHandshakes: Int by config(
+        "videobridge.dtls.handshake.max-queue-size".from(JitsiConfig.newConfig)
+    )
+
+    /**
+     * How long a DTLS handshake can wait to be run before it is dropped.
+     */
+    val handshakeQueueTimeout: Duration by config(
+        "videobridge.dtls.handshake.queue-timeout".from(JitsiConfig.newConfig)
+    )
+
+    /**
+     * How long a running DTLS handshake counts against [maxConcurrentHandshakes].
+     */
+    val handshakeSlotTimeout: Duration by config(
+        "videobridge.dtls.handshake.slot-timeout".from(JitsiConfig.newConfig)
+    )
+
+    companion object {
+        @JvmField
+        val config = DtlsConfig()
+    }
+}
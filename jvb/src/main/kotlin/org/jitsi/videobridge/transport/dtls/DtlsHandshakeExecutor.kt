@@ -0,0 +1,245 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.transport.dtls
+
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.concurrent.CustomizableThreadFactory
+import org.jitsi.utils.logging2.Logger
+import org.jitsi.videobridge.util.TaskPools
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.ArrayDeque
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Limits the number of DTLS handshakes of all endpoints which run at the same time. When many endpoints join at the
+ * same time, the handshakes wait in a bounded queue instead of competing for the CPU with the threads which handle
+ * media, and those which waited longer than [queueTimeout] are dropped.
+ *
+ * A handshake runs synchronously until it completes, including the time it waits for the remote side, so a handshake
+ * only holds one of the [maxConcurrent] slots for up to [slotTimeout]. After that it keeps running on its thread, but
+ * no longer counts against the limit, so that peers which are slow or never answer can't keep the other handshakes
+ * waiting.
+ *
+ * The threads run at a lower priority than the media threads. The certificate of the bridge is generated once and
+ * shared by all the DTLS stacks, so a handshake doesn't generate any key material besides the ephemeral ECDHE key.
+ */
+class DtlsHandshakeExecutor @JvmOverloads constructor(
+    private val maxConcurrent: Int,
+    private val maxQueueSize: Int,
+    private val queueTimeout: Duration,
+    private val slotTimeout: Duration,
+    private val clock: Clock = Clock.systemUTC(),
+    private val scheduler: ScheduledExecutorService = TaskPools.SCHEDULED_POOL
+) {
+    /**
+     * Runs the handshakes which were given a slot. It isn't bounded itself, since handshakes which outlive their slot
+     * keep their thread.
+     */
+    private val executor = ThreadPoolExecutor(
+        0,
+        Int.MAX_VALUE,
+        60,
+        TimeUnit.SECONDS,
+        SynchronousQueue(),
+        lowPriorityThreadFactory
+    )
+
+    private val lock = Any()
+
+    /**
+     * The handshakes waiting for a slot, in order. Guarded by [lock].
+     */
+    private val waiting = ArrayDeque<Handshake>()
+
+    /**
+     * The number of slots held by running handshakes. Guarded by [lock].
+     */
+    private var numRunning = 0
+
+    private val stats = Stats()
+
+    /**
+     * Runs [handshake] when a slot is available, unless it has waited longer than [queueTimeout] by then, in which
+     * case [onTimedOut] is called (on the thread which would have run it) instead.
+     *
+     * @return false if the handshake was dropped because the queue is full.
+     */
+    fun submit(handshake: Runnable, logger: Logger, onTimedOut: () -> Unit = {}): Boolean {
+        val queued = Handshake(handshake, logger, onTimedOut, clock.instant())
+        synchronized(lock) {
+            when {
+                numRunning < maxConcurrent -> numRunning++
+                waiting.size < maxQueueSize -> {
+                    waiting.addLast(queued)
+                    stats.numQueued.increment()
+                    return true
+                }
+                else -> {
+                    stats.numRejected.increment()
+                    logger.warn("Dropping the DTLS handshake, ${waiting.size} handshakes are already waiting")
+                    return false
+                }
+            }
+        }
+        stats.numQueued.increment()
+        start(queued)
+        return true
+    }
+
+    /**
+     * Runs a handshake which was given a slot, and releases the slot when it completes or when [slotTimeout] elapses,
+     * whichever comes first.
+     */
+    private fun start(handshake: Handshake) {
+        val slotHeld = AtomicBoolean(true)
+        val slotTimeoutTask = scheduler.schedule(
+            {
+                if (slotHeld.getAndSet(false)) {
+                    stats.numSlotTimedOut.increment()
+                    handshake.logger.info("The DTLS handshake is still running, releasing its slot")
+                    releaseSlot()
+                }
+            },
+            slotTimeout.toMillis(),
+            TimeUnit.MILLISECONDS
+        )
+        executor.execute {
+            try {
+                run(handshake)
+            } finally {
+                slotTimeoutTask.cancel(false)
+                if (slotHeld.getAndSet(false)) {
+                    releaseSlot()
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives a released slot to the next waiting handshake, if any.
+     */
+    private fun releaseSlot() {
+        val next = synchronized(lock) {
+            waiting.pollFirst().also {
+                if (it == null) {
+                    numRunning--
+                }
+            }
+        }
+        next?.let { start(it) }
+    }
+
+    private fun run(handshake: Handshake) {
+        val startedAt = clock.instant()
+        val queueTime = Duration.between(handshake.queuedAt, startedAt)
+        stats.queueTime.add(queueTime)
+        if (queueTime > queueTimeout) {
+            stats.numTimedOut.increment()
+            handshake.logger.warn("Dropping the DTLS handshake, it waited for ${queueTime.toMillis()} ms")
+            handshake.onTimedOut()
+            return
+        }
+        try {
+            handshake.runnable.run()
+        } finally {
+            stats.numCompleted.increment()
+            stats.duration.add(Duration.between(startedAt, clock.instant()))
+        }
+    }
+
+    fun shutdown() = executor.shutdown()
+
+    fun getStatsJson() = OrderedJsonObject().apply {
+        put("num_queued", stats.numQueued.sum())
+        put("num_rejected", stats.numRejected.sum())
+        put("num_timed_out", stats.numTimedOut.sum())
+        put("num_slot_timed_out", stats.numSlotTimedOut.sum())
+        put("num_completed", stats.numCompleted.sum())
+        synchronized(lock) {
+            put("num_waiting", waiting.size)
+            put("num_running", numRunning)
+        }
+        put("queue_time", stats.queueTime.toJson())
+        put("duration", stats.duration.toJson())
+    }
+
+    private class Stats {
+        val numQueued = LongAdder()
+        val numRejected = LongAdder()
+        val numTimedOut = LongAdder()
+        val numSlotTimedOut = LongAdder()
+        val numCompleted = LongAdder()
+        val queueTime = DurationStats()
+        val duration = DurationStats()
+    }
+
+    private class Handshake(
+        val runnable: Runnable,
+        val logger: Logger,
+        val onTimedOut: () -> Unit,
+        val queuedAt: Instant
+    )
+
+    private class DurationStats {
+        private val count = LongAdder()
+        private val totalMs = LongAdder()
+        private val maxMs = AtomicLong()
+
+        fun add(duration: Duration) {
+            val ms = duration.toMillis()
+            count.increment()
+            totalMs.add(ms)
+            maxMs.accumulateAndGet(ms, Math::max)
+        }
+
+        fun toJson() = OrderedJsonObject().apply {
+            val countCopy = count.sum()
+            put("average_ms", if (countCopy > 0) totalMs.sum().toDouble() / countCopy else 0.0)
+            put("max_ms", maxMs.get())
+        }
+    }
+
+    companion object {
+        private val lowPriorityThreadFactory = CustomizableThreadFactory("DTLS handshake pool", false).let { factory ->
+            ThreadFactory { runnable ->
+                factory.newThread(runnable).apply { priority = Thread.NORM_PRIORITY - 1 }
+            }
+        }
+
+        /**
+         * The executor shared by all endpoints.
+         */
+        @JvmStatic
+        val instance: DtlsHandshakeExecutor by lazy {
+            DtlsHandshakeExecutor(
+                DtlsConfig.config.maxConcurrentHandshakes,
+                DtlsConfig.config.maxQueuedHandshakes,
+                DtlsConfig.config.handshakeQueueTimeout,
+                DtlsConfig.config.handshakeSlotTimeout
+            )
+        }
+    }
+}
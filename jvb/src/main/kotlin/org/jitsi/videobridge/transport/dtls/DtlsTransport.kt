@@ -39,7 +39,10 @@ import java.util.concurrent.atomic.AtomicBoolean
  * be passed to the [outgoingDataHandler], which should be set by an
  * interested party.
  */
-class DtlsTransport(parentLogger: Logger) {
+class DtlsTransport @JvmOverloads constructor(
+    parentLogger: Logger,
+    private val handshakeExecutor: DtlsHandshakeExecutor = DtlsHandshakeExecutor.instance
+) {
     private val logger = createChildLogger(parentLogger)
 
     private val running = AtomicBoolean(true)
@@ -49,6 +52,11 @@ class DtlsTransport(parentLogger: Logger) {
     var outgoingDataHandler: OutgoingDataHandler? = null
     @JvmField
     var eventHandler: EventHandler? = null
+    /**
+     * Volatile, because it's read by other threads which must see it set once [EventHandler.handshakeComplete] has
+     * been called (e.g. to accept the SCTP connection once both the handshake and the SCTP socket are ready).
+     */
+    @Volatile
     private var dtlsHandshakeComplete = false
 
     val isConnected: Boolean
@@ -94,11 +102,32 @@ class DtlsTransport(parentLogger: Logger) {
         }
     }
 
+    /**
+     * Schedules a DTLS handshake (see [startDtlsHandshake]) on the [DtlsHandshakeExecutor], which limits the
+     * number of handshakes running at the same time. If the executor drops the handshake (because its queue is full,
+     * or because the handshake waited in it for too long), the [eventHandler] is notified, since the transport will
+     * never connect.
+     */
+    fun scheduleDtlsHandshake() {
+        val submitted = handshakeExecutor.submit(Runnable { startDtlsHandshake() }, logger) {
+            stats.numHandshakesTimedOut++
+            eventHandler?.handshakeDropped()
+        }
+        if (!submitted) {
+            stats.numHandshakesDropped++
+            eventHandler?.handshakeDropped()
+        }
+    }
+
     /**
      * Start a DTLS handshake.  The 'role' should have been set before calling this
      * (via [setSetupAttribute]
      */
     fun startDtlsHandshake() {
+        if (!running.get()) {
+            logger.info("Not starting the DTLS handshake, the transport is stopped")
+            return
+        }
         logger.info("Starting DTLS handshake")
         if (dtlsStack.role == null) {
             logger.warn("Staring the DTLS stack before it knows its role")
@@ -197,13 +226,17 @@ class DtlsTransport(parentLogger: Logger) {
         var numPacketsReceived: Int = 0,
         var numIncomingPacketsDroppedNoHandler: Int = 0,
         var numPacketsSent: Int = 0,
-        var numOutgoingPacketsDroppedNoHandler: Int = 0
+        var numOutgoingPacketsDroppedNoHandler: Int = 0,
+        var numHandshakesDropped: Int = 0,
+        var numHandshakesTimedOut: Int = 0
     ) {
         fun toJson(): OrderedJsonObject = OrderedJsonObject().apply {
             put("num_packets_received", numPacketsReceived)
             put("num_incoming_packets_dropped_no_handler", numIncomingPacketsDroppedNoHandler)
             put("num_packets_sent", numPacketsSent)
             put("num_outgoing_packets_dropped_no_handler", numOutgoingPacketsDroppedNoHandler)
+            put("num_handshakes_dropped", numHandshakesDropped)
+            put("num_handshakes_timed_out", numHandshakesTimedOut)
         }
     }
 
@@ -228,5 +261,10 @@ class DtlsTransport(parentLogger: Logger) {
      */
     interface EventHandler {
         fun handshakeComplete(chosenSrtpProtectionProfile: Int, tlsRole: TlsRole, keyingMaterial: ByteArray)
+
+        /**
+         * The handshake was dropped by the [DtlsHandshakeExecutor] before it started.
+         */
+        fun handshakeDropped()
     }
 }
@@ -32,6 +32,7 @@ import org.jitsi.utils.logging2.cdebug
 import org.jitsi.utils.logging2.createChildLogger
 import org.jitsi.videobridge.ice.Harvesters
 import org.jitsi.videobridge.ice.IceConfig
+import org.jitsi.videobridge.ice.IceLiteServer
 import org.jitsi.videobridge.ice.TransportUtils
 import org.jitsi.xmpp.extensions.jingle.CandidatePacketExtension
 import org.jitsi.xmpp.extensions.jingle.IceUdpTransportPacketExtension
@@ -39,6 +40,8 @@ import org.jitsi.xmpp.extensions.jingle.RtcpmuxPacketExtension
 import java.beans.PropertyChangeEvent
 import java.io.IOException
 import java.net.DatagramPacket
+import java.net.InetSocketAddress
+import java.security.SecureRandom
 import java.time.Clock
 import java.time.Instant
 import java.util.concurrent.atomic.AtomicBoolean
@@ -96,35 +99,62 @@ class IceTransport @JvmOverloads constructor(
      */
     private val running = AtomicBoolean(true)
 
-    private val iceAgent = Agent(IceConfig.config.ufragPrefix, logger).apply {
-        appendHarvesters(this)
-        isControlling = controlling
-        performConsentFreshness = true
-        nominationStrategy = IceConfig.config.nominationStrategy
-        addStateChangeListener(this@IceTransport::iceStateChanged)
-    }.also {
-        logger.addContext("local_ufrag", it.localUfrag)
+    /**
+     * The state of this transport when it runs ICE-lite, in which case the checks are answered by the shared
+     * [IceLiteServer] and there is no ice4j [Agent]. The remote side is then always the controlling agent.
+     */
+    private val liteSession: LiteSession? = if (IceConfig.config.liteEnabled) {
+        Harvesters.initializeStaticConfiguration()
+        Harvesters.iceLiteServer?.let { LiteSession(it) }
+    } else {
+        null
+    }
+
+    private val iceAgent by lazy {
+        Agent(IceConfig.config.ufragPrefix, logger).apply {
+            appendHarvesters(this)
+            isControlling = controlling
+            performConsentFreshness = true
+            nominationStrategy = IceConfig.config.nominationStrategy
+            addStateChangeListener(this@IceTransport::iceStateChanged)
+        }.also {
+            logger.addContext("local_ufrag", it.localUfrag)
+        }
     }
 
     // TODO: Do we still need the id here now that we have logContext?
-    private val iceStream = iceAgent.createMediaStream("stream-$id").apply {
-        addPairChangeListener(this@IceTransport::iceStreamPairChanged)
+    private val iceStream by lazy {
+        iceAgent.createMediaStream("stream-$id").apply {
+            addPairChangeListener(this@IceTransport::iceStreamPairChanged)
+        }
     }
 
-    private val iceComponent = iceAgent.createComponent(
-        iceStream,
-        Transport.UDP,
-        -1,
-        -1,
-        -1,
-        IceConfig.config.keepAliveStrategy,
-        IceConfig.config.useComponentSocket
-    )
+    private val iceComponent by lazy {
+        iceAgent.createComponent(
+            iceStream,
+            Transport.UDP,
+            -1,
+            -1,
+            -1,
+            IceConfig.config.keepAliveStrategy,
+            IceConfig.config.useComponentSocket
+        )
+    }
 
     private val packetStats = PacketStats()
 
+    init {
+        if (liteSession != null) {
+            logger.addContext("local_ufrag", liteSession.localUfrag)
+            liteSession.server.register(liteSession)
+        } else {
+            // Create the agent right away when running full ICE.
+            iceComponent
+        }
+    }
+
     val icePassword: String
-        get() = iceAgent.localPassword
+        get() = liteSession?.localPassword ?: iceAgent.localPassword
 
     /**
      * Tell this [IceTransport] to start ICE connectivity establishment.
@@ -134,6 +164,11 @@ class IceTransport @JvmOverloads constructor(
             logger.warn("Not starting connectivity establishment, transport is not running")
             return
         }
+        if (liteSession != null) {
+            // The remote candidates are not needed, the remote side sends the checks.
+            transportPacketExtension.ufrag?.let { liteSession.remoteUfrag = it }
+            return
+        }
         if (iceAgent.state.isEstablished) {
             logger.cdebug { "Connection already established" }
             return
@@ -189,6 +224,10 @@ class IceTransport @JvmOverloads constructor(
     }
 
     fun startReadingData() {
+        if (liteSession != null) {
+            // The data is read by the threads of the IceLiteServer.
+            return
+        }
         logger.cdebug { "Starting to read incoming data" }
         val socket = iceComponent.socket
         val receiveBuf = ByteArray(1500)
@@ -221,7 +260,14 @@ class IceTransport @JvmOverloads constructor(
     fun send(data: ByteArray, off: Int, length: Int) {
         if (running.get()) {
             try {
-                iceComponent.socket.send(DatagramPacket(data, off, length))
+                if (liteSession != null) {
+                    if (!liteSession.server.send(liteSession, data, off, length)) {
+                        packetStats.numOutgoingPacketsDroppedNotSelected++
+                        return
+                    }
+                } else {
+                    iceComponent.socket.send(DatagramPacket(data, off, length))
+                }
                 packetStats.numPacketsSent++
             } catch (e: IOException) {
                 logger.error("Error sending packet", e)
@@ -235,13 +281,18 @@ class IceTransport @JvmOverloads constructor(
     fun stop() {
         if (running.compareAndSet(true, false)) {
             logger.info("Stopping")
-            iceAgent.removeStateChangeListener(this::iceStateChanged)
-            iceStream.removePairStateChangeListener(this::iceStreamPairChanged)
-            iceAgent.free()
+            if (liteSession != null) {
+                liteSession.server.unregister(liteSession)
+            } else {
+                iceAgent.removeStateChangeListener(this::iceStateChanged)
+                iceStream.removePairStateChangeListener(this::iceStreamPairChanged)
+                iceAgent.free()
+            }
         }
     }
 
     fun getDebugState(): OrderedJsonObject = OrderedJsonObject().apply {
+        put("lite", liteSession != null)
         put("useComponentSocket", IceConfig.config.useComponentSocket)
         put("keepAliveStrategy", IceConfig.config.keepAliveStrategy.toString())
         put("closed", !running.get())
@@ -254,6 +305,18 @@ class IceTransport @JvmOverloads constructor(
         if (!running.get()) {
             logger.warn("Not describing, transport is not running")
         }
+        if (liteSession != null) {
+            with(pe) {
+                password = liteSession.localPassword
+                ufrag = liteSession.localUfrag
+                setAttribute(ICE_LITE_ATTR_NAME, true)
+                liteSession.server.localAddresses.forEachIndexed { i, address ->
+                    addChildExtension(address.toHostCandidatePacketExtension(i))
+                }
+                addChildExtension(RtcpmuxPacketExtension())
+            }
+            return
+        }
         with(pe) {
             password = iceAgent.localPassword
             ufrag = iceAgent.localUfrag
@@ -346,7 +409,52 @@ class IceTransport @JvmOverloads constructor(
         }
     }
 
+    private inner class LiteSession(val server: IceLiteServer) : IceLiteServer.Session {
+        override val localUfrag = (IceConfig.config.ufragPrefix ?: "") + randomIceString(8)
+        override val localPassword = randomIceString(24)
+
+        @Volatile
+        override var remoteUfrag: String? = null
+
+        override fun checkReceived(remoteAddress: InetSocketAddress, selected: Boolean, time: Instant) {
+            if (!selected) {
+                return
+            }
+            if (iceConnected.compareAndSet(false, true)) {
+                logger.info("ICE-lite connected to $remoteAddress")
+                eventHandler?.connected()
+            }
+            eventHandler?.consentUpdated(time)
+        }
+
+        override fun dataReceived(data: ByteArray, offset: Int, length: Int, time: Instant) {
+            if (!running.get()) {
+                return
+            }
+            packetStats.numPacketsReceived++
+            incomingDataHandler?.dataReceived(data, offset, length, time) ?: run {
+                packetStats.numIncomingPacketsDroppedNoHandler++
+            }
+        }
+    }
+
     companion object {
+        /**
+         * The attribute of the transport which tells the remote side that the bridge is an ICE-lite agent (i.e.
+         * "a=ice-lite" in SDP).
+         */
+        const val ICE_LITE_ATTR_NAME = "ice-lite"
+
+        private val random = SecureRandom()
+
+        /**
+         * Generates a random ufrag or password, with characters from the "ice-char" set.
+         */
+        private fun randomIceString(length: Int) =
+            String(CharArray(length) { ICE_CHARS[random.nextInt(ICE_CHARS.length)] })
+
+        private const val ICE_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789"
+
         fun appendHarvesters(iceAgent: Agent) {
             Harvesters.initializeStaticConfiguration()
             Harvesters.tcpHarvester?.let {
@@ -360,13 +468,15 @@ class IceTransport @JvmOverloads constructor(
         var numPacketsReceived: Int = 0,
         var numIncomingPacketsDroppedNoHandler: Int = 0,
         var numPacketsSent: Int = 0,
-        var numOutgoingPacketsDroppedStopped: Int = 0
+        var numOutgoingPacketsDroppedStopped: Int = 0,
+        var numOutgoingPacketsDroppedNotSelected: Int = 0
     ) {
         fun toJson(): OrderedJsonObject = OrderedJsonObject().apply {
             put("num_packets_received", numPacketsReceived)
             put("num_incoming_packets_dropped_no_handler", numIncomingPacketsDroppedNoHandler)
             put("num_packets_sent", numPacketsSent)
             put("num_outgoing_packets_dropped_stopped", numOutgoingPacketsDroppedStopped)
+            put("num_outgoing_packets_dropped_not_selected", numOutgoingPacketsDroppedNotSelected)
         }
     }
 
@@ -428,6 +538,25 @@ private fun generateCandidateId(candidate: LocalCandidate): String = buildString
     append(java.lang.Long.toHexString(candidate.hashCode().toLong()))
 }
 
+/**
+ * Describes an address of the [IceLiteServer] as a host candidate.
+ */
+private fun InetSocketAddress.toHostCandidatePacketExtension(index: Int): CandidatePacketExtension {
+    val cpe = CandidatePacketExtension()
+    cpe.component = 1
+    cpe.foundation = (index + 1).toString()
+    cpe.generation = 0
+    cpe.id = java.lang.Long.toHexString(hashCode().toLong()) + index
+    cpe.network = 0
+    // The type preference of host candidates is 126, and the addresses are in order of preference.
+    cpe.setPriority((126L shl 24) or ((65535L - index) shl 8) or 255L)
+    cpe.protocol = Transport.UDP.toString()
+    cpe.type = org.jitsi.xmpp.extensions.jingle.CandidateType.host
+    cpe.ip = address.hostAddress
+    cpe.port = port
+    return cpe
+}
+
 private fun LocalCandidate.toCandidatePacketExtension(): CandidatePacketExtension {
     val cpe = CandidatePacketExtension()
     cpe.component = parentComponent.componentID
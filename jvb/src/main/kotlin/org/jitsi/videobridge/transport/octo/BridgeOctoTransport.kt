@@ -186,6 +186,13 @@ class BridgeOctoTransport(
         sendData(msgData, 0, msgData.size, targets, confId, MediaType.DATA, null)
     }
 
+    /**
+     * Sends a string message which is already UTF-8 encoded. [utf8] is not modified (it has no room for the Octo
+     * header, so it is copied), so it can be shared with other senders.
+     */
+    fun sendString(utf8: ByteArray, targets: Collection<SocketAddress>, confId: Long) =
+        sendData(utf8, 0, utf8.size, targets, confId, MediaType.DATA, null)
+
     private fun sendData(
         buf: ByteArray,
         off: Int,
@@ -0,0 +1,132 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.util
+
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.concurrent.CustomizableThreadFactory
+import org.jitsi.utils.logging2.createLogger
+import java.time.Clock
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Runs periodic tasks on a fixed number of single-threaded shards. Tasks are assigned to the shards in a round-robin
+ * fashion, and each task starts at a random offset within its period so that tasks with the same period don't all
+ * run at the same time.
+ *
+ * When a shard falls behind, the runs of a task which the executor would fire back-to-back to catch up are
+ * skipped, so that a task never runs twice within half a period.
+ */
+class ShardedScheduler @JvmOverloads constructor(
+    name: String,
+    numShards: Int,
+    private val clock: Clock = Clock.systemUTC()
+) {
+    private val logger = createLogger()
+
+    private val shards = Array(numShards.coerceAtLeast(1)) { Shard("$name-$it") }
+
+    private val nextShard = AtomicInteger()
+
+    /**
+     * Schedules [task] to run every [periodMs] milliseconds, starting at a random time within the first period.
+     *
+     * @return the future which can be used to cancel the task.
+     */
+    fun schedule(task: Runnable, periodMs: Long): ScheduledFuture<*> {
+        val shard = shards[Math.floorMod(nextShard.getAndIncrement(), shards.size)]
+        val initialDelayMs = ThreadLocalRandom.current().nextLong(periodMs.coerceAtLeast(1))
+        val scheduledTask = ScheduledTask(task, periodMs, shard, clock.millis() + initialDelayMs)
+        return shard.executor.scheduleAtFixedRate(scheduledTask, initialDelayMs, periodMs, TimeUnit.MILLISECONDS)
+    }
+
+    fun shutdown() = shards.forEach { it.executor.shutdown() }
+
+    fun getStatsJson() = OrderedJsonObject().apply {
+        put("num_shards", shards.size)
+        shards.forEachIndexed { i, shard -> put("shard_$i", shard.getStatsJson()) }
+    }
+
+    private inner class ScheduledTask(
+        private val task: Runnable,
+        private val periodMs: Long,
+        private val shard: Shard,
+        /**
+         * The time at which the task is expected to run next.
+         */
+        private var expectedMs: Long
+    ) : Runnable {
+        private var lastRunMs = -1L
+
+        override fun run() {
+            val nowMs = clock.millis()
+            val lagMs = nowMs - expectedMs
+            expectedMs += periodMs
+
+            if (lastRunMs >= 0 && nowMs - lastRunMs < periodMs / 2) {
+                // The executor is catching up after falling behind.
+                shard.numSkippedRuns.increment()
+                return
+            }
+            lastRunMs = nowMs
+            shard.recordLag(lagMs, periodMs)
+
+            try {
+                task.run()
+            } catch (t: Throwable) {
+                // Don't let the executor cancel the task.
+                logger.warn("Periodic task failed", t)
+            }
+        }
+    }
+
+    private class Shard(name: String) {
+        val executor: ScheduledExecutorService =
+            Executors.newSingleThreadScheduledExecutor(CustomizableThreadFactory(name, false))
+
+        val numRuns = LongAdder()
+        val numLateRuns = LongAdder()
+        val numSkippedRuns = LongAdder()
+        val totalLagMs = LongAdder()
+        val maxLagMs = AtomicLong()
+
+        fun recordLag(lagMs: Long, periodMs: Long) {
+            val positiveLagMs = lagMs.coerceAtLeast(0)
+            numRuns.increment()
+            totalLagMs.add(positiveLagMs)
+            maxLagMs.accumulateAndGet(positiveLagMs, Math::max)
+            if (positiveLagMs >= periodMs) {
+                numLateRuns.increment()
+            }
+        }
+
+        fun getStatsJson() = OrderedJsonObject().apply {
+            val numRunsCopy = numRuns.sum()
+            put("num_runs", numRunsCopy)
+            put("num_late_runs", numLateRuns.sum())
+            put("num_skipped_runs", numSkippedRuns.sum())
+            put("average_lag_ms", if (numRunsCopy > 0) totalLagMs.sum().toDouble() / numRunsCopy else 0.0)
+            put("max_lag_ms", maxLagMs.get())
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.xmpp
+
+import org.jitsi.nlj.stats.DelayStats
+import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.utils.concurrent.CustomizableThreadFactory
+import org.jitsi.utils.logging2.Logger
+import org.jitsi.videobridge.xmpp.config.ColibriRequestConfig
+import org.jitsi.xmpp.extensions.colibri.ColibriConferenceIQ
+import org.jitsi.xmpp.util.IQUtils
+import org.jivesoftware.smack.packet.IQ
+import org.jivesoftware.smack.packet.XMPPError
+import java.time.Clock
+import java.time.Duration
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Processes the Colibri requests of all conferences on a bounded number of threads. The requests of each conference
+ * are queued by its [org.jitsi.videobridge.shim.ConferenceShim] and processed one at a time, in order, on [executor],
+ * so the requests of different conferences are processed in parallel (up to the size of the pool).
+ *
+ * A request is admitted only while fewer than [maxPending] requests are waiting, and it is answered with an error
+ * without being processed if it waited for longer than [timeout].
+ */
+class ColibriRequestExecutor @JvmOverloads constructor(
+    maxConcurrent: Int,
+    private val maxPending: Int,
+    private val timeout: Duration,
+    private val clock: Clock = Clock.systemUTC()
+) {
+    /**
+     * The executor for the queues of Colibri requests.
+     */
+    val executor: ExecutorService = ThreadPoolExecutor(
+        maxConcurrent,
+        maxConcurrent,
+        60,
+        TimeUnit.SECONDS,
+        LinkedBlockingQueue(),
+        CustomizableThreadFactory("Colibri request pool", false)
+    ).apply {
+        allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * The number of requests which were admitted and haven't been answered yet.
+     */
+    private val numPending = AtomicInteger()
+
+    private val numRejected = LongAdder()
+    private val numTimedOut = LongAdder()
+    private val numProcessed = LongAdder()
+    private val processingDelayStats = ColibriRequestType.values().associateWith { DelayStats(delayThresholds) }
+
+    /**
+     * Admits a new request, or answers it with an error if too many requests are pending. A request which is
+     * admitted must eventually be passed to [process] or [reject], or be counted in [dropped].
+     *
+     * @return true if the request was admitted.
+     */
+    fun admit(request: XmppConnection.ColibriRequest): Boolean {
+        if (numPending.incrementAndGet() > maxPending) {
+            numPending.decrementAndGet()
+            numRejected.increment()
+            request.callback(
+                IQUtils.createError(
+                    request.request,
+                    XMPPError.Condition.resource_constraint,
+                    "Too many pending requests"
+                )
+            )
+            return false
+        }
+        return true
+    }
+
+    /**
+     * Answers an admitted request with [response] without processing it.
+     */
+    fun reject(request: XmppConnection.ColibriRequest, response: IQ) {
+        numPending.decrementAndGet()
+        numRejected.increment()
+        request.callback(response)
+    }
+
+    /**
+     * Notifies this instance that [count] admitted requests were dropped without being answered (e.g. because their
+     * conference expired).
+     */
+    fun dropped(count: Int) {
+        numPending.addAndGet(-count)
+    }
+
+    /**
+     * Processes an admitted request with [handler] and sends the response, unless it has waited for longer than
+     * [timeout].
+     */
+    fun process(
+        request: XmppConnection.ColibriRequest,
+        logger: Logger,
+        handler: (ColibriConferenceIQ) -> IQ
+    ) {
+        try {
+            val start = clock.millis()
+            val queueDelay = start - request.receiveTime
+            if (queueDelay > timeout.toMillis()) {
+                numTimedOut.increment()
+                logger.warn("Dropping a colibri request which waited for $queueDelay ms")
+                request.callback(
+                    IQUtils.createError(request.request, XMPPError.Condition.resource_constraint, "Request timed out")
+                )
+                return
+            }
+
+            val response = try {
+                handler(request.request)
+            } catch (e: Throwable) {
+                logger.warn("Failed to handle colibri request: ", e)
+                IQUtils.createError(request.request, XMPPError.Condition.internal_server_error, e.message)
+            }
+            val end = clock.millis()
+            val processingDelay = end - start
+            val totalDelay = end - request.receiveTime
+            request.processingDelayStats.addDelay(processingDelay)
+            request.totalDelayStats.addDelay(totalDelay)
+            processingDelayStats.getValue(ColibriRequestType.of(request.request)).addDelay(processingDelay)
+            numProcessed.increment()
+            if (processingDelay > 100) {
+                logger.warn(
+                    "Took $processingDelay ms to process an IQ (total delay $totalDelay ms): " +
+                        request.request.toXML()
+                )
+            }
+            request.callback(response)
+        } finally {
+            numPending.decrementAndGet()
+        }
+    }
+
+    fun shutdown() = executor.shutdown()
+
+    fun getStatsJson() = OrderedJsonObject().apply {
+        put("num_pending", numPending.get())
+        put("num_rejected", numRejected.sum())
+        put("num_timed_out", numTimedOut.sum())
+        put("num_processed", numProcessed.sum())
+        processingDelayStats.forEach { (type, stats) -> put("processing_${type.key}", stats.toJson()) }
+    }
+
+    companion object {
+        private val delayThresholds = longArrayOf(5, 50, 100, 1000)
+
+        /**
+         * The executor shared by all conferences.
+         */
+        @JvmStatic
+        val instance: ColibriRequestExecutor by lazy {
+            ColibriRequestExecutor(
+                ColibriRequestConfig.config.maxConcurrent,
+                ColibriRequestConfig.config.maxPending,
+                ColibriRequestConfig.config.timeout
+            )
+        }
+    }
+}
+
+/**
+ * The kinds of Colibri requests, for the purposes of statistics.
+ */
+enum class ColibriRequestType(val key: String) {
+    /** Creates a conference, or allocates channels for an endpoint. */
+    CREATE("create"),
+    /** Only expires channels. */
+    EXPIRE("expire"),
+    /** Updates existing channels, e.g. with new sources or transport information. */
+    UPDATE("update");
+
+    companion object {
+        fun of(iq: ColibriConferenceIQ): ColibriRequestType {
+            if (iq.getID() == null) {
+                return CREATE
+            }
+            val channels = iq.contents.flatMap { content ->
+                content.channels.map { Pair(it.getID(), it.expire) } +
+                    content.sctpConnections.map { Pair(it.getID(), it.expire) }
+            }
+            return when {
+                channels.any { it.first == null && it.second != 0 } -> CREATE
+                channels.isNotEmpty() && channels.all { it.second == 0 } -> EXPIRE
+                else -> UPDATE
+            }
+        }
+    }
+}
@@ -276,6 +276,7 @@ class XmppConnection : IQListener {
         fun getStatsJson(): OrderedJsonObject = OrderedJsonObject().apply {
             put("colibri", colibriDelayStats.toJson())
             put("colibri_processing", colibriProcessingDelayStats.toJson())
+            put("colibri_requests", ColibriRequestExecutor.instance.getStatsJson())
             put("health", healthDelayStats.toJson())
             put("version", versionDelayStats.toJson())
         }
@@ -0,0 +1,50 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.xmpp.config
+
+import org.jitsi.config.JitsiConfig
+import org.jitsi.metaconfig.config
+import org.jitsi.metaconfig.from
+import java.time.Duration
+
+class ColibriRequestConfig {
+    /**
+     * The maximum number of conferences whose Colibri requests are processed at the same time.
+     */
+    val maxConcurrent: Int by config(
+        "videobridge.apis.xmpp-client.colibri-requests.max-concurrent".from(JitsiConfig.newConfig)
+    )
+
+    /**
+     * The maximum number of Colibri requests which have been received and not processed yet.
+     */
+    val maxPending: Int by config(
+        "videobridge.apis.xmpp-client.colibri-requests.max-pending".from(JitsiConfig.newConfig)
+    )
+
+    /**
+     * How long a Colibri request can wait to be processed before it is dropped.
+     */
+    val timeout: Duration by config(
+        "videobridge.apis.xmpp-client.colibri-requests.timeout".from(JitsiConfig.newConfig)
+    )
+
+    companion object {
+        @JvmField
+        val config = ColibriRequestConfig()
+    }
+}
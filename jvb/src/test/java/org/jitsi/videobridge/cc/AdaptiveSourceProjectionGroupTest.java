@@ -0,0 +1,290 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc;
+
+import org.jitsi.nlj.*;
+import org.jitsi.nlj.format.*;
+import org.jitsi.nlj.rtp.codec.vp8.*;
+import org.jitsi.rtp.rtp.*;
+import org.jitsi.rtp.util.*;
+import org.jitsi.utils.logging.DiagnosticContext;
+import org.jitsi.utils.logging2.*;
+import org.jitsi_modified.impl.neomedia.codec.video.vp8.*;
+import org.junit.*;
+
+import javax.xml.bind.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveSourceProjectionGroupTest
+{
+    private static final byte[] vp8PacketTemplate =
+        DatatypeConverter.parseHexBinary(
+            /* RTP Header */
+            "80" + /* V, P, X, CC */
+                "60" + /* M, PT */
+                "0000" + /* Seq */
+                "00000000" + /* TS */
+                "cafebabe" + /* SSRC */
+                /* VP8 Payload descriptor */
+                "90" + /* First byte, X, S set, PID = 0 */
+                "e0" + /* X byte, I, L, T set */
+                "8000" + /* I byte (ext pic id), M set */
+                "00" + /* L byte (tl0 pic idx) */
+                "00" + /* T/K byte (tid) */
+                /* VP8 payload header */
+                "00" + /* P = 0. */
+                "0000" + /* Length = 0. */
+                "9d012a" + /* Keyframe startcode */
+                "0050D002" /* 1280 × 720 (little-endian) */
+        );
+
+    private static final long SSRC = 0xcafebabeL;
+
+    private final Logger logger = new LoggerImpl(getClass().getName());
+    private final DiagnosticContext diagnosticContext = new DiagnosticContext();
+    private final Map<Byte, PayloadType> payloadTypes = new ConcurrentHashMap<>();
+    private final ProjectionGroups groups = new ProjectionGroups((endpointId, ssrc) -> {}, diagnosticContext, logger);
+
+    private int seq = 100;
+    private long ts = 90000;
+    private int picId = 0;
+
+    @Before
+    public void setUp()
+    {
+        payloadTypes.put(
+            (byte) 96,
+            new Vp8PayloadType((byte) 96, new ConcurrentHashMap<>(), new CopyOnWriteArraySet<>()));
+    }
+
+    @Test
+    public void membersShareTheRewrittenHeaders()
+        throws RewriteException
+    {
+        AdaptiveSourceProjection projection1 = createProjection(0);
+        AdaptiveSourceProjection projection2 = createProjection(0);
+
+        for (int i = 0; i < 5; i++)
+        {
+            PacketInfo packetInfo = nextPacket();
+            assertTrue(projection1.accept(packetInfo));
+            assertTrue(projection2.accept(packetInfo));
+
+            Vp8Packet copy1 = rewrite(projection1, packetInfo);
+            Vp8Packet copy2 = rewrite(projection2, packetInfo);
+            assertEquals(copy1.getSequenceNumber(), copy2.getSequenceNumber());
+            assertEquals(copy1.getTimestamp(), copy2.getTimestamp());
+            assertEquals(copy1.getPictureId(), copy2.getPictureId());
+        }
+
+        assertEquals(1, groups.size());
+    }
+
+    @Test
+    public void rejoinsAGroupAfterTheTargetChanges()
+        throws RewriteException
+    {
+        AdaptiveSourceProjection projection = createProjection(0);
+        // A receiver which has been receiving the source at the new target.
+        AdaptiveSourceProjection other = createProjection(1);
+
+        Vp8Packet last = null;
+        for (int i = 0; i < 3; i++)
+        {
+            PacketInfo packetInfo = nextPacket();
+            assertTrue(projection.accept(packetInfo));
+            assertTrue(other.accept(packetInfo));
+            last = rewrite(projection, packetInfo);
+            rewrite(other, packetInfo);
+        }
+        assertEquals(2, groups.size());
+
+        projection.setTargetIndex(1);
+        PacketInfo packetInfo = nextPacket();
+        assertTrue(projection.accept(packetInfo));
+        assertTrue(other.accept(packetInfo));
+        assertEquals(SSRC + "/1", projection.getDebugState().get("group"));
+        assertEquals(1, groups.size());
+
+        // The receiver continues its own numbering, with a fixed offset from
+        // the headers of the group.
+        Vp8Packet next = rewrite(projection, packetInfo);
+        Vp8Packet otherNext = rewrite(other, packetInfo);
+        assertEquals(RtpUtils.applySequenceNumberDelta(last.getSequenceNumber(), 1), next.getSequenceNumber());
+        assertTrue(RtpUtils.isNewerTimestampThan(next.getTimestamp(), last.getTimestamp()));
+        int sequenceNumberDelta
+            = RtpUtils.getSequenceNumberDelta(next.getSequenceNumber(), otherNext.getSequenceNumber());
+
+        for (int i = 0; i < 3; i++)
+        {
+            packetInfo = nextPacket();
+            assertTrue(projection.accept(packetInfo));
+            assertTrue(other.accept(packetInfo));
+            Vp8Packet copy = rewrite(projection, packetInfo);
+            Vp8Packet otherCopy = rewrite(other, packetInfo);
+            assertEquals(RtpUtils.applySequenceNumberDelta(next.getSequenceNumber(), 1), copy.getSequenceNumber());
+            assertEquals(
+                sequenceNumberDelta,
+                RtpUtils.getSequenceNumberDelta(copy.getSequenceNumber(), otherCopy.getSequenceNumber()));
+            next = copy;
+        }
+    }
+
+    @Test
+    public void packetsAcceptedBeforeLeavingAreRewrittenThroughTheGroup()
+        throws RewriteException
+    {
+        AdaptiveSourceProjection projection = createProjection(0);
+
+        PacketInfo first = nextPacket();
+        assertTrue(projection.accept(first));
+        Vp8Packet firstCopy = rewrite(projection, first);
+
+        // Accepted through the group, but not rewritten before the switch.
+        PacketInfo second = nextPacket();
+        assertTrue(projection.accept(second));
+
+        projection.setTargetIndex(1);
+        PacketInfo third = nextPacket();
+        assertTrue(projection.accept(third));
+
+        Vp8Packet secondCopy = rewrite(projection, second);
+        Vp8Packet thirdCopy = rewrite(projection, third);
+        assertEquals(
+            RtpUtils.applySequenceNumberDelta(firstCopy.getSequenceNumber(), 1), secondCopy.getSequenceNumber());
+        assertEquals(
+            RtpUtils.applySequenceNumberDelta(secondCopy.getSequenceNumber(), 1), thirdCopy.getSequenceNumber());
+    }
+
+    @Test
+    public void packetsAfterASwitchAreRewrittenThroughTheNewGroupPastTheSequenceNumberWrap()
+        throws RewriteException
+    {
+        AdaptiveSourceProjection projection = createProjection(0);
+        AdaptiveSourceProjection other = createProjection(1);
+
+        PacketInfo first = nextPacket();
+        assertTrue(projection.accept(first));
+        assertTrue(other.accept(first));
+        Vp8Packet last = rewrite(projection, first);
+        rewrite(other, first);
+
+        projection.setTargetIndex(1);
+        // More than half of the sequence number space, so that the packets on
+        // the same SSRC seem older than the last one accepted before the switch.
+        for (int i = 0; i < 40000; i++)
+        {
+            PacketInfo packetInfo = nextPacket();
+            assertTrue(projection.accept(packetInfo));
+            assertTrue(other.accept(packetInfo));
+            Vp8Packet copy = rewrite(projection, packetInfo);
+            rewrite(other, packetInfo);
+            assertEquals(RtpUtils.applySequenceNumberDelta(last.getSequenceNumber(), 1), copy.getSequenceNumber());
+            last = copy;
+        }
+    }
+
+    @Test
+    public void aNewMemberStartsAtAKeyframe()
+    {
+        AdaptiveSourceProjection projection1 = createProjection(0);
+        assertTrue(projection1.accept(nextPacket()));
+
+        AdaptiveSourceProjection projection2 = createProjection(0);
+        PacketInfo deltaFrame = nextPacket(false);
+        assertTrue(projection1.accept(deltaFrame));
+        assertFalse(projection2.accept(deltaFrame));
+
+        PacketInfo keyframe = nextPacket();
+        assertTrue(projection1.accept(keyframe));
+        assertTrue(projection2.accept(keyframe));
+    }
+
+    @Test
+    public void closingLeavesTheGroup()
+    {
+        AdaptiveSourceProjection projection1 = createProjection(0);
+        AdaptiveSourceProjection projection2 = createProjection(0);
+        PacketInfo packetInfo = nextPacket();
+        projection1.accept(packetInfo);
+        projection2.accept(packetInfo);
+        assertEquals(1, groups.size());
+
+        projection1.close();
+        assertEquals(1, groups.size());
+        projection2.close();
+        assertEquals(0, groups.size());
+    }
+
+    private AdaptiveSourceProjection createProjection(int targetIndex)
+    {
+        AdaptiveSourceProjection projection = new AdaptiveSourceProjection(
+            diagnosticContext, SSRC, "sender", () -> {}, payloadTypes, logger, groups, null, null);
+        projection.setTargetIndex(targetIndex);
+        return projection;
+    }
+
+    /**
+     * Rewrites a receiver's copy of a packet, like the conference does after
+     * all receivers have accepted it.
+     */
+    private static Vp8Packet rewrite(AdaptiveSourceProjection projection, PacketInfo packetInfo)
+        throws RewriteException
+    {
+        PacketInfo copy = packetInfo.clone();
+        projection.rewriteRtp(copy);
+        return copy.packetAs();
+    }
+
+    private PacketInfo nextPacket()
+    {
+        return nextPacket(true);
+    }
+
+    /**
+     * Creates the next single-packet frame of the source, in its base layer.
+     */
+    private PacketInfo nextPacket(boolean keyframe)
+    {
+        byte[] buffer = vp8PacketTemplate.clone();
+        RtpPacket rtpPacket = new RtpPacket(buffer, 0, buffer.length);
+        rtpPacket.setSsrc(SSRC);
+        rtpPacket.setSequenceNumber(seq);
+        rtpPacket.setTimestamp(ts);
+        rtpPacket.setMarked(true);
+
+        int szVP8PayloadDescriptor = DePacketizer.VP8PayloadDescriptor.getSize(
+            rtpPacket.buffer, rtpPacket.getPayloadOffset(), rtpPacket.getPayloadLength());
+        DePacketizer.VP8PayloadHeader.setKeyFrame(
+            rtpPacket.buffer, rtpPacket.getPayloadOffset() + szVP8PayloadDescriptor, keyframe);
+
+        Vp8Packet vp8Packet = rtpPacket.toOtherType(Vp8Packet::new);
+        vp8Packet.setPictureId(picId & 0x7fff);
+        vp8Packet.setTL0PICIDX(picId & 0xff);
+        vp8Packet.setQualityIndex(0);
+
+        seq = RtpUtils.applySequenceNumberDelta(seq, 1);
+        ts = RtpUtils.applyTimestampDelta(ts, 3000);
+        picId++;
+
+        PacketInfo packetInfo = new PacketInfo(vp8Packet);
+        packetInfo.setEndpointId("sender");
+        return packetInfo;
+    }
+}
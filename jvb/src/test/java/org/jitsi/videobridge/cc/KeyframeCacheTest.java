@@ -0,0 +1,237 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc;
+
+import org.jitsi.nlj.*;
+import org.jitsi.nlj.format.*;
+import org.jitsi.nlj.rtp.codec.vp8.*;
+import org.jitsi.rtp.rtp.*;
+import org.jitsi.rtp.util.*;
+import org.jitsi.utils.logging.DiagnosticContext;
+import org.jitsi.utils.logging2.*;
+import org.jitsi_modified.impl.neomedia.codec.video.vp8.*;
+import org.junit.*;
+
+import javax.xml.bind.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class KeyframeCacheTest
+{
+    private static final byte[] vp8PacketTemplate =
+        DatatypeConverter.parseHexBinary(
+            /* RTP Header */
+            "80" + /* V, P, X, CC */
+                "60" + /* M, PT */
+                "0000" + /* Seq */
+                "00000000" + /* TS */
+                "cafebabe" + /* SSRC */
+                /* VP8 Payload descriptor */
+                "90" + /* First byte, X, S set, PID = 0 */
+                "e0" + /* X byte, I, L, T set */
+                "8000" + /* I byte (ext pic id), M set */
+                "00" + /* L byte (tl0 pic idx) */
+                "00" + /* T/K byte (tid) */
+                /* VP8 payload header */
+                "00" + /* P = 0. */
+                "0000" + /* Length = 0. */
+                "9d012a" + /* Keyframe startcode */
+                "0050D002" /* 1280 × 720 (little-endian) */
+        );
+
+    private static final long SSRC = 0xcafebabeL;
+
+    private final KeyframeCache cache = new KeyframeCache(new LoggerImpl(getClass().getName()));
+
+    @After
+    public void tearDown()
+    {
+        cache.close();
+    }
+
+    @Test
+    public void missBeforeTheFirstKeyframe()
+    {
+        PacketInfo packetInfo = createPacket(1, 3000, false);
+        cache.add(packetInfo);
+
+        assertNull(cache.get(SSRC, packetInfo));
+    }
+
+    @Test
+    public void replaysFromTheMostRecentKeyframe()
+    {
+        cache.add(createPacket(1, 3000, true));
+        cache.add(createPacket(2, 6000, false));
+        cache.add(createPacket(3, 9000, true));
+        cache.add(createPacket(4, 12000, false));
+        PacketInfo current = createPacket(5, 15000, false);
+        cache.add(current);
+
+        List<KeyframeCache.CachedPacket> cachedPackets = cache.get(SSRC, current);
+        assertNotNull(cachedPackets);
+        assertEquals(2, cachedPackets.size());
+
+        Vp8Packet keyframe = cachedPackets.get(0).getPacketInfo().packetAs();
+        assertEquals(3, keyframe.getSequenceNumber());
+        assertTrue(keyframe.isKeyframe());
+
+        Vp8Packet next = cachedPackets.get(1).getPacketInfo().packetAs();
+        assertEquals(4, next.getSequenceNumber());
+    }
+
+    @Test
+    public void copiesAreIndependentOfTheCache()
+    {
+        PacketInfo current = createPacket(1, 3000, true);
+        cache.add(current);
+        cache.add(createPacket(2, 6000, false));
+
+        List<KeyframeCache.CachedPacket> first = cache.get(SSRC, current);
+        assertNotNull(first);
+        Vp8Packet packet = first.get(0).getPacketInfo().packetAs();
+        packet.setSequenceNumber(1000);
+
+        List<KeyframeCache.CachedPacket> second = cache.get(SSRC, current);
+        assertNotNull(second);
+        assertEquals(1, ((Vp8Packet) second.get(0).getPacketInfo().packetAs()).getSequenceNumber());
+    }
+
+    @Test
+    public void removingTheEndpointDropsItsEncodings()
+    {
+        cache.add(createPacket(1, 3000, true));
+        PacketInfo current = createPacket(2, 6000, false);
+        cache.add(current);
+
+        cache.removeEndpoint("other");
+        assertNotNull(cache.get(SSRC, current));
+
+        cache.removeEndpoint("sender");
+        assertNull(cache.get(SSRC, current));
+    }
+
+    @Test
+    public void removedAndClosedCachesReleaseTheirBytes()
+    {
+        long initialTotalBytes = getTotalBytes();
+        cache.add(createPacket(1, 3000, true));
+        cache.add(createPacket(2, 6000, false));
+        assertTrue(getTotalBytes() > initialTotalBytes);
+
+        cache.removeEndpoint("sender");
+        assertEquals(initialTotalBytes, getTotalBytes());
+
+        cache.add(createPacket(3, 9000, true));
+        cache.close();
+        assertEquals(initialTotalBytes, getTotalBytes());
+    }
+
+    @Test
+    public void nothingIsCachedAfterClose()
+    {
+        long initialTotalBytes = getTotalBytes();
+        cache.close();
+
+        cache.add(createPacket(1, 3000, true));
+        PacketInfo current = createPacket(2, 6000, false);
+        cache.add(current);
+
+        assertNull(cache.get(SSRC, current));
+        assertEquals(initialTotalBytes, getTotalBytes());
+    }
+
+    @Test
+    public void aNewReceiverStartsWithTheCachedKeyframe()
+        throws RewriteException
+    {
+        Map<Byte, PayloadType> payloadTypes = new ConcurrentHashMap<>();
+        payloadTypes.put(
+            (byte) 96,
+            new Vp8PayloadType((byte) 96, new ConcurrentHashMap<>(), new CopyOnWriteArraySet<>()));
+        List<PacketInfo> replayed = new ArrayList<>();
+        List<Boolean> keyframeRequests = new ArrayList<>();
+        AdaptiveSourceProjection projection = new AdaptiveSourceProjection(
+            new DiagnosticContext(),
+            SSRC,
+            "sender",
+            () -> keyframeRequests.add(true),
+            payloadTypes,
+            new LoggerImpl(getClass().getName()),
+            null,
+            cache,
+            replayed::add);
+        projection.setTargetIndex(0);
+
+        cache.add(createPacket(1, 3000, true));
+        cache.add(createPacket(2, 6000, false));
+        // The conference adds packets to the cache before it forwards them.
+        PacketInfo current = createPacket(3, 9000, false);
+        cache.add(current);
+
+        assertTrue(projection.accept(current));
+        assertTrue(keyframeRequests.isEmpty());
+        assertEquals(2, replayed.size());
+
+        Vp8Packet keyframe = replayed.get(0).packetAs();
+        Vp8Packet next = replayed.get(1).packetAs();
+        assertTrue(keyframe.isKeyframe());
+        assertEquals(RtpUtils.applySequenceNumberDelta(keyframe.getSequenceNumber(), 1), next.getSequenceNumber());
+
+        projection.rewriteRtp(current);
+        Vp8Packet currentPacket = current.packetAs();
+        assertEquals(RtpUtils.applySequenceNumberDelta(next.getSequenceNumber(), 1), currentPacket.getSequenceNumber());
+    }
+
+    private long getTotalBytes()
+    {
+        return (Long) cache.getDebugState().get("total_bytes");
+    }
+
+    static PacketInfo createPacket(int seq, long ts, boolean keyframe)
+    {
+        return createPacket(seq, ts, keyframe, SSRC);
+    }
+
+    /**
+     * Creates a single-packet VP8 frame in the base layer of {@code ssrc}.
+     */
+    public static PacketInfo createPacket(int seq, long ts, boolean keyframe, long ssrc)
+    {
+        byte[] buffer = vp8PacketTemplate.clone();
+        RtpPacket rtpPacket = new RtpPacket(buffer, 0, buffer.length);
+        rtpPacket.setSsrc(ssrc);
+        rtpPacket.setSequenceNumber(seq);
+        rtpPacket.setTimestamp(ts);
+        rtpPacket.setMarked(true);
+
+        int szVP8PayloadDescriptor = DePacketizer.VP8PayloadDescriptor.getSize(
+            rtpPacket.buffer, rtpPacket.getPayloadOffset(), rtpPacket.getPayloadLength());
+        DePacketizer.VP8PayloadHeader.setKeyFrame(
+            rtpPacket.buffer, rtpPacket.getPayloadOffset() + szVP8PayloadDescriptor, keyframe);
+
+        Vp8Packet vp8Packet = rtpPacket.toOtherType(Vp8Packet::new);
+        vp8Packet.setPictureId(seq);
+        vp8Packet.setTL0PICIDX(seq & 0xff);
+        vp8Packet.setQualityIndex(0);
+
+        PacketInfo packetInfo = new PacketInfo(vp8Packet);
+        packetInfo.setEndpointId("sender");
+        return packetInfo;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc;
+
+import org.jitsi.nlj.format.*;
+import org.jitsi.utils.logging.DiagnosticContext;
+import org.jitsi.utils.logging2.*;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ProjectionGroupsTest
+{
+    private final Logger logger = new LoggerImpl(getClass().getName());
+    private final Map<Byte, PayloadType> payloadTypes = new ConcurrentHashMap<>();
+    private final List<Long> keyframeRequests = new ArrayList<>();
+    private final ProjectionGroups groups = new ProjectionGroups(
+        (endpointId, ssrc) -> keyframeRequests.add(ssrc), new DiagnosticContext(), logger);
+
+    @Test
+    public void sameSourceAndTargetShareAGroup()
+    {
+        ProjectionGroup group1 = groups.join(1234, "ep1", 2, payloadTypes);
+        ProjectionGroup group2 = groups.join(1234, "ep1", 2, payloadTypes);
+
+        assertSame(group1, group2);
+        assertEquals(1, groups.size());
+        assertEquals(2, group1.getTargetIndex());
+        assertEquals(1234, group1.getTargetSsrc());
+    }
+
+    @Test
+    public void differentTargetsDoNotShareAGroup()
+    {
+        ProjectionGroup group1 = groups.join(1234, "ep1", 2, payloadTypes);
+        ProjectionGroup group2 = groups.join(1234, "ep1", 5, payloadTypes);
+        ProjectionGroup group3 = groups.join(5678, "ep2", 2, payloadTypes);
+
+        assertNotSame(group1, group2);
+        assertNotSame(group1, group3);
+        assertEquals(3, groups.size());
+    }
+
+    @Test
+    public void groupIsRemovedWhenTheLastMemberLeaves()
+    {
+        ProjectionGroup group1 = groups.join(1234, "ep1", 2, payloadTypes);
+        groups.join(1234, "ep1", 2, payloadTypes);
+
+        groups.leave(group1);
+        assertEquals(1, groups.size());
+
+        groups.leave(group1);
+        assertEquals(0, groups.size());
+
+        ProjectionGroup group2 = groups.join(1234, "ep1", 2, payloadTypes);
+        assertNotSame(group1, group2);
+    }
+
+    @Test
+    public void keyframesAreRequestedFromTheSource()
+    {
+        ProjectionGroup group = groups.join(1234, "ep1", 2, payloadTypes);
+        group.requestKeyframe();
+
+        assertEquals(Collections.singletonList(1234L), keyframeRequests);
+    }
+}
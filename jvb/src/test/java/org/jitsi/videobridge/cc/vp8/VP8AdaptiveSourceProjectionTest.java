@@ -978,6 +978,111 @@ public void filteredLargeFrameDropoutTest()
     }
 
 
+    /**
+     * Accepts packets on one thread and rewrites them on another (as the
+     * routing thread of the sender and the send thread of the receiver do), and
+     * checks that the rewritten stream is continuous.
+     */
+    private void runConcurrentTest(Vp8PacketGenerator generator, int targetTid)
+        throws Exception
+    {
+        DiagnosticContext diagnosticContext = new DiagnosticContext();
+        diagnosticContext.put("test", Thread.currentThread().getStackTrace()[2].getMethodName());
+
+        RtpState initialState =
+            new RtpState(1, 10000, 1000000);
+
+        int targetIndex = RtpLayerDesc.getIndex(0, 0, targetTid);
+
+        VP8AdaptiveSourceProjectionContext context =
+            new VP8AdaptiveSourceProjectionContext(diagnosticContext, payloadType,
+                initialState, logger);
+
+        final int numPackets = 200000;
+        BlockingQueue<PacketInfo> queue = new ArrayBlockingQueue<>(64);
+        PacketInfo endOfStream = new Vp8PacketGenerator(1).nextPacket();
+
+        Callable<Integer> rewriter = () ->
+        {
+            int expectedSeq = 10001;
+            int expectedPicId = 0;
+            int rewritten = 0;
+            PacketInfo packetInfo;
+            while ((packetInfo = queue.take()) != endOfStream)
+            {
+                Vp8Packet packet = packetInfo.packetAs();
+                context.rewriteRtp(packetInfo);
+
+                assertEquals(expectedSeq, packet.getSequenceNumber());
+                assertEquals(expectedPicId, packet.getPictureId());
+
+                expectedSeq = RtpUtils.applySequenceNumberDelta(expectedSeq, 1);
+                if (packet.isEndOfFrame())
+                {
+                    expectedPicId = VpxUtils.applyExtendedPictureIdDelta(expectedPicId, 1);
+                }
+                rewritten++;
+            }
+            return rewritten;
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<Integer> rewriterResult = executor.submit(rewriter);
+
+            int accepted = 0;
+            for (int i = 0; i < numPackets; i++)
+            {
+                PacketInfo packetInfo = generator.nextPacket();
+                Vp8Packet packet = packetInfo.packetAs();
+
+                if (context.accept(packetInfo, packet.getTemporalLayerIndex(), targetIndex))
+                {
+                    accepted++;
+                    while (!queue.offer(packetInfo, 100, TimeUnit.MILLISECONDS))
+                    {
+                        assertFalse("Rewriter failed", rewriterResult.isDone());
+                    }
+                }
+            }
+            queue.put(endOfStream);
+
+            try
+            {
+                assertEquals(accepted, (int) rewriterResult.get(30, TimeUnit.SECONDS));
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof AssertionError)
+                {
+                    throw (AssertionError) e.getCause();
+                }
+                throw e;
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentAcceptAndRewriteTest()
+        throws Exception
+    {
+        Vp8PacketGenerator generator = new Vp8PacketGenerator(3);
+        runConcurrentTest(generator, 2);
+    }
+
+    @Test
+    public void filteredConcurrentAcceptAndRewriteTest()
+        throws Exception
+    {
+        Vp8PacketGenerator generator = new Vp8PacketGenerator(3);
+        runConcurrentTest(generator, 0);
+    }
+
     private static class Vp8PacketGenerator {
         private static final byte[] vp8PacketTemplate =
             DatatypeConverter.parseHexBinary(
@@ -278,4 +278,50 @@ public void testEmptySource()
         assertNotNull(sources);
         assertEquals(0, sources.length);
     }
+
+    // The same sources signaled again -> the same descriptions
+    @Test
+    public void reuseUnchangedMediaSources()
+    {
+        SourcePacketExtension videoSource1 = createSource(12345L);
+        SourcePacketExtension rtx1 = createSource(54321L);
+        SourcePacketExtension videoSource2 = createSource(23456L);
+        SourceGroupPacketExtension rtxGroup1
+            = createGroup(
+                SourceGroupPacketExtension.SEMANTICS_FID, videoSource1, rtx1);
+        Map<String, MediaSourceDesc> memo = new HashMap<>();
+
+        MediaSourceDesc[] sources =
+            MediaSourceFactory.createMediaSources(
+                Arrays.asList(videoSource1, rtx1, videoSource2),
+                Collections.singletonList(rtxGroup1),
+                memo);
+        assertEquals(2, sources.length);
+        assertEquals(2, memo.size());
+
+        MediaSourceDesc[] sourcesAgain =
+            MediaSourceFactory.createMediaSources(
+                Arrays.asList(videoSource1, rtx1, videoSource2),
+                Collections.singletonList(rtxGroup1),
+                memo);
+        assertArrayEquals(sources, sourcesAgain);
+        assertSame(sources[0], sourcesAgain[0]);
+        assertSame(sources[1], sourcesAgain[1]);
+
+        // The RTX SSRC of the first source changed, and the second source was
+        // removed.
+        SourcePacketExtension newRtx1 = createSource(65432L);
+        MediaSourceDesc[] newSources =
+            MediaSourceFactory.createMediaSources(
+                Arrays.asList(videoSource1, newRtx1),
+                Collections.singletonList(
+                    createGroup(
+                        SourceGroupPacketExtension.SEMANTICS_FID,
+                        videoSource1,
+                        newRtx1)),
+                memo);
+        assertEquals(1, newSources.length);
+        assertNotSame(sources[0], newSources[0]);
+        assertEquals(1, memo.size());
+    }
 }
@@ -19,10 +19,14 @@ import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.matchers.shouldBe
 import io.mockk.every
 import io.mockk.mockk
+import io.mockk.spyk
 import org.jitsi.ConfigTest
+import org.jitsi.test.concurrent.FakeScheduledExecutorService
+import org.jitsi.utils.secs
 import org.json.simple.JSONObject
 import org.json.simple.parser.JSONParser
 import org.jxmpp.jid.impl.JidCreate
+import java.util.concurrent.Executor
 import kotlin.random.Random
 import org.jitsi.videobridge.octo.singleton as octoRelayServiceProvider
 
@@ -48,6 +52,23 @@ class ConferenceTest : ConfigTest() {
                 debugState.shouldBeValidJson()
             }
         }
+        context("Adding many local endpoints at the same time should update the speech activity once") {
+            withNewConfig("videobridge.conference.membership-batch-interval = 2 seconds", loadDefaults = true) {
+                val scheduler: FakeScheduledExecutorService = spyk()
+                val conference =
+                    Conference(videobridge, "id", name, Conference.GID_NOT_SET, null, Executor { it.run() }, scheduler)
+                with(conference) {
+                    repeat(20) { createLocalEndpoint("endpoint$it", true) }
+                    localEndpointCount shouldBe 20
+                    statistics.membershipUpdates.get() shouldBe 0
+
+                    scheduler.clock.elapse(2.secs)
+                    scheduler.runOne()
+                    orderedEndpoints.size shouldBe 20
+                    statistics.membershipUpdates.get() shouldBe 1
+                }
+            }
+        }
         context("Enabling octo should fail when the GID is not set") {
             with(Conference(videobridge, "id", name, Conference.GID_NOT_SET, null)) {
                 isOctoEnabled shouldBe false
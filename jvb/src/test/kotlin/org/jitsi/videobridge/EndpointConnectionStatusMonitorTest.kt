@@ -40,9 +40,11 @@ class EndpointConnectionStatusMonitorTest : ShouldSpec({
     val executor: FakeScheduledExecutorService = spyk()
     val localEp1: Endpoint = mockk {
         every { id } returns "1"
+        every { isReceiveOnly() } returns false
     }
     val localEp2: Endpoint = mockk {
         every { id } returns "2"
+        every { isReceiveOnly() } returns false
     }
     val eps = listOf(localEp1, localEp2)
 
@@ -138,6 +140,23 @@ class EndpointConnectionStatusMonitorTest : ShouldSpec({
                 }
             }
         }
+        context("when an endpoint is receive-only") {
+            every { localEp2.isReceiveOnly() } returns true
+            eps.forEach {
+                every { it.lastIncomingActivity } returns NEVER
+                every { it.getMostRecentChannelCreatedTime() } returns clock.instant()
+            }
+            clock.elapse(1.mins)
+            executor.runOne()
+            should("only fire events for the other endpoints") {
+                sendMessageCalls.shouldBeEmpty()
+                broadcastCalls shouldHaveSize 1
+                broadcastCalls.first().let { (msg, _) ->
+                    msg.endpoint shouldBe "1"
+                    msg.active shouldBe "false"
+                }
+            }
+        }
         context("when the endpoints have had activity") {
             eps.forEach {
                 every { it.getMostRecentChannelCreatedTime() } returns clock.instant()
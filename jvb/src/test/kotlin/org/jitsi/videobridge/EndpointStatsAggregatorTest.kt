@@ -0,0 +1,129 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.collections.shouldHaveSize
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.spyk
+import org.jitsi.test.concurrent.FakeScheduledExecutorService
+import org.jitsi.utils.logging2.LoggerImpl
+import org.jitsi.videobridge.message.AggregatedEndpointStatsMessage
+import org.jitsi.videobridge.message.BridgeChannelMessage
+import org.jitsi.videobridge.message.EndpointStats
+
+class EndpointStatsAggregatorTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    private val executor: FakeScheduledExecutorService = spyk()
+    private val sent = mutableMapOf<String, MutableList<BridgeChannelMessage>>()
+
+    /** Accepts aggregated stats, and wants stats from everyone. */
+    private val ep1 = mockEndpoint("1", acceptsAggregatedStats = true) { true }
+    /** Doesn't accept aggregated stats. */
+    private val ep2 = mockEndpoint("2", acceptsAggregatedStats = false) { true }
+    /** Accepts aggregated stats, and only wants stats from ep1. */
+    private val ep3 = mockEndpoint("3", acceptsAggregatedStats = true) { it.id == "1" }
+    private val endpoints = listOf(ep1, ep2, ep3)
+
+    private val conference: Conference = mockk {
+        every { localEndpoints } returns endpoints
+        every { getEndpoint(any()) } answers { endpoints.find { it.id == firstArg() } }
+    }
+
+    private val aggregator = EndpointStatsAggregator(conference, LoggerImpl("test"), executor)
+
+    init {
+        context("Stats added within an interval") {
+            aggregator.add(stats("2", "bitrate" to 100))
+            aggregator.add(stats("3", "bitrate" to 300))
+            aggregator.add(stats("2", "bitrate" to 200))
+            should("not be relayed right away") {
+                sent.values.flatten().shouldBeEmpty()
+            }
+            context("and then relayed") {
+                executor.runOne()
+                should("be sent in one message, with the latest stats of each sender") {
+                    val messages = sent.getValue("1")
+                    messages shouldHaveSize 1
+                    messages[0].shouldBeInstanceOf<AggregatedEndpointStatsMessage>()
+                    val stats = (messages[0] as AggregatedEndpointStatsMessage).stats
+                    stats.keys shouldBe setOf("2", "3")
+                    stats.getValue("2")["bitrate"] shouldBe 200
+                    stats.getValue("3")["bitrate"] shouldBe 300
+                }
+                should("only be sent to receivers which accept aggregated stats and want them") {
+                    sent["2"] shouldBe null
+                    sent["3"] shouldBe null
+                }
+                context("and relayed again") {
+                    aggregator.relay()
+                    should("not be sent twice") {
+                        sent.getValue("1") shouldHaveSize 1
+                    }
+                }
+                context("and more stats are added") {
+                    aggregator.add(stats("3", "bitrate" to 400))
+                    executor.runOne()
+                    should("relay them in a new batch") {
+                        val messages = sent.getValue("1")
+                        messages shouldHaveSize 2
+                        val stats = (messages[1] as AggregatedEndpointStatsMessage).stats
+                        stats.keys shouldBe setOf("3")
+                        stats.getValue("3")["bitrate"] shouldBe 400
+                    }
+                }
+            }
+        }
+        context("The stats of a receiver") {
+            aggregator.add(stats("1", "bitrate" to 100))
+            executor.runOne()
+            should("not be sent to itself") {
+                sent["1"] shouldBe null
+                sent.getValue("3") shouldHaveSize 1
+                (sent.getValue("3")[0] as AggregatedEndpointStatsMessage).stats.keys shouldBe setOf("1")
+            }
+        }
+        context("The stats of an endpoint which left") {
+            aggregator.add(stats("4", "bitrate" to 100))
+            executor.runOne()
+            should("not be sent") {
+                sent.values.flatten().shouldBeEmpty()
+            }
+        }
+    }
+
+    private fun stats(from: String, vararg fields: Pair<String, Any>) = EndpointStats().apply {
+        this.from = from
+        fields.forEach { (key, value) -> put(key, value) }
+    }
+
+    private fun mockEndpoint(
+        endpointId: String,
+        acceptsAggregatedStats: Boolean,
+        wantsStatsFrom: (AbstractEndpoint) -> Boolean
+    ): Endpoint = mockk {
+        every { id } returns endpointId
+        every { this@mockk.acceptsAggregatedStats } returns acceptsAggregatedStats
+        every { wantsStatsFrom(any()) } answers { wantsStatsFrom(firstArg()) }
+        every { sendMessage(any()) } answers { sent.getOrPut(endpointId) { mutableListOf() }.add(firstArg()) }
+    }
+}
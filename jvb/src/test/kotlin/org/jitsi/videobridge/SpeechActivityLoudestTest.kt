@@ -0,0 +1,81 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge
+
+import io.kotest.matchers.shouldBe
+import org.jitsi.ConfigTest
+import org.jitsi.videobridge.SpeechActivityTest.Companion.mockEndpoint
+
+class SpeechActivityLoudestTest : ConfigTest() {
+    private val a = mockEndpoint("a")
+    private val b = mockEndpoint("b")
+
+    private fun createSpeechActivity() = ConferenceSpeechActivity(object : ConferenceSpeechActivity.Listener {
+        override fun lastNEndpointsChanged() {}
+        override fun dominantSpeakerChanged() {}
+    })
+
+    init {
+        context("When routing the loudest only") {
+            withNewConfig(
+                """
+                videobridge.loudest {
+                    route-loudest-only = true
+                    always-route-dominant = true
+                    num-loudest = 1
+                }
+                """.trimIndent(),
+                true
+            ) {
+                val speechActivity = createSpeechActivity()
+                speechActivity.endpointsChanged(listOf(a, b))
+                context("a new dominant speaker") {
+                    speechActivity.activeSpeakerChanged(b.id)
+                    should("be forwarded before the next batch of audio levels is processed") {
+                        speechActivity.isAudioForwarded(b.id) shouldBe true
+                    }
+                    context("after the conference expires") {
+                        speechActivity.expire()
+                        should("not be forwarded") {
+                            speechActivity.isAudioForwarded(b.id) shouldBe false
+                        }
+                    }
+                }
+            }
+        }
+        context("When not routing the dominant speaker specially") {
+            withNewConfig(
+                """
+                videobridge.loudest {
+                    route-loudest-only = true
+                    always-route-dominant = false
+                    num-loudest = 1
+                }
+                """.trimIndent(),
+                true
+            ) {
+                val speechActivity = createSpeechActivity()
+                speechActivity.endpointsChanged(listOf(a, b))
+                speechActivity.activeSpeakerChanged(b.id)
+                should("only forward according to the levels") {
+                    // Neither endpoint has sent any levels.
+                    speechActivity.isAudioForwarded(a.id) shouldBe false
+                    speechActivity.isAudioForwarded(b.id) shouldBe false
+                }
+            }
+        }
+    }
+}
@@ -112,6 +112,64 @@ class SpeechActivityTest : ShouldSpec() {
             conferenceSpeechActivity.dominantEndpoint shouldBe a
             conferenceSpeechActivity.orderedEndpoints shouldContainExactly listOf(a, b, c, d)
         }
+
+        context("Should keep the speaker history") {
+            conferenceSpeechActivity.endpointsChanged(listOf(a, b, c, d))
+            conferenceSpeechActivity.activeSpeakerChanged(c.id)
+            conferenceSpeechActivity.activeSpeakerChanged(b.id)
+            conferenceSpeechActivity.activeSpeakerChanged(b.id)
+
+            conferenceSpeechActivity.getSpeakerHistory(0, 10) shouldContainExactly listOf("b", "c", "a", "d")
+            conferenceSpeechActivity.recentSpeakers shouldContainExactly listOf("c", "a", "d")
+            conferenceSpeechActivity.getSpeakerHistory(3, 10) shouldContainExactly listOf("d")
+            conferenceSpeechActivity.getSpeakerHistory(5, 10) shouldContainExactly emptyList()
+            conferenceSpeechActivity.isRecentSpeaker(d) shouldBe true
+
+            conferenceSpeechActivity.endpointsChanged(listOf(a, b))
+            conferenceSpeechActivity.getSpeakerHistory(0, 10) shouldContainExactly listOf("b", "a")
+            conferenceSpeechActivity.isRecentSpeaker(d) shouldBe false
+
+            conferenceSpeechActivity.activeSpeakerChanged(d.id)
+            conferenceSpeechActivity.dominantEndpoint shouldBe b
+        }
+
+        context("After expire") {
+            conferenceSpeechActivity.endpointsChanged(listOf(a, b))
+            conferenceSpeechActivity.activeSpeakerChanged(b.id)
+            conferenceSpeechActivity.expire()
+
+            should("return an empty ranking") {
+                listOf(a.id, b.id, "unknown").forEach {
+                    val ranking = conferenceSpeechActivity.getRanking(it)
+                    ranking.isDominant shouldBe false
+                    ranking.energyScore shouldBe 0
+                }
+                conferenceSpeechActivity.isAudioForwarded(b.id) shouldBe false
+                conferenceSpeechActivity.dominantEndpoint shouldBe null
+            }
+        }
+
+        context("Queued audio levels") {
+            val audioLevels = ConferenceSpeechActivity.AudioLevels("a")
+            val drained = mutableListOf<Int>()
+
+            should("be drained in order") {
+                (1..5).forEach { audioLevels.add(it) }
+                audioLevels.drain { drained.add(it) } shouldBe 5
+                drained shouldContainExactly listOf(1, 2, 3, 4, 5)
+
+                audioLevels.drain { drained.add(it) } shouldBe 0
+                audioLevels.add(127)
+                audioLevels.drain { drained.add(it) } shouldBe 1
+                drained.last() shouldBe 127
+            }
+            should("drop the oldest levels when full") {
+                val capacity = ConferenceSpeechActivity.AudioLevels.CAPACITY
+                (1..capacity + 3).forEach { audioLevels.add(it) }
+                audioLevels.drain { drained.add(it) } shouldBe capacity
+                drained shouldContainExactly (4..capacity + 3).toList()
+            }
+        }
     }
 
     companion object {
@@ -19,14 +19,25 @@ import io.kotest.core.spec.IsolationMode
 import io.kotest.core.spec.style.ShouldSpec
 import io.kotest.matchers.shouldBe
 import io.kotest.matchers.types.shouldBeInstanceOf
+import io.mockk.Runs
+import io.mockk.every
+import io.mockk.just
 import io.mockk.mockk
+import io.mockk.slot
 import io.mockk.verify
+import org.jitsi.nlj.stats.DelayStats
 import org.jitsi.shutdown.ShutdownServiceImpl
 import org.jitsi.utils.OrderedJsonObject
+import org.jitsi.videobridge.xmpp.XmppConnection
+import org.jitsi.xmpp.extensions.colibri.ColibriConferenceIQ
 import org.jivesoftware.smack.packet.ErrorIQ
 import org.jivesoftware.smack.packet.XMPPError
 import org.json.simple.parser.JSONParser
 import org.jxmpp.jid.impl.JidCreate
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 class VideobridgeTest : ShouldSpec() {
     override fun isolationMode(): IsolationMode? = IsolationMode.InstancePerLeaf
@@ -37,6 +48,36 @@ class VideobridgeTest : ShouldSpec() {
         context("Debug state should be JSON") {
             videobridge.getDebugState(null, null, true).shouldBeValidJson()
         }
+        context("Handling many colibri requests via XMPP") {
+            val xmppConnection = mockk<XmppConnection>(relaxed = true)
+            val eventHandler = slot<XmppConnection.EventHandler>()
+            every { xmppConnection.eventHandler = capture(eventHandler) } just Runs
+            val bridge = Videobridge(xmppConnection, shutdownService, mockk())
+            val conferences = List(40) { bridge.createConference(JidCreate.entityBareFrom("conf$it@domain.org")) }
+            val responses = conferences.associateWith { Collections.synchronizedList(mutableListOf<Int>()) }
+            val numErrors = AtomicInteger()
+            val done = CountDownLatch(2000)
+            repeat(50) { i ->
+                conferences.forEach { conference ->
+                    val iq = ColibriConferenceIQ().apply { setID(conference.getID()) }
+                    val delayStats = DelayStats(longArrayOf(5, 50))
+                    eventHandler.captured.colibriConferenceIqReceived(
+                        XmppConnection.ColibriRequest(iq, delayStats, delayStats) { response ->
+                            if (response is ErrorIQ) {
+                                numErrors.incrementAndGet()
+                            }
+                            responses.getValue(conference).add(i)
+                            done.countDown()
+                        }
+                    )
+                }
+            }
+            should("answer all of them, in order for each conference") {
+                done.await(30, TimeUnit.SECONDS) shouldBe true
+                numErrors.get() shouldBe 0
+                responses.values.forEach { it shouldBe (0 until 50).toList() }
+            }
+        }
         context("Shutdown") {
             context("when a conference is active") {
                 val conf = videobridge.createConference(JidCreate.entityBareFrom("conf@domain.org"))
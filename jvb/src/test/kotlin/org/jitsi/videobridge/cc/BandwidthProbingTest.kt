@@ -0,0 +1,105 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc
+
+import io.kotest.matchers.shouldBe
+import org.jitsi.ConfigTest
+import org.jitsi.nlj.util.bps
+import org.jitsi.test.time.FakeClock
+import org.jitsi.utils.ms
+import org.jitsi.utils.secs
+import org.jitsi.videobridge.cc.allocation.BitrateControllerStatusSnapshot
+import java.util.function.Supplier
+
+class BandwidthProbingTest : ConfigTest() {
+    private val clock = FakeClock()
+    private val sentBytes = mutableListOf<Int>()
+    private var snapshot = BitrateControllerStatusSnapshot(
+        currentTargetBps = 500_000,
+        currentIdealBps = 2_000_000,
+        activeSsrcs = listOf(1234L)
+    )
+
+    private val bandwidthProbing = BandwidthProbing(
+        object : BandwidthProbing.ProbingDataSender {
+            override fun sendProbing(mediaSsrcs: Collection<Long>, numBytes: Int): Int {
+                sentBytes.add(numBytes)
+                return numBytes
+            }
+        },
+        Supplier { snapshot },
+        clock
+    ).apply {
+        enabled = true
+        bandwidthEstimationChanged(1_000_000.bps)
+    }
+
+    init {
+        context("Without probe clusters") {
+            withNewConfig("videobridge.cc.probe-clusters.enabled = false", loadDefaults = true) {
+                should("never pad beyond the estimation") {
+                    bandwidthProbing.run()
+                    // 15ms of 500kbps
+                    sentBytes.last() shouldBe 937
+                }
+            }
+        }
+        context("With probe clusters") {
+            withNewConfig(
+                """
+                videobridge.cc.probe-clusters {
+                    enabled = true
+                    bwe-multiplier = 2.0
+                    duration = 60 ms
+                    min-interval = 2 seconds
+                }
+                """.trimIndent(),
+                loadDefaults = true
+            ) {
+                should("send a cluster at a multiple of the estimation and then fall back") {
+                    bandwidthProbing.run()
+                    // 15ms of 2mbps - 500kbps
+                    sentBytes.last() shouldBe 2812
+
+                    clock.elapse(60.ms)
+                    bandwidthProbing.run()
+                    sentBytes.last() shouldBe 937
+                }
+                should("not exceed the ideal bitrate") {
+                    snapshot = snapshot.copy(currentIdealBps = 1_500_000)
+                    bandwidthProbing.run()
+                    // 15ms of 1.5mbps - 500kbps
+                    sentBytes.last() shouldBe 1875
+                }
+                should("wait for the minimum interval before the next cluster") {
+                    bandwidthProbing.run()
+                    clock.elapse(1.secs)
+                    bandwidthProbing.run()
+                    sentBytes.last() shouldBe 937
+
+                    clock.elapse(1.secs)
+                    bandwidthProbing.run()
+                    sentBytes.last() shouldBe 2812
+                }
+                should("not probe when the estimation is enough") {
+                    bandwidthProbing.bandwidthEstimationChanged(3_000_000.bps)
+                    bandwidthProbing.run()
+                    sentBytes.size shouldBe 0
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc
+
+import io.kotest.core.test.TestCase
+import io.kotest.core.test.TestResult
+import io.kotest.matchers.nulls.shouldBeNull
+import io.kotest.matchers.nulls.shouldNotBeNull
+import io.kotest.matchers.shouldBe
+import org.jitsi.ConfigTest
+import org.jitsi.nlj.PacketInfo
+import org.jitsi.test.time.FakeClock
+import org.jitsi.utils.logging2.LoggerImpl
+import org.jitsi.utils.secs
+
+class KeyframeCacheLimitsTest : ConfigTest() {
+    private val clock = FakeClock()
+    private val cache = KeyframeCache(LoggerImpl(javaClass.name), clock)
+    private val packetLength = createPacket(1, 0, true).packet.length
+    private val initialTotalBytes = cache.totalBytes()
+
+    init {
+        context("An encoding which exceeds the per-encoding limit") {
+            withNewConfig("videobridge.cc.keyframe-cache.max-encoding-bytes = ${3 * packetLength}", true) {
+                cache.add(createPacket(1, 3000, true))
+                cache.add(createPacket(2, 6000, false))
+                val current = createPacket(3, 9000, false)
+                cache.add(current)
+                should("be cached up to the limit") {
+                    cache.get(SSRC, current).shouldNotBeNull()
+                }
+                context("and then grows past it") {
+                    cache.add(createPacket(4, 12000, false))
+                    val next = createPacket(5, 15000, false)
+                    cache.add(next)
+                    should("be dropped until the next keyframe") {
+                        cache.get(SSRC, next).shouldBeNull()
+                        cache.totalBytes() shouldBe initialTotalBytes
+                    }
+                    context("and then gets a keyframe") {
+                        cache.add(createPacket(6, 18000, true))
+                        val afterKeyframe = createPacket(7, 21000, false)
+                        cache.add(afterKeyframe)
+                        should("be cached again") {
+                            cache.get(SSRC, afterKeyframe).shouldNotBeNull()
+                        }
+                    }
+                }
+            }
+        }
+        context("Encodings which exceed the bridge-wide limit") {
+            withNewConfig("videobridge.cc.keyframe-cache.max-total-bytes = ${3 * packetLength}", true) {
+                cache.add(createPacket(1, 3000, true, OTHER_SSRC))
+                cache.add(createPacket(2, 6000, false, OTHER_SSRC))
+                cache.add(createPacket(1, 3000, true))
+                val current = createPacket(2, 6000, false)
+                cache.add(current)
+                should("not be cached past the limit") {
+                    cache.get(SSRC, current).shouldBeNull()
+                    cache.totalBytes() shouldBe initialTotalBytes + 2 * packetLength
+                }
+            }
+        }
+        context("A keyframe which is too old") {
+            withNewConfig("videobridge.cc.keyframe-cache.max-age = 5 seconds", true) {
+                cache.add(createPacket(1, 3000, true))
+                val current = createPacket(2, 6000, false)
+                cache.add(current)
+                clock.elapse(6.secs)
+                should("not be replayed") {
+                    cache.get(SSRC, current).shouldBeNull()
+                }
+                context("even if more packets follow it") {
+                    val next = createPacket(3, 9000, false)
+                    cache.add(next)
+                    should("be dropped") {
+                        cache.get(SSRC, next).shouldBeNull()
+                        cache.totalBytes() shouldBe initialTotalBytes
+                    }
+                }
+            }
+        }
+    }
+
+    override fun afterTest(testCase: TestCase, result: TestResult) {
+        cache.close()
+    }
+
+    private fun KeyframeCache.totalBytes() = getDebugState()["total_bytes"] as Long
+
+    private fun createPacket(seq: Int, ts: Long, keyframe: Boolean, ssrc: Long = SSRC): PacketInfo =
+        KeyframeCacheTest.createPacket(seq, ts, keyframe, ssrc)
+
+    companion object {
+        private const val SSRC = 0xcafebabeL
+        private const val OTHER_SSRC = 0xdeadbeefL
+    }
+}
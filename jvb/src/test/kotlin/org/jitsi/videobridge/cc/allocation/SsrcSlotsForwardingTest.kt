@@ -0,0 +1,119 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc.allocation
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import org.jitsi.nlj.PacketInfo
+import org.jitsi.nlj.format.Vp8PayloadType
+import org.jitsi.nlj.rtp.VideoRtpPacket
+import org.jitsi.rtp.rtcp.RtcpSrPacket
+import org.jitsi.rtp.rtcp.RtcpSrPacketBuilder
+import org.jitsi.rtp.util.RtpUtils
+import org.jitsi.test.time.FakeClock
+import org.jitsi.utils.event.SyncEventEmitter
+import org.jitsi.utils.logging.DiagnosticContext
+import org.jitsi.utils.logging2.createLogger
+import org.jitsi.videobridge.cc.KeyframeCacheTest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+import kotlin.random.Random
+
+/**
+ * Tests the forwarding of sources on the SSRC slots of a receiver, through its [BitrateControllerPacketHandler].
+ */
+class SsrcSlotsForwardingTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    private val handler = BitrateControllerPacketHandler(
+        FakeClock(),
+        createLogger(),
+        DiagnosticContext(),
+        SyncEventEmitter<BitrateController.EventHandler>(),
+        null,
+        null,
+        null,
+        SsrcSlots(1, Random(0))
+    ).apply {
+        addPayloadType(Vp8PayloadType(96, ConcurrentHashMap(), CopyOnWriteArraySet()))
+    }
+
+    private val a = Endpoint("A", createSource(1, 2, 3))
+    private val b = Endpoint("B", createSource(4, 5, 6))
+
+    init {
+        forward(a)
+        val slotSsrc = handler.ssrcSlots!!.single().ssrc
+
+        context("Feedback for the slot") {
+            should("be mapped to the source on the slot") {
+                handler.getSourceSsrc(slotSsrc) shouldBe 1L
+            }
+            should("not change other SSRCs") {
+                handler.getSourceSsrc(1L) shouldBe 1L
+                handler.getSourceSsrc(1234L) shouldBe 1234L
+            }
+        }
+        context("Forwarding packets of the source") {
+            val last = (1..3).map { seq -> forward(seq, seq * 3000L, seq == 1, 1L) }.last()
+            should("rewrite them onto the slot") {
+                last.ssrc shouldBe slotSsrc
+            }
+            context("and a sender report") {
+                val sr = senderReport(1L, 9000L)
+                should("rewrite its sender SSRC to the slot") {
+                    handler.accept(sr) shouldBe true
+                    handler.transformRtcp(sr) shouldBe true
+                    sr.senderSsrc shouldBe slotSsrc
+                }
+            }
+            context("and then another source instead") {
+                forward(b)
+                val next = forward(5000, 900_000L, true, 4L)
+                should("give it the slot") {
+                    handler.getSourceSsrc(slotSsrc) shouldBe 4L
+                    next.ssrc shouldBe slotSsrc
+                }
+                should("continue the sequence numbers and timestamps of the slot") {
+                    next.sequenceNumber shouldBe RtpUtils.applySequenceNumberDelta(last.sequenceNumber, 1)
+                    RtpUtils.isNewerTimestampThan(next.timestamp, last.timestamp) shouldBe true
+                }
+                should("stop forwarding the previous source") {
+                    handler.accept(KeyframeCacheTest.createPacket(4, 12000L, false, 1L)) shouldBe false
+                }
+            }
+        }
+    }
+
+    private fun forward(endpoint: Endpoint) =
+        handler.allocationChanged(BandwidthAllocation(setOf(SingleAllocation(endpoint, ld7_5))))
+
+    /**
+     * Passes a packet of a source through the handler, like the conference does for a receiver.
+     */
+    private fun forward(seq: Int, ts: Long, keyframe: Boolean, ssrc: Long): VideoRtpPacket {
+        val packetInfo: PacketInfo = KeyframeCacheTest.createPacket(seq, ts, keyframe, ssrc)
+        handler.accept(packetInfo) shouldBe true
+        handler.transformRtp(packetInfo) shouldBe true
+        return packetInfo.packetAs()
+    }
+
+    private fun senderReport(ssrc: Long, ts: Long): RtcpSrPacket = RtcpSrPacketBuilder().apply {
+        rtcpHeader.senderSsrc = ssrc
+        senderInfo.rtpTimestamp = ts
+    }.build()
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.videobridge.cc.allocation
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.collections.shouldHaveSize
+import io.kotest.matchers.shouldBe
+import kotlin.random.Random
+
+class SsrcSlotsTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    private val ssrcSlots = SsrcSlots(2, Random(0))
+
+    init {
+        context("Forwarding two sources") {
+            val reassignments = ssrcSlots.update(mapOf(1L to "a", 2L to "b"))
+            val slots = ssrcSlots.getSlots()
+            should("give each one a new slot") {
+                slots.map { it.sourceSsrc } shouldContainExactly listOf(1L, 2L)
+                slots.map { it.endpointId } shouldContainExactly listOf("a", "b")
+                reassignments.map { it.previousSourceSsrc } shouldContainExactly listOf(-1L, -1L)
+                slots.map { it.ssrc }.toSet() shouldHaveSize 2
+            }
+            context("and then the same sources") {
+                should("not change the slots") {
+                    ssrcSlots.update(mapOf(2L to "b", 1L to "a")).shouldBeEmpty()
+                    ssrcSlots.getSlots() shouldBe slots
+                }
+            }
+            context("and then a different source instead of one of them") {
+                val newReassignments = ssrcSlots.update(mapOf(2L to "b", 3L to "c"))
+                should("give it the slot of the source which isn't forwarded") {
+                    newReassignments shouldContainExactly listOf(SsrcSlots.Reassignment(slots[0].ssrc, 1L, 3L))
+                    ssrcSlots.getSlots() shouldContainExactly listOf(
+                        SsrcSlot(slots[0].ssrc, "c", 3L),
+                        slots[1]
+                    )
+                }
+            }
+            context("and then more sources than slots") {
+                val newReassignments = ssrcSlots.update(mapOf(1L to "a", 2L to "b", 3L to "c"))
+                should("not give a slot to the extra source") {
+                    newReassignments.shouldBeEmpty()
+                    ssrcSlots.getSlots() shouldBe slots
+                    ssrcSlots.getDebugState()["num_sources_without_slot"] shouldBe 1L
+                }
+            }
+        }
+        context("Forwarding fewer sources than the maximum") {
+            ssrcSlots.update(mapOf(1L to "a"))
+            should("only create the slots which are needed") {
+                ssrcSlots.getSlots() shouldHaveSize 1
+            }
+        }
+    }
+}
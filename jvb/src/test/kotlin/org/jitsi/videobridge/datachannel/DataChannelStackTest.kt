@@ -0,0 +1,96 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.datachannel
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldHaveSize
+import io.kotest.matchers.nulls.shouldNotBeNull
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import org.jitsi.utils.logging2.LoggerImpl
+import org.jitsi.videobridge.datachannel.protocol.DataChannelBinaryMessage
+import org.jitsi.videobridge.datachannel.protocol.DataChannelMessage
+import org.jitsi.videobridge.datachannel.protocol.DataChannelProtocolConstants
+import org.jitsi.videobridge.datachannel.protocol.DataChannelStringMessage
+import org.jitsi.videobridge.datachannel.protocol.OpenChannelMessage
+import java.nio.ByteBuffer
+
+class DataChannelStackTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    private val sent = mutableListOf<Pair<ByteBuffer, Int>>()
+    private val received = mutableListOf<DataChannelMessage>()
+    private var dataChannel: DataChannel? = null
+
+    private val stack = DataChannelStack(
+        { data, _, ppid ->
+            sent.add(Pair(data, ppid))
+            0
+        },
+        LoggerImpl("test")
+    ).apply {
+        onDataChannelStackEvents { dataChannel = it }
+    }
+
+    init {
+        context("When the remote side opens a data channel") {
+            val open = OpenChannelMessage(
+                DataChannelProtocolConstants.RELIABLE,
+                0,
+                0,
+                "default",
+                DataChannelProtocolConstants.PROTOCOL_STRING
+            )
+            stack.onIncomingDataChannelPacket(open.buffer.array(), 1, DataChannelProtocolConstants.WEBRTC_DCEP_PPID)
+
+            should("acknowledge it") {
+                dataChannel.shouldNotBeNull()
+                sent shouldHaveSize 1
+                sent[0].second shouldBe DataChannelProtocolConstants.WEBRTC_DCEP_PPID
+            }
+            context("and sends messages on it") {
+                dataChannel!!.onDataChannelMessage { received.add(it) }
+
+                should("take ownership of the received binary data") {
+                    val data = byteArrayOf(1, 2, 3)
+                    stack.onIncomingDataChannelPacket(data, 1, DataChannelProtocolConstants.WEBRTC_PPID_BIN)
+                    received shouldHaveSize 1
+                    received[0].shouldBeInstanceOf<DataChannelBinaryMessage>()
+                    (received[0] as DataChannelBinaryMessage).data shouldBeSameInstanceAs data
+                }
+                should("parse string data") {
+                    stack.onIncomingDataChannelPacket(
+                        "hello".toByteArray(),
+                        1,
+                        DataChannelProtocolConstants.WEBRTC_PPID_STRING
+                    )
+                    received shouldHaveSize 1
+                    (received[0] as DataChannelStringMessage).data shouldBe "hello"
+                }
+            }
+            should("send encoded strings without copying them") {
+                val utf8 = "hello".toByteArray()
+                dataChannel!!.sendString(utf8)
+                sent shouldHaveSize 2
+                sent[1].first.array() shouldBeSameInstanceAs utf8
+                sent[1].second shouldBe DataChannelProtocolConstants.WEBRTC_PPID_STRING
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.ice
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.core.test.TestCase
+import io.kotest.core.test.TestResult
+import io.kotest.matchers.nulls.shouldBeNull
+import io.kotest.matchers.nulls.shouldNotBeNull
+import io.kotest.matchers.shouldBe
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.SocketTimeoutException
+import java.time.Instant
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class IceLiteServerTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    private val server = IceLiteServer(listOf(InetAddress.getLoopbackAddress()), 0)
+    private val serverAddress = server.localAddresses.single()
+    private val session = TestSession().also { server.register(it) }
+    private val client = DatagramSocket(InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).apply {
+        soTimeout = 2000
+    }
+
+    init {
+        context("Receiving a check which nominates the pair") {
+            sendCheck(session.localPassword, useCandidate = true)
+            val response = receive()
+            should("answer it") {
+                Stun.isStun(response, 0, response.size) shouldBe true
+                val message = Stun.parse(response, 0, response.size).shouldNotBeNull()
+                message.type shouldBe Stun.BINDING_SUCCESS_RESPONSE
+                message.hasValidIntegrity(session.localPassword.toByteArray()) shouldBe true
+                message.attributes[Stun.XOR_MAPPED_ADDRESS]!!.toList() shouldBe
+                    Stun.xorMappedAddress(client.localSocketAddress as InetSocketAddress, message.transactionId)
+                        .toList()
+            }
+            should("select the address of the remote side") {
+                session.checks.poll(2, TimeUnit.SECONDS) shouldBe Pair(client.localSocketAddress, true)
+            }
+            context("and then data") {
+                session.checks.poll(2, TimeUnit.SECONDS)
+                client.send(DatagramPacket(byteArrayOf(0x80.toByte(), 1, 2, 3), 4, serverAddress))
+                should("pass it to the session") {
+                    session.data.poll(2, TimeUnit.SECONDS)!!.toList() shouldBe listOf<Byte>(0x80.toByte(), 1, 2, 3)
+                }
+            }
+            context("and sending data") {
+                session.checks.poll(2, TimeUnit.SECONDS)
+                server.send(session, byteArrayOf(1, 2, 3), 0, 3) shouldBe true
+                should("send it to the selected address") {
+                    receive().toList() shouldBe listOf<Byte>(1, 2, 3)
+                }
+            }
+        }
+        context("Receiving a check which doesn't nominate the pair") {
+            sendCheck(session.localPassword, useCandidate = false)
+            receive()
+            should("not select the address") {
+                session.checks.poll(2, TimeUnit.SECONDS) shouldBe Pair(client.localSocketAddress, false)
+                server.send(session, byteArrayOf(1, 2, 3), 0, 3) shouldBe false
+            }
+        }
+        context("Receiving a check with the wrong password") {
+            client.soTimeout = 200
+            sendCheck("wrong-password", useCandidate = true)
+            should("ignore it") {
+                shouldThrow<SocketTimeoutException> { receive() }
+                session.checks.poll().shouldBeNull()
+                server.getStatsJson()["num_invalid_checks"] shouldBe 1L
+            }
+        }
+        context("Receiving data from an unknown address") {
+            client.send(DatagramPacket(byteArrayOf(0x80.toByte(), 1, 2, 3), 4, serverAddress))
+            sendCheck(session.localPassword, useCandidate = false)
+            receive()
+            should("drop it") {
+                session.data.poll().shouldBeNull()
+                server.getStatsJson()["num_packets_dropped_unknown_address"] shouldBe 1L
+            }
+        }
+    }
+
+    override fun afterTest(testCase: TestCase, result: TestResult) {
+        client.close()
+        server.close()
+    }
+
+    private fun sendCheck(password: String, useCandidate: Boolean) {
+        val attributes = mutableListOf(
+            Stun.USERNAME to "${session.localUfrag}:remote".toByteArray(),
+            Stun.ICE_CONTROLLING to ByteArray(8),
+            Stun.PRIORITY to byteArrayOf(0x6e, 0, 0x1e, 0xff.toByte())
+        )
+        if (useCandidate) {
+            attributes.add(Stun.USE_CANDIDATE to ByteArray(0))
+        }
+        val check = Stun.encode(Stun.BINDING_REQUEST, ByteArray(12) { it.toByte() }, attributes, password.toByteArray())
+        client.send(DatagramPacket(check, check.size, serverAddress))
+    }
+
+    private fun receive(): ByteArray {
+        val packet = DatagramPacket(ByteArray(1500), 1500)
+        client.receive(packet)
+        return packet.data.copyOf(packet.length)
+    }
+
+    private class TestSession : IceLiteServer.Session {
+        override val localUfrag = "local"
+        override val localPassword = "0123456789abcdefghijklmnop"
+        override val remoteUfrag = "remote"
+
+        val checks = LinkedBlockingQueue<Pair<InetSocketAddress, Boolean>>()
+        val data = LinkedBlockingQueue<ByteArray>()
+
+        override fun checkReceived(remoteAddress: InetSocketAddress, selected: Boolean, time: Instant) {
+            checks.add(Pair(remoteAddress, selected))
+        }
+
+        override fun dataReceived(data: ByteArray, offset: Int, length: Int, time: Instant) {
+            this.data.add(data.copyOfRange(offset, offset + length))
+        }
+    }
+}
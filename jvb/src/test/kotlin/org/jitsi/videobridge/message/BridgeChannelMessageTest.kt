@@ -18,6 +18,7 @@ package org.jitsi.videobridge.message
 import com.fasterxml.jackson.core.JsonProcessingException
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.exc.InvalidTypeIdException
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
 import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
 import com.fasterxml.jackson.module.kotlin.readValue
 import io.kotest.assertions.throwables.shouldThrow
@@ -27,6 +28,7 @@ import io.kotest.matchers.nulls.shouldNotBeNull
 import io.kotest.matchers.shouldBe
 import io.kotest.matchers.string.shouldNotInclude
 import io.kotest.matchers.types.shouldBeInstanceOf
+import org.jitsi.videobridge.cc.allocation.SsrcSlot
 import org.jitsi.videobridge.cc.allocation.VideoConstraints
 import org.jitsi.videobridge.message.BridgeChannelMessage.Companion.parse
 import org.jitsi.videobridge.util.VideoType
@@ -117,8 +119,10 @@ class BridgeChannelMessageTest : ShouldSpec() {
             parsed.otherFields["other_field1"] shouldBe "other_value1"
             parsed.otherFields["other_field2"] shouldBe 97
 
+            endpointsMessage.toJsonBytes() shouldBe json.toByteArray()
             endpointsMessage.from = "new"
             (parse(endpointsMessage.toJson()) as EndpointMessage).from shouldBe "new"
+            String(endpointsMessage.toJsonBytes()) shouldBe endpointsMessage.toJson()
 
             context("parsing") {
                 val parsed2 = parse(ENDPOINT_MESSAGE)
@@ -130,6 +134,38 @@ class BridgeChannelMessageTest : ShouldSpec() {
             }
         }
 
+        context("relaying an EndpointMessage without deserializing it") {
+            val json = """
+                {"colibriClass":"EndpointMessage","to":"","payload":{"nested":["a",1]},"other":"x\"y"}
+            """.trimIndent()
+            val parsed = parse(json)
+            parsed.shouldBeInstanceOf<EndpointMessage>()
+            parsed as EndpointMessage
+            parsed.isBroadcast() shouldBe true
+
+            parsed.from = "sender"
+            parsed.toJson() shouldBe """{"from":"sender",${json.substring(1)}"""
+
+            val relayed = parse(parsed.toJson())
+            relayed as EndpointMessage
+            relayed.from shouldBe "sender"
+            relayed.otherFields["other"] shouldBe "x\"y"
+            relayed.otherFields["payload"] shouldBe mapOf("nested" to listOf("a", 1))
+
+            // The custom fields are still available.
+            parsed.otherFields["other"] shouldBe "x\"y"
+            parsed.otherFields.keys shouldBe setOf("payload", "other")
+            val cbor = parsed.toCbor()
+            (parse(cbor, 0, cbor.size) as EndpointMessage).otherFields["other"] shouldBe "x\"y"
+
+            context("with a spoofed from") {
+                val spoofed = parse("""{"colibriClass":"EndpointMessage","to":"","from":"spoofed"}""")
+                spoofed as EndpointMessage
+                spoofed.from = "sender"
+                (parse(spoofed.toJson()) as EndpointMessage).from shouldBe "sender"
+            }
+        }
+
         context("serializing and parsing DominantSpeakerMessage") {
             val previousSpeakers = listOf("p1", "p2")
             val original = DominantSpeakerMessage("d", previousSpeakers)
@@ -163,6 +199,79 @@ class BridgeChannelMessageTest : ShouldSpec() {
 
             val parsed = parse(ClientHelloMessage().toJson())
             parsed.shouldBeInstanceOf<ClientHelloMessage>()
+            parsed as ClientHelloMessage
+            parsed.supports(ClientHelloMessage.AGGREGATED_ENDPOINT_STATS) shouldBe false
+
+            context("with capabilities") {
+                val parsed2 = parse(
+                    """{"colibriClass": "ClientHello", "capabilities": [ "aggregated-endpoint-stats", "other" ] }"""
+                )
+                parsed2.shouldBeInstanceOf<ClientHelloMessage>()
+                parsed2 as ClientHelloMessage
+                parsed2.supports(ClientHelloMessage.AGGREGATED_ENDPOINT_STATS) shouldBe true
+            }
+        }
+
+        context("serializing and parsing ServerHello with capabilities") {
+            val message = ServerHelloMessage(null, setOf(ClientHelloMessage.BINARY_ENCODING))
+
+            val parsed = parse(message.toJson())
+            parsed.shouldBeInstanceOf<ServerHelloMessage>()
+            parsed as ServerHelloMessage
+            parsed.version shouldBe null
+            parsed.capabilities shouldBe setOf(ClientHelloMessage.BINARY_ENCODING)
+        }
+
+        context("serializing and parsing in the binary encoding") {
+            val endpointMessage = EndpointMessage("to_value").apply {
+                put("other_field1", "other_value1")
+                put("other_field2", 97)
+            }
+            val cbor = endpointMessage.toCbor()
+            val parsed = parse(cbor, 0, cbor.size)
+            parsed.shouldBeInstanceOf<EndpointMessage>()
+            parsed as EndpointMessage
+            parsed.to shouldBe "to_value"
+            parsed.otherFields["other_field1"] shouldBe "other_value1"
+            parsed.otherFields["other_field2"] shouldBe 97
+
+            val forwardedEndpoints = ForwardedEndpointsMessage(setOf("a", "b"))
+            val padded = byteArrayOf(1, 2) + forwardedEndpoints.toCbor()
+            val parsed2 = parse(padded, 2, padded.size - 2)
+            parsed2.shouldBeInstanceOf<ForwardedEndpointsMessage>()
+            parsed2 as ForwardedEndpointsMessage
+            parsed2.forwardedEndpoints shouldContainExactly setOf("a", "b")
+        }
+
+        context("serializing batches of messages") {
+            val messages = listOf(DominantSpeakerMessage("a"), ForwardedEndpointsMessage(setOf("a", "b")))
+
+            val json = JSONParser().parse(BridgeChannelMessage.batchToJson(messages))
+            json.shouldBeInstanceOf<JSONArray>()
+            json as JSONArray
+            json.size shouldBe 2
+            parse(json[0].toString()).shouldBeInstanceOf<DominantSpeakerMessage>()
+            parse(json[1].toString()).shouldBeInstanceOf<ForwardedEndpointsMessage>()
+
+            val cbor = ObjectMapper(CBORFactory()).readTree(BridgeChannelMessage.batchToCbor(messages))
+            cbor.isArray shouldBe true
+            cbor.size() shouldBe 2
+            parse(cbor[0].toString()).shouldBeInstanceOf<DominantSpeakerMessage>()
+            val parsed = parse(cbor[1].toString())
+            parsed.shouldBeInstanceOf<ForwardedEndpointsMessage>()
+            parsed as ForwardedEndpointsMessage
+            parsed.forwardedEndpoints shouldContainExactly setOf("a", "b")
+        }
+
+        context("serializing and parsing AggregatedEndpointStats") {
+            val endpointStats = EndpointStats().apply { put("bitrate", mapOf("download" to 1000)) }
+            val original = AggregatedEndpointStatsMessage(mapOf("abcdabcd" to endpointStats.otherFields))
+
+            val parsed = parse(original.toJson())
+            parsed.shouldBeInstanceOf<AggregatedEndpointStatsMessage>()
+            parsed as AggregatedEndpointStatsMessage
+            parsed.stats.keys shouldBe setOf("abcdabcd")
+            parsed.stats["abcdabcd"]!!["bitrate"] shouldBe mapOf("download" to 1000)
         }
 
         context("serializing and parsing EndpointConnectionStatusMessage") {
@@ -257,6 +366,15 @@ class BridgeChannelMessageTest : ShouldSpec() {
             }
         }
 
+        context("serializing and parsing VideoSsrcSlots") {
+            val original = VideoSsrcSlotsMessage(listOf(SsrcSlot(1234, "e1", 5678), SsrcSlot(4321, null, -1)))
+            parse(original.toJson()).apply {
+                shouldBeInstanceOf<VideoSsrcSlotsMessage>()
+                this as VideoSsrcSlotsMessage
+                slots shouldBe original.slots
+            }
+        }
+
         context("Parsing ReceiverVideoConstraints") {
             context("With all fields present") {
                 val parsed = parse(RECEIVER_VIDEO_CONSTRAINTS)
@@ -287,6 +405,29 @@ class BridgeChannelMessageTest : ShouldSpec() {
             }
         }
 
+        xcontext("JSON vs binary encoding performance") {
+            val times = 1_000_000
+            val message = parse(RECEIVER_VIDEO_CONSTRAINTS)
+            val json = message.toJson()
+            val cbor = message.toCbor()
+
+            fun runTest(f: () -> Unit): Long {
+                val start = System.currentTimeMillis()
+                for (i in 0..times) {
+                    f()
+                }
+                return System.currentTimeMillis() - start
+            }
+
+            System.err.println("Times=$times")
+            System.err.println("Size: JSON=${json.toByteArray().size} CBOR=${cbor.size}")
+            System.err.println("Parse JSON: ${runTest { parse(json) }}")
+            System.err.println("Parse CBOR: ${runTest { parse(cbor, 0, cbor.size) }}")
+            // The serialized form is cached, so parse a new message every time.
+            System.err.println("Parse and serialize JSON: ${runTest { parse(json).toJson() }}")
+            System.err.println("Parse and serialize CBOR: ${runTest { parse(cbor, 0, cbor.size).toCbor() }}")
+        }
+
         xcontext("Serializing performance") {
             val times = 1_000_000
 
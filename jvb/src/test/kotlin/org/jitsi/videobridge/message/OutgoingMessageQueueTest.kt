@@ -0,0 +1,143 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.message
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.shouldBe
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.slot
+import org.jitsi.utils.logging2.LoggerImpl
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+
+class OutgoingMessageQueueTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    private var congested = false
+    private val sent = mutableListOf<BridgeChannelMessage>()
+    private val batches = mutableListOf<Int>()
+    private var batchSize = 1
+
+    private val retry = slot<Runnable>()
+    private val scheduler: ScheduledExecutorService = mockk {
+        every { schedule(capture(retry), any(), any()) } returns mockk<ScheduledFuture<*>>()
+    }
+
+    private val queue = OutgoingMessageQueue(
+        object : OutgoingMessageQueue.Sender {
+            override fun send(messages: List<BridgeChannelMessage>) = if (congested) {
+                OutgoingMessageQueue.SendResult.CONGESTED
+            } else {
+                batches.add(messages.size)
+                sent.addAll(messages)
+                OutgoingMessageQueue.SendResult.SENT
+            }
+            override val maxBatchSize: Int
+                get() = batchSize
+            override val batchDelayMs = 0L
+        },
+        LoggerImpl("test"),
+        4,
+        Executor { it.run() },
+        scheduler
+    )
+
+    init {
+        context("When the transport is not congested") {
+            should("send the messages right away") {
+                val message = ForwardedEndpointsMessage(listOf("a"))
+                queue.add(message)
+                sent shouldContainExactly listOf(message)
+            }
+        }
+        context("When the transport is congested") {
+            congested = true
+            val forwarded1 = ForwardedEndpointsMessage(listOf("a"))
+            queue.add(forwarded1)
+            retry.isCaptured shouldBe true
+
+            val endpointMessage = EndpointMessage("a")
+            val stats = EndpointStats().apply { from = "b" }
+            val forwarded2 = ForwardedEndpointsMessage(listOf("a", "b"))
+            val forwarded3 = ForwardedEndpointsMessage(listOf("b"))
+            queue.add(stats)
+            queue.add(endpointMessage)
+            queue.add(forwarded2)
+            queue.add(forwarded3)
+
+            should("conflate and prioritize the queued messages") {
+                congested = false
+                retry.captured.run()
+                sent shouldContainExactly listOf(forwarded3, endpointMessage, stats)
+            }
+            should("send the queued messages in batches") {
+                batchSize = 2
+                congested = false
+                retry.captured.run()
+                sent shouldContainExactly listOf(forwarded3, endpointMessage, stats)
+                batches shouldContainExactly listOf(2, 1)
+            }
+            should("drop the lowest priority messages when full") {
+                val dominantSpeaker = DominantSpeakerMessage("c")
+                val endpointMessage2 = EndpointMessage("b")
+                queue.add(dominantSpeaker)
+                queue.add(endpointMessage2)
+
+                congested = false
+                retry.captured.run()
+                sent shouldContainExactly listOf(forwarded3, dominantSpeaker, endpointMessage, endpointMessage2)
+                queue.getDebugState()["num_dropped"] shouldBe 1L
+            }
+            should("merge the queued aggregated stats of different senders") {
+                queue.add(aggregatedStats("a" to 1, "b" to 2))
+                queue.add(aggregatedStats("a" to 3, "c" to 4))
+
+                congested = false
+                retry.captured.run()
+                val aggregated = sent.filterIsInstance<AggregatedEndpointStatsMessage>()
+                aggregated.size shouldBe 1
+                aggregated[0].stats shouldBe mapOf(
+                    "a" to mapOf("bitrate" to 3),
+                    "b" to mapOf("bitrate" to 2),
+                    "c" to mapOf("bitrate" to 4)
+                )
+            }
+        }
+        context("When the queue is full of messages which can't be dropped") {
+            congested = true
+            val endpointMessages = (1..4).map { EndpointMessage("$it") }
+            endpointMessages.forEach { queue.add(it) }
+            queue.add(EndpointMessage("5"))
+            queue.add(EndpointStats().apply { from = "b" })
+
+            should("drop the new messages, and count the non-conflatable ones separately") {
+                congested = false
+                retry.captured.run()
+                sent shouldContainExactly endpointMessages
+                queue.getDebugState()["num_dropped_non_conflatable"] shouldBe 1L
+                queue.getDebugState()["num_dropped"] shouldBe 1L
+            }
+        }
+    }
+
+    private fun aggregatedStats(vararg bitrates: Pair<String, Int>) =
+        AggregatedEndpointStatsMessage(bitrates.associate { (id, bitrate) -> id to mapOf("bitrate" to bitrate) })
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.sctp
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.shouldBe
+import io.mockk.every
+import io.mockk.mockk
+import org.jitsi.test.time.FakeClock
+import org.jitsi.utils.logging2.LoggerImpl
+import org.jitsi.utils.secs
+import org.jitsi_modified.sctp4j.SctpDataCallback
+import org.jitsi_modified.sctp4j.SctpDataSender
+import org.jitsi_modified.sctp4j.SctpSocket
+import java.nio.ByteBuffer
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+
+class JvmSctpAssociationTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    private val clock = FakeClock()
+
+    /** The timers scheduled by both sides, in order. A timer which was stopped does nothing when it's run. */
+    private val timers = mutableListOf<Runnable>()
+    private val scheduler: ScheduledExecutorService = mockk {
+        every { schedule(any<Runnable>(), any(), any()) } answers {
+            timers.add(firstArg())
+            mockk<ScheduledFuture<*>>(relaxed = true)
+        }
+    }
+
+    /** The packets in flight, with the side which will receive them. */
+    private val network = ArrayDeque<Pair<Peer, ByteArray>>()
+    /** Whether to drop the packets sent to the server. */
+    private var dropToServer = false
+
+    private val client = Peer("client")
+    private val server = Peer("server")
+
+    init {
+        server.association.listen()
+
+        context("Connecting") {
+            client.association.connect()
+            deliverAll()
+            should("establish the association on both sides") {
+                client.association.accept() shouldBe true
+                server.association.accept() shouldBe true
+                client.numReady shouldBe 1
+                server.numReady shouldBe 1
+            }
+            context("and sending messages") {
+                val large = ByteArray(5000) { it.toByte() }
+                client.send("first".toByteArray(), sid = 1)
+                client.send(large, sid = 1, ppid = 53)
+                server.send("reply".toByteArray(), sid = 1)
+                deliverAll()
+                should("deliver them in order, reassembling the fragmented ones") {
+                    server.received.map { it.sid } shouldContainExactly listOf(1, 1)
+                    server.received[0].data.decodeToString() shouldBe "first"
+                    server.received[1].data.contentEquals(large) shouldBe true
+                    server.received[1].ppid shouldBe 53L
+                    client.received.map { it.data.decodeToString() } shouldContainExactly listOf("reply")
+                }
+                should("not retransmit anything") {
+                    client.association.getDebugState()["retransmissions"] shouldBe 0L
+                    client.association.getDebugState()["bytes_in_flight"] shouldBe 0
+                }
+            }
+            context("and sending the remaining bytes of a buffer") {
+                val buffer = ByteBuffer.wrap("__message__".toByteArray(), 1, 10).slice()
+                buffer.position(1)
+                buffer.limit(8)
+                client.association.send(buffer, true, 1, 51) shouldBe 7
+                deliverAll()
+                should("send only the bytes between its position and limit") {
+                    server.received.map { it.data.decodeToString() } shouldContainExactly listOf("message")
+                }
+            }
+            context("and the receive window fills up") {
+                // Learn the server's verification tag and the next TSN from a DATA packet sent by the client.
+                client.send("probe".toByteArray(), sid = 1)
+                val probe = network.removeLast().second
+                val serverTag = SctpPackets.verificationTag(probe, 0)
+                var tsn = 0
+                SctpPackets.parse(probe, 0, probe.size) {
+                    if (it.type == SctpPackets.DATA) {
+                        tsn = it.value().int
+                    }
+                }
+                deliverAll()
+
+                // Messages in progress on 5 streams, with 60000 bytes in each fragment: 1020000 bytes in total.
+                val fragment = 60_000
+                for (sid in 1..4) {
+                    server.receiveData(serverTag, ++tsn, sid, SctpPackets.FLAG_BEGIN, fragment)
+                    repeat(3) { server.receiveData(serverTag, ++tsn, sid, 0, fragment) }
+                }
+                server.receiveData(serverTag, ++tsn, 5, SctpPackets.FLAG_BEGIN, fragment)
+                should("count the partial messages in the advertised window") {
+                    val (cumulativeTsn, window) = lastSack()
+                    cumulativeTsn shouldBe tsn
+                    window shouldBe 1024 * 1024 - 17 * fragment
+                }
+                context("and a chunk arrives after a gap") {
+                    server.receiveData(serverTag, tsn + 2, 5, 0, fragment)
+                    should("not accept it") {
+                        server.association.getDebugState()["buffered_bytes"] shouldBe 17 * fragment
+                    }
+                    context("and then the next chunk in sequence arrives") {
+                        server.receiveData(serverTag, tsn + 1, 5, SctpPackets.FLAG_END, fragment)
+                        should("accept it even though the window is full") {
+                            lastSack().first shouldBe tsn + 1
+                            server.received.map { it.sid } shouldContainExactly listOf(1, 5)
+                            server.received[1].data.size shouldBe 2 * fragment
+                            server.association.getDebugState()["buffered_bytes"] shouldBe 16 * fragment
+                        }
+                    }
+                }
+            }
+            context("and receiving a SACK with invalid gap blocks") {
+                // Learn the client's verification tag from a packet sent to it.
+                server.send("reply".toByteArray(), sid = 1)
+                val clientTag = SctpPackets.verificationTag(network.removeLast().second, 0)
+
+                val tsns = mutableListOf<Int>()
+                repeat(3) { client.send("m$it".toByteArray(), sid = 1) }
+                network.forEach { (_, packet) ->
+                    SctpPackets.parse(packet, 0, packet.size) {
+                        if (it.type == SctpPackets.DATA) {
+                            tsns.add(it.value().int)
+                        }
+                    }
+                }
+                network.clear()
+                val bytesInFlight = client.association.getDebugState()["bytes_in_flight"] as Int
+
+                // Relative to the cumulative ACK, the messages are at offsets 1 to 3. Only the first block is valid,
+                // the second is empty and the third goes past the last TSN that was sent.
+                client.receiveSack(clientTag, tsns[0] - 1, 2 to 2, 3 to 1, 3 to 0xffff)
+                should("only use the valid blocks") {
+                    tsns.size shouldBe 3
+                    client.association.getDebugState()["bytes_in_flight"] shouldBe bytesInFlight / 3 * 2
+                    client.association.getDebugState()["num_outstanding"] shouldBe 3
+                }
+            }
+            context("and a packet is lost") {
+                dropToServer = true
+                client.send("lost".toByteArray(), sid = 1)
+                dropToServer = false
+                client.send("unordered".toByteArray(), sid = 2, ordered = false)
+                client.send("ordered".toByteArray(), sid = 1)
+                deliverAll()
+                should("deliver the unordered message, and hold the ordered one") {
+                    server.received.map { it.data.decodeToString() } shouldContainExactly listOf("unordered")
+                    server.received[0].flags shouldBe JvmSctpAssociation.SCTP_UNORDERED
+                }
+                context("and the retransmission timer expires") {
+                    clock.elapse(1.secs)
+                    timers.last().run()
+                    deliverAll()
+                    should("retransmit it and deliver the ordered messages in order") {
+                        server.received.map { it.data.decodeToString() } shouldContainExactly
+                            listOf("unordered", "lost", "ordered")
+                        client.association.getDebugState()["retransmissions"] shouldBe 1L
+                    }
+                }
+            }
+            context("and a packet is corrupted") {
+                client.send("corrupted".toByteArray(), sid = 1)
+                val packet = network.removeLast().second
+                packet[packet.size - 1] = (packet[packet.size - 1] + 1).toByte()
+                server.association.onConnIn(packet, 0, packet.size)
+                should("drop it") {
+                    server.received.shouldBeEmpty()
+                    server.association.getDebugState()["packets_dropped"] shouldBe 1L
+                }
+            }
+            context("and the peer stops responding") {
+                dropToServer = true
+                client.send("lost".toByteArray(), sid = 1)
+                repeat(11) {
+                    timers.last().run()
+                    network.clear()
+                }
+                should("close the association") {
+                    client.numDisconnected shouldBe 1
+                    client.association.accept() shouldBe false
+                    client.send("after".toByteArray(), sid = 1) shouldBe -1
+                }
+            }
+            context("and the peer closes the association") {
+                server.association.close()
+                deliverAll()
+                should("notify the other side") {
+                    client.numDisconnected shouldBe 1
+                    client.association.accept() shouldBe false
+                }
+            }
+        }
+        context("Receiving an INIT with optional parameters") {
+            // An INIT which asks for the Forward-TSN-Supported parameter (type 0xc000) to be reported.
+            val init = SctpPackets.chunk(
+                SctpPackets.INIT,
+                0,
+                ByteBuffer.allocate(20).apply {
+                    putInt(1234)
+                    putInt(100_000)
+                    putShort(1024)
+                    putShort(1024)
+                    putInt(1)
+                    putShort(0xc000.toShort())
+                    putShort(4)
+                }.array()
+            )
+            val packet = SctpPackets.packet(5000, 5000, 0, listOf(init))
+            server.association.onConnIn(packet, 0, packet.size)
+            should("report them as unrecognized in the INIT ACK") {
+                val initAck = network.removeFirst().second
+                var unrecognized: ByteArray? = null
+                SctpPackets.parse(initAck, 0, initAck.size) {
+                    it.type shouldBe SctpPackets.INIT_ACK
+                    val value = it.copyValue()
+                    val cookieLength = SctpPackets.readShort(value, 18)
+                    val offset = 16 + SctpPackets.padded(cookieLength)
+                    unrecognized = value.copyOfRange(offset, value.size)
+                } shouldBe true
+                SctpPackets.verificationTag(initAck, 0) shouldBe 1234
+                unrecognized!!.toList() shouldContainExactly listOf<Byte>(0, 8, 0, 8, 0xc0.toByte(), 0, 0, 4)
+            }
+        }
+    }
+
+    private fun deliverAll() {
+        while (network.isNotEmpty()) {
+            val (peer, packet) = network.removeFirst()
+            peer.association.onConnIn(packet, 0, packet.size)
+        }
+    }
+
+    /**
+     * Gets the cumulative TSN ACK and the advertised receive window of the last SACK sent to the client.
+     */
+    private fun lastSack(): Pair<Int, Int> {
+        val packet = network.last { it.first === client }.second
+        var sack: Pair<Int, Int>? = null
+        SctpPackets.parse(packet, 0, packet.size) {
+            if (it.type == SctpPackets.SACK) {
+                val value = it.value()
+                sack = Pair(value.int, value.int)
+            }
+        }
+        return sack!!
+    }
+
+    private class Message(val data: ByteArray, val sid: Int, val ppid: Long, val flags: Int)
+
+    private inner class Peer(name: String) {
+        var numReady = 0
+        var numDisconnected = 0
+        val received = mutableListOf<Message>()
+
+        val association = JvmSctpAssociation(
+            SctpDataSender { data, offset, length ->
+                val destination = if (this === client) server else client
+                if (destination !== server || !dropToServer) {
+                    network.add(Pair(destination, data.copyOfRange(offset, offset + length)))
+                }
+                0
+            },
+            LoggerImpl(name),
+            scheduler,
+            clock
+        ).apply {
+            eventHandler = object : SctpSocket.SctpSocketEventHandler {
+                override fun onReady() {
+                    numReady++
+                }
+
+                override fun onDisconnected() {
+                    numDisconnected++
+                }
+            }
+            dataCallback = SctpDataCallback { data, sid, _, _, ppid, _, flags ->
+                received.add(Message(data, sid, ppid, flags))
+            }
+        }
+
+        fun send(data: ByteArray, sid: Int, ppid: Int = 51, ordered: Boolean = true) =
+            association.send(ByteBuffer.wrap(data), ordered, sid, ppid)
+
+        /**
+         * Receives a SACK crafted by the test, with the given gap blocks (as offsets from [cumulativeAck]).
+         */
+        fun receiveSack(verificationTag: Int, cumulativeAck: Int, vararg gaps: Pair<Int, Int>) {
+            val value = ByteBuffer.allocate(12 + 4 * gaps.size).apply {
+                putInt(cumulativeAck)
+                putInt(1024 * 1024)
+                putShort(gaps.size.toShort())
+                putShort(0)
+                gaps.forEach { (start, end) ->
+                    putShort(start.toShort())
+                    putShort(end.toShort())
+                }
+            }.array()
+            val chunk = SctpPackets.chunk(SctpPackets.SACK, 0, value)
+            val packet = SctpPackets.packet(5000, 5000, verificationTag, listOf(chunk))
+            association.onConnIn(packet, 0, packet.size)
+        }
+
+        /**
+         * Receives a DATA chunk crafted by the test, with a payload of [length] bytes.
+         */
+        fun receiveData(verificationTag: Int, tsn: Int, sid: Int, flags: Int, length: Int) {
+            val chunk = SctpPackets.dataChunk(flags, tsn, sid, 0, 51, ByteArray(length), 0, length)
+            val packet = SctpPackets.packet(5000, 5000, verificationTag, listOf(chunk))
+            association.onConnIn(packet, 0, packet.size)
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.sctp
+
+import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.shouldBe
+import org.jitsi.ConfigTest
+import org.jitsi.nlj.PacketInfo
+import org.jitsi.rtp.UnparsedPacket
+import org.jitsi.utils.logging2.LoggerImpl
+import org.jitsi.videobridge.util.ByteBufferPool
+import org.jitsi_modified.sctp4j.SctpDataCallback
+import org.jitsi_modified.sctp4j.SctpDataSender
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Tests that the buffers [SctpManager] passes to its [SctpDataSender] without copying them are only borrowed: the
+ * sender (like DTLS, which encrypts the data into a new record) consumes them before returning, so the callers may
+ * change them afterwards without affecting what is delivered.
+ */
+class SctpManagerTest : ConfigTest() {
+    /** The "records" sent by the bridge, which the client receives. */
+    private val toClient = ConcurrentLinkedQueue<ByteArray>()
+    private val toBridge = ConcurrentLinkedQueue<ByteArray>()
+
+    /** The buffers lent to the bridge's sender. */
+    private val lentBuffers = ConcurrentLinkedQueue<ByteArray>()
+
+    private val received = mutableListOf<String>()
+
+    private val client = JvmSctpAssociation(
+        SctpDataSender { data, offset, length ->
+            toBridge.add(data.copyOfRange(offset, offset + length))
+            0
+        },
+        LoggerImpl("client")
+    ).apply {
+        dataCallback = SctpDataCallback { data, _, _, _, _, _, _ -> received.add(data.decodeToString()) }
+    }
+
+    init {
+        context("Sending through an SctpManager") {
+            withNewConfig("videobridge.sctp.implementation = jvm", true) {
+                val sctpManager = SctpManager(
+                    { data, offset, length ->
+                        lentBuffers.add(data)
+                        toClient.add(data.copyOfRange(offset, offset + length))
+                        0
+                    },
+                    LoggerImpl("bridge")
+                )
+                val connection = sctpManager.createServerSocket()
+                connection.listen()
+                client.connect()
+                deliverAll(sctpManager)
+
+                val message = "message".toByteArray()
+                connection.send(ByteBuffer.wrap(message), true, 1, 51)
+                // Both the application's buffer and the ones lent to the sender are reused once send returns.
+                message.fill('x'.code.toByte())
+                lentBuffers.forEach { it.fill(0) }
+                deliverAll(sctpManager)
+
+                should("deliver the data as it was when it was sent") {
+                    connection.accept() shouldBe true
+                    received shouldContainExactly listOf("message")
+                }
+                sctpManager.closeConnection()
+                client.close()
+            }
+        }
+    }
+
+    private fun deliverAll(sctpManager: SctpManager) {
+        while (toClient.isNotEmpty() || toBridge.isNotEmpty()) {
+            toClient.poll()?.let { client.onConnIn(it, 0, it.size) }
+            toBridge.poll()?.let {
+                val buffer = ByteBufferPool.getBuffer(it.size)
+                System.arraycopy(it, 0, buffer, 0, it.size)
+                sctpManager.handleIncomingSctp(PacketInfo(UnparsedPacket(buffer, 0, it.size)))
+            }
+        }
+    }
+}
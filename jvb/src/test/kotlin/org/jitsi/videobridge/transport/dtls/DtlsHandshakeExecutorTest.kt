@@ -0,0 +1,124 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.transport.dtls
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.core.test.TestCase
+import io.kotest.core.test.TestResult
+import io.kotest.matchers.shouldBe
+import io.mockk.spyk
+import org.jitsi.test.concurrent.FakeScheduledExecutorService
+import org.jitsi.utils.logging2.LoggerImpl
+import org.jitsi.utils.secs
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class DtlsHandshakeExecutorTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    private val scheduler: FakeScheduledExecutorService = spyk()
+    private val clock = scheduler.clock
+    private val logger = LoggerImpl("test")
+    private val executor = DtlsHandshakeExecutor(1, 2, 20.secs, 5.secs, clock, scheduler)
+
+    /** Holds the only slot of the executor until it's released, or until the slot times out. */
+    private val release = CountDownLatch(1)
+    private val started = CountDownLatch(1)
+
+    init {
+        val blocker = Runnable {
+            started.countDown()
+            release.await()
+        }
+        executor.submit(blocker, logger) shouldBe true
+        started.await(2, TimeUnit.SECONDS) shouldBe true
+
+        context("Submitting handshakes while the thread is busy") {
+            val numRun = AtomicInteger()
+            val done = CountDownLatch(2)
+            repeat(2) {
+                val handshake = Runnable {
+                    numRun.incrementAndGet()
+                    done.countDown()
+                }
+                executor.submit(handshake, logger) shouldBe true
+            }
+            should("queue them") {
+                executor.getStatsJson()["num_waiting"] shouldBe 2
+                numRun.get() shouldBe 0
+            }
+            should("reject the ones which don't fit in the queue") {
+                executor.submit(Runnable { numRun.incrementAndGet() }, logger) shouldBe false
+                executor.getStatsJson()["num_rejected"] shouldBe 1L
+            }
+            context("and the thread becomes available") {
+                release.countDown()
+                done.await(2, TimeUnit.SECONDS) shouldBe true
+                should("run them") {
+                    numRun.get() shouldBe 2
+                }
+            }
+        }
+        context("A handshake which waited for too long") {
+            val numRun = AtomicInteger()
+            val numTimedOut = AtomicInteger()
+            val done = CountDownLatch(1)
+            val submitted = executor.submit(Runnable { numRun.incrementAndGet() }, logger) {
+                numTimedOut.incrementAndGet()
+            }
+            submitted shouldBe true
+            clock.elapse(30.secs)
+            executor.submit(Runnable { done.countDown() }, logger) shouldBe true
+            release.countDown()
+            done.await(2, TimeUnit.SECONDS) shouldBe true
+            should("be dropped, and reported") {
+                numRun.get() shouldBe 0
+                numTimedOut.get() shouldBe 1
+                executor.getStatsJson()["num_timed_out"] shouldBe 1L
+            }
+        }
+        context("Handshakes which never complete") {
+            // A second one, which waits behind the first.
+            executor.submit(blocker, logger) shouldBe true
+            val numRun = AtomicInteger()
+            val done = CountDownLatch(1)
+            val handshake = Runnable {
+                numRun.incrementAndGet()
+                done.countDown()
+            }
+            executor.submit(handshake, logger) shouldBe true
+            should("not hold their slot past the slot timeout") {
+                clock.elapse(5.secs)
+                scheduler.runOne()
+                numRun.get() shouldBe 0
+                clock.elapse(5.secs)
+                scheduler.runOne()
+                done.await(2, TimeUnit.SECONDS) shouldBe true
+                numRun.get() shouldBe 1
+                executor.getStatsJson()["num_slot_timed_out"] shouldBe 2L
+                executor.getStatsJson()["num_timed_out"] shouldBe 0L
+            }
+        }
+    }
+
+    override fun afterTest(testCase: TestCase, result: TestResult) {
+        release.countDown()
+        executor.shutdown()
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.util
+
+import io.kotest.core.spec.Spec
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class ShardedSchedulerTest : ShouldSpec() {
+    private val scheduler = ShardedScheduler("test-scheduler", 2)
+
+    init {
+        context("ShardedScheduler") {
+            should("spread the tasks over the shards") {
+                val threads = Collections.synchronizedSet(mutableSetOf<String>())
+                val latch = CountDownLatch(4)
+                val futures = (1..4).map {
+                    scheduler.schedule(
+                        Runnable {
+                            threads.add(Thread.currentThread().name)
+                            latch.countDown()
+                        },
+                        10
+                    )
+                }
+
+                latch.await(5, TimeUnit.SECONDS) shouldBe true
+                futures.forEach { it.cancel(false) }
+                threads.size shouldBe 2
+            }
+            should("keep running a task which throws") {
+                val latch = CountDownLatch(3)
+                val future = scheduler.schedule(
+                    Runnable {
+                        latch.countDown()
+                        throw RuntimeException("Expected")
+                    },
+                    10
+                )
+
+                latch.await(5, TimeUnit.SECONDS) shouldBe true
+                future.cancel(false)
+            }
+        }
+    }
+
+    override fun afterSpec(spec: Spec) {
+        scheduler.shutdown()
+    }
+}
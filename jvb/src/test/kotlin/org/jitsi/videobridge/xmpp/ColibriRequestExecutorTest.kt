@@ -0,0 +1,134 @@
+/*
+ * Copyright @ 2021 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.videobridge.xmpp
+
+import io.kotest.core.spec.IsolationMode
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.core.test.TestCase
+import io.kotest.core.test.TestResult
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import org.jitsi.nlj.stats.DelayStats
+import org.jitsi.test.time.FakeClock
+import org.jitsi.utils.logging2.LoggerImpl
+import org.jitsi.utils.secs
+import org.jitsi.xmpp.extensions.colibri.ColibriConferenceIQ
+import org.jivesoftware.smack.packet.ErrorIQ
+import org.jivesoftware.smack.packet.IQ
+import org.jivesoftware.smack.packet.XMPPError
+
+class ColibriRequestExecutorTest : ShouldSpec() {
+    override fun isolationMode() = IsolationMode.InstancePerLeaf
+
+    private val clock = FakeClock()
+    private val logger = LoggerImpl("test")
+    private val executor = ColibriRequestExecutor(1, 2, 15.secs, clock)
+
+    private val responses = mutableListOf<IQ>()
+
+    private fun createRequest(iq: ColibriConferenceIQ = updateIq()) = XmppConnection.ColibriRequest(
+        iq,
+        DelayStats(longArrayOf(5, 50)),
+        DelayStats(longArrayOf(5, 50)),
+        clock.millis()
+    ) { responses.add(it) }
+
+    private val result: (ColibriConferenceIQ) -> IQ = { ColibriConferenceIQ() }
+
+    init {
+        context("Admitting requests") {
+            val requests = List(3) { createRequest() }
+            val admitted = requests.map { executor.admit(it) }
+            should("reject the ones over the limit") {
+                admitted shouldBe listOf(true, true, false)
+                responses.size shouldBe 1
+                responses[0].shouldBeInstanceOf<ErrorIQ>()
+                (responses[0] as ErrorIQ).error.condition shouldBe XMPPError.Condition.resource_constraint
+                executor.getStatsJson()["num_rejected"] shouldBe 1L
+            }
+            context("and processing them") {
+                requests.take(2).forEach { executor.process(it, logger, result) }
+                should("admit new ones") {
+                    responses.size shouldBe 3
+                    executor.getStatsJson()["num_pending"] shouldBe 0
+                    executor.admit(createRequest()) shouldBe true
+                }
+            }
+        }
+        context("A request which waited for too long") {
+            val request = createRequest()
+            executor.admit(request)
+            clock.elapse(20.secs)
+            var processed = false
+            executor.process(request, logger) {
+                processed = true
+                ColibriConferenceIQ()
+            }
+            should("be answered with an error without being processed") {
+                processed shouldBe false
+                responses.single().shouldBeInstanceOf<ErrorIQ>()
+                executor.getStatsJson()["num_timed_out"] shouldBe 1L
+                executor.getStatsJson()["num_pending"] shouldBe 0
+            }
+        }
+        context("Processing requests of different types") {
+            listOf(ColibriConferenceIQ(), updateIq(), expireIq()).forEach {
+                val request = createRequest(it)
+                executor.admit(request)
+                executor.process(request, logger, result)
+            }
+            should("record the processing time by type") {
+                val stats = executor.getStatsJson()
+                stats["num_processed"] shouldBe 3L
+                listOf("create", "update", "expire").forEach {
+                    stats.containsKey("processing_$it") shouldBe true
+                }
+            }
+        }
+        context("Classifying requests") {
+            should("work") {
+                ColibriRequestType.of(ColibriConferenceIQ()) shouldBe ColibriRequestType.CREATE
+                ColibriRequestType.of(updateIq()) shouldBe ColibriRequestType.UPDATE
+                ColibriRequestType.of(expireIq()) shouldBe ColibriRequestType.EXPIRE
+                ColibriRequestType.of(
+                    updateIq().apply {
+                        getOrCreateContent("audio").addChannel(ColibriConferenceIQ.Channel())
+                    }
+                ) shouldBe ColibriRequestType.CREATE
+            }
+        }
+    }
+
+    override fun afterTest(testCase: TestCase, result: TestResult) {
+        executor.shutdown()
+    }
+}
+
+private fun updateIq() = ColibriConferenceIQ().apply {
+    setID("conference")
+    getOrCreateContent("audio").addChannel(ColibriConferenceIQ.Channel().apply { setID("channel") })
+}
+
+private fun expireIq() = ColibriConferenceIQ().apply {
+    setID("conference")
+    getOrCreateContent("audio").addChannel(
+        ColibriConferenceIQ.Channel().apply {
+            setID("channel")
+            expire = 0
+        }
+    )
+}